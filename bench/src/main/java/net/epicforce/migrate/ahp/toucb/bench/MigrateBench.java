@@ -0,0 +1,504 @@
+package net.epicforce.migrate.ahp.toucb.bench;
+
+/*
+ * MigrateBench.java
+ *
+ * Throughput benchmark for the migration: runs made up workflows (see
+ * SyntheticWorkflow) through the MigrateEngine against a UCB
+ * stand-in, and reports how fast it went, how many UCB requests each
+ * workflow took, and how much heap it needed.  No AHP is needed; a
+ * UCB is only needed to record a trace to start with.
+ *
+ * The usual way to use it:
+ *
+ * 1. Record once against a scratch UCB, at the shape you care about:
+ *
+ *        MigrateBench record http://ucb:8080 bench.trace -n 20 -j 5
+ *
+ * 2. Replay as often as you like, before and after a change, at
+ *    whatever thread count and latency:
+ *
+ *        MigrateBench replay bench.trace -n 20 -j 5 -t 10 -l 1
+ *
+ * Replay the same shape and workflow count you recorded; the names
+ * and IDs have to match the trace.  Requests with no recorded
+ * response show up as missed in the CALLS line, and usually as
+ * FAILED workflows too.
+ *
+ * Output is tab separated lines, like MigrateCli's:
+ *
+ * BENCH     <workflows>  <jobs>  <steps>  <triggers>  <iterations>
+ *           <properties>  <threads>
+ * FAILED    <workflow id>  <error message>
+ * RESULT    <completed>  <failed>  <seconds>
+ * RATE      <workflows a minute>
+ * CALLS     <requests>  <per workflow>  <missed>  <injected>
+ * HEAP      <peak MB>  <MB at the end>
+ * COUNT     <method and URL template>  <requests>
+ * REQUESTS  <requests>  <missed>  <injected>
+ *
+ * Requests include logging in and loading the plugin catalog, which
+ * happen once a run, so per workflow is a touch high for small runs.
+ * Peak heap is the sum of each heap pool's peak since the start, so
+ * it's an upper bound, and includes garbage not yet collected; run
+ * with a fixed -Xmx and compare like with like.
+ *
+ * Exit codes: 0 everything migrated, 1 at least one workflow failed,
+ * 2 bad usage / couldn't start.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.MigrateEngine;
+import net.epicforce.migrate.ahp.toucb.MigrateListener;
+import net.epicforce.migrate.ahp.toucb.MigrateStatus;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbStandIn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MigrateBench implements MigrateListener
+{
+    private final static Logger LOG = LoggerFactory.getLogger(MigrateBench.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILURES = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE =
+        "Usage: java -cp benchmarks.jar " + MigrateBench.class.getName() +
+        " record UCB_URL TRACE [options]\n" +
+        "       java -cp benchmarks.jar " + MigrateBench.class.getName() +
+        " replay TRACE [options]\n" +
+        "\n" +
+        "  -n, --workflows N      workflows to migrate (default 10)\n" +
+        "  -f, --first ID         first workflow ID (default 1)\n" +
+        "  -j, --jobs N           jobs per workflow (default 5)\n" +
+        "  -s, --steps N          steps per job (default 10)\n" +
+        "  -g, --triggers N       triggers per workflow (default 1)\n" +
+        "  -i, --iterations N     iterating jobs per workflow (default 1)\n" +
+        "  -r, --properties N     properties per workflow (default 5)\n" +
+        "  -P, --prefix NAME      start of every name made (default Bench)\n" +
+        "  -t, --threads N|MIN-MAX  UCB load concurrency (default 5)\n" +
+        "  -x, --extract-threads N  extraction concurrency\n" +
+        "  -u, --user NAME        UCB user (default admin)\n" +
+        "  -w, --password PASS    UCB password (default admin)\n" +
+        "\n" +
+        "Replay only:\n" +
+        "  -l, --latency SCALE    wait recorded time times SCALE (default 1)\n" +
+        "  -d, --delay MS         and this much more (default 0)\n" +
+        "  -e, --errors RATE      fail this share of requests, 0 to 1\n" +
+        "  -h, --help             this message\n";
+
+    private final PrintWriter       out;
+
+    /*
+     * Book keeping for the run.
+     */
+    private CountDownLatch          remaining = null;
+    private final AtomicInteger     completed = new AtomicInteger();
+    private final AtomicInteger     failed = new AtomicInteger();
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param out           Where report lines go
+     */
+    public MigrateBench(final PrintWriter out)
+    {
+        this.out = out;
+    }
+
+    /*****************************************************************
+     * MAIN
+     ****************************************************************/
+
+    public static void main(String[] args)
+    {
+        System.exit(run(args));
+    }
+
+    /**
+     * Does everything main does except exit, so it can be driven from
+     * other code.
+     *
+     * @param args          Command line
+     * @return exit code
+     */
+    public static int run(String[] args)
+    {
+        List<String> positional = new ArrayList<>();
+        SyntheticWorkflow shape;
+        String prefix = "Bench";
+        int workflows = 10;
+        long first = 1;
+        int jobs = 5;
+        int steps = 10;
+        int triggers = 1;
+        int iterations = 1;
+        int properties = 5;
+        String threads = "5";
+        String extractThreads = null;
+        String user = "admin";
+        String password = "admin";
+        double scale = 1;
+        long delay = 0;
+        double errors = 0;
+
+        // Parse the command line
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if("-h".equals(arg) || "--help".equals(arg)) {
+                    System.out.print(USAGE);
+                    return EXIT_OK;
+                } else if("-n".equals(arg) || "--workflows".equals(arg)) {
+                    workflows = Integer.parseInt(args[++i]);
+                } else if("-f".equals(arg) || "--first".equals(arg)) {
+                    first = Long.parseLong(args[++i]);
+                } else if("-j".equals(arg) || "--jobs".equals(arg)) {
+                    jobs = Integer.parseInt(args[++i]);
+                } else if("-s".equals(arg) || "--steps".equals(arg)) {
+                    steps = Integer.parseInt(args[++i]);
+                } else if("-g".equals(arg) || "--triggers".equals(arg)) {
+                    triggers = Integer.parseInt(args[++i]);
+                } else if("-i".equals(arg) || "--iterations".equals(arg)) {
+                    iterations = Integer.parseInt(args[++i]);
+                } else if("-r".equals(arg) || "--properties".equals(arg)) {
+                    properties = Integer.parseInt(args[++i]);
+                } else if("-P".equals(arg) || "--prefix".equals(arg)) {
+                    prefix = args[++i];
+                } else if("-t".equals(arg) || "--threads".equals(arg)) {
+                    threads = args[++i];
+                } else if("-x".equals(arg) ||
+                          "--extract-threads".equals(arg)) {
+                    extractThreads = args[++i];
+                } else if("-u".equals(arg) || "--user".equals(arg)) {
+                    user = args[++i];
+                } else if("-w".equals(arg) || "--password".equals(arg)) {
+                    password = args[++i];
+                } else if("-l".equals(arg) || "--latency".equals(arg)) {
+                    scale = Double.parseDouble(args[++i]);
+                } else if("-d".equals(arg) || "--delay".equals(arg)) {
+                    delay = Long.parseLong(args[++i]);
+                } else if("-e".equals(arg) || "--errors".equals(arg)) {
+                    errors = Double.parseDouble(args[++i]);
+                } else if(arg.startsWith("-")) {
+                    System.err.println("Unknown option: " + arg);
+                    System.err.print(USAGE);
+                    return EXIT_USAGE;
+                } else {
+                    positional.add(arg);
+                }
+            }
+        } catch(ArrayIndexOutOfBoundsException e) {
+            System.err.println("Option is missing its value");
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        } catch(NumberFormatException e) {
+            System.err.println("Bad number: " + e.getMessage());
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        if(workflows < 1) {
+            System.err.println("Need at least one workflow");
+            return EXIT_USAGE;
+        }
+
+        shape = new SyntheticWorkflow(prefix);
+        shape.setJobs(jobs);
+        shape.setSteps(steps);
+        shape.setTriggers(triggers);
+        shape.setIterations(iterations);
+        shape.setProperties(properties);
+
+        UcbStandIn standIn;
+
+        try {
+            if((positional.size() == 3) &&
+               "record".equals(positional.get(0))) {
+                standIn = UcbStandIn.record(0, positional.get(1),
+                                            new File(positional.get(2)));
+            } else if((positional.size() == 2) &&
+                      "replay".equals(positional.get(0))) {
+                standIn = UcbStandIn.replay(0, new File(positional.get(1)));
+                standIn.setLatency(scale, delay);
+                standIn.setErrors(errors, 503);
+            } else {
+                System.err.print(USAGE);
+                return EXIT_USAGE;
+            }
+        } catch(IOException e) {
+            LOG.error("UCB stand-in could not start", e);
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        List<Long> workflowIds = new ArrayList<>(workflows);
+
+        for(int i = 0; i < workflows; i++) {
+            workflowIds.add(first + i);
+        }
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                                            System.out,
+                                            StandardCharsets.UTF_8),
+                                          true);
+        MigrateBench bench = new MigrateBench(out);
+        int ret;
+
+        try {
+            ret = bench.bench(standIn, user, password, shape, workflowIds,
+                              threads, extractThreads
+            );
+        } catch(MigrateException e) {
+            LOG.error("Benchmark could not run", e);
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        } finally {
+            // Stopped first, so the trace is finished and the counts
+            // are final.
+            standIn.stop();
+        }
+
+        bench.emitCalls(standIn, workflows);
+        out.flush();
+
+        return ret;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Migrate the workflows and wait for them to finish, then report.
+     *
+     * @param standIn           UCB stand-in to migrate to
+     * @param user              UCB user
+     * @param password          UCB password
+     * @param shape             What the workflows look like
+     * @param workflowIds       Which workflows
+     * @param threads           Load threads, N or MIN-MAX
+     * @param extractThreads    Extraction threads, or null for the max
+     *                          of threads
+     * @return exit code
+     * @throws MigrateException if we can't get started
+     */
+    public int bench(final UcbStandIn standIn, final String user,
+                     final String password, final SyntheticWorkflow shape,
+                     final List<Long> workflowIds, final String threads,
+                     final String extractThreads)
+           throws MigrateException
+    {
+        // Thread count, or range for adaptive
+        int minThreads;
+        int maxThreads;
+        int extract;
+
+        try {
+            int dash = threads.indexOf('-');
+
+            if(dash == -1) {
+                minThreads = Integer.parseInt(threads.trim());
+                maxThreads = minThreads;
+            } else {
+                minThreads = Integer.parseInt(
+                                threads.substring(0, dash).trim()
+                );
+                maxThreads = Integer.parseInt(
+                                threads.substring(dash + 1).trim()
+                );
+            }
+
+            extract = (extractThreads == null) ?
+                            maxThreads :
+                            Integer.parseInt(extractThreads.trim());
+        } catch(NumberFormatException e) {
+            throw new MigrateException("Bad thread count: " + threads);
+        }
+
+        emit("BENCH", String.valueOf(workflowIds.size()),
+             String.valueOf(shape.getJobs()),
+             String.valueOf(shape.getSteps()),
+             String.valueOf(shape.getTriggers()),
+             String.valueOf(shape.getIterations()),
+             String.valueOf(shape.getProperties()), threads
+        );
+
+        // AHP settings are never used with a workflow source
+        MigrateEngine engine = new MigrateEngine("localhost", "0", "", "",
+                                                 null, null,
+                                                 standIn.getUrl(), user,
+                                                 password
+        );
+
+        engine.setWorkflowSource(shape);
+
+        remaining = new CountDownLatch(workflowIds.size());
+        engine.addListener(this);
+
+        resetHeapPeaks();
+
+        long start = System.currentTimeMillis();
+        long elapsed;
+
+        try {
+            engine.start(workflowIds, extract, minThreads, maxThreads);
+
+            while(true) {
+                try {
+                    remaining.await();
+                    break;
+                } catch(InterruptedException e) { }
+            }
+
+            elapsed = System.currentTimeMillis() - start;
+        } finally {
+            engine.close();
+        }
+
+        long done = completed.get() + failed.get();
+
+        emit("RESULT", String.valueOf(completed.get()),
+             String.valueOf(failed.get()),
+             String.format("%.1f", elapsed / 1000.0)
+        );
+        emit("RATE", String.format("%.1f",
+                                   done * 60000.0 / Math.max(1, elapsed))
+        );
+        emit("HEAP", String.valueOf(heapPeak() / (1024 * 1024)),
+             String.valueOf((Runtime.getRuntime().totalMemory() -
+                             Runtime.getRuntime().freeMemory()) /
+                            (1024 * 1024))
+        );
+
+        if(failed.get() > 0) {
+            return EXIT_FAILURES;
+        }
+
+        return EXIT_OK;
+    }
+
+    /**
+     * (@inheritdoc)
+     */
+    @Override
+    public void progress(MigrateStatus status)
+    {
+        // Too chatty for a benchmark
+    }
+
+    /**
+     * (@inheritdoc)
+     */
+    @Override
+    public void completed(MigrateStatus status)
+    {
+        completed.incrementAndGet();
+        remaining.countDown();
+    }
+
+    /**
+     * (@inheritdoc)
+     */
+    @Override
+    public void failed(MigrateStatus status)
+    {
+        failed.incrementAndGet();
+        emit("FAILED", String.valueOf(status.workflowId),
+             status.errorMessage
+        );
+        remaining.countDown();
+    }
+
+    /*
+     * UCB requests, overall and per workflow, then the stand-in's
+     * own counts.
+     */
+    private void emitCalls(final UcbStandIn standIn, int workflows)
+    {
+        emit("CALLS", String.valueOf(standIn.getRequests()),
+             String.format("%.1f",
+                           standIn.getRequests() / (double)workflows),
+             String.valueOf(standIn.getMissed()),
+             String.valueOf(standIn.getInjected())
+        );
+
+        synchronized(out) {
+            out.print(standIn.getReport());
+            out.flush();
+        }
+    }
+
+    /*
+     * Start the heap high-water marks from here.
+     */
+    private static void resetHeapPeaks()
+    {
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /*
+     * Sum of the heap pools' peaks since resetHeapPeaks.
+     */
+    private static long heapPeak()
+    {
+        long ret = 0;
+
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                ret += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return ret;
+    }
+
+    /*
+     * Write a report line.  Same as MigrateCli's.
+     */
+    private void emit(final String type, final String... fields)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(type);
+
+        for(String field : fields) {
+            sb.append('\t');
+
+            if(field != null) {
+                sb.append(field.replaceAll("[\\t\\r\\n]+", " "));
+            }
+        }
+
+        synchronized(out) {
+            out.println(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package net.epicforce.migrate.ahp.toucb.bench;
+
+/*
+ * SyntheticWorkflow.java
+ *
+ * Made up workflows, for benchmarking the migration without an AHP
+ * to read them from (see MigrateBench).
+ *
+ * Each workflow is a chain of jobs with a handful of build steps each,
+ * cycling through the Ant, Maven, MSBuild, NAnt, Make and Shell step
+ * types, plus some iterating jobs, triggers, properties and a Git
+ * source config.  The shape is set with the setters before the
+ * migration starts.
+ *
+ * Nothing here talks to UCB itself.  The workflow is built out of
+ * AHP domain objects -- Mockito mocks, stubbed with plain values --
+ * and walked the way the AHP library's Migration walks a real one:
+ * UcbLoader's workflow, job and step migrators, in order, against
+ * the context.  So what goes to UCB is whatever the real migrators
+ * send, and stays that way as they change.
+ *
+ * This needs Mockito's inline mock maker: the mocks have to be the
+ * real AHP classes, since the step and source config migrators are
+ * picked by class name.  The AHP factories the migrators call
+ * (StatusFactory, PropertyValueGroupFactory) are static, so they're
+ * mocked for the length of each workflow, on its extraction thread.
+ *
+ * Names have the workflow ID in them like the real ones, so two runs
+ * against one UCB will trip over each other just like two real
+ * migrations of the same workflow would.  Use a fresh UCB, a replay
+ * (see ucb.UcbStandIn) or a different prefix.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.exception.SkipException;
+import net.epicforce.migrate.ahp.migrate.AbstractJob;
+import net.epicforce.migrate.ahp.migrate.AbstractWorkflow;
+import net.epicforce.migrate.ahp.toucb.WorkflowSource;
+import net.epicforce.migrate.ahp.toucb.context.UcbContext;
+import net.epicforce.migrate.ahp.toucb.loader.UcbLoader;
+
+import com.urbancode.anthill3.domain.builder.ant.AntBuildStepConfig;
+import com.urbancode.anthill3.domain.builder.ant.AntBuilder;
+import com.urbancode.anthill3.domain.builder.make.MakeBuildStepConfig;
+import com.urbancode.anthill3.domain.builder.make.MakeBuilder;
+import com.urbancode.anthill3.domain.builder.maven.MavenBuildStepConfig;
+import com.urbancode.anthill3.domain.builder.maven.MavenBuilder;
+import com.urbancode.anthill3.domain.builder.msbuild.MSBuildStepConfig;
+import com.urbancode.anthill3.domain.builder.nant.NantBuildStepConfig;
+import com.urbancode.anthill3.domain.builder.nant.NantBuilder;
+import com.urbancode.anthill3.domain.builder.shellscript.ShellScriptBuildStepConfig;
+import com.urbancode.anthill3.domain.builder.shellscript.ShellScriptBuilder;
+import com.urbancode.anthill3.domain.jobconfig.JobConfig;
+import com.urbancode.anthill3.domain.profile.BuildProfile;
+import com.urbancode.anthill3.domain.project.prop.ProjectProperty;
+import com.urbancode.anthill3.domain.property.PropertyValue;
+import com.urbancode.anthill3.domain.property.PropertyValueGroup;
+import com.urbancode.anthill3.domain.property.PropertyValueGroupFactory;
+import com.urbancode.anthill3.domain.repository.plugin.PluginRepository;
+import com.urbancode.anthill3.domain.servergroup.ServerGroup;
+import com.urbancode.anthill3.domain.source.plugin.PluginSourceConfig;
+import com.urbancode.anthill3.domain.status.StatusFactory;
+import com.urbancode.anthill3.domain.step.StepConfig;
+import com.urbancode.anthill3.domain.trigger.Trigger;
+import com.urbancode.anthill3.domain.trigger.remoterequest.repository.RepositoryRequestTrigger;
+import com.urbancode.anthill3.domain.workflow.JobIterationPlan;
+import com.urbancode.anthill3.domain.workflow.Workflow;
+import com.urbancode.anthill3.domain.workflow.WorkflowDefinitionJobConfig;
+import com.urbancode.anthill3.domain.workflow.WorkflowProperty;
+import com.urbancode.commons.graph.Graph;
+import com.urbancode.commons.graph.TableDisplayableGraph;
+import com.urbancode.commons.graph.Vertex;
+
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class SyntheticWorkflow implements WorkflowSource
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Repository all the source configs share, like most AHP
+     * workflows share a handful of repositories.
+     */
+    private static final Long       REPOSITORY_ID = 1L;
+
+    private final String    prefix;
+    private int             jobs = 5;
+    private int             steps = 10;
+    private int             triggers = 1;
+    private int             iterations = 1;
+    private int             properties = 5;
+
+    /*
+     * Shared, like the real loader; the step class lookups are
+     * cached in there.
+     */
+    private final UcbLoader loader = new UcbLoader();
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param prefix        Starts every name we make, like "Bench"
+     */
+    public SyntheticWorkflow(final String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public int getJobs()
+    {
+        return jobs;
+    }
+
+    /**
+     * @param jobs          Jobs per workflow, run one after another
+     */
+    public void setJobs(int jobs)
+    {
+        this.jobs = Math.max(1, jobs);
+    }
+
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * @param steps         Steps per job
+     */
+    public void setSteps(int steps)
+    {
+        this.steps = Math.max(0, steps);
+    }
+
+    public int getTriggers()
+    {
+        return triggers;
+    }
+
+    /**
+     * @param triggers      Triggers per workflow
+     */
+    public void setTriggers(int triggers)
+    {
+        this.triggers = Math.max(0, triggers);
+    }
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * @param iterations    How many of the jobs iterate; the first ones
+     */
+    public void setIterations(int iterations)
+    {
+        this.iterations = Math.max(0, iterations);
+    }
+
+    public int getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * @param properties    Workflow properties, and as many project
+     *                      properties
+     */
+    public void setProperties(int properties)
+    {
+        this.properties = Math.max(0, properties);
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * (@inheritdoc)
+     *
+     * Builds the workflow, then walks it like Migration does: the
+     * workflow's preRun, then for each job its preRun, its steps and
+     * its postRun, then the workflow's postRun.  A job that's
+     * skipped (it already exists) has its steps skipped too.
+     */
+    @Override
+    public void extract(final Long workflowId, final UcbContext context)
+           throws MigrateException
+    {
+        MockedStatic<StatusFactory> statusFactory =
+                                        mockStatic(StatusFactory.class);
+        MockedStatic<PropertyValueGroupFactory> groupFactory =
+                                mockStatic(PropertyValueGroupFactory.class);
+
+        try {
+            Fixture wf;
+
+            try {
+                wf = new Fixture(workflowId, statusFactory, groupFactory);
+            } catch(Exception e) {
+                throw new MigrateException("Could not make up workflow " +
+                                           workflowId, e
+                );
+            }
+
+            context.setWorkflow(wf.workflow);
+
+            AbstractWorkflow ucbWorkflow = loader.loadWorkflowClass();
+
+            ucbWorkflow.preRun(context);
+
+            for(int j = 0; j < wf.jobConfigs.length; j++) {
+                context.setCurrentJob(wf.jobConfigs[j]);
+
+                AbstractJob ucbJob = loader.loadJobClass();
+
+                try {
+                    ucbJob.preRun(context);
+                } catch(SkipException e) {
+                    continue;
+                }
+
+                for(StepConfig step : wf.jobSteps[j]) {
+                    context.setCurrentStep(step);
+                    loader.loadStepClass(step.getClass().getName())
+                          .run(context);
+                }
+
+                ucbJob.postRun(context);
+            }
+
+            ucbWorkflow.postRun(context);
+        } finally {
+            groupFactory.close();
+            statusFactory.close();
+        }
+    }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * One made up workflow: the AHP objects, and the steps of each
+     * job in the order Migration would find them.
+     */
+    private class Fixture
+    {
+        private final Blank                             blank = new Blank();
+        private final Workflow                          workflow;
+        private final WorkflowDefinitionJobConfig[]     jobConfigs;
+        private final StepConfig[][]                    jobSteps;
+
+        @SuppressWarnings("unchecked")
+        private Fixture(final Long workflowId,
+                        MockedStatic<StatusFactory> statusFactory,
+                        MockedStatic<PropertyValueGroupFactory> groupFactory)
+                throws Exception
+        {
+            workflow = mock(Workflow.class, blank);
+
+            when(workflow.getId()).thenReturn(workflowId);
+            when(workflow.getName()).thenReturn(prefix + " Workflow");
+            when(workflow.getNotificationScheme()).thenReturn(null);
+            when(workflow.getWorkflowPriorityScript()).thenReturn(null);
+
+            // Project
+            when(workflow.getProject().getId()).thenReturn(workflowId);
+            when(workflow.getProject().getName())
+                .thenReturn(prefix + " Project");
+            when(workflow.getProject().getDescription())
+                .thenReturn("Synthetic project for workflow " + workflowId);
+
+            List<ProjectProperty> projectProps = new ArrayList<>(properties);
+
+            for(int i = 0; i < properties; i++) {
+                ProjectProperty pp = mock(ProjectProperty.class, blank);
+
+                when(pp.getName()).thenReturn("projectProp" + i);
+                when(pp.getValue()).thenReturn("value" + i);
+                projectProps.add(pp);
+            }
+
+            when(workflow.getProject().getPropertyList())
+                .thenReturn(projectProps);
+            when(workflow.getServerGroupArray()).thenReturn(
+                new ServerGroup[] { mock(ServerGroup.class, blank) }
+            );
+
+            // Workflow properties
+            WorkflowProperty[] wfProps = new WorkflowProperty[properties];
+
+            for(int i = 0; i < properties; i++) {
+                wfProps[i] = mock(WorkflowProperty.class, blank);
+
+                when(wfProps[i].getName()).thenReturn("workflowProp" + i);
+                when(wfProps[i].getType().isText()).thenReturn(true);
+                when(wfProps[i].getPropertyValue()).thenReturn("value" + i);
+            }
+
+            when(workflow.getPropertyArray()).thenReturn(wfProps);
+
+            // Triggers
+            Trigger[] trigs = new Trigger[triggers];
+
+            for(int i = 0; i < triggers; i++) {
+                trigs[i] = mock(RepositoryRequestTrigger.class, blank);
+
+                when(trigs[i].isEnabled()).thenReturn(true);
+                when(trigs[i].getName()).thenReturn("Trigger " + i);
+            }
+
+            when(workflow.getTriggerArray()).thenReturn(trigs);
+
+            // Source config: one Git checkout of the shared repository
+            BuildProfile bp = workflow.getBuildProfile();
+            PluginSourceConfig sc = mock(PluginSourceConfig.class, blank);
+            PluginRepository repo = mock(PluginRepository.class, blank);
+            PropertyValueGroup checkout = group(prefix + " Source",
+                                                workflowId
+            );
+            final PropertyValueGroup repoGroup = group(prefix + " Repository",
+                                                       REPOSITORY_ID
+            );
+
+            when(bp.getSourceConfig()).thenReturn(sc);
+            when(sc.getWorkDirScript()).thenReturn(null);
+            when(sc.getRepositoryArray())
+                .thenReturn(new PluginRepository[] { repo });
+            when(repo.getPlugin().getPluginId())
+                .thenReturn("com.urbancode.anthill3.plugin.Git");
+            when(sc.getPropertyValueGroups())
+                .thenReturn(new PropertyValueGroup[] { checkout });
+
+            setValue(checkout, "remoteUrl", "git://git.example.com/bench.git");
+            setValue(checkout, "repo", String.valueOf(REPOSITORY_ID));
+
+            // The AHP factories
+            final StatusFactory sf = mock(StatusFactory.class, blank);
+            final PropertyValueGroupFactory pvgf =
+                            mock(PropertyValueGroupFactory.class, blank);
+
+            statusFactory.when(new MockedStatic.Verification() {
+                @Override
+                public void apply() throws Throwable
+                {
+                    StatusFactory.getInstance();
+                }
+            }).thenReturn(sf);
+
+            groupFactory.when(new MockedStatic.Verification() {
+                @Override
+                public void apply() throws Throwable
+                {
+                    PropertyValueGroupFactory.getInstance();
+                }
+            }).thenReturn(pvgf);
+
+            when(pvgf.restore(anyLong())).thenReturn(repoGroup);
+
+            // Jobs, a straight line of them
+            jobConfigs = new WorkflowDefinitionJobConfig[jobs];
+            jobSteps = new StepConfig[jobs][];
+
+            Vertex<WorkflowDefinitionJobConfig>[] vertices =
+                                                new Vertex[jobs];
+            Set<Graph.Arc<WorkflowDefinitionJobConfig>> arcs =
+                                                new HashSet<>(jobs);
+
+            for(int j = 0; j < jobs; j++) {
+                // Fake job config ID, unique per workflow
+                jobConfigs[j] = job((workflowId * 1000) + j, j);
+                jobSteps[j] = new StepConfig[steps];
+
+                for(int s = 0; s < steps; s++) {
+                    jobSteps[j][s] = step(s);
+                }
+
+                vertices[j] = mock(Vertex.class, blank);
+                when(vertices[j].getData()).thenReturn(jobConfigs[j]);
+
+                if(j > 0) {
+                    Graph.Arc<WorkflowDefinitionJobConfig> arc =
+                                                mock(Graph.Arc.class, blank);
+
+                    when(arc.getFrom()).thenReturn(vertices[j - 1]);
+                    when(arc.getTo()).thenReturn(vertices[j]);
+                    arcs.add(arc);
+                }
+            }
+
+            TableDisplayableGraph<WorkflowDefinitionJobConfig> graph =
+                                mock(TableDisplayableGraph.class, blank);
+
+            when(graph.getVertexCount()).thenReturn(jobs);
+            when(graph.getVertexArray()).thenReturn(vertices);
+            when(graph.getArcSet()).thenReturn(arcs);
+            when(workflow.getWorkflowDefinition().getWorkflowJobConfigGraph())
+                .thenReturn(graph);
+        }
+
+        /*
+         * A job in the workflow.  The first one takes an agent from
+         * the pool, the rest use their parent's.
+         */
+        private WorkflowDefinitionJobConfig job(Long jobConfigId, int index)
+                throws Exception
+        {
+            WorkflowDefinitionJobConfig wdjc =
+                            mock(WorkflowDefinitionJobConfig.class, blank);
+            JobConfig jc = wdjc.getJobConfig();
+
+            when(wdjc.getId()).thenReturn(jobConfigId);
+            when(jc.getId()).thenReturn(jobConfigId);
+            when(jc.getName()).thenReturn(prefix + " Job");
+            when(jc.getDescription()).thenReturn("");
+
+            when(wdjc.isJobUsingParentAgent()).thenReturn(index > 0);
+            when(wdjc.isJobUsingParentWorkDir()).thenReturn(true);
+
+            // A built in pre-condition; those are negative
+            when(wdjc.getJobPreConditionScript().getId()).thenReturn(-1L);
+
+            if(index < iterations) {
+                JobIterationPlan plan = wdjc.getJobIterationPlan();
+
+                when(plan.isParallelIteration()).thenReturn(true);
+                when(plan.getIterations()).thenReturn("2");
+            } else {
+                when(wdjc.getJobIterationPlan()).thenReturn(null);
+            }
+
+            return wdjc;
+        }
+
+        /*
+         * A build step, with the values the migrator for its type
+         * needs set.
+         */
+        private StepConfig step(int index)
+        {
+            StepConfig ret;
+
+            switch(index % 6) {
+                case 0:
+                    AntBuildStepConfig ant =
+                                    mock(AntBuildStepConfig.class, blank);
+                    AntBuilder ab = ant.getBuilder();
+
+                    when(ab.getWorkDirOffset()).thenReturn("");
+                    when(ab.getBuildFilePath()).thenReturn("build.xml");
+                    when(ab.getTarget()).thenReturn("dist");
+                    ret = ant;
+                    break;
+                case 1:
+                    MavenBuildStepConfig maven =
+                                    mock(MavenBuildStepConfig.class, blank);
+                    MavenBuilder mb = maven.getBuilder();
+
+                    when(mb.getWorkDirOffset()).thenReturn("");
+                    when(mb.getBuildFilePath()).thenReturn("pom.xml");
+                    when(mb.getGoal()).thenReturn("clean install");
+                    ret = maven;
+                    break;
+                case 2:
+                    MSBuildStepConfig msbuild =
+                                    mock(MSBuildStepConfig.class, blank);
+
+                    when(msbuild.getWorkDirOffset()).thenReturn("");
+                    when(msbuild.getBuildFilePath()).thenReturn("Solution.sln");
+                    when(msbuild.getTargets()).thenReturn("Build");
+                    ret = msbuild;
+                    break;
+                case 3:
+                    NantBuildStepConfig nant =
+                                    mock(NantBuildStepConfig.class, blank);
+                    NantBuilder nb = nant.getBuilder();
+
+                    when(nb.getWorkDirOffset()).thenReturn("");
+                    when(nb.getBuildFilePath()).thenReturn("default.build");
+                    when(nb.getTarget()).thenReturn("build");
+                    ret = nant;
+                    break;
+                case 4:
+                    MakeBuildStepConfig make =
+                                    mock(MakeBuildStepConfig.class, blank);
+                    MakeBuilder kb = make.getBuilder();
+
+                    when(kb.getWorkDirOffset()).thenReturn("");
+                    when(kb.getMakeFileName()).thenReturn("Makefile");
+                    when(kb.getTarget()).thenReturn("all");
+                    ret = make;
+                    break;
+                default:
+                    ShellScriptBuildStepConfig shell =
+                            mock(ShellScriptBuildStepConfig.class, blank);
+                    ShellScriptBuilder sb = shell.getBuilder();
+
+                    when(sb.getWorkDirOffset()).thenReturn("");
+                    when(sb.getCommandLine()).thenReturn("echo step " + index);
+                    ret = shell;
+                    break;
+            }
+
+            when(ret.getName()).thenReturn("Step " + index);
+            when(ret.getPostProcessScript()).thenReturn(null);
+
+            return ret;
+        }
+
+        /*
+         * A property value group with no values set yet.
+         */
+        private PropertyValueGroup group(String name, Long id)
+        {
+            PropertyValueGroup ret = mock(PropertyValueGroup.class, blank);
+
+            when(ret.getName()).thenReturn(name);
+            when(ret.getId()).thenReturn(id);
+            when(ret.getPropertyValue(anyString())).thenReturn(null);
+
+            return ret;
+        }
+
+        private void setValue(PropertyValueGroup group, String name,
+                              String value)
+        {
+            PropertyValue pv = mock(PropertyValue.class, blank);
+
+            when(pv.getValue()).thenReturn(value);
+            when(group.getPropertyValue(name)).thenReturn(pv);
+        }
+    }
+
+    /*
+     * Default answer for the fixture's mocks, standing in for an AHP
+     * object nobody filled in: empty arrays, the first of an enum, and
+     * for other AHP objects another such mock -- the same one each
+     * time, so it can be stubbed through a chain of getters.  The rest
+     * (strings, numbers, collections) get Mockito's usual defaults.
+     *
+     * One per workflow; it remembers every mock it handed out.
+     */
+    private static class Blank implements Answer<Object>
+    {
+        private final Map<Object, Map<String, Object>> made =
+                                                    new IdentityHashMap<>();
+
+        /**
+         * (@inheritdoc)
+         */
+        @Override
+        public Object answer(InvocationOnMock call) throws Throwable
+        {
+            Class<?> type = call.getMethod().getReturnType();
+
+            if(type.isArray()) {
+                return Array.newInstance(type.getComponentType(), 0);
+            }
+
+            if(type.isEnum()) {
+                return type.getEnumConstants()[0];
+            }
+
+            if(!type.getName().startsWith("com.urbancode.")) {
+                return Mockito.RETURNS_DEFAULTS.answer(call);
+            }
+
+            Map<String, Object> mine = made.get(call.getMock());
+
+            if(mine == null) {
+                mine = new HashMap<>();
+                made.put(call.getMock(), mine);
+            }
+
+            String key = call.getMethod().toString() +
+                         Arrays.toString(call.getArguments());
+            Object ret = mine.get(key);
+
+            if(ret == null) {
+                ret = mock(type, this);
+                mine.put(key, ret);
+            }
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package net.epicforce.migrate.ahp.toucb.jmh;
+
+/*
+ * HarvestBench.java
+ *
+ * The regex scan UcbClient.harvestPattern does over UCB's old list
+ * pages (see HtmlHarvester), with the patterns the notification
+ * catalogs use, on a made up page of the given number of rows.  The
+ * rows have the markup around them UCB's list pages do, so most of
+ * the page doesn't match; that's the realistic case.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import net.epicforce.migrate.ahp.toucb.ucb.HtmlHarvester;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HarvestBench
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    @Param({ "100", "2000" })
+    public int          rows;
+
+    /*
+     * Which catalog's page and pattern: the same as in the
+     * notification classes.
+     */
+    @Param({ "scheme", "template" })
+    public String       page;
+
+    private String      html;
+    private Pattern     pattern;
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    @Setup
+    public void setup()
+    {
+        String link;
+
+        if("template".equals(page)) {
+            pattern = HtmlHarvester.compile(
+                "viewTemplate\\?template_id=(-?\\d+)\"\\s*>([^<]+)</a>"
+            );
+            link = "viewTemplate?template_id=%d\" >Template %d</a>";
+        } else {
+            pattern = HtmlHarvester.compile(
+                "viewNotificationScheme\\?notificationSchemeId=(-?\\d+)\">([^<]+)</a>"
+            );
+            link = "viewNotificationScheme?notificationSchemeId=%d\">" +
+                   "Scheme %d</a>";
+        }
+
+        StringBuilder sb = new StringBuilder(rows * 400 + 4096);
+
+        sb.append("<html><head><title>UrbanCode Build</title>")
+          .append("<link rel=\"stylesheet\" href=\"/css/main.css\"/>")
+          .append("</head><body><div id=\"header\">...</div>")
+          .append("<table class=\"data-table\"><thead><tr><th>Name</th>")
+          .append("<th>Description</th><th>Operations</th></tr></thead>")
+          .append("<tbody>\n");
+
+        for(int i = 0; i < rows; i++) {
+            sb.append("<tr class=\"").append((i % 2 == 0) ? "odd" : "even")
+              .append("\">\n  <td><a href=\"/tasks/admin/notification/")
+              .append(String.format(link, 1000 + i, i))
+              .append("</td>\n  <td>Made for project ").append(i)
+              .append(" by the release team</td>\n  <td class=\"op\">")
+              .append("<a href=\"#\" onclick=\"return confirmDelete(")
+              .append(1000 + i).append(");\"><img src=\"/images/icon_")
+              .append("delete.gif\" alt=\"Delete\"/></a></td>\n</tr>\n");
+        }
+
+        sb.append("</tbody></table></body></html>\n");
+        html = sb.toString();
+    }
+
+    @Benchmark
+    public int harvest(final Blackhole bh) throws IOException
+    {
+        return HtmlHarvester.harvest(new StringReader(html), pattern,
+            new HtmlHarvester.Sink() {
+                @Override
+                public boolean found(String id, String name)
+                {
+                    bh.consume(id);
+                    bh.consume(name);
+                    return true;
+                }
+            }
+        );
+    }
+}
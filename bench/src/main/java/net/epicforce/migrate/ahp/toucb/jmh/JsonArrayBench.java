@@ -0,0 +1,130 @@
+package net.epicforce.migrate.ahp.toucb.jmh;
+
+/*
+ * JsonArrayBench.java
+ *
+ * UcbClient.jsonArrayConvert, on a list of steps like
+ * /rest2/jobs/{id}/steps sends back: on its own, and with the parse
+ * that always comes before it (sendPostReturnArray and friends).
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbException;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonArrayBench
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Steps in the job.
+     */
+    @Param({ "10", "100" })
+    public int          size;
+
+    private String      body;
+    private JSONArray   parsed;
+    private Client      client;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * jsonArrayConvert is protected; this lets us at it.
+     */
+    private static class Client extends UcbClient
+    {
+        private Client()
+        {
+            super("/rest2/jobs/10433/steps");
+        }
+
+        private JSONObject[] convert(JSONArray arr) throws UcbException
+        {
+            return jsonArrayConvert(arr);
+        }
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    @Setup
+    public void setup() throws JSONException
+    {
+        JSONArray arr = new JSONArray();
+
+        for(int i = 0; i < size; i++) {
+            JSONObject step = new JSONObject();
+            JSONArray props = new JSONArray();
+
+            step.put("id", String.valueOf(88000 + i));
+            step.put("name", "Step " + i);
+            step.put("description", "");
+            step.put("step-path", "Build/Build Tools/Ant/Ant");
+            step.put("seq", i);
+            step.put("workDirOffset", "");
+            step.put("runInPreflight", false);
+            step.put("runInPreflightOnly", false);
+            step.put("ignoreFailures", false);
+            step.put("pre-cond-script", "-2");
+
+            for(String key : new String[] { "antFileName", "targetNames",
+                                            "antHome", "javaHome",
+                                            "env-vars", "properties" }) {
+                JSONObject prop = new JSONObject();
+
+                prop.put("key", key);
+                prop.put("value", "value of " + key);
+                props.put(prop);
+            }
+
+            step.put("properties", props);
+            arr.put(step);
+        }
+
+        body = arr.toString();
+        parsed = new JSONArray(body);
+        client = new Client();
+    }
+
+    @Benchmark
+    public JSONObject[] convert() throws UcbException
+    {
+        return client.convert(parsed);
+    }
+
+    @Benchmark
+    public JSONObject[] parseAndConvert() throws JSONException, UcbException
+    {
+        return client.convert(new JSONArray(body));
+    }
+}
@@ -0,0 +1,104 @@
+package net.epicforce.migrate.ahp.toucb.jmh;
+
+/*
+ * StepJsonBench.java
+ *
+ * Turning a step into the JSON RESTStep.create and update send to
+ * UCB (RESTStepParser.toJSON), for an Ant step with a realistic set of
+ * properties, plus however many extra the param asks for.
+ *
+ * The step has no job; create and update only need it for the URL.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import net.epicforce.migrate.ahp.toucb.ucb.fixed.RESTStep;
+import net.epicforce.migrate.ahp.toucb.ucb.fixed.RESTStepParser;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StepJsonBench
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Extra properties on top of the Ant step's own.
+     */
+    @Param({ "0", "20" })
+    public int                  extra;
+
+    private RESTStep            step;
+    private RESTStepParser      parser;
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    @Setup
+    public void setup()
+    {
+        step = new RESTStep("Build/Build Tools/Ant/Ant", "Build",
+                            "Compile and package", null, 3, null, false,
+                            false, false, "88213"
+        );
+
+        step.setWorkDirOffset("");
+        step.setTimeout(60);
+
+        // What AntBuildStepConfigMigrate sends
+        step.setProperty("workDirOffset", "");
+        step.setProperty("antFileName", "build.xml");
+        step.setProperty("targetNames", "clean dist");
+        step.setProperty("antProperties", "-Dbuild.number=${bf:build.id}");
+        step.setProperty("antHome", "${env/ANT_HOME}");
+        step.setProperty("javaHome", "${env/JAVA_HOME}");
+        step.setProperty("antOpts", "-Xmx512m");
+        step.setProperty("env-vars", "PATH=/usr/local/bin:/usr/bin\n" +
+                                     "LANG=en_US.UTF-8\n");
+        step.setProperty("properties", "version=${p:version}\n");
+
+        for(int i = 0; i < extra; i++) {
+            step.setProperty("extra" + i, "value of extra property " + i);
+        }
+
+        parser = new RESTStepParser();
+    }
+
+    @Benchmark
+    public JSONObject toJSON() throws JSONException
+    {
+        return parser.toJSON(step);
+    }
+
+    /*
+     * What create and update actually send.
+     */
+    @Benchmark
+    public String toJSONString() throws JSONException
+    {
+        return new RESTStepParser().toJSON(step).toString();
+    }
+}
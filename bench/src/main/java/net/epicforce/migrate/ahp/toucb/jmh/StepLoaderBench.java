@@ -0,0 +1,87 @@
+package net.epicforce.migrate.ahp.toucb.jmh;
+
+/*
+ * StepLoaderBench.java
+ *
+ * UcbLoader.loadStepClass, which is called once for every AHP step
+ * migrated.  The names are the AHP step types we have migrators for,
+ * plus a few we don't, which go down the fall back path like they do
+ * in a real migration.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import net.epicforce.migrate.ahp.exception.UnsupportedClassException;
+import net.epicforce.migrate.ahp.migrate.AbstractStep;
+import net.epicforce.migrate.ahp.toucb.loader.UcbLoader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StepLoaderBench
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Roughly the mix of a build workflow: mostly source and build
+     * steps.
+     */
+    private static final String[]   SUPPORTED = {
+        "com.urbancode.anthill3.domain.source.git.GitCleanupStepConfig",
+        "com.urbancode.anthill3.domain.source.git.GitPopulateWorkspaceStepConfig",
+        "com.urbancode.anthill3.domain.source.git.GitGetChangelogStepConfig",
+        "com.urbancode.anthill3.domain.stamp.StampStepConfig",
+        "com.urbancode.anthill3.domain.builder.ant.AntBuildStepConfig",
+        "com.urbancode.anthill3.domain.builder.maven.MavenBuildStepConfig",
+        "com.urbancode.anthill3.domain.builder.shellscript.ShellScriptBuildStepConfig",
+        "com.urbancode.anthill3.domain.publisher.artifact.ArtifactDeliverStepConfig",
+        "com.urbancode.anthill3.domain.publisher.changelog.ChangeLogPublisherStepConfig",
+        "com.urbancode.anthill3.domain.status.AssignStatusStepConfig"
+    };
+
+    private static final String[]   UNSUPPORTED = {
+        "com.urbancode.anthill3.domain.builder.groovy.GroovyBuildStepConfig",
+        "com.urbancode.anthill3.domain.publisher.report.ReportPublisherStepConfig"
+    };
+
+    private final UcbLoader     loader = new UcbLoader();
+    private int                 next = 0;
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    @Benchmark
+    public AbstractStep supported() throws UnsupportedClassException
+    {
+        return loader.loadStepClass(SUPPORTED[next++ % SUPPORTED.length]);
+    }
+
+    @Benchmark
+    public Object unsupported()
+    {
+        try {
+            return loader.loadStepClass(
+                                UNSUPPORTED[next++ % UNSUPPORTED.length]);
+        } catch(UnsupportedClassException e) {
+            return e;
+        }
+    }
+}
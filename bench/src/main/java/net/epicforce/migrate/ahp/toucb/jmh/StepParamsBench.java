@@ -0,0 +1,61 @@
+package net.epicforce.migrate.ahp.toucb.jmh;
+
+/*
+ * StepParamsBench.java
+ *
+ * The form post map every Stamp and Assign Status step is built from
+ * (UcbStep.createCommonPostParams), less the AHP and pre-condition
+ * lookups around it; see UcbStep.commonPostParams.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.epicforce.migrate.ahp.toucb.context.UcbStep;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StepParamsBench
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final String TYPE =
+        "com.urbancode.ubuild.domain.status.AssignStatusStepConfig";
+
+    /*
+     * Steps go in one after another, so the index changes each time
+     * like it does in a real job.
+     */
+    private int     index = 0;
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    @Benchmark
+    public Map<String, String> commonPostParams()
+    {
+        return UcbStep.commonPostParams(TYPE, "10433", "Assign Success",
+                                        false, false, false, 60,
+                                        (index++) & 31, "", "-2"
+        );
+    }
+}
@@ -0,0 +1,290 @@
+package net.epicforce.migrate.ahp.toucb;
+
+/*
+ * AdaptiveConcurrency.java
+ *
+ * Picking a thread count is guesswork.  Too low and a big run takes
+ * days, too high and UCB falls over.  This controller adjusts the
+ * number of in-flight migrations for us, using AIMD (additive
+ * increase, multiplicative decrease -- the TCP congestion control
+ * trick) on what UcbLoadMonitor tells us about UCB:
+ *
+ * - If UCB errors pile up, latency blows out past what we've seen
+ *   it do when healthy, or the circuit breaker is open, cut the
+ *   concurrency (multiply by the backoff factor).
+ *
+ * - Otherwise, if every thread is busy and there's work waiting,
+ *   add one more.
+ *
+ * It never goes outside floor..ceiling.
+ *
+ * Tunables (system properties):
+ *
+ * ucb.adaptive.interval        - ms between adjustments (default 10000)
+ * ucb.adaptive.minCalls        - calls needed in a window before we
+ *                                trust it (default 20)
+ * ucb.adaptive.maxErrorRate    - error fraction that triggers a cut
+ *                                (default 0.05)
+ * ucb.adaptive.latencyFactor   - latency over baseline that triggers
+ *                                a cut (default 2.0)
+ * ucb.adaptive.backoff         - multiplier on a cut (default 0.5)
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.epicforce.migrate.ahp.toucb.ucb.CircuitBreaker;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbLoadMonitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AdaptiveConcurrency implements Runnable
+{
+    private final static Logger LOG =
+                        LoggerFactory.getLogger(AdaptiveConcurrency.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final long   interval =
+                                Long.getLong("ucb.adaptive.interval", 10000L);
+    private static final long   minCalls =
+                                Long.getLong("ucb.adaptive.minCalls", 20L);
+    private static final double maxErrorRate =
+                                doubleProperty("ucb.adaptive.maxErrorRate",
+                                               0.05);
+    private static final double latencyFactor =
+                                doubleProperty("ucb.adaptive.latencyFactor",
+                                               2.0);
+    private static final double backoff =
+                                doubleProperty("ucb.adaptive.backoff", 0.5);
+
+    /*
+     * The pool we're steering
+     */
+    private final ThreadPoolExecutor    pool;
+    private final int                   floor;
+    private final int                   ceiling;
+
+    /*
+     * Current concurrency; only written by the ticker thread.
+     */
+    private volatile int    current;
+
+    /*
+     * Our idea of what "healthy" latency looks like.  It snaps down
+     * to any better value we see and drifts up slowly otherwise, so
+     * a UCB that is just slow (rather than overloaded) doesn't keep
+     * us pinned at the floor forever.
+     */
+    private double          baseline = -1;
+
+    private ScheduledExecutorService    ticker = null;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * Create a controller.  The pool is sized to floor right away.
+     *
+     * @param pool          The executor to resize
+     * @param floor         Minimum concurrency, at least 1
+     * @param ceiling       Maximum concurrency, at least floor
+     */
+    public AdaptiveConcurrency(final ThreadPoolExecutor pool, int floor,
+                               int ceiling)
+    {
+        if((floor < 1) || (ceiling < floor)) {
+            throw new IllegalArgumentException(
+                "Bad concurrency range " + floor + "-" + ceiling
+            );
+        }
+
+        this.pool = pool;
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.current = pool.getMaximumPoolSize();
+
+        resize(floor);
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public int getConcurrency()
+    {
+        return current;
+    }
+
+    public int getFloor()
+    {
+        return floor;
+    }
+
+    public int getCeiling()
+    {
+        return ceiling;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Start adjusting in the background.
+     */
+    public synchronized void start()
+    {
+        if(ticker != null) {
+            return;
+        }
+
+        // Throw away whatever happened before we were watching.
+        UcbLoadMonitor.drain();
+
+        ticker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "adaptive-concurrency");
+                    t.setDaemon(true);
+                    return t;
+                }
+            }
+        );
+
+        ticker.scheduleWithFixedDelay(this, interval, interval,
+                                      TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop adjusting.  The pool is left at whatever size it was.
+     */
+    public synchronized void stop()
+    {
+        if(ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * One adjustment.  Run by the ticker; public because Runnable.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            adjust();
+        } catch(RuntimeException e) {
+            // An exception would cancel the schedule; don't let it.
+            LOG.error("Error adjusting concurrency", e);
+        }
+    }
+
+    /*
+     * The actual AIMD bit.
+     */
+    private void adjust()
+    {
+        UcbLoadMonitor.Window window = UcbLoadMonitor.drain();
+
+        if(CircuitBreaker.getShared().getState() !=
+           CircuitBreaker.State.CLOSED) {
+            decrease("UCB circuit breaker is open");
+            return;
+        }
+
+        if(window.calls < minCalls) {
+            // Not enough to go on.
+            return;
+        }
+
+        double latency = window.getMeanLatency();
+
+        if((baseline < 0) || (latency < baseline)) {
+            baseline = latency;
+        } else {
+            baseline = (baseline * 0.95) + (latency * 0.05);
+        }
+
+        if(window.getErrorRate() > maxErrorRate) {
+            decrease("error rate " + window);
+        } else if(latency > baseline * latencyFactor) {
+            decrease("latency " + window + " vs baseline " +
+                     Math.round(baseline) + "ms"
+            );
+        } else if((pool.getActiveCount() >= current) &&
+                  (!pool.getQueue().isEmpty())) {
+            increase(window);
+        }
+    }
+
+    private void decrease(final String why)
+    {
+        int target = Math.max(floor, (int)(current * backoff));
+
+        if(target < current) {
+            LOG.info("Reducing concurrency {} -> {} due to {}",
+                     current, target, why
+            );
+            resize(target);
+        }
+    }
+
+    private void increase(final UcbLoadMonitor.Window window)
+    {
+        if(current < ceiling) {
+            LOG.info("Increasing concurrency {} -> {}, UCB is healthy: {}",
+                     current, current + 1, window
+            );
+            resize(current + 1);
+        }
+    }
+
+    /*
+     * ThreadPoolExecutor insists core <= max at all times, so the
+     * order of the two calls depends on which way we're going.
+     *
+     * Shrinking doesn't interrupt anything; extra threads exit when
+     * they finish their current migration.
+     */
+    private void resize(int size)
+    {
+        if(size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+
+        current = size;
+    }
+
+    private static double doubleProperty(final String name, double def)
+    {
+        String val = System.getProperty(name);
+
+        if(val == null) {
+            return def;
+        }
+
+        try {
+            return Double.parseDouble(val);
+        } catch(NumberFormatException e) {
+            LOG.warn("Ignoring bad value for {}: {}", name, val);
+            return def;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package net.epicforce.migrate.ahp.toucb;
+
+/*
+ * AhpSessionPool.java
+ *
+ * Every Migration object logs in to AHP over remoting (keystore and
+ * all) when it is constructed.  When we made one per workflow, a run
+ * of a few thousand workflows spent a good chunk of its time just
+ * logging in.  This pool keeps logged in Migrations around, and the
+ * worker threads borrow one for each workflow and hand it back after.
+ *
+ * - It is bounded; if every session is out, borrow waits.
+ * - Sessions are made lazily, so a small run never makes more than
+ *   it needs.
+ * - Sessions are retired after a maximum age or number of uses, so
+ *   a long run doesn't sit on one AHP connection forever.
+ * - There's no cheap way to ping AHP through Migration, so health is
+ *   judged by how the last use went: a session that blew up is
+ *   closed rather than handed to the next workflow.
+ * - Time spent waiting to borrow is tracked; if it's regularly non
+ *   zero, the pool is smaller than the thread count.
+ *
+ * Tunables (system properties):
+ *
+ * ahp.pool.maxSize         - most sessions at once (default: the
+ *                            migration thread count)
+ * ahp.pool.maxAge          - ms before a session is retired
+ *                            (default 1800000, 30 minutes)
+ * ahp.pool.maxUses         - workflows before a session is retired
+ *                            (default 100)
+ * ahp.pool.borrowTimeout   - ms to wait for a session before giving
+ *                            up (default 600000)
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import net.epicforce.migrate.ahp.Migration;
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AhpSessionPool
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(AhpSessionPool.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final long   maxAge =
+                                Long.getLong("ahp.pool.maxAge", 1800000L);
+    private static final int    maxUses =
+                                Integer.getInteger("ahp.pool.maxUses", 100);
+    private static final long   borrowTimeout =
+                                Long.getLong("ahp.pool.borrowTimeout",
+                                             600000L);
+
+    /*
+     * AHP credentials for making new sessions
+     */
+    private final String    ahpHost;
+    private final int       ahpPort;
+    private final String    ahpUser;
+    private final String    ahpPassword;
+    private final String    ahpKeystorePath;
+    private final String    ahpKeystorePassword;
+
+    private final int       maxSize;
+
+    /*
+     * Idle sessions, most recently returned first so the warm ones
+     * get used and the cold ones age out.  Everything below is
+     * guarded by 'this'.
+     */
+    private final Deque<Session>    idle = new ArrayDeque<Session>();
+
+    /*
+     * Sessions that exist (idle, borrowed, or being logged in)
+     */
+    private int         size = 0;
+    private boolean     closed = false;
+
+    /*
+     * Metrics
+     */
+    private long        borrows = 0;
+    private long        waitMillis = 0;
+    private long        maxWaitMillis = 0;
+    private long        created = 0;
+    private long        retired = 0;
+    private long        discarded = 0;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * A borrowed session.  Hand it back with release.
+     */
+    public static class Session
+    {
+        private final Migration migration;
+        private final long      born = System.currentTimeMillis();
+        private int             uses = 0;
+
+        private Session(final Migration migration)
+        {
+            this.migration = migration;
+        }
+
+        public Migration getMigration()
+        {
+            return migration;
+        }
+    }
+
+    /**
+     * Pool metrics at a point in time.
+     */
+    public static class Stats
+    {
+        public final int    size;
+        public final int    idle;
+        public final long   borrows;
+        public final long   waitMillis;
+        public final long   maxWaitMillis;
+        public final long   created;
+        public final long   retired;
+        public final long   discarded;
+
+        private Stats(int size, int idle, long borrows, long waitMillis,
+                      long maxWaitMillis, long created, long retired,
+                      long discarded)
+        {
+            this.size = size;
+            this.idle = idle;
+            this.borrows = borrows;
+            this.waitMillis = waitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.created = created;
+            this.retired = retired;
+            this.discarded = discarded;
+        }
+
+        /**
+         * @return average ms a borrow waited, or 0 if none
+         */
+        public double getMeanWait()
+        {
+            if(borrows == 0) {
+                return 0;
+            }
+
+            return (double)waitMillis / borrows;
+        }
+
+        public String toString()
+        {
+            return "size(" + size + ") idle(" + idle + ") borrows(" +
+                   borrows + ") meanWait(" + Math.round(getMeanWait()) +
+                   "ms) maxWait(" + maxWaitMillis + "ms) created(" +
+                   created + ") retired(" + retired + ") discarded(" +
+                   discarded + ")";
+        }
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * Make a pool.  No sessions are made until they're borrowed.
+     *
+     * @param ahpHost               Anthill host
+     * @param ahpPort               Anthill port
+     * @param ahpUser               Anthill user
+     * @param ahpPassword           Anthill password
+     * @param ahpKeystorePath       Anthill Keystore path, may be null/empty
+     * @param ahpKeystorePassword   Anthill keystore password, may be null/empty
+     * @param maxSize               Default for the most sessions at
+     *                              once; ahp.pool.maxSize overrides.
+     */
+    public AhpSessionPool(final String ahpHost, final int ahpPort,
+                          final String ahpUser, final String ahpPassword,
+                          final String ahpKeystorePath,
+                          final String ahpKeystorePassword, int maxSize)
+    {
+        this.ahpHost = ahpHost;
+        this.ahpPort = ahpPort;
+        this.ahpUser = ahpUser;
+        this.ahpPassword = ahpPassword;
+        this.ahpKeystorePath = ahpKeystorePath;
+        this.ahpKeystorePassword = ahpKeystorePassword;
+        this.maxSize = Math.max(1, Integer.getInteger("ahp.pool.maxSize",
+                                                      maxSize));
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Borrow a session, making one if there's room and none are idle,
+     * or waiting for one to come back if not.
+     *
+     * @return a logged in session; give it back with release.
+     * @throws MigrateException if we can't log in, time out waiting,
+     *         or the pool is closed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Session borrow()
+           throws MigrateException, InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        long deadline = start + borrowTimeout;
+
+        synchronized(this) {
+            while(true) {
+                if(closed) {
+                    throw new MigrateException("AHP session pool is closed");
+                }
+
+                // Take an idle one, if there's one still fit for use.
+                Session s;
+
+                while((s = idle.pollFirst()) != null) {
+                    if(isExpired(s)) {
+                        retire(s);
+                        continue;
+                    }
+
+                    borrowed(s, start);
+                    return s;
+                }
+
+                // Room to make one?  Reserve the slot and log in
+                // outside the lock, since it's slow.
+                if(size < maxSize) {
+                    size++;
+                    break;
+                }
+
+                long left = deadline - System.currentTimeMillis();
+
+                if(left <= 0) {
+                    throw new MigrateException(
+                        "Timed out after " + borrowTimeout + "ms waiting " +
+                        "for an AHP session; all " + maxSize + " are in use."
+                    );
+                }
+
+                wait(left);
+            }
+        }
+
+        Session s;
+
+        try {
+            s = new Session(new Migration(ahpHost, ahpPort, ahpUser,
+                                          ahpPassword, ahpKeystorePath,
+                                          ahpKeystorePassword)
+            );
+        } catch(MigrateException | RuntimeException e) {
+            synchronized(this) {
+                size--;
+                notifyAll();
+            }
+
+            throw e;
+        }
+
+        synchronized(this) {
+            created++;
+            borrowed(s, start);
+        }
+
+        return s;
+    }
+
+    /**
+     * Give a session back.
+     *
+     * @param session       What was borrowed
+     * @param healthy       False if the session misbehaved and shouldn't
+     *                      be used again.
+     */
+    public void release(final Session session, boolean healthy)
+    {
+        synchronized(this) {
+            if(closed || !healthy || isExpired(session)) {
+                size--;
+
+                if(!healthy) {
+                    discarded++;
+                } else if(!closed) {
+                    retired++;
+                }
+            } else {
+                idle.offerFirst(session);
+                notifyAll();
+                return;
+            }
+
+            notifyAll();
+        }
+
+        // Closing may talk to AHP; don't hold the lock for it.
+        closeQuietly(session);
+    }
+
+    /**
+     * @return current metrics
+     */
+    public synchronized Stats getStats()
+    {
+        return new Stats(size, idle.size(), borrows, waitMillis,
+                         maxWaitMillis, created, retired, discarded
+        );
+    }
+
+    /**
+     * Close the idle sessions.  Borrowed ones are closed as they come
+     * back, and any waiting borrow fails.
+     */
+    public void close()
+    {
+        Session[] toClose;
+
+        synchronized(this) {
+            closed = true;
+            toClose = idle.toArray(new Session[idle.size()]);
+            size -= toClose.length;
+            idle.clear();
+            notifyAll();
+        }
+
+        for(Session s : toClose) {
+            closeQuietly(s);
+        }
+
+        LOG.debug("AHP session pool closed: {}", getStats());
+    }
+
+    /*
+     * Book keeping for a successful borrow; caller holds the lock.
+     */
+    private void borrowed(final Session s, long start)
+    {
+        long waited = System.currentTimeMillis() - start;
+
+        s.uses++;
+        borrows++;
+        waitMillis += waited;
+
+        if(waited > maxWaitMillis) {
+            maxWaitMillis = waited;
+        }
+    }
+
+    private boolean isExpired(final Session s)
+    {
+        return (s.uses >= maxUses) ||
+               (System.currentTimeMillis() - s.born >= maxAge);
+    }
+
+    /*
+     * Caller holds the lock.  The actual close happens right here,
+     * which is a bit of a shame, but it's rare.
+     */
+    private void retire(final Session s)
+    {
+        size--;
+        retired++;
+        closeQuietly(s);
+    }
+
+    private static void closeQuietly(final Session s)
+    {
+        try {
+            s.migration.close();
+        } catch(RuntimeException e) {
+            LOG.warn("Error closing AHP session", e);
+        }
+    }
+}
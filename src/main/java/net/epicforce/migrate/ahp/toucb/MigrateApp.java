@@ -30,7 +30,6 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
-import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableCellRenderer;
@@ -105,8 +104,8 @@ public class MigrateApp extends JFrame
 
     // For keeping track of migration status
     protected List<MigrateStatus>   status = null;
+    protected Map<Long, Integer>    statusRows = null;
     protected WorkflowTableModel    model = null;
-    protected StatusWorker          worker = null;
 
     /*****************************************************************
      * ACCESSORS - required for UI.
@@ -280,11 +279,6 @@ public class MigrateApp extends JFrame
             engine = null;
         }
 
-        // kill status worker
-        if(worker != null) {
-            worker.cancel(true);
-        }
-
         setVisible(false);
         dispose();
         LOG.debug("Finished!");
@@ -336,24 +330,47 @@ public class MigrateApp extends JFrame
                         engine = null;
                     }
 
-                    // Make sure this is a number
-                    int numThreads;
+                    // Make sure this is a number, or a min-max range
+                    // for adaptive concurrency.
+                    int minThreads;
+                    int maxThreads;
 
                     try {
-                        numThreads = Integer.parseInt(concurrency);
+                        int dash = concurrency.indexOf('-');
 
-                        if(numThreads < 1) {
+                        if(dash == -1) {
+                            minThreads = Integer.parseInt(concurrency.trim());
+                            maxThreads = minThreads;
+                        } else {
+                            minThreads = Integer.parseInt(
+                                    concurrency.substring(0, dash).trim()
+                            );
+                            maxThreads = Integer.parseInt(
+                                    concurrency.substring(dash + 1).trim()
+                            );
+                        }
+
+                        if(minThreads < 1) {
                             throw new MigrateException(
                                 "At least one thread is required."
                             );
                         }
+
+                        if(maxThreads < minThreads) {
+                            throw new MigrateException(
+                                "The thread range must be low-high."
+                            );
+                        }
                     } catch(NumberFormatException e) {
                         throw new MigrateException(
-                            "The thread count must be an integer."
+                            "The thread count must be an integer, or a " +
+                            "range such as 5-20."
                         );
                     }
 
-                    LOG.debug("Concurrency set to {}", numThreads);
+                    LOG.debug("Concurrency set to {}-{}", minThreads,
+                              maxThreads
+                    );
 
                     engine = new MigrateEngine( ahpHost,
                                                 ahpPort,
@@ -388,11 +405,21 @@ public class MigrateApp extends JFrame
 
                     LOG.debug("Starting MigrateEngine ...");
 
+                    // Listen before starting so we don't miss anything.
+                    // Events are handed to the Swing thread, so they
+                    // won't land until we're done setting up here.
+                    engine.addListener(new StatusListener());
+
                     // Start our engine
-                    engine.start(wfIds, numThreads);
+                    engine.start(wfIds, minThreads, maxThreads);
 
                     // Initialize status
                     status = engine.check();
+                    statusRows = new HashMap<Long, Integer>(status.size());
+
+                    for(int i = 0; i < status.size(); i++) {
+                        statusRows.put(status.get(i).workflowId, i);
+                    }
 
                     LOG.debug("Initial status: {}", status);
 
@@ -427,12 +454,6 @@ public class MigrateApp extends JFrame
                     progressPanel.repaint();
                     pack();
 
-                    LOG.debug("Starting status worker thread.");
-
-                    // Background thread to check updates.
-                    worker = new StatusWorker();
-                    worker.execute();
-
                     return; // no more cards, evar
                 default:
             }
@@ -760,47 +781,79 @@ public class MigrateApp extends JFrame
     }
 
     /**
-     * Class for updating the status bars
+     * Class for updating the status bars.  The engine tells us when
+     * something changes and we update just that row.
      */
-    private class StatusWorker extends SwingWorker<Object, Object> {
+    private class StatusListener implements MigrateListener {
         @Override
-        protected Object doInBackground()
-                  throws Exception
+        public void progress(MigrateStatus stat)
         {
-            int numRunning = selectedWorkflows.size();
-            int numComplete = 0;
+            update(stat);
+        }
 
-            LOG.debug("StatusWorker is monitoring {} workflows", numRunning);
+        @Override
+        public void completed(MigrateStatus stat)
+        {
+            LOG.debug("Workflow complete: {}", stat);
+            update(stat);
+        }
 
-            while((!isCancelled()) && (numComplete < numRunning)) {
-                try {
-                    Thread.sleep(1000);
-                } catch(InterruptedException e) {
-                    if(isCancelled()) {
-                        return null;
+        @Override
+        public void failed(MigrateStatus stat)
+        {
+            LOG.debug("Workflow failed: {}", stat);
+            update(stat);
+        }
+
+        /*
+         * This comes in on an engine thread; the table has to be
+         * touched from the Swing thread.
+         */
+        private void update(final MigrateStatus stat)
+        {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run()
+                {
+                    if((status == null) || (statusRows == null)) {
+                        return;
                     }
-                }
 
-                // Check all progress
-                numComplete = 0;
-                status = engine.check();
+                    Integer row = statusRows.get(stat.workflowId);
+
+                    // Don't let a late progress event undo a finish
+                    if((row == null) || (status.get(row).progress == 100)) {
+                        return;
+                    }
 
-                LOG.debug("Got status: {}", status);
+                    status.set(row, stat);
+                    model.fireTableRowsUpdated(row, row);
 
-                for(MigrateStatus stat : status) {
-                    if(stat.progress == 100) {
-                        numComplete++;
+                    // Engine-wide guess, so it goes up top
+                    if(stat.etaMillis >= 0) {
+                        setTitle(sjResult.getResource("frame.title") +
+                                 " - " + formatEta(stat.etaMillis) + " " +
+                                 sjResult.getResource("label.eta")
+                        );
                     }
                 }
+            });
+        }
 
-                LOG.debug("Total complete: {}", numComplete);
+        /*
+         * 1h 5m, 12m 30s, 45s
+         */
+        private String formatEta(long ms)
+        {
+            long secs = ms / 1000;
 
-                // Re-render table.
-                progressTable.validate();
-                progressTable.repaint();
+            if(secs >= 3600) {
+                return (secs / 3600) + "h " + ((secs % 3600) / 60) + "m";
+            } else if(secs >= 60) {
+                return (secs / 60) + "m " + (secs % 60) + "s";
             }
 
-            return null;
+            return secs + "s";
         }
     }
 }
@@ -0,0 +1,658 @@
+package net.epicforce.migrate.ahp.toucb;
+
+/*
+ * MigrateCli.java
+ *
+ * Headless front end to the MigrateEngine, for build servers, cron,
+ * and anything else where popping up a Swing window isn't an option.
+ *
+ * Settings come from (highest priority first):
+ *
+ * 1. Command line options
+ * 2. A properties file (-c)
+ * 3. Environment variables
+ *
+ * Property names and their environment equivalents:
+ *
+ * ahp.host                 AHP_HOST
+ * ahp.port                 AHP_PORT
+ * ahp.user                 AHP_USER
+ * ahp.password             AHP_PASSWORD
+ * ahp.keystore.path        AHP_KEYSTORE_PATH
+ * ahp.keystore.password    AHP_KEYSTORE_PASSWORD
+ * ucb.url                  UCB_URL
+ * ucb.user                 UCB_USER
+ * ucb.password             UCB_PASSWORD
+ * threads                  THREADS         (a number, or min-max)
+ * extract.threads          EXTRACT_THREADS (AHP side; default is the
+ *                                           max of threads)
+ * workflows.file           WORKFLOWS_FILE  (one ID per line, # comments)
+ * search                   SEARCH          (AHP project name search)
+ * journal                  JOURNAL         (checkpoint file, see below)
+ * catalog.dir              CATALOG_DIR     (UCB catalog snapshots; see
+ *                                           CatalogSnapshot)
+ *
+ * Progress goes to stdout (or -o file) as tab separated lines:
+ *
+ * START     <workflow count>  <concurrency>
+ * PROGRESS  <workflow id>     <percent>
+ * DONE      <workflow id>
+ * FAILED    <workflow id>     <error message>
+ * ETA       <seconds>         (predicted time left, after DONE/FAILED)
+ * SUMMARY   <total>           <completed>      <failed>
+ *
+ * With -p, nothing is written to UCB; each workflow is only planned
+ * (see MigrateEngine.setPlanning), and after its DONE come:
+ *
+ * PLAN      <workflow id>     <create|update|delete>  <what>  <name>
+ *                             <calls>
+ * PLANNED   <workflow id>     <creates>  <updates>  <deletes>  <calls>
+ *                             <seconds on one thread>
+ *
+ * and before SUMMARY:
+ *
+ * ESTIMATE  <calls>           <seconds at the -t thread count>
+ *
+ * Seconds are calls times migrate.schedule.callMillis, so set that
+ * to what a UCB call takes for you.
+ *
+ * With a journal, a run that gets killed can simply be started again
+ * with the same journal; workflows that finished are reported DONE
+ * without being redone, and half finished ones are cleaned up and
+ * redone.  See MigrationJournal.
+ *
+ * Exit codes: 0 everything migrated, 1 at least one workflow failed,
+ * 2 bad usage / configuration / couldn't connect.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.epicforce.migrate.ahp.Migration;
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MigrateCli implements MigrateListener
+{
+    private final static Logger LOG = LoggerFactory.getLogger(MigrateCli.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILURES = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE =
+        "Usage: java -cp ahp2ucb.jar " + MigrateCli.class.getName() +
+        " [options]\n" +
+        "\n" +
+        "  -c, --config FILE      properties file with settings\n" +
+        "  -w, --workflows FILE   file of AHP workflow IDs, one per line\n" +
+        "  -s, --search NAME      migrate workflows of matching projects\n" +
+        "  -t, --threads N|MIN-MAX  UCB load concurrency (default 5)\n" +
+        "  -x, --extract-threads N  AHP extraction concurrency\n" +
+        "  -o, --output FILE      write progress lines here, not stdout\n" +
+        "  -j, --journal FILE     checkpoint here; rerun to resume\n" +
+        "  -k, --catalog DIR      keep UCB lookups here between runs\n" +
+        "  -l, --list             only list the workflows, don't migrate\n" +
+        "  -p, --plan             work out what would be done, don't do it\n" +
+        "  -h, --help             this message\n" +
+        "\n" +
+        "Any setting can also come from the environment, e.g. AHP_HOST,\n" +
+        "UCB_PASSWORD, WORKFLOWS_FILE.  See the README for the full list.\n";
+
+    /*
+     * Settings, merged from all the places they can come from.
+     */
+    private final Properties    settings;
+
+    /*
+     * Where progress lines go.  Everything that writes here
+     * synchronizes on it, since events come from many threads.
+     */
+    private final PrintWriter   out;
+
+    /*
+     * Book keeping for the run.
+     */
+    private CountDownLatch      remaining = null;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong    plannedCalls = new AtomicLong();
+
+    /*
+     * Only plan?
+     */
+    private boolean             planOnly = false;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param settings      Merged settings
+     * @param out           Where progress lines go
+     */
+    public MigrateCli(final Properties settings, final PrintWriter out)
+    {
+        this.settings = settings;
+        this.out = out;
+    }
+
+    /*****************************************************************
+     * MAIN
+     ****************************************************************/
+
+    public static void main(String[] args)
+    {
+        System.exit(run(args));
+    }
+
+    /**
+     * Does everything main does except exit, so it can be driven from
+     * other code.
+     *
+     * @param args          Command line
+     * @return exit code
+     */
+    public static int run(String[] args)
+    {
+        Properties cmdLine = new Properties();
+        String configFile = null;
+        String outputFile = null;
+        boolean listOnly = false;
+        boolean planOnly = false;
+
+        // Parse the command line
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if("-h".equals(arg) || "--help".equals(arg)) {
+                    System.out.print(USAGE);
+                    return EXIT_OK;
+                } else if("-l".equals(arg) || "--list".equals(arg)) {
+                    listOnly = true;
+                } else if("-p".equals(arg) || "--plan".equals(arg)) {
+                    planOnly = true;
+                } else if("-c".equals(arg) || "--config".equals(arg)) {
+                    configFile = args[++i];
+                } else if("-o".equals(arg) || "--output".equals(arg)) {
+                    outputFile = args[++i];
+                } else if("-w".equals(arg) || "--workflows".equals(arg)) {
+                    cmdLine.setProperty("workflows.file", args[++i]);
+                } else if("-s".equals(arg) || "--search".equals(arg)) {
+                    cmdLine.setProperty("search", args[++i]);
+                } else if("-t".equals(arg) || "--threads".equals(arg)) {
+                    cmdLine.setProperty("threads", args[++i]);
+                } else if("-x".equals(arg) ||
+                          "--extract-threads".equals(arg)) {
+                    cmdLine.setProperty("extract.threads", args[++i]);
+                } else if("-j".equals(arg) || "--journal".equals(arg)) {
+                    cmdLine.setProperty("journal", args[++i]);
+                } else if("-k".equals(arg) || "--catalog".equals(arg)) {
+                    cmdLine.setProperty("catalog.dir", args[++i]);
+                } else {
+                    System.err.println("Unknown option: " + arg);
+                    System.err.print(USAGE);
+                    return EXIT_USAGE;
+                }
+            }
+        } catch(ArrayIndexOutOfBoundsException e) {
+            System.err.println("Option is missing its value");
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        PrintWriter out = null;
+
+        try {
+            Properties settings = loadSettings(configFile, cmdLine);
+
+            if(outputFile == null) {
+                out = new PrintWriter(new OutputStreamWriter(System.out,
+                                                             "UTF-8"),
+                                      true);
+            } else {
+                out = new PrintWriter(new OutputStreamWriter(
+                                        new FileOutputStream(outputFile),
+                                        "UTF-8"),
+                                      true);
+            }
+
+            MigrateCli cli = new MigrateCli(settings, out);
+            cli.setPlanOnly(planOnly);
+
+            if(listOnly) {
+                return cli.list();
+            }
+
+            return cli.migrate();
+        } catch(IOException | MigrateException | NumberFormatException e) {
+            LOG.error("Migration could not run", e);
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        } finally {
+            if(out != null) {
+                out.flush();
+
+                if(outputFile != null) {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    /**
+     * @param planOnly      If true, migrate only works out what it
+     *                      would do to UCB.
+     */
+    public void setPlanOnly(boolean planOnly)
+    {
+        this.planOnly = planOnly;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Print the workflows we would migrate, and stop.
+     *
+     * @return exit code
+     * @throws MigrateException on failure
+     */
+    public int list()
+           throws MigrateException
+    {
+        for(Long id : getWorkflowIds()) {
+            emit("WORKFLOW", String.valueOf(id));
+        }
+
+        return EXIT_OK;
+    }
+
+    /**
+     * Run the migration and wait for it to finish.
+     *
+     * @return exit code
+     * @throws MigrateException if we can't get started
+     */
+    public int migrate()
+           throws MigrateException
+    {
+        List<Long> workflowIds = getWorkflowIds();
+
+        if(workflowIds.size() == 0) {
+            throw new MigrateException("No workflows to migrate.");
+        }
+
+        // Thread count, or range for adaptive
+        int minThreads;
+        int maxThreads;
+        String threads = settings.getProperty("threads", "5").trim();
+
+        try {
+            int dash = threads.indexOf('-');
+
+            if(dash == -1) {
+                minThreads = Integer.parseInt(threads);
+                maxThreads = minThreads;
+            } else {
+                minThreads = Integer.parseInt(
+                                threads.substring(0, dash).trim()
+                );
+                maxThreads = Integer.parseInt(
+                                threads.substring(dash + 1).trim()
+                );
+            }
+        } catch(NumberFormatException e) {
+            throw new MigrateException("Bad thread count: " + threads);
+        }
+
+        // AHP side thread count
+        int extractThreads;
+        String extract = settings.getProperty("extract.threads",
+                                              String.valueOf(maxThreads))
+                                 .trim();
+
+        try {
+            extractThreads = Integer.parseInt(extract);
+        } catch(NumberFormatException e) {
+            throw new MigrateException("Bad extract thread count: " +
+                                       extract
+            );
+        }
+
+        MigrateEngine engine = new MigrateEngine(
+                                    require("ahp.host"),
+                                    require("ahp.port"),
+                                    require("ahp.user"),
+                                    require("ahp.password"),
+                                    settings.getProperty("ahp.keystore.path"),
+                                    settings.getProperty(
+                                                    "ahp.keystore.password"),
+                                    require("ucb.url"),
+                                    require("ucb.user"),
+                                    require("ucb.password")
+        );
+
+        if(settings.getProperty("catalog.dir") != null) {
+            engine.setCatalogDir(settings.getProperty("catalog.dir"));
+        }
+
+        if(planOnly) {
+            engine.setPlanning();
+        } else if(settings.getProperty("journal") != null) {
+            engine.setJournal(settings.getProperty("journal"));
+        }
+
+        remaining = new CountDownLatch(workflowIds.size());
+        engine.addListener(this);
+
+        try {
+            engine.start(workflowIds, extractThreads, minThreads,
+                         maxThreads
+            );
+
+            emit("START", String.valueOf(workflowIds.size()),
+                 String.valueOf(engine.getConcurrency())
+            );
+
+            while(true) {
+                try {
+                    remaining.await();
+                    break;
+                } catch(InterruptedException e) { }
+            }
+        } finally {
+            engine.close();
+        }
+
+        if(planOnly) {
+            emit("ESTIMATE", String.valueOf(plannedCalls.get()),
+                 String.valueOf(plannedCalls.get() *
+                                MigrateEngine.getCallMillis() /
+                                maxThreads / 1000)
+            );
+        }
+
+        emit("SUMMARY", String.valueOf(workflowIds.size()),
+             String.valueOf(completed.get()), String.valueOf(failed.get())
+        );
+
+        if(failed.get() > 0) {
+            return EXIT_FAILURES;
+        }
+
+        return EXIT_OK;
+    }
+
+    /**
+     * (@inheritdoc)
+     */
+    @Override
+    public void progress(MigrateStatus status)
+    {
+        emit("PROGRESS", String.valueOf(status.workflowId),
+             String.valueOf(status.progress)
+        );
+    }
+
+    /**
+     * (@inheritdoc)
+     */
+    @Override
+    public void completed(MigrateStatus status)
+    {
+        completed.incrementAndGet();
+        emit("DONE", String.valueOf(status.workflowId));
+        emitPlan(status);
+        emitEta(status);
+        remaining.countDown();
+    }
+
+    /**
+     * (@inheritdoc)
+     */
+    @Override
+    public void failed(MigrateStatus status)
+    {
+        failed.incrementAndGet();
+        emit("FAILED", String.valueOf(status.workflowId),
+             status.errorMessage
+        );
+        emitEta(status);
+        remaining.countDown();
+    }
+
+    /**
+     * Get workflow IDs, from a file and/or an AHP project search.
+     * Duplicates are dropped, order is kept.
+     *
+     * @return list of workflow IDs
+     * @throws MigrateException on failure
+     */
+    protected List<Long> getWorkflowIds()
+              throws MigrateException
+    {
+        Set<Long> ret = new LinkedHashSet<Long>();
+        String file = settings.getProperty("workflows.file");
+        String search = settings.getProperty("search");
+
+        if((file == null) && (search == null)) {
+            throw new MigrateException(
+                "Either a workflow ID file or a project search is required."
+            );
+        }
+
+        if(file != null) {
+            try(BufferedReader reader = new BufferedReader(
+                                                new FileReader(file))) {
+                String line;
+                int lineNo = 0;
+
+                while((line = reader.readLine()) != null) {
+                    lineNo++;
+
+                    int hash = line.indexOf('#');
+
+                    if(hash != -1) {
+                        line = line.substring(0, hash);
+                    }
+
+                    line = line.trim();
+
+                    if(line.length() == 0) {
+                        continue;
+                    }
+
+                    try {
+                        ret.add(Long.parseLong(line));
+                    } catch(NumberFormatException e) {
+                        throw new MigrateException(
+                            file + " line " + lineNo +
+                            ": not a workflow ID: " + line
+                        );
+                    }
+                }
+            } catch(IOException e) {
+                throw new MigrateException("Could not read " + file, e);
+            }
+        }
+
+        if(search != null) {
+            Migration ahp = new Migration(require("ahp.host"),
+                                          Integer.parseInt(
+                                                require("ahp.port")),
+                                          require("ahp.user"),
+                                          require("ahp.password"),
+                                          settings.getProperty(
+                                                "ahp.keystore.path"),
+                                          settings.getProperty(
+                                                "ahp.keystore.password")
+            );
+
+            try {
+                Map<String, Map<String, Long>> wfs =
+                                ahp.fetchWorkflowsForProjectName(search, 0);
+
+                for(Map<String, Long> w : wfs.values()) {
+                    if(w != null) {
+                        ret.addAll(w.values());
+                    }
+                }
+            } finally {
+                ahp.close();
+            }
+        }
+
+        return new ArrayList<Long>(ret);
+    }
+
+    /*
+     * Get a setting we can't live without.
+     */
+    private String require(final String name)
+            throws MigrateException
+    {
+        String val = settings.getProperty(name);
+
+        if((val == null) || (val.length() == 0)) {
+            throw new MigrateException(
+                "Missing setting " + name + " (or environment " +
+                envName(name) + ")"
+            );
+        }
+
+        return val;
+    }
+
+    /*
+     * What a planned workflow would do, if it was planned.
+     */
+    private void emitPlan(final MigrateStatus status)
+    {
+        LoadPlan plan = status.plan;
+
+        if(plan == null) {
+            return;
+        }
+
+        String id = String.valueOf(status.workflowId);
+
+        for(LoadPlan.Entry e : plan.getEntries()) {
+            emit("PLAN", id, e.getAction().name().toLowerCase(), e.getWhat(),
+                 e.getName(), String.valueOf(e.getCalls())
+            );
+        }
+
+        emit("PLANNED", id,
+             String.valueOf(plan.count(LoadPlan.Action.CREATE)),
+             String.valueOf(plan.count(LoadPlan.Action.UPDATE)),
+             String.valueOf(plan.count(LoadPlan.Action.DELETE)),
+             String.valueOf(plan.getCalls()),
+             String.valueOf(plan.getEstimatedMillis(
+                                    MigrateEngine.getCallMillis()) / 1000)
+        );
+
+        plannedCalls.addAndGet(plan.getCalls());
+    }
+
+    /*
+     * Predicted time left, if the engine has a guess.
+     */
+    private void emitEta(final MigrateStatus status)
+    {
+        if(status.etaMillis >= 0) {
+            emit("ETA", String.valueOf(status.etaMillis / 1000));
+        }
+    }
+
+    /*
+     * Write a progress line.  Fields are tab separated, so tabs and
+     * newlines in them (error messages, mostly) get flattened.
+     */
+    private void emit(final String type, final String... fields)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(type);
+
+        for(String field : fields) {
+            sb.append('\t');
+
+            if(field != null) {
+                sb.append(field.replaceAll("[\\t\\r\\n]+", " "));
+            }
+        }
+
+        synchronized(out) {
+            out.println(sb.toString());
+        }
+    }
+
+    /*
+     * Merge environment, config file and command line, in that order,
+     * so later ones win.
+     */
+    private static Properties loadSettings(final String configFile,
+                                           final Properties cmdLine)
+            throws IOException
+    {
+        Properties ret = new Properties();
+        String[] names = { "ahp.host", "ahp.port", "ahp.user",
+                           "ahp.password", "ahp.keystore.path",
+                           "ahp.keystore.password", "ucb.url", "ucb.user",
+                           "ucb.password", "threads", "extract.threads",
+                           "workflows.file", "search", "journal",
+                           "catalog.dir" };
+
+        for(String name : names) {
+            String val = System.getenv(envName(name));
+
+            if(val != null) {
+                ret.setProperty(name, val);
+            }
+        }
+
+        if(configFile != null) {
+            try(InputStream in = new FileInputStream(configFile)) {
+                ret.load(in);
+            }
+        }
+
+        ret.putAll(cmdLine);
+        return ret;
+    }
+
+    private static String envName(final String name)
+    {
+        return name.toUpperCase().replace('.', '_');
+    }
+}
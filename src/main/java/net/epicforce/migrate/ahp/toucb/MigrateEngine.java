@@ -6,27 +6,71 @@ package net.epicforce.migrate.ahp.toucb;
  * The MigrateEngine does the 'heavy lifting' of actually running a
  * migration of different parts of Anthill to UCB.
  *
- * It manages the thread pool and provides status accessors and
+ * It manages the thread pools and provides status accessors and
  * controls for some wrapper (such as the GUI or a command line tool)
  *
+ * A migration runs in two stages, each with its own pool:
+ *
+ * - Extraction walks the AHP workflow with a borrowed AHP session,
+ *   working out what UCB needs.  The bulk of the UCB writes (steps,
+ *   process template, project) are queued up as a WorkflowSnapshot
+ *   instead of being made right away.
+ *
+ * - Load takes the snapshot and makes it all in UCB.  It doesn't
+ *   need AHP at all.
+ *
+ * That way AHP and UCB are both kept busy, instead of one sitting
+ * idle while we wait on the other.  Snapshots waiting to load are
+ * bounded (migrate.pipeline.queue, default twice the load thread
+ * ceiling) so extraction can't race off ahead and fill memory; it
+ * waits for room instead.
+ *
+ * Workflows don't necessarily start in the order we're given them.
+ * Each one is first surveyed for size (see CostEstimator), and the
+ * biggest are extracted first so one monster picked up last doesn't
+ * drag the whole run out.  The same estimates give us an ETA.  Set
+ * the migrate.schedule.survey system property to false to skip the
+ * survey and go in order.
+ *
+ * A survey is a full trip to AHP, so surveying everything before
+ * extracting anything would leave the load threads idle for a long
+ * time on a big batch.  Only the first migrate.schedule.headStart
+ * surveys (default 100, and never fewer than there are extraction
+ * threads) go ahead of everything; the rest are queued one by one
+ * as earlier ones finish, and rank as an average sized workflow.
+ * The trade-off is that a monster surveyed late is only extracted
+ * once it has been surveyed, behind anything bigger than average.
+ *
+ * In planning mode (setPlanning), nothing is written to UCB at all.
+ * Extraction runs against a UcbRecorder, the snapshot describes itself
+ * instead of loading, and each workflow's LoadPlan comes back on its
+ * MigrateStatus.  Use a fresh engine (and JVM) for the real thing.
+ *
+ * Extraction can also be fed by a WorkflowSource instead of AHP
+ * (setWorkflowSource); the benchmarks use that for made up workflows.
+ *
  * @autor sconley (sconley@epicforce.net)
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.IllegalArgumentException;
 import java.lang.InterruptedException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.epicforce.migrate.ahp.Migration;
 import net.epicforce.migrate.ahp.exception.MigrateException;
@@ -37,8 +81,24 @@ import com.urbancode.ubuild.client.RESTClientFactory;
 import com.urbancode.ubuild.client.plugin.Plugin;
 
 import net.epicforce.migrate.ahp.toucb.context.UcbContext;
+import net.epicforce.migrate.ahp.toucb.cost.CostEstimator;
+import net.epicforce.migrate.ahp.toucb.cost.WorkflowCost;
 import net.epicforce.migrate.ahp.toucb.loader.UcbLoader;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadState;
+import net.epicforce.migrate.ahp.toucb.pipeline.WorkflowSnapshot;
+import net.epicforce.migrate.ahp.toucb.ucb.CatalogSnapshot;
+import net.epicforce.migrate.ahp.toucb.ucb.CidSession;
+import net.epicforce.migrate.ahp.toucb.ucb.CircuitBreaker;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbConnectionPool;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbImport;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbMetrics;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbRecorder;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbThrottle;
+
+import org.apache.http.pool.PoolStats;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +113,33 @@ public class MigrateEngine
      * PROPERTIES
      ****************************************************************/
 
+    /*
+     * Survey workflow sizes and do the biggest first?
+     */
+    private static final boolean    surveyFirst = Boolean.parseBoolean(
+                    System.getProperty("migrate.schedule.survey", "true")
+    );
+
+    /*
+     * Guess at ms per UCB call per thread, for the ETA until we've
+     * finished something and can measure it.
+     */
+    private static final long       callMillis =
+                    Long.getLong("migrate.schedule.callMillis", 200L);
+
+    /*
+     * How many surveys jump the queue, ahead of any extraction, before
+     * extraction is let in.  See the class comment.
+     */
+    private static final int        headStart = Integer.getInteger(
+                                    "migrate.schedule.headStart", 100
+    );
+
+    /*
+     * Head start surveys run ahead of any extraction.
+     */
+    private static final long       SURVEY_PRIORITY = Long.MAX_VALUE;
+
     /*
      * UCB runs off a global client, that uses a singleton for login
      * creds.  So from what I can tell, you instance it once and then
@@ -73,22 +160,128 @@ public class MigrateEngine
     private final String  ahpKeystorePath;
     private final String  ahpKeystorePassword;
 
+    /*
+     * Which UCB; the catalog snapshot is kept per UCB.
+     */
+    private final String  ucbUrl;
+
     /*
      * Stuff we're going to use to keep track of our concurrent
-     * friends.
+     * friends.  One pool per stage; see above.
+     */
+    private ThreadPoolExecutor      extractService = null;
+    private ThreadPoolExecutor      loadService = null;
+
+    /*
+     * Permits for snapshots handed from extraction to load.  Taken
+     * before a snapshot is queued, given back once it has loaded.
+     */
+    private Semaphore               handoff = null;
+
+    /*
+     * Results of finished migrations come out of this, in the order
+     * they finish (from either stage), and the dispatcher thread does
+     * the book keeping for them.
+     *
+     * The result is just the workflow ID and error, if any; the
+     * Migration that ran it has already gone back to the session pool
+     * and may be busy with another workflow.
+     */
+    private final BlockingQueue<MigrateStatus>  results =
+                                    new LinkedBlockingQueue<MigrateStatus>();
+    private Thread                  dispatcher = null;
+
+    /*
+     * Logged in AHP sessions, borrowed by the worker threads one
+     * workflow at a time.
+     */
+    private AhpSessionPool          sessions = null;
+
+    /*
+     * Current status of every workflow we've been given, in the order
+     * we were given them.  It is kept up to date as things happen, so
+     * check() is just a copy.  This is also the lock for status changes.
+     */
+    private final Map<Long, MigrateStatus>  statuses =
+                                    new LinkedHashMap<Long, MigrateStatus>();
+
+    /*
+     * ETA book keeping, in estimated UCB calls.  Guarded by statuses.
+     *
+     * remainingCost    - surveyed workflows not finished yet
+     * unknownPending   - workflows not finished or surveyed yet
+     * surveyedCost     - everything surveyed, for an average
+     * doneCost         - surveyed workflows finished, for a rate
+     * surveying        - surveys queued or running
+     * headStartLeft    - room for more surveys in the extraction pool
+     * pendingSurveys   - surveys waiting for that room; see nextSurvey
+     */
+    private long    startedAt = 0;
+    private long    remainingCost = 0;
+    private int     unknownPending = 0;
+    private long    surveyedCost = 0;
+    private int     surveyedCount = 0;
+    private long    doneCost = 0;
+    private int     surveying = 0;
+    private int     headStartLeft = -1;
+    private final ArrayDeque<Survey>    pendingSurveys =
+                                            new ArrayDeque<Survey>();
+
+    /*
+     * Who wants to know when things happen.
+     */
+    private final List<MigrateListener>     listeners =
+                                new CopyOnWriteArrayList<MigrateListener>();
+
+    /*
+     * If we're running in adaptive mode, this steers the size of
+     * loadService.  Null for a fixed thread count.
+     */
+    private AdaptiveConcurrency     controller = null;
+
+    /*
+     * Checkpoint journal, if we've been given one.  See
+     * MigrationJournal.
+     */
+    private MigrationJournal        journal = null;
+
+    /*
+     * Only work out what would be done?  See setPlanning.
+     */
+    private boolean                 planning = false;
+
+    /*
+     * Where to keep the UCB catalog snapshot, or null for none.  See
+     * setCatalogDir.
      */
-    private ExecutorService         threadService = null;
-    private List<Future<Migration>> futures = 
-                                    new LinkedList<Future<Migration>>();
-    private List<Migration>         migrations =
-                                    new LinkedList<Migration>();
+    private File                    catalogDir = null;
+
+    /*
+     * Where workflows come from, if not AHP.  See setWorkflowSource.
+     */
+    private WorkflowSource          source = null;
 
     /*
      * Let's grab a list of PluginId's which will be used by
-     * all the threads.  We'll use this to sync so we only load
-     * once.
+     * all the threads.  Each maps to itself.
      */
-    private static Set<String>      ucbPlugins = new HashSet<String>();
+    private static final UcbCatalog<String, String> ucbPlugins =
+        UcbCatalog.persistent("plugins",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    Map<String, String> ret = new HashMap<>();
+
+                    for(Plugin p : Factories.getPluginFactory()
+                                            .getAllPlugins()) {
+                        ret.put(p.getPluginId(), p.getPluginId());
+                    }
+
+                    return ret;
+                }
+            }
+    );
 
     /*****************************************************************
      * CONSTRUCTORS
@@ -123,6 +316,7 @@ public class MigrateEngine
         this.ahpPassword = ahpPassword;
         this.ahpKeystorePath = ahpKeystorePath;
         this.ahpKeystorePassword = ahpKeystorePassword;
+        this.ucbUrl = ucbUrl;
 
         // UCB rather uselessly throws 'exception' everywhere.
         // Wrap it into something marginally more useful.
@@ -130,16 +324,13 @@ public class MigrateEngine
             client = RESTClientFactory.createClient(ucbUrl);
             client.login(ucbUser, ucbPassword);
 
-            // Cache a list of plugins -- this both checks the UCB connection
-            // and gives us something useful we need later.
-            synchronized(ucbPlugins) {
-                if(ucbPlugins.size() == 0) {
-                    for(Plugin p : Factories.getPluginFactory()
-                                            .getAllPlugins()) {
-                        ucbPlugins.add(p.getPluginId());
-                    }
-                }
-            }
+            // Our own UCB calls go through a shared connection pool,
+            // which needs the credentials too.
+            UcbConnectionPool.configure(ucbUser, ucbPassword);
+
+            // Everything to UCB is throttled; the UCB client's own
+            // calls are caught through its factories.
+            UcbThrottle.install();
         } catch(Exception e) {
             LOG.error("Error from UCB", e);
 
@@ -156,6 +347,132 @@ public class MigrateEngine
      * METHODS
      ****************************************************************/
 
+    /**
+     * Keep a journal of what gets created, so that if we're interrupted
+     * we can pick up where we left off.  If the file already exists,
+     * it's from an earlier run: workflows it says finished will be
+     * reported as completed without running again, and anything left
+     * half built is removed from UCB and redone.
+     *
+     * Call this before start.
+     *
+     * @param path              Journal file
+     * @throws MigrateException if it can't be opened or read.
+     */
+    public void setJournal(final String path)
+           throws MigrateException
+    {
+        if(extractService != null) {
+            throw new MigrateException(
+                "The journal must be set before the migration is started."
+            );
+        }
+
+        if(planning) {
+            throw new MigrateException(
+                "There is no journal in planning mode."
+            );
+        }
+
+        if(journal != null) {
+            journal.close();
+        }
+
+        journal = new MigrationJournal(path);
+    }
+
+    /**
+     * Work out what the migration would do to UCB without doing it.
+     * Every workflow is extracted as usual, but its UCB writes are
+     * recorded rather than sent (see UcbRecorder), and the load stage
+     * is skipped.  What would have been done comes back as the plan
+     * on each completed MigrateStatus.
+     *
+     * UCB is still read, since what's there already decides what
+     * gets made.  Call this before start; there's no going back, and
+     * there's no journal in planning mode.
+     *
+     * @throws MigrateException if started already, there's a journal,
+     *         or UCB can't be recorded safely.
+     */
+    public void setPlanning()
+           throws MigrateException
+    {
+        if(extractService != null) {
+            throw new MigrateException(
+                "Planning must be set before the migration is started."
+            );
+        }
+
+        if(journal != null) {
+            throw new MigrateException(
+                "There is no journal in planning mode."
+            );
+        }
+
+        UcbRecorder.install();
+        planning = true;
+    }
+
+    /**
+     * Keep a snapshot of the UCB catalogs (artifact sets, statuses,
+     * plugins, notification bits...) in a directory, so the next run
+     * can start from it instead of pulling them all from UCB again.
+     * See CatalogSnapshot.  It's written when the engine is closed,
+     * unless we're only planning.
+     *
+     * Call this before start.
+     *
+     * @param dir               Directory for snapshots; made if needed.
+     * @throws MigrateException if started already.
+     */
+    public void setCatalogDir(final String dir)
+           throws MigrateException
+    {
+        if(extractService != null) {
+            throw new MigrateException(
+                "The catalog directory must be set before the migration " +
+                "is started."
+            );
+        }
+
+        catalogDir = new File(dir);
+    }
+
+    /**
+     * Take workflows from a WorkflowSource instead of AHP.  No AHP
+     * sessions are made, and workflows go in the order given, since
+     * there's no AHP to size them up from.  The AHP settings given to
+     * the constructor are ignored.
+     *
+     * Call this before start.
+     *
+     * @param source            Where workflows come from
+     * @throws MigrateException if started already.
+     */
+    public void setWorkflowSource(final WorkflowSource source)
+           throws MigrateException
+    {
+        if(extractService != null) {
+            throw new MigrateException(
+                "The workflow source must be set before the migration " +
+                "is started."
+            );
+        }
+
+        this.source = source;
+    }
+
+    /**
+     * @return ms per UCB call per thread we guess at, before we've
+     *         measured anything.  The migrate.schedule.callMillis
+     *         system property.
+     */
+    public static long getCallMillis()
+    {
+        return callMillis;
+    }
+
     /**
      * Takes a list of AHP workflows and starts a migration of them.
      *
@@ -166,47 +483,231 @@ public class MigrateEngine
      * error or not checking and it will throw a MigrateException
      *
      * @param workflowIds           The workflows to operate on
-     * @param threadCount           The level of concurrency
+     * @param threadCount           The level of concurrency, for both
+     *                              extraction and load.
      * @throws MigrateException on failure.
      */
     public void start(final List<Long> workflowIds, int threadCount)
            throws MigrateException
     {
-        LOG.debug("Starting MigrateEngine!  Workflows: {}, Thread count: {}",
-                  workflowIds, threadCount
+        start(workflowIds, threadCount, threadCount, threadCount);
+    }
+
+    /**
+     * Same as start above, but lets the engine pick the load
+     * concurrency for itself, anywhere between floor and ceiling.  It
+     * starts at floor and grows while UCB stays healthy, and backs off
+     * when UCB starts erroring or slowing down.  See
+     * AdaptiveConcurrency.
+     *
+     * Extraction gets ceiling threads.
+     *
+     * If floor == ceiling, that's just a fixed thread count.
+     *
+     * @param workflowIds           The workflows to operate on
+     * @param floor                 Minimum load concurrency
+     * @param ceiling               Maximum load concurrency
+     * @throws MigrateException on failure.
+     */
+    public void start(final List<Long> workflowIds, int floor, int ceiling)
+           throws MigrateException
+    {
+        start(workflowIds, ceiling, floor, ceiling);
+    }
+
+    /**
+     * Same as start above, with the extraction thread count set on its
+     * own.  Extraction is bound by AHP and load by UCB, so they don't
+     * necessarily want the same number of threads.
+     *
+     * The thread counts are set by the first start call; later calls
+     * just queue up more workflows.
+     *
+     * @param workflowIds           The workflows to operate on
+     * @param extractThreads        AHP extraction concurrency (this is
+     *                              also the AHP session pool size)
+     * @param floor                 Minimum load concurrency
+     * @param ceiling               Maximum load concurrency
+     * @throws MigrateException on failure.
+     */
+    public void start(final List<Long> workflowIds, int extractThreads,
+                      int floor, int ceiling)
+           throws MigrateException
+    {
+        LOG.debug("Starting MigrateEngine!  Workflows: {}, Extract " +
+                  "threads: {}, Load threads: {}-{}",
+                  workflowIds, extractThreads, floor, ceiling
         );
 
+        if((floor < 1) || (ceiling < floor)) {
+            throw new MigrateException(
+                "Invalid concurrency range: " + floor + "-" + ceiling
+            );
+        }
+
+        if(extractThreads < 1) {
+            throw new MigrateException(
+                "Invalid extraction thread count: " + extractThreads
+            );
+        }
+
         try {
             // Initialize if we need to
-            if(threadService == null) {
-                LOG.debug("Created threadService");
-                threadService = Executors.newFixedThreadPool(threadCount);
+            if(extractService == null) {
+                // Warm start the catalogs, if we can, before anybody
+                // uses them.  Plugins we always need, and it checks
+                // the UCB connection.
+                if(catalogDir != null) {
+                    CatalogSnapshot.open(catalogDir, ucbUrl);
+                }
+
+                UcbMetrics.start();
+                ucbPlugins.load();
+
+                LOG.debug("Created extractService and loadService");
+                // Prioritized tasks only; see Prioritized
+                extractService = new ThreadPoolExecutor(
+                                    extractThreads, extractThreads, 0L,
+                                    TimeUnit.MILLISECONDS,
+                                    new PriorityBlockingQueue<Runnable>()
+                );
+
+                loadService = new ThreadPoolExecutor(
+                                    ceiling, ceiling, 0L,
+                                    TimeUnit.MILLISECONDS,
+                                    new LinkedBlockingQueue<Runnable>()
+                );
+
+                if(floor < ceiling) {
+                    controller = new AdaptiveConcurrency(loadService,
+                                                         floor, ceiling
+                    );
+                    controller.start();
+                }
+
+                handoff = new Semaphore(Math.max(1,
+                                    Integer.getInteger("migrate.pipeline.queue",
+                                                       ceiling * 2)
+                ));
+
+                if(source == null) {
+                    sessions = new AhpSessionPool(ahpHost, ahpPort, ahpUser,
+                                                  ahpPassword,
+                                                  ahpKeystorePath,
+                                                  ahpKeystorePassword,
+                                                  extractThreads
+                    );
+                }
+
+                final ThreadPoolExecutor extract = extractService;
+                final ThreadPoolExecutor load = loadService;
+
+                dispatcher = new Thread(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        dispatch(extract, load);
+                    }
+                }, "migrate-dispatcher");
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+
+                // One connection per thread, at least, or threads will
+                // just queue up waiting for a socket.  Both stages
+                // talk to UCB.
+                UcbConnectionPool.ensureCapacity(extractThreads + ceiling);
             }
 
             // Loader is shared for everyone
-            UcbLoader loader = new UcbLoader();
+            final UcbLoader loader = new UcbLoader();
+
+            // Only AHP workflows can be sized up
+            final boolean survey = surveyFirst && (source == null);
+
+            synchronized(statuses) {
+                if(headStartLeft < 0) {
+                    headStartLeft = Math.max(headStart, extractThreads);
+                }
+            }
+
+            for(final Long workflowId : workflowIds) {
+                // Finished on an earlier run?
+                if((journal != null) && journal.isWorkflowDone(workflowId)) {
+                    LOG.info("Workflow {} already migrated per the journal",
+                             workflowId
+                    );
+                    alreadyDone(workflowId);
+                    continue;
+                }
 
-            for(Long workflowId : workflowIds) {
                 // Context is unique for each thread.
-                UcbContext context = new UcbContext(ucbPlugins);
+                final UcbContext context = new UcbContext(ucbPlugins);
+                context.setJournal(journal);
 
-                Migration migrate = new Migration(ahpHost, ahpPort,
-                                                  ahpUser, ahpPassword,
-                                                  ahpKeystorePath,
-                                                  ahpKeystorePassword);
-                migrate.setWorkflowId(workflowId);
-                migrate.setContext(context);
-                migrate.setLoader(loader);
+                synchronized(statuses) {
+                    MigrateStatus status = new MigrateStatus();
+                    status.workflowId = workflowId;
+                    statuses.put(workflowId, status);
+
+                    if(startedAt == 0) {
+                        startedAt = System.currentTimeMillis();
+                    }
+
+                    unknownPending++;
+
+                    if(survey) {
+                        surveying++;
+                    }
+                }
 
                 LOG.debug("Submitting Migration job for workflow: {}",
                           workflowId
                 );
 
-                // Queue it up to run
-                Future<Migration> future = threadService.submit(migrate,
-                                                                migrate);
-                futures.add(future);
-                migrations.add(migrate);
+                final Runnable extract = new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        LoadPlan plan = planning ? new LoadPlan(workflowId)
+                                                 : null;
+                        MigrateStatus result = extract(workflowId, context,
+                                                       loader, plan
+                        );
+
+                        if(result.errorMessage != null) {
+                            results.add(result);
+                        } else if(plan != null) {
+                            results.add(plan(context.buildSnapshot(
+                                                            workflowId),
+                                             plan
+                            ));
+                        } else {
+                            handOff(context.buildSnapshot(workflowId));
+                        }
+                    }
+                };
+
+                if(!survey) {
+                    // Queue it up to run, in order
+                    extractService.execute(new Prioritized(0, extract));
+                    continue;
+                }
+
+                // Size it up first, then queue it up by size.  Past
+                // the head start, it waits its turn; see nextSurvey.
+                Survey task = new Survey(workflowId, extract);
+
+                synchronized(statuses) {
+                    if(headStartLeft == 0) {
+                        pendingSurveys.add(task);
+                        continue;
+                    }
+
+                    headStartLeft--;
+                }
+
+                extractService.execute(new Prioritized(SURVEY_PRIORITY,
+                                                       task));
             }
         } catch(RejectedExecutionException | IllegalArgumentException e) {
             LOG.error("Failed to start threads", e);
@@ -217,65 +718,127 @@ public class MigrateEngine
     }
 
     /**
-     * This method returns status of the migration process.  It also
-     * does book-keeping involved with keeping the whole show running.
+     * This method returns status of the migration process.
      *
      * When all MigrateStatus objects return progress == 100, it can be
      * assumed done and the 'close' method can be called.
      *
+     * This is just a copy of what we know; the book keeping happens as
+     * migrations progress and finish.  If you want to know about
+     * changes as they happen, use addListener instead of calling this
+     * over and over.
+     *
      * @returns List of MigrateStatus
      */
     public List<MigrateStatus> check()
     {
-        List<MigrateStatus> ret =
-                                new ArrayList<MigrateStatus>(migrations.size());
+        synchronized(statuses) {
+            List<MigrateStatus> ret =
+                                new ArrayList<MigrateStatus>(statuses.size());
 
-        for(Migration m : migrations) {
-            MigrateStatus status = new MigrateStatus();
+            for(MigrateStatus status : statuses.values()) {
+                ret.add(copyStatus(status));
+            }
 
-            status.workflowId = m.getWorkflowId();
-            status.progress = m.getProgress();
+            return ret;
+        }
+    }
 
-            if((status.progress == 100) && (m.getError() != null)) {
-                status.errorMessage = m.getError().getMessage();
-            }
+    /**
+     * Register for progress, completion and failure events.
+     *
+     * @param listener          Who to tell
+     */
+    public void addListener(final MigrateListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling someone about events.
+     *
+     * @param listener          Who to stop telling
+     */
+    public void removeListener(final MigrateListener listener)
+    {
+        listeners.remove(listener);
+    }
 
-            ret.add(status);
+    /**
+     * How many migrations are allowed to load into UCB at once right
+     * now.  In adaptive mode this moves around.
+     *
+     * @return current load concurrency, or 0 if not started.
+     */
+    public int getConcurrency()
+    {
+        if(controller != null) {
+            return controller.getConcurrency();
         }
 
-        // Poke our futures -- this is necessary to find failures.
-        for(Future<Migration> future : futures) {
-            try {
-                Migration result = future.get(0, TimeUnit.SECONDS);
-
-                // this one is done -- close it
-                result.close();
-            } catch(TimeoutException | InterruptedException |
-                    CancellationException e) {
-                // don't care
-            } catch(ExecutionException e) {
-                // this is probably a runtime error.
-                LOG.error("Fatal thread error: {}", e);
-
-                // Find the appropriate Migrate object and mark it error
-                int index = futures.indexOf(future);
-
-                if(index == -1) { // this shouldn't happen
-                    LOG.error("The impossible has happened :(  " +
-                              "Our future is lost."
-                    );
-                } else {
-                    Migration toDie = migrations.get(index);
-                    toDie.setError(
-                        new MigrateException("Migration failure",
-                                             (Exception)e.getCause())
-                    );
-                    toDie.close();
-                }
-            }
+        ThreadPoolExecutor load = loadService;
+
+        if(load != null) {
+            return load.getMaximumPoolSize();
         }
 
-        return ret;
+        return 0;
+    }
+
+    /**
+     * Predicted time until every workflow given so far is finished,
+     * based on their estimated cost and how fast we've been getting
+     * through them.
+     *
+     * @return ms remaining, or -1 if we can't guess yet.
+     */
+    public long getEstimatedRemainingMillis()
+    {
+        synchronized(statuses) {
+            return etaLocked();
+        }
+    }
+
+    /**
+     * Statistics for the UCB connection pool; leased, pending,
+     * available and max connections.  If pending is regularly non-zero,
+     * the pool is too small for the thread count.
+     *
+     * @return PoolStats, or null if the pool isn't set up.
+     */
+    public PoolStats getUcbPoolStats()
+    {
+        return UcbConnectionPool.getStats();
+    }
+
+    /**
+     * Statistics for the AHP session pool; how many sessions there
+     * are, and how long threads have waited to borrow one.
+     *
+     * @return AhpSessionPool.Stats, or null if not started.
+     */
+    public AhpSessionPool.Stats getAhpPoolStats()
+    {
+        AhpSessionPool pool = sessions;
+
+        if(pool == null) {
+            return null;
+        }
+
+        return pool.getStats();
+    }
+
+    /**
+     * Is UCB currently answering?  When this is false, the circuit
+     * breaker is open and every migration thread is paused waiting for
+     * UCB to come back, rather than failing.
+     *
+     * @return true if UCB calls are flowing normally.
+     */
+    public boolean isUcbAvailable()
+    {
+        return CircuitBreaker.getShared().getState() ==
+               CircuitBreaker.State.CLOSED;
     }
 
     /**
@@ -290,32 +853,732 @@ public class MigrateEngine
      */
     public void close(boolean immediate)
     {
-        if(threadService != null) {
-            if(immediate) {
-                threadService.shutdownNow();
-            } else {
-                threadService.shutdown();
-            }
+        if(controller != null) {
+            controller.stop();
+            controller = null;
         }
 
-        while(true) {
-            try {
-                if(threadService.awaitTermination(1, TimeUnit.DAYS)) {
-                    for(Migration m : migrations) {
-                        m.close();
-                    }
+        if(extractService == null) {
+            if(journal != null) {
+                journal.close();
+                journal = null;
+            }
 
-                    migrations.clear();
+            return;
+        }
 
-                    threadService = null;
-                    return;
+        // Extraction feeds load, so it has to finish first.  If we're
+        // stopping hard, there's no point waiting for that.  Surveys
+        // queue the extraction after them, so they have to be done
+        // before the pool stops taking work.
+        if(!immediate) {
+            synchronized(statuses) {
+                while(surveying > 0) {
+                    try {
+                        statuses.wait();
+                    } catch(InterruptedException e) { }
                 }
-            } catch(InterruptedException e) { }
+            }
         }
+
+        if(immediate) {
+            extractService.shutdownNow();
+            loadService.shutdownNow();
+        } else {
+            extractService.shutdown();
+        }
+
+        awaitTermination(extractService);
+
+        loadService.shutdown();
+        awaitTermination(loadService);
+
+        // Let the dispatcher finish up whatever is left.
+        while(true) {
+            try {
+                dispatcher.join();
+                break;
+            } catch(InterruptedException e) { }
+        }
+
+        if(sessions != null) {
+            sessions.close();
+        }
+
+        LOG.debug("UCB connection pool at close: {}",
+                  UcbConnectionPool.getStats()
+        );
+        LOG.debug("CID sessions: {} opened, {} waited",
+                  CidSession.getOpened(), CidSession.getContended()
+        );
+        LOG.debug("UCB catalogs: {}", UcbCatalog.getStats());
+        LOG.debug("UCB imports: {}", UcbImport.getStats());
+        LOG.debug("UCB form posts: {}", UcbClient.getStats());
+        LOG.debug("UCB throttle: {}", UcbThrottle.getStats());
+
+        UcbMetrics.stop();
+        LOG.debug("UCB endpoints:{}", UcbMetrics.getReport());
+
+        // Made up IDs from planning must not be kept.
+        if(!planning) {
+            CatalogSnapshot.save();
+        }
+
+        if(journal != null) {
+            journal.close();
+            journal = null;
+        }
+
+        extractService = null;
+        loadService = null;
+        handoff = null;
+        dispatcher = null;
+        sessions = null;
     }
 
     public void close()
     {
         close(false);
     }
+
+    /*
+     * Wait out a pool, however long it takes.
+     */
+    private static void awaitTermination(final ThreadPoolExecutor service)
+    {
+        while(true) {
+            try {
+                if(service.awaitTermination(1, TimeUnit.DAYS)) {
+                    return;
+                }
+            } catch(InterruptedException e) { }
+        }
+    }
+
+    /*
+     * Dispatcher loop.  Takes migrations as they finish and does the
+     * book keeping, until both pools are shut down and drained.
+     */
+    private void dispatch(final ThreadPoolExecutor extract,
+                          final ThreadPoolExecutor load)
+    {
+        while(true) {
+            MigrateStatus result;
+
+            try {
+                result = results.poll(1, TimeUnit.SECONDS);
+            } catch(InterruptedException e) {
+                return;
+            }
+
+            if(result == null) {
+                if(extract.isTerminated() && load.isTerminated() &&
+                   results.isEmpty()) {
+                    return;
+                }
+
+                continue;
+            }
+
+            try {
+                finished(result);
+            } catch(RuntimeException e) {
+                // A listener blew up; don't let it kill the dispatcher
+                LOG.error("Error dispatching migration result", e);
+            }
+        }
+    }
+
+    /*
+     * Size up one workflow on an extraction thread, with a session
+     * borrowed from the pool.  Never throws; if we can't tell, the
+     * workflow just goes to the back of the line.
+     */
+    private WorkflowCost survey(final Long workflowId)
+    {
+        AhpSessionPool.Session session;
+
+        try {
+            session = sessions.borrow();
+        } catch(MigrateException | InterruptedException e) {
+            LOG.warn("Could not survey workflow {}: {}", workflowId,
+                     e.toString()
+            );
+            return null;
+        }
+
+        boolean healthy = true;
+        WorkflowCost cost = null;
+
+        try {
+            cost = CostEstimator.survey(session.getMigration(), workflowId);
+        } catch(MigrateException e) {
+            // It'll very likely fail extraction the same way, and
+            // report it then.
+            LOG.warn("Could not survey workflow {}: {}", workflowId,
+                     e.getMessage()
+            );
+            healthy = !isSessionFault(e);
+        } catch(RuntimeException e) {
+            LOG.warn("Could not survey workflow " + workflowId, e);
+            healthy = false;
+        } finally {
+            sessions.release(session, healthy);
+        }
+
+        if(cost != null) {
+            LOG.debug("{}", cost);
+
+            synchronized(statuses) {
+                MigrateStatus status = statuses.get(workflowId);
+
+                status.cost = cost.getScore();
+                unknownPending--;
+                remainingCost += status.cost;
+                surveyedCost += status.cost;
+                surveyedCount++;
+            }
+        }
+
+        return cost;
+    }
+
+    /*
+     * A survey finished; queue up the one waiting behind it, if there
+     * is one, or give its room back.  The next one ranks as an average
+     * workflow: ahead of extracting anything smaller, behind anything
+     * bigger.
+     */
+    private void nextSurvey()
+    {
+        Survey next;
+        long priority;
+
+        synchronized(statuses) {
+            next = pendingSurveys.poll();
+
+            if(next == null) {
+                headStartLeft++;
+                return;
+            }
+
+            priority = (surveyedCount == 0) ? 0 :
+                                        (surveyedCost / surveyedCount);
+        }
+
+        try {
+            extractService.execute(new Prioritized(priority, next));
+        } catch(RejectedExecutionException e) {
+            // Shut down hard; nothing else is getting surveyed.
+            while(next != null) {
+                results.add(failure(next.workflowId,
+                                    "Shut down before extraction"
+                ));
+                surveyed();
+
+                synchronized(statuses) {
+                    next = pendingSurveys.poll();
+                }
+            }
+        }
+    }
+
+    /*
+     * A survey is done with, one way or another.
+     */
+    private void surveyed()
+    {
+        synchronized(statuses) {
+            surveying--;
+
+            if(surveying == 0) {
+                long eta = etaLocked();
+
+                LOG.info("Surveyed {} workflows; predicted time " +
+                         "remaining {}s", statuses.size(),
+                         (eta < 0) ? "unknown" : String.valueOf(eta / 1000)
+                );
+            }
+
+            statuses.notifyAll();
+        }
+    }
+
+    /*
+     * Queue up extraction from a worker thread.  If we've been shut
+     * down hard in the meantime, it's a failure.
+     */
+    private void schedule(final Long workflowId, long priority,
+                          final Runnable task)
+    {
+        try {
+            extractService.execute(new Prioritized(priority, task));
+        } catch(RejectedExecutionException e) {
+            results.add(failure(workflowId, "Shut down before extraction"));
+        }
+    }
+
+    /*
+     * Predicted ms remaining; caller holds the statuses lock.
+     *
+     * Workflows we couldn't survey are assumed to be average.  Until
+     * something has finished, we go by callMillis.
+     */
+    private long etaLocked()
+    {
+        long remaining = remainingCost;
+
+        if(unknownPending > 0) {
+            if(surveyedCount == 0) {
+                return -1;
+            }
+
+            remaining += unknownPending * (surveyedCost / surveyedCount);
+        }
+
+        if(remaining <= 0) {
+            return 0;
+        }
+
+        double msPerCall;
+
+        if(doneCost > 0) {
+            msPerCall = (double)(System.currentTimeMillis() - startedAt) /
+                        doneCost;
+        } else {
+            msPerCall = (double)callMillis / Math.max(1, getConcurrency());
+        }
+
+        return Math.round(remaining * msPerCall);
+    }
+
+    /*
+     * Pass an extracted workflow to the load stage, waiting for room
+     * if too many are already waiting.  Runs on an extraction thread,
+     * after its AHP session has gone back to the pool.
+     */
+    private void handOff(final WorkflowSnapshot snapshot)
+    {
+        final Semaphore permits = handoff;
+
+        try {
+            permits.acquire();
+        } catch(InterruptedException e) {
+            results.add(failure(snapshot.getWorkflowId(),
+                                "Interrupted waiting to load into UCB")
+            );
+            return;
+        }
+
+        try {
+            loadService.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        results.add(load(snapshot));
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            permits.release();
+            results.add(failure(snapshot.getWorkflowId(),
+                                "Shut down before loading into UCB")
+            );
+        }
+    }
+
+    /*
+     * Load one extracted workflow into UCB on a load thread.  Never
+     * throws, same as extract.
+     */
+    private MigrateStatus load(final WorkflowSnapshot snapshot)
+    {
+        final Long workflowId = snapshot.getWorkflowId();
+
+        LOG.debug("Loading workflow {} ({} operations)", workflowId,
+                  snapshot.getOps().size()
+        );
+
+        try {
+            // Second half of the progress bar is ours
+            snapshot.load(new LoadState(workflowId, journal),
+                          new WorkflowSnapshot.Progress() {
+                @Override
+                public void loaded(int done, int total)
+                {
+                    progressed(workflowId, 50 + (done * 50) / total);
+                }
+            });
+        } catch(MigrateException e) {
+            LOG.error("Error loading workflow " + snapshot.getWorkflowName(),
+                      e
+            );
+            return failure(workflowId, e.getMessage());
+        } catch(RuntimeException e) {
+            LOG.error("Fatal thread error", e);
+            return failure(workflowId, "Migration failure");
+        } catch(Error e) {
+            LOG.error("Fatal thread error", e);
+            return failure(workflowId, "Migration failure: " + e.toString());
+        }
+
+        MigrateStatus result = new MigrateStatus();
+        result.workflowId = workflowId;
+        return result;
+    }
+
+    /*
+     * Planning mode stand-in for load: have the snapshot describe
+     * itself.  Runs on the extraction thread.  Never throws.
+     */
+    private MigrateStatus plan(final WorkflowSnapshot snapshot,
+                               final LoadPlan plan)
+    {
+        final Long workflowId = snapshot.getWorkflowId();
+
+        try {
+            snapshot.plan(plan);
+        } catch(MigrateException e) {
+            LOG.error("Error planning workflow " + snapshot.getWorkflowName(),
+                      e
+            );
+            return failure(workflowId, e.getMessage());
+        } catch(RuntimeException e) {
+            LOG.error("Fatal thread error", e);
+            return failure(workflowId, "Planning failure");
+        }
+
+        LOG.debug("{}", plan);
+
+        MigrateStatus result = new MigrateStatus();
+        result.workflowId = workflowId;
+        result.plan = plan;
+        return result;
+    }
+
+    private static MigrateStatus failure(final Long workflowId,
+                                         final String errorMessage)
+    {
+        MigrateStatus result = new MigrateStatus();
+
+        result.workflowId = workflowId;
+        result.errorMessage = errorMessage;
+
+        return result;
+    }
+
+    /*
+     * Extract one workflow on an extraction thread, with a session
+     * borrowed from the pool.  Never throws; whatever happens ends up
+     * in the result so the dispatcher knows who finished and how.  If
+     * there's no error, the context has the snapshot to load.
+     *
+     * If plan isn't null, UCB writes are recorded there instead of
+     * being made.
+     */
+    private MigrateStatus extract(final Long workflowId,
+                                  final UcbContext context,
+                                  final UcbLoader loader,
+                                  final LoadPlan plan)
+    {
+        if(source != null) {
+            return extractFromSource(workflowId, context, plan);
+        }
+
+        MigrateStatus result = new MigrateStatus();
+        result.workflowId = workflowId;
+
+        AhpSessionPool.Session session;
+
+        try {
+            session = sessions.borrow();
+        } catch(MigrateException e) {
+            LOG.error("Could not get an AHP session", e);
+            result.errorMessage = e.getMessage();
+            return result;
+        } catch(InterruptedException e) {
+            result.errorMessage = "Interrupted waiting for an AHP session";
+            return result;
+        }
+
+        final Migration migrate = session.getMigration();
+        boolean healthy = true;
+
+        try {
+            // Sessions are reused, so clear out the last workflow.
+            migrate.setError(null);
+            migrate.setWorkflowId(workflowId);
+            migrate.setContext(context);
+            migrate.setLoader(loader);
+
+            // The migration hooks poke this as they go.  Extraction is
+            // the first half of the progress bar.
+            context.setProgressHook(new Runnable() {
+                @Override
+                public void run()
+                {
+                    progressed(workflowId, migrate.getProgress() / 2);
+                }
+            });
+
+            if(plan != null) {
+                UcbRecorder.begin(plan);
+            }
+
+            try {
+                migrate.run();
+            } finally {
+                UcbRecorder.end();
+            }
+
+            if(migrate.getError() != null) {
+                result.errorMessage = migrate.getError().getMessage();
+                healthy = !isSessionFault(migrate.getError());
+            }
+        } catch(RuntimeException e) {
+            LOG.error("Fatal thread error", e);
+            result.errorMessage = "Migration failure";
+            healthy = false;
+        } catch(Error e) {
+            LOG.error("Fatal thread error", e);
+            result.errorMessage = "Migration failure: " + e.toString();
+            healthy = false;
+        } finally {
+            sessions.release(session, healthy);
+        }
+
+        return result;
+    }
+
+    /*
+     * extract, from the WorkflowSource instead of AHP.
+     */
+    private MigrateStatus extractFromSource(final Long workflowId,
+                                            final UcbContext context,
+                                            final LoadPlan plan)
+    {
+        MigrateStatus result = new MigrateStatus();
+        result.workflowId = workflowId;
+
+        if(plan != null) {
+            UcbRecorder.begin(plan);
+        }
+
+        try {
+            source.extract(workflowId, context);
+        } catch(MigrateException e) {
+            result.errorMessage = e.getMessage();
+        } catch(RuntimeException e) {
+            LOG.error("Fatal thread error", e);
+            result.errorMessage = "Migration failure";
+        } finally {
+            UcbRecorder.end();
+        }
+
+        return result;
+    }
+
+    /*
+     * Did this error come from the connection rather than from the
+     * workflow?  Our own errors ("already exists", "not supported")
+     * say nothing about the session, but an I/O failure underneath
+     * may mean AHP dropped us, so don't hand that session out again.
+     */
+    private static boolean isSessionFault(final Throwable error)
+    {
+        for(Throwable t = error; t != null; t = t.getCause()) {
+            if(t instanceof IOException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * A migration is done, one way or another.
+     */
+    private void finished(final MigrateStatus result)
+    {
+        // Write it down before telling anyone, so a crash right after
+        // this doesn't redo it.
+        if((result.errorMessage == null) && (journal != null)) {
+            try {
+                journal.workflowDone(result.workflowId);
+            } catch(MigrateException e) {
+                LOG.error("Could not journal workflow " + result.workflowId,
+                          e
+                );
+            }
+        }
+
+        MigrateStatus copy;
+
+        synchronized(statuses) {
+            MigrateStatus status = statuses.get(result.workflowId);
+
+            status.progress = 100;
+            status.errorMessage = result.errorMessage;
+            status.plan = result.plan;
+
+            if(status.cost > 0) {
+                remainingCost -= status.cost;
+                doneCost += status.cost;
+            } else {
+                unknownPending--;
+            }
+
+            copy = copyStatus(status);
+        }
+
+        for(MigrateListener listener : listeners) {
+            if(copy.errorMessage == null) {
+                listener.completed(copy);
+            } else {
+                listener.failed(copy);
+            }
+        }
+    }
+
+    /*
+     * A workflow the journal says an earlier run finished.  It goes
+     * straight to completed.
+     */
+    private void alreadyDone(final Long workflowId)
+    {
+        MigrateStatus copy;
+
+        synchronized(statuses) {
+            MigrateStatus status = new MigrateStatus();
+            status.workflowId = workflowId;
+            status.progress = 100;
+            statuses.put(workflowId, status);
+
+            copy = copyStatus(status);
+        }
+
+        for(MigrateListener listener : listeners) {
+            listener.completed(copy);
+        }
+    }
+
+    /*
+     * Progress hook for running migrations.  100 is left for finished,
+     * since the Migration may still be closing up shop.
+     */
+    private void progressed(final Long workflowId, int progress)
+    {
+        MigrateStatus copy;
+
+        synchronized(statuses) {
+            MigrateStatus status = statuses.get(workflowId);
+
+            if((status == null) || (progress >= 100) ||
+               (status.progress == progress)) {
+                return;
+            }
+
+            status.progress = progress;
+            copy = copyStatus(status);
+        }
+
+        for(MigrateListener listener : listeners) {
+            listener.progress(copy);
+        }
+    }
+
+    /*
+     * Listeners and check() get copies so they can't mess with ours.
+     * Caller holds the statuses lock.
+     */
+    private MigrateStatus copyStatus(final MigrateStatus status)
+    {
+        MigrateStatus ret = new MigrateStatus();
+
+        ret.workflowId = status.workflowId;
+        ret.progress = status.progress;
+        ret.errorMessage = status.errorMessage;
+        ret.concurrency = getConcurrency();
+        ret.cost = status.cost;
+        ret.etaMillis = etaLocked();
+        ret.plan = status.plan;
+
+        return ret;
+    }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * Size up a workflow, queue its extraction by size, and queue the
+     * next survey in line.
+     */
+    private class Survey implements Runnable
+    {
+        private final Long      workflowId;
+        private final Runnable  extract;
+
+        private Survey(final Long workflowId, final Runnable extract)
+        {
+            this.workflowId = workflowId;
+            this.extract = extract;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                WorkflowCost cost = survey(workflowId);
+
+                schedule(workflowId,
+                         (cost == null) ? 0 : cost.getScore(),
+                         extract
+                );
+            } finally {
+                nextSurvey();
+                surveyed();
+            }
+        }
+    }
+
+    /*
+     * Extraction pool task.  Highest priority runs first; ties go in
+     * the order they were queued.
+     */
+    private static class Prioritized
+                    implements Runnable, Comparable<Prioritized>
+    {
+        private static final AtomicLong counter = new AtomicLong();
+
+        private final long      priority;
+        private final long      sequence = counter.getAndIncrement();
+        private final Runnable  task;
+
+        private Prioritized(long priority, final Runnable task)
+        {
+            this.priority = priority;
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(final Prioritized other)
+        {
+            if(priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+
+            return (sequence < other.sequence) ? -1 :
+                   ((sequence > other.sequence) ? 1 : 0);
+        }
+    }
 }
@@ -0,0 +1,41 @@
+package net.epicforce.migrate.ahp.toucb;
+
+/*
+ * MigrateListener.java
+ *
+ * Something that wants to hear about migrations as they happen,
+ * rather than polling MigrateEngine.check().  Register with
+ * MigrateEngine.addListener.
+ *
+ * These are called on engine threads, NOT the Swing event thread,
+ * and should return quickly -- a slow listener slows the engine.
+ * Each call gets its own copy of the status, so hang on to it if
+ * you like.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+public interface MigrateListener
+{
+    /**
+     * A running workflow's progress changed.
+     *
+     * @param status        Current status, progress < 100
+     */
+    public void progress(MigrateStatus status);
+
+    /**
+     * A workflow finished without error.
+     *
+     * @param status        Final status, progress == 100
+     */
+    public void completed(MigrateStatus status);
+
+    /**
+     * A workflow finished with an error.
+     *
+     * @param status        Final status, progress == 100 and
+     *                      errorMessage set
+     */
+    public void failed(MigrateStatus status);
+}
@@ -2,6 +2,8 @@ package net.epicforce.migrate.ahp.toucb;
 
 import java.lang.StringBuilder;
 
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+
 /*
  * MigrateStatus.java
  *
@@ -18,6 +20,30 @@ public class MigrateStatus
     public int      progress = 0;
     public String   errorMessage = null;
 
+    /*
+     * Engine-wide: how many migrations were allowed to run at once
+     * when this status was taken.  Moves around in adaptive mode.
+     */
+    public int      concurrency = 0;
+
+    /*
+     * Estimated cost of this workflow (see WorkflowCost), or 0 if it
+     * hasn't been estimated.
+     */
+    public long     cost = 0;
+
+    /*
+     * Engine-wide: predicted ms until every workflow is done, or -1
+     * if we can't guess yet.
+     */
+    public long     etaMillis = -1;
+
+    /*
+     * In planning mode, what migrating this workflow would do to UCB.
+     * Null otherwise, or if it failed.
+     */
+    public LoadPlan plan = null;
+
     /**
      * Politely create a string version of this.
      */
@@ -36,6 +62,14 @@ public class MigrateStatus
         sb.append(progress);
         sb.append(") errorMessage(");
         sb.append(errorMessage);
+        sb.append(") concurrency(");
+        sb.append(concurrency);
+        sb.append(") cost(");
+        sb.append(cost);
+        sb.append(") etaMillis(");
+        sb.append(etaMillis);
+        sb.append(") plan(");
+        sb.append(plan);
         sb.append(")");
         return sb.toString();
     }
@@ -0,0 +1,490 @@
+package net.epicforce.migrate.ahp.toucb;
+
+/*
+ * MigrationJournal.java
+ *
+ * A big migration can take hours, and if it gets killed part way
+ * through (power, network, somebody closing the window) we used to
+ * have to clean out UCB by hand and start over.  This journal lets
+ * us pick up where we left off instead.
+ *
+ * It is an append-only text file.  Every time a migration reaches a
+ * point worth remembering, a line goes in and is forced to disk
+ * before we carry on.  Lines are tab separated, and end with a CRC32
+ * (8 hex digits) of everything before that last tab:
+ *
+ * WORKFLOW_PRERUN      <workflow id>
+ * JOB_CREATED          <job config id>     <UCB job id>
+ * JOB_DONE             <job config id>     <UCB job id>
+ * TEMPLATE_CREATED     <workflow id>       <UCB process template id>
+ * PROJECT_TEMPLATE_CREATED  <AHP project id>  <UCB template id>
+ * PROJECT_TEMPLATE_DONE     <AHP project id>  <UCB template id>
+ * PROJECT_CREATED      <workflow id>       <UCB project id>
+ * WORKFLOW_DONE        <workflow id>
+ *
+ * When an existing journal is opened, we work out what the last run
+ * left behind:
+ *
+ * - Workflows with WORKFLOW_DONE are skipped entirely.
+ *
+ * - Anything CREATED without a matching DONE was half built when we
+ *   died.  Those UCB objects are "orphans" -- the migration hooks
+ *   claim them as they get to them, delete them from UCB, and build
+ *   them again.  Without that, a half built job would be found by
+ *   name and skipped, and a half built process template would fail
+ *   the "already exists" check.
+ *
+ * - Except jobs: those aren't deleted, only emptied of their steps
+ *   and filled in again.  Jobs are shared between workflows, so
+ *   another workflow may already be done and pointing at the half
+ *   built job by its ID; deleting it would leave that workflow's
+ *   template pointing at nothing.
+ *
+ * Only what was loaded from disk counts as an orphan.  Things created
+ * by this run are in flight, not orphaned, even though they have no
+ * DONE yet.
+ *
+ * A line that didn't make it to disk in one piece (we died mid-write)
+ * is cut off the end of the file when it's opened, before anything
+ * new goes in.  A torn line is usually a perfectly good looking
+ * shorter line (JOB_CREATED 123 4 instead of JOB_CREATED 123 45), so
+ * only whole lines count: they have to end in a newline and their
+ * CRC has to match.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbHttpException;
+import net.epicforce.migrate.ahp.toucb.ucb.Urls;
+
+import org.codehaus.jettison.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MigrationJournal
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(MigrationJournal.class);
+
+    /*****************************************************************
+     * CONSTANTS
+     ****************************************************************/
+
+    public static final String WORKFLOW_PRERUN = "WORKFLOW_PRERUN";
+    public static final String JOB_CREATED = "JOB_CREATED";
+    public static final String JOB_DONE = "JOB_DONE";
+    public static final String TEMPLATE_CREATED = "TEMPLATE_CREATED";
+    public static final String PROJECT_TEMPLATE_CREATED =
+                                            "PROJECT_TEMPLATE_CREATED";
+    public static final String PROJECT_TEMPLATE_DONE =
+                                            "PROJECT_TEMPLATE_DONE";
+    public static final String PROJECT_CREATED = "PROJECT_CREATED";
+    public static final String WORKFLOW_DONE = "WORKFLOW_DONE";
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final File              file;
+    private FileOutputStream        out;
+
+    /*
+     * Workflows finished in a previous run (or this one).
+     */
+    private final Set<Long>         doneWorkflows = new HashSet<Long>();
+
+    /*
+     * Orphans from the previous run, AHP id -> UCB id.  These are
+     * removed as they are claimed so only one thread deletes each.
+     */
+    private final Map<Long, String> orphanJobs = new HashMap<Long, String>();
+    private final Map<Long, String> orphanProjectTemplates =
+                                                new HashMap<Long, String>();
+    private final Map<Long, String> orphanTemplates =
+                                                new HashMap<Long, String>();
+    private final Map<Long, String> orphanProjects =
+                                                new HashMap<Long, String>();
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * Open a journal, reading whatever is already in it.  The file is
+     * created if it doesn't exist.
+     *
+     * @param path          Journal file
+     * @throws MigrateException if we can't read or write it
+     */
+    public MigrationJournal(final String path) throws MigrateException
+    {
+        file = new File(path);
+
+        try {
+            if(file.exists()) {
+                long whole = load();
+
+                // If we died mid-write, cut the torn line off so it
+                // can't be glued onto our first entry, or read back
+                // as a good one next time.
+                if(whole < file.length()) {
+                    LOG.warn("Journal {}: dropping {} bytes of torn " +
+                             "last line", path, file.length() - whole
+                    );
+
+                    try(RandomAccessFile raf =
+                                new RandomAccessFile(file, "rw")) {
+                        raf.setLength(whole);
+                        raf.getFD().sync();
+                    }
+                }
+            }
+
+            out = new FileOutputStream(file, true);
+        } catch(IOException e) {
+            throw new MigrateException("Could not open journal " + path, e);
+        }
+
+        LOG.info("Journal {}: {} workflows done, {} orphaned jobs, " +
+                 "{} orphaned process templates, {} orphaned projects",
+                 path, doneWorkflows.size(), orphanJobs.size(),
+                 orphanTemplates.size(), orphanProjects.size()
+        );
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Did a workflow finish, in this run or a previous one?
+     *
+     * @param workflowId        AHP workflow ID
+     * @return true if it doesn't need doing again
+     */
+    public synchronized boolean isWorkflowDone(final Long workflowId)
+    {
+        return doneWorkflows.contains(workflowId);
+    }
+
+    public void workflowPreRun(final Long workflowId) throws MigrateException
+    {
+        append(WORKFLOW_PRERUN, workflowId, null);
+    }
+
+    public void jobCreated(final Long jobConfigId, final String ucbId)
+           throws MigrateException
+    {
+        append(JOB_CREATED, jobConfigId, ucbId);
+    }
+
+    public void jobDone(final Long jobConfigId, final String ucbId)
+           throws MigrateException
+    {
+        append(JOB_DONE, jobConfigId, ucbId);
+    }
+
+    public void templateCreated(final Long workflowId, final String ucbId)
+           throws MigrateException
+    {
+        append(TEMPLATE_CREATED, workflowId, ucbId);
+    }
+
+    public void projectTemplateCreated(final Long projectId,
+                                       final String ucbId)
+           throws MigrateException
+    {
+        append(PROJECT_TEMPLATE_CREATED, projectId, ucbId);
+    }
+
+    public void projectTemplateDone(final Long projectId, final String ucbId)
+           throws MigrateException
+    {
+        append(PROJECT_TEMPLATE_DONE, projectId, ucbId);
+    }
+
+    public void projectCreated(final Long workflowId, final String ucbId)
+           throws MigrateException
+    {
+        append(PROJECT_CREATED, workflowId, ucbId);
+    }
+
+    public void workflowDone(final Long workflowId) throws MigrateException
+    {
+        synchronized(this) {
+            doneWorkflows.add(workflowId);
+        }
+
+        append(WORKFLOW_DONE, workflowId, null);
+    }
+
+    /**
+     * Delete whatever a previous run left half built for a workflow:
+     * its project, then its process template (the project uses the
+     * template, so that order).  Safe to call for any workflow; does
+     * nothing if there's nothing orphaned.
+     *
+     * @param workflowId        AHP workflow ID
+     * @throws MigrateException if UCB won't let us delete
+     */
+    public void discardWorkflowOrphans(final Long workflowId)
+           throws MigrateException
+    {
+        discard(claim(orphanProjects, workflowId), Urls.PROJECT);
+        discard(claim(orphanTemplates, workflowId),
+                Urls.TEMPLATE_PROCESS
+        );
+    }
+
+    /**
+     * Empty out a job a previous run left half built, if there is one,
+     * so its steps can be made again.  The job itself stays, ID and
+     * all, since other workflows may be using it already.
+     *
+     * @param jobConfigId       AHP job config ID
+     * @return the UCB job ID if there was one to empty, null if not
+     * @throws MigrateException if UCB won't let us delete the steps
+     */
+    public String resetJobOrphan(final Long jobConfigId)
+           throws MigrateException
+    {
+        final String ucbId = claim(orphanJobs, jobConfigId);
+
+        if(ucbId == null) {
+            return null;
+        }
+
+        String url = Urls.JOB_STEPS.replace("{}", ucbId);
+
+        LOG.info("Clearing the steps of job {} left over from an " +
+                 "interrupted migration", ucbId
+        );
+
+        try {
+            for(JSONObject step : new UcbClient(url).getAll()) {
+                discard(String.valueOf(step.getLong("id")), url);
+            }
+        } catch(UcbHttpException e) {
+            if(e.getStatusCode() != 404) { // gone already; make it anew
+                throw e;
+            }
+        } catch(MigrateException e) {
+            throw e;
+        } catch(Exception e) { // UCB
+            throw new MigrateException("Could not clear the steps of job " +
+                                       ucbId, e
+            );
+        }
+
+        return ucbId;
+    }
+
+    /**
+     * Delete a project template a previous run left half built (created,
+     * but we died before all its properties went in).
+     *
+     * @param projectId         AHP project ID
+     * @throws MigrateException if UCB won't let us delete
+     */
+    public void discardProjectTemplateOrphan(final Long projectId)
+           throws MigrateException
+    {
+        discard(claim(orphanProjectTemplates, projectId),
+                Urls.TEMPLATE_PROJECT
+        );
+    }
+
+    /**
+     * Stop writing.  Anything already appended is on disk.
+     */
+    public synchronized void close()
+    {
+        if(out == null) {
+            return;
+        }
+
+        try {
+            out.close();
+        } catch(IOException e) {
+            LOG.warn("Error closing journal " + file, e);
+        }
+
+        out = null;
+    }
+
+    /*
+     * Write a line and make sure it hits the disk before returning;
+     * a journal entry that is only in the page cache is no journal
+     * entry at all if the box goes down.
+     */
+    private synchronized void append(final String kind, final Long key,
+                                     final String ucbId)
+            throws MigrateException
+    {
+        if(out == null) {
+            throw new MigrateException("Journal " + file + " is closed");
+        }
+
+        StringBuilder sb = new StringBuilder(64);
+
+        sb.append(kind).append('\t').append(key);
+
+        if(ucbId != null) {
+            sb.append('\t').append(ucbId);
+        }
+
+        sb.append('\t').append(crc(sb.toString())).append('\n');
+
+        try {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch(IOException e) {
+            throw new MigrateException("Could not write journal " + file, e);
+        }
+    }
+
+    /*
+     * Replay the file into our sets and maps.  Whatever is CREATED at
+     * the end without a DONE is an orphan.
+     *
+     * Returns how many bytes of the file are whole lines; anything
+     * after that is a torn write.
+     */
+    private long load() throws IOException
+    {
+        byte[] raw = Files.readAllBytes(file.toPath());
+        int whole = raw.length;
+
+        while((whole > 0) && (raw[whole - 1] != '\n')) {
+            whole--;
+        }
+
+        String[] lines = new String(raw, 0, whole, StandardCharsets.UTF_8)
+                                                            .split("\n");
+
+        for(int lineNo = 1; lineNo <= lines.length; lineNo++) {
+            String line = lines[lineNo - 1];
+
+            if(line.isEmpty()) {
+                continue;
+            }
+
+            int sum = line.lastIndexOf('\t');
+
+            if((sum < 0) ||
+               !crc(line.substring(0, sum)).equals(line.substring(sum + 1))) {
+                LOG.warn("Ignoring bad journal line {}: {}", lineNo, line);
+                continue;
+            }
+
+            String[] parts = line.substring(0, sum).split("\t");
+            Long key;
+
+            try {
+                key = Long.valueOf(parts[parts.length > 1 ? 1 : 0]);
+            } catch(NumberFormatException e) {
+                LOG.warn("Ignoring bad journal line {}: {}", lineNo, line);
+                continue;
+            }
+
+            String ucbId = (parts.length > 2) ? parts[2] : null;
+
+            switch(parts[0]) {
+                case JOB_CREATED:
+                    orphanJobs.put(key, ucbId);
+                    break;
+                case JOB_DONE:
+                    orphanJobs.remove(key);
+                    break;
+                case TEMPLATE_CREATED:
+                    orphanTemplates.put(key, ucbId);
+                    break;
+                case PROJECT_TEMPLATE_CREATED:
+                    orphanProjectTemplates.put(key, ucbId);
+                    break;
+                case PROJECT_TEMPLATE_DONE:
+                    orphanProjectTemplates.remove(key);
+                    break;
+                case PROJECT_CREATED:
+                    orphanProjects.put(key, ucbId);
+                    break;
+                case WORKFLOW_DONE:
+                    doneWorkflows.add(key);
+                    orphanTemplates.remove(key);
+                    orphanProjects.remove(key);
+                    break;
+                case WORKFLOW_PRERUN:
+                    break;
+                default:
+                    LOG.warn("Ignoring bad journal line {}: {}",
+                             lineNo, line
+                    );
+            }
+        }
+
+        return whole;
+    }
+
+    /*
+     * The check on the end of each line.
+     */
+    private static String crc(final String line)
+    {
+        CRC32 crc = new CRC32();
+
+        crc.update(line.getBytes(StandardCharsets.UTF_8));
+
+        return String.format("%08x", crc.getValue());
+    }
+
+    private synchronized String claim(final Map<Long, String> orphans,
+                                      final Long key)
+    {
+        return orphans.remove(key);
+    }
+
+    /*
+     * Delete an orphan from UCB.  If it's already gone (somebody
+     * cleaned up by hand), that's fine too.
+     */
+    private void discard(final String ucbId, final String url)
+            throws MigrateException
+    {
+        if(ucbId == null) {
+            return;
+        }
+
+        LOG.info("Deleting {}/{} left over from an interrupted migration",
+                 url, ucbId
+        );
+
+        try {
+            new UcbClient(url).sendJsonDelete(url, ucbId);
+        } catch(UcbHttpException e) {
+            if(e.getStatusCode() != 404) {
+                throw e;
+            }
+        } catch(MigrateException e) {
+            throw e;
+        } catch(Exception e) { // UCB
+            throw new MigrateException("Could not delete " + url + "/" +
+                                       ucbId + " from UCB", e
+            );
+        }
+    }
+}
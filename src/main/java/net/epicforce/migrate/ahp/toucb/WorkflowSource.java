@@ -0,0 +1,39 @@
+package net.epicforce.migrate.ahp.toucb;
+
+/*
+ * WorkflowSource.java
+ *
+ * Where the extraction stage gets its workflows, if not from AHP.
+ * Normally each workflow is walked by an AHP Migration borrowed from
+ * the session pool; with a source set (MigrateEngine.setWorkflowSource)
+ * the engine asks the source instead, and never talks to AHP at all.
+ *
+ * That's for benchmarks and the like (see MigrateBench, in the bench
+ * module), where we want the UCB side of a migration without an AHP
+ * to feed it.  A source should hand its workflows to the same
+ * migrators a Migration would (UcbLoader's), rather than work out
+ * the UCB side itself.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.context.UcbContext;
+
+public interface WorkflowSource
+{
+    /**
+     * Do what an AHP Migration does for one workflow: run the
+     * workflow, job and step hooks in order against the context, so
+     * that lookups and creates done at extraction happen now and the
+     * rest is deferred for the load stage.
+     *
+     * Called on extraction threads, many at once.
+     *
+     * @param workflowId    Workflow to extract
+     * @param context       Fresh context for it
+     * @throws MigrateException on any failure; the workflow fails.
+     */
+    public void extract(Long workflowId, UcbContext context)
+           throws MigrateException;
+}
@@ -17,7 +17,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbStep;
 import com.urbancode.anthill3.domain.builder.NameValuePair;
 import com.urbancode.anthill3.domain.builder.ant.AntBuilder;
 import com.urbancode.anthill3.domain.builder.ant.AntBuildStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 
 public class AntBuildStepConfigMigrate extends UcbStep
@@ -100,22 +99,8 @@ public class AntBuildStepConfigMigrate extends UcbStep
 
             props.put("properties", sb.toString());
 
-            // Try to cook it
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Build/Build Tools/Ant/Ant",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
-            );
-
-            // Add the common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
+            // Queue it up for the load stage
+            deferStep(context, c, "Build/Build Tools/Ant/Ant", props);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
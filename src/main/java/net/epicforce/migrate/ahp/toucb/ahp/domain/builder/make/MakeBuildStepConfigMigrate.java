@@ -17,7 +17,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbStep;
 import com.urbancode.anthill3.domain.builder.NameValuePair;
 import com.urbancode.anthill3.domain.builder.make.MakeBuilder;
 import com.urbancode.anthill3.domain.builder.make.MakeBuildStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 
 public class MakeBuildStepConfigMigrate extends UcbStep
@@ -69,22 +68,11 @@ public class MakeBuildStepConfigMigrate extends UcbStep
             // Usually it's env-vars
             props.put("envVars", sb.toString());
 
-            // Try to cook it
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Build/Build Tools/Make/Run Make File",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
+            // Queue it up for the load stage
+            deferStep(context, c,
+                      "Build/Build Tools/Make/Run Make File",
+                      props
             );
-
-            // Add the common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
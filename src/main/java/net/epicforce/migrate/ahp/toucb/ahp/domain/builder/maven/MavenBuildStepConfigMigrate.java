@@ -17,7 +17,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbStep;
 import com.urbancode.anthill3.domain.builder.NameValuePair;
 import com.urbancode.anthill3.domain.builder.maven.MavenBuilder;
 import com.urbancode.anthill3.domain.builder.maven.MavenBuildStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 
 public class MavenBuildStepConfigMigrate extends UcbStep
@@ -83,22 +82,11 @@ public class MavenBuildStepConfigMigrate extends UcbStep
 
             props.put("env-vars", sb.toString());
 
-            // Try to cook it
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Build/Build Tools/Maven/Maven Build",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
+            // Queue it up for the load stage
+            deferStep(context, c,
+                      "Build/Build Tools/Maven/Maven Build",
+                      props
             );
-
-            // Add the common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
@@ -16,7 +16,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbStep;
 
 import com.urbancode.anthill3.domain.builder.NameValuePair;
 import com.urbancode.anthill3.domain.builder.msbuild.MSBuildStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 
 public class MSBuildStepConfigMigrate extends UcbStep
@@ -105,22 +104,11 @@ public class MSBuildStepConfigMigrate extends UcbStep
 
             props.put("buildProps", sb.toString());
 
-            // Try to cook it
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Build/Build Tools/MSBuild/Run MSBuild",
-                                    mb.getName(),
-                                    mb.getDescription() == null ?
-                                        "" : mb.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
+            // Queue it up for the load stage
+            deferStep(context, mb,
+                      "Build/Build Tools/MSBuild/Run MSBuild",
+                      props
             );
-
-            // Add the common stuff
-            copyCommonBits(context, mb, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
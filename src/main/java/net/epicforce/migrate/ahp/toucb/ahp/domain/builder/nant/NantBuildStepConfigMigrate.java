@@ -17,7 +17,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbStep;
 import com.urbancode.anthill3.domain.builder.NameValuePair;
 import com.urbancode.anthill3.domain.builder.nant.NantBuilder;
 import com.urbancode.anthill3.domain.builder.nant.NantBuildStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 
 public class NantBuildStepConfigMigrate extends UcbStep
@@ -94,22 +93,8 @@ public class NantBuildStepConfigMigrate extends UcbStep
 
             props.put("cmdProps", sb.toString());
 
-            // Try to cook it
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Build/Build Tools/NAnt/Run NAnt",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
-            );
-
-            // Add the common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
+            // Queue it up for the load stage
+            deferStep(context, c, "Build/Build Tools/NAnt/Run NAnt", props);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
@@ -87,22 +87,8 @@ public class ShellScriptBuildStepConfigMigrate extends UcbStep
 
             props.put("env-vars", sbr.toString());
 
-            // Try to cook it
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Scripting/Shell/Shell",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
-            );
-
-            // Add the common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
+            // Queue it up for the load stage
+            deferStep(context, c, "Scripting/Shell/Shell", props);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
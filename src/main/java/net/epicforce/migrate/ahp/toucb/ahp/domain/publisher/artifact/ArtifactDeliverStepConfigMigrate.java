@@ -16,7 +16,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbStep;
 
 import com.urbancode.anthill3.domain.publisher.artifact.ArtifactDeliver;
 import com.urbancode.anthill3.domain.publisher.artifact.ArtifactDeliverStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 
 public class ArtifactDeliverStepConfigMigrate extends UcbStep
@@ -75,23 +74,11 @@ public class ArtifactDeliverStepConfigMigrate extends UcbStep
                 props.put("permissions", "FILE_EXECUTE_ONLY");
             }
 
-            // Try to cook it
-            Step ucbStep =
-                        context.getUcbJob()
-                               .createStep(
-                                 "Build Systems/CodeStation/Upload Artifacts",
-                                 c.getName(),
-                                 c.getDescription() == null ?
-                                     "" : c.getDescription(),
-                                 context.nextUcbStep(),
-                                 props
+            // Queue it up for the load stage
+            deferStep(context, c,
+                      "Build Systems/CodeStation/Upload Artifacts",
+                      props
             );
-
-            // Add the common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
@@ -19,7 +19,6 @@ import net.epicforce.migrate.ahp.exception.MigrateException;
 import net.epicforce.migrate.ahp.toucb.context.UcbContext;
 
 import com.urbancode.anthill3.domain.step.StepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 public class CommonCleanup extends CommonSource
 {
@@ -33,20 +32,11 @@ public class CommonCleanup extends CommonSource
         StepConfig c = context.getCurrentStep();
 
         try {
-            // This is a pretty simple one
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Source/Clean Workspace",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    new HashMap<String, String>()
+            // Queue it up for the load stage
+            deferStep(context, c,
+                      "Source/Clean Workspace",
+                      new HashMap<String, String>()
             );
-
-            copyCommonBits(context, c, ucbStep);
-
-            ucbUpdate(ucbStep);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
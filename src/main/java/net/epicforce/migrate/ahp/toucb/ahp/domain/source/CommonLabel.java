@@ -15,7 +15,6 @@ import net.epicforce.migrate.ahp.exception.MigrateException;
 import net.epicforce.migrate.ahp.toucb.context.UcbContext;
 
 import com.urbancode.anthill3.domain.source.LabelStepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,22 +51,8 @@ public class CommonLabel extends CommonSource
                 props.put("label-string", "");
             }
 
-            // Create our UCB step
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Source/Label Source",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    props
-            );
-
-            // Add common stuff
-            copyCommonBits(context, c, ucbStep);
-
-            // Save it
-            ucbUpdate(ucbStep);
+            // Queue it up for the load stage
+            deferStep(context, c, "Source/Label Source", props);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
@@ -20,7 +20,6 @@ import net.epicforce.migrate.ahp.toucb.context.UcbContext;
 
 import com.urbancode.anthill3.domain.source.PopulateWorkspaceStepConfig;
 import com.urbancode.anthill3.domain.step.StepConfig;
-import com.urbancode.ubuild.client.step.Step;
 
 public class CommonPopulate extends CommonSource
 {
@@ -70,20 +69,8 @@ public class CommonPopulate extends CommonSource
             // This is the only control we have over this particular step.
             prop.put("date-string", dateScript);
 
-            // Push it on out
-            Step ucbStep = context.getUcbJob()
-                                  .createStep(
-                                    "Source/Populate Workspace",
-                                    c.getName(),
-                                    c.getDescription() == null ?
-                                        "" : c.getDescription(),
-                                    context.nextUcbStep(),
-                                    prop
-            );
-
-            copyCommonBits(context, c, ucbStep);
-
-            ucbUpdate(ucbStep);
+            // Queue it up for the load stage
+            deferStep(context, c, "Source/Populate Workspace", prop);
         } catch(MigrateException e) {
             throw e;
         } catch(Exception e) {
@@ -8,14 +8,17 @@ package net.epicforce.migrate.ahp.toucb.context;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import com.urbancode.ubuild.client.security.TeamResourceMapping;
 import com.urbancode.ubuild.client.workflow.Job;
 
 import net.epicforce.migrate.ahp.context.AbstractContext;
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.MigrationJournal;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadOp;
+import net.epicforce.migrate.ahp.toucb.pipeline.WorkflowSnapshot;
 import net.epicforce.migrate.ahp.toucb.ucb.SourcePluginMap;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 
 public class UcbContext extends AbstractContext
 {
@@ -34,10 +37,9 @@ public class UcbContext extends AbstractContext
     public List<TeamResourceMapping>   teamMappings;
 
     /*
-     * The list of plugins.  This is treated like a constant
-     * by the migration process.
+     * The plugins UCB has, shared by every context.
      */
-    private final Set<String>       knownPlugins;
+    private final UcbCatalog<String, String>    knownPlugins;
 
     /*
      * Current UCB job
@@ -51,6 +53,25 @@ public class UcbContext extends AbstractContext
      */
     private int     ucbStepCount = 0;
 
+    /*
+     * Called whenever we've made some progress, so whoever is running
+     * us (MigrateEngine) can tell the world.  May be null.
+     */
+    private Runnable    progressHook = null;
+
+    /*
+     * Where we write down what we've created, so an interrupted
+     * run can pick up where it left off.  May be null (no journal).
+     */
+    private MigrationJournal    journal = null;
+
+    /*
+     * UCB writes worked out during extraction, for the load stage to
+     * carry out.  See WorkflowSnapshot.
+     */
+    private final WorkflowSnapshot.Builder  deferred =
+                                            new WorkflowSnapshot.Builder();
+
     /*****************************************************************
      * ACCESSORS
      ****************************************************************/
@@ -75,6 +96,26 @@ public class UcbContext extends AbstractContext
         return ucbStepCount++;
     }
 
+    public void setProgressHook(Runnable hook)
+    {
+        progressHook = hook;
+    }
+
+    public void setJournal(MigrationJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    public MigrationJournal getJournal()
+    {
+        return journal;
+    }
+
+    public void setWorkflowName(String name)
+    {
+        deferred.setWorkflowName(name);
+    }
+
     /*****************************************************************
      * CONSTRUCTORS
      ****************************************************************/
@@ -83,9 +124,9 @@ public class UcbContext extends AbstractContext
      * The constructor does some loading of largely static stuff
      * that we need for each context.
      *
-     * @param pluginList        A constant list of plugins.
+     * @param pluginList        Catalog of plugin IDs.
      */
-    public UcbContext(final Set<String> pluginList)
+    public UcbContext(final UcbCatalog<String, String> pluginList)
     {
         knownPlugins = pluginList;
 
@@ -105,6 +146,39 @@ public class UcbContext extends AbstractContext
      * METHODS
      ****************************************************************/
 
+    /**
+     * Let the progress hook know something happened.  The migration
+     * hooks (workflow, job, step) call this after each bit of work.
+     */
+    public void reportProgress()
+    {
+        if(progressHook != null) {
+            progressHook.run();
+        }
+    }
+
+    /**
+     * Queue some UCB work for the load stage.  Ops run in the order
+     * they were deferred, after the AHP side of the migration is done.
+     *
+     * @param op            The work, holding only plain values
+     */
+    public void defer(LoadOp op)
+    {
+        deferred.add(op);
+    }
+
+    /**
+     * Package up everything deferred so far for the load stage.
+     *
+     * @param workflowId    AHP workflow ID
+     * @return an immutable snapshot
+     */
+    public WorkflowSnapshot buildSnapshot(Long workflowId)
+    {
+        return deferred.build(workflowId);
+    }
+
     /**
      * Check if we have a plugin.  Throws an exception if
      * we do not.  This is a validation step for *many* parts
@@ -120,7 +194,7 @@ public class UcbContext extends AbstractContext
                              final String description)
            throws MigrateException
     {
-        if(!knownPlugins.contains(plugin)) {
+        if(knownPlugins.lookup(plugin) == null) {
             if(description == null) {
                 throw new MigrateException(
                     "UCB needs plugin " + plugin +
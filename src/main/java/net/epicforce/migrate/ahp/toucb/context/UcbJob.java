@@ -7,10 +7,17 @@ package net.epicforce.migrate.ahp.toucb.context;
  * a job loop, to set up our UCB job.
  */
 
+import java.util.concurrent.Callable;
+
 import net.epicforce.migrate.ahp.context.AbstractContext;
 import net.epicforce.migrate.ahp.migrate.AbstractJob;
 import net.epicforce.migrate.ahp.exception.MigrateException;
 import net.epicforce.migrate.ahp.exception.SkipException;
+import net.epicforce.migrate.ahp.toucb.MigrationJournal;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadOp;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadState;
+import net.epicforce.migrate.ahp.toucb.ucb.RetryPolicy;
 
 import com.urbancode.anthill3.domain.jobconfig.JobConfig;
 import com.urbancode.ubuild.client.Factories;
@@ -43,7 +50,41 @@ public class UcbJob extends AbstractJob
 
             final String jobName = sb.toString();
 
-            if(Factories.getJobFactory().getJobByName(jobName) != null) {
+            // Don't let postRun mark the last job done if we skip
+            context.setUcbJob(null);
+
+            // If a previous run died part way through this job, empty
+            // out the half built one and fill it in again below, rather
+            // than find it and skip it.  It can't be deleted: some
+            // other workflow may be done already and using it.
+            MigrationJournal journal = context.getJournal();
+            String orphanId = null;
+
+            if(journal != null) {
+                orphanId = journal.resetJobOrphan(jc.getId());
+            }
+
+            // Read-only lookup, safe to retry
+            Job existing = RetryPolicy.getDefault().callIdempotent(
+                "Job lookup for " + jobName,
+                new Callable<Job>() {
+                    @Override
+                    public Job call() throws Exception
+                    {
+                        return Factories.getJobFactory()
+                                        .getJobByName(jobName);
+                    }
+                }
+            );
+
+            if((existing != null) && (orphanId != null) &&
+               orphanId.equals(String.valueOf(existing.getId()))) {
+                // Ours, from last time; it's on the journal already.
+                context.setUcbJob(existing);
+                return;
+            }
+
+            if(existing != null) {
                 throw new SkipException("Job " + jobName + 
                                         " already exists!"
                 );
@@ -56,6 +97,12 @@ public class UcbJob extends AbstractJob
                                                   context.teamMappings
                                         )
             );
+
+            if(journal != null) {
+                journal.jobCreated(jc.getId(),
+                                   String.valueOf(context.getUcbJob().getId())
+                );
+            }
         } catch(MigrateException e) {
             throw e; // just rethrow these
         } catch(Exception e) {
@@ -82,8 +129,30 @@ public class UcbJob extends AbstractJob
      * This is run after all the job's steps are migrated.
      */
     public void postRun(UcbContext context)
+           throws MigrateException
     {
+        // Once all the steps are in, the job is no longer half built.
+        // The steps go in during the load stage, so this has to wait
+        // until then too.
+        if((context.getJournal() != null) && (context.getUcbJob() != null)) {
+            final Long jobConfigId =
+                            context.getCurrentJob().getJobConfig().getId();
+            final String ucbId = String.valueOf(context.getUcbJob().getId());
+
+            context.defer(new LoadOp() {
+                @Override
+                public void load(LoadState state) throws MigrateException
+                {
+                    state.getJournal().jobDone(jobConfigId, ucbId);
+                }
 
+                @Override
+                public void plan(LoadPlan plan)
+                {
+                    // Journal only, nothing goes to UCB
+                }
+            });
+        }
     }
 
     /**
@@ -94,6 +163,7 @@ public class UcbJob extends AbstractJob
            throws MigrateException
     {
         postRun((UcbContext)context);
+        ((UcbContext)context).reportProgress();
     }
 
 }
@@ -6,6 +6,10 @@ package net.epicforce.migrate.ahp.toucb.context;
  * This extends AbstractStep and adds some methods that are super common
  * for UCB.
  *
+ * Steps run during extraction, while the AHP session is ours.  They
+ * pull what they need out of AHP and defer the actual UCB writes to
+ * the load stage (see deferStep and saveStepClient).
+ *
  * @author sconley
  */
 
@@ -16,16 +20,26 @@ import net.epicforce.migrate.ahp.exception.MigrateException;
 import net.epicforce.migrate.ahp.context.AbstractContext;
 import net.epicforce.migrate.ahp.migrate.AbstractStep;
 import net.epicforce.migrate.ahp.toucb.context.UcbContext;
+import net.epicforce.migrate.ahp.toucb.pipeline.ImportableOp;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadOp;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadState;
 import net.epicforce.migrate.ahp.toucb.script.PreCondScript;
 import net.epicforce.migrate.ahp.toucb.ucb.DummyStep;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbFactory;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbImport;
+import net.epicforce.migrate.ahp.toucb.ucb.Urls;
 import net.epicforce.migrate.ahp.toucb.ucb.fixed.RESTStep;
+import net.epicforce.migrate.ahp.toucb.ucb.fixed.RESTStepParser;
 
 import com.urbancode.anthill3.domain.step.StepConfig;
 import com.urbancode.ubuild.client.step.Step;
+import com.urbancode.ubuild.client.workflow.Job;
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScript;
 
+import org.codehaus.jettison.json.JSONObject;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +66,7 @@ public abstract class UcbStep extends AbstractStep
     public void run(AbstractContext context) throws MigrateException
     {
         run((UcbContext)context);
+        ((UcbContext)context).reportProgress();
     }
 
     /**
@@ -74,33 +89,14 @@ public abstract class UcbStep extends AbstractStep
                                                       StepConfig ahpStep)
            throws MigrateException
     {
-        Map<String, String> ret = new HashMap<>(20);
-
-        ret.put("Save", "Save");
-        ret.put("ignore_my_failures",
-                String.valueOf(ahpStep.isIgnoreMyFailures())
-        );
-        ret.put("is_active", "true");
-        ret.put("jobConfigId", String.valueOf(context.getUcbJob().getId()));
-        ret.put("name", ahpStep.getName());
-        ret.put("runInParallel", "false"); // AHP doesn't have this
-        ret.put("runInPreflight", String.valueOf(ahpStep.isRunInPreflight()));
-        ret.put("runInPreflightOnly",
-                String.valueOf(ahpStep.isRunInPreflightOnly())
-        );
-        ret.put("stepConfigClass", type);
-        ret.put("timeout", String.valueOf(ahpStep.getTimeout()));
-        ret.put("stepIndex", String.valueOf(context.nextUcbStep()));
-
-        // AM-7 is to figure out what this means
-        ret.put("snippet_method", "saveMainTab");
+        String postProcessScriptId;
 
         // These are complex to deal with
         // AM-8 is to migrate them.
         if(ahpStep.getPostProcessScript() == null) {
-            ret.put("post_process_script_id", "");
+            postProcessScriptId = "";
         } else if(ahpStep.getPostProcessScript().getId() >= 0) {
-            ret.put("post_process_script_id", "");
+            postProcessScriptId = "";
             LOG.warn("UCB does not provide an API to migrate " +
                      "custom post process scripts.  You will " +
                      "have to migrate {} yourself for workflow {} " +
@@ -111,68 +107,279 @@ public abstract class UcbStep extends AbstractStep
                      ahpStep.getName()
             );
         } else {
-            ret.put("post_process_script_id",
-                    String.valueOf(ahpStep.getPostProcessScript().getId())
-            );
+            postProcessScriptId =
+                    String.valueOf(ahpStep.getPostProcessScript().getId());
         }
 
-        ret.put("snippet_step_condition", copyStepPreCondition(ahpStep, null));
+        return commonPostParams(type,
+                                String.valueOf(context.getUcbJob().getId()),
+                                ahpStep.getName(),
+                                ahpStep.isIgnoreMyFailures(),
+                                ahpStep.isRunInPreflight(),
+                                ahpStep.isRunInPreflightOnly(),
+                                ahpStep.getTimeout(),
+                                context.nextUcbStep(),
+                                postProcessScriptId,
+                                copyStepPreCondition(ahpStep, null)
+        );
+    }
+
+    /**
+     * The map createCommonPostParams makes, from plain values.  Split
+     * out so it can be benchmarked without AHP or UCB.
+     *
+     * @param type                  The UCB type (class name)
+     * @param jobId                 UCB job ID
+     * @param name                  Step name
+     * @param ignoreFailures        Step settings
+     * @param runInPreflight
+     * @param runInPreflightOnly
+     * @param timeout
+     * @param stepIndex             Position in the job
+     * @param postProcessScriptId   UCB post process script ID, or ""
+     * @param preConditionId        UCB pre-condition script ID
+     * @return a string, string map suitable for use with the UcbClient
+     *         raw post
+     */
+    public static Map<String, String> commonPostParams(
+      String type, String jobId, String name, boolean ignoreFailures,
+      boolean runInPreflight, boolean runInPreflightOnly, long timeout,
+      int stepIndex, String postProcessScriptId, String preConditionId
+    )
+    {
+        Map<String, String> ret = new HashMap<>(20);
+
+        ret.put("Save", "Save");
+        ret.put("ignore_my_failures", String.valueOf(ignoreFailures));
+        ret.put("is_active", "true");
+        ret.put("jobConfigId", jobId);
+        ret.put("name", name);
+        ret.put("runInParallel", "false"); // AHP doesn't have this
+        ret.put("runInPreflight", String.valueOf(runInPreflight));
+        ret.put("runInPreflightOnly", String.valueOf(runInPreflightOnly));
+        ret.put("stepConfigClass", type);
+        ret.put("timeout", String.valueOf(timeout));
+        ret.put("stepIndex", String.valueOf(stepIndex));
+
+        // AM-7 is to figure out what this means
+        ret.put("snippet_method", "saveMainTab");
+
+        ret.put("post_process_script_id", postProcessScriptId);
+        ret.put("snippet_step_condition", preConditionId);
 
         return ret;
     }
 
     /**
-     * This is used all over the place.  Copy the sort of 'basic elements'
-     * of a StepConfig to a UCB Step.
+     * This is used all over the place.  Pull the sort of 'basic elements'
+     * of a StepConfig out of AHP, ready to copy to a UCB Step.
+     *
+     * This is done during extraction; CommonBits.applyTo does the copy
+     * during the load stage, without needing AHP.
      *
      * @param context           The Context
      * @param ahpStep           Anthill StepConfig
-     * @param ucbStep           UCB Step
+     * @return the common bits
      *
      * @throws MigrateException (likely comm error)
      *
      * NOTE TO SELF: WorkDirOffset is a common field in UCB but not
      *               in AHP, thus it is not handled here.
      */
-    protected void copyCommonBits(UcbContext context, StepConfig ahpStep,
-                                  Step ucbStep)
+    protected CommonBits captureCommonBits(UcbContext context,
+                                           StepConfig ahpStep)
               throws MigrateException
     {
-        try {
-            ucbStep.setIgnoreFailures(ahpStep.isIgnoreMyFailures());
-
-            // This is kind of involved, so copy it thusly.
-            copyStepPreCondition(ahpStep, ucbStep);
-
-            ucbStep.setRunInPreflight(ahpStep.isRunInPreflight());
-            ucbStep.setRunInPreflightOnly(ahpStep.isRunInPreflightOnly());
-            ucbStep.setTimeout(ahpStep.getTimeout());
-
-            // We can't migrate post process scripts, so we'll check for
-            // the defaults
-            // AM-8 is to migrate these.
-            if((ahpStep.getPostProcessScript() != null) &&
-               (ahpStep.getPostProcessScript().getId() >= 0)) {
-                LOG.warn("UCB does not provide an API to migrate " +
-                         "custom post process scripts.  You will " +
-                         "have to migrate {} yourself for workflow {} " +
-                         "job {} step {}",
-                         ahpStep.getPostProcessScript().getName(),
-                         context.getWorkflow().getName(),
-                         context.getCurrentJob().getName(),
-                         ahpStep.getName()
-                );
-            }
-        } catch(MigrateException e) {
-            throw e;
-        } catch(Exception e) {
-            // Cause UCB!
-            throw new MigrateException("Error while copying common step items",
-                                       e
+        // We can't migrate post process scripts, so we'll check for
+        // the defaults
+        // AM-8 is to migrate these.
+        if((ahpStep.getPostProcessScript() != null) &&
+           (ahpStep.getPostProcessScript().getId() >= 0)) {
+            LOG.warn("UCB does not provide an API to migrate " +
+                     "custom post process scripts.  You will " +
+                     "have to migrate {} yourself for workflow {} " +
+                     "job {} step {}",
+                     ahpStep.getPostProcessScript().getName(),
+                     context.getWorkflow().getName(),
+                     context.getCurrentJob().getName(),
+                     ahpStep.getName()
             );
         }
+
+        // This is kind of involved, so look it up thusly.
+        return new CommonBits(ahpStep.isIgnoreMyFailures(),
+                              PreCondScript.getStepPreconditionScript(
+                                        ahpStep.getPreConditionScript()
+                              ),
+                              ahpStep.isRunInPreflight(),
+                              ahpStep.isRunInPreflightOnly(),
+                              ahpStep.getTimeout()
+        );
     }
-    
+
+    /**
+     * Queue up a UCB step for the load stage.  This is what most step
+     * migrators want: pull your step-specific properties out of AHP
+     * into a map, and hand it here.
+     *
+     * Everything is pulled out of AHP now; the load stage creates the
+     * step on the job, common bits and all, in one request.  Or, if
+     * importing is on, sends it with the job's other steps in one
+     * import document.
+     *
+     * @param context           The Context
+     * @param ahpStep           Anthill StepConfig
+     * @param stepType          UCB step type path, like
+     *                          "Build/Build Tools/Ant/Ant"
+     * @param props             Step properties
+     * @throws MigrateException on any failure
+     */
+    protected void deferStep(UcbContext context, StepConfig ahpStep,
+                             final String stepType,
+                             Map<String, String> props)
+              throws MigrateException
+    {
+        final Job job = context.getUcbJob();
+        final int index = context.nextUcbStep();
+        final String name = ahpStep.getName();
+        final String description = ahpStep.getDescription() == null ?
+                                        "" : ahpStep.getDescription();
+        final CommonBits common = captureCommonBits(context, ahpStep);
+        final HashMap<String, String> stepProps = new HashMap<>(props);
+
+        context.defer(new ImportableOp() {
+            @Override
+            public boolean addTo(UcbImport doc) throws MigrateException
+            {
+                UcbImport.Entry step = doc.add("step")
+                                          .attribute("job", job.getId())
+                                          .attribute("type", stepType)
+                                          .attribute("name", name)
+                                          .attribute("index", index)
+                                          .element("description",
+                                                   description);
+
+                common.addTo(step);
+
+                for(Map.Entry<String, String> p : stepProps.entrySet()) {
+                    step.property(p.getKey(), p.getValue());
+                }
+
+                return true;
+            }
+
+            @Override
+            public boolean imported(LoadState state, UcbImport doc)
+                   throws MigrateException
+            {
+                String url = Urls.JOB_STEPS.replace("{}",
+                                                String.valueOf(job.getId())
+                );
+
+                JSONObject want;
+
+                try {
+                    want = new RESTStepParser().toJSON(build());
+                } catch(Exception e) {
+                    throw new MigrateException("Error while checking " +
+                                               "imported step " + name, e
+                    );
+                }
+
+                for(JSONObject made : doc.lookup(url)) {
+                    if(!name.equals(made.optString("name")) ||
+                       (made.optInt("seq", -1) != index)) {
+                        continue;
+                    }
+
+                    if(UcbImport.matches(want, made)) {
+                        // Keep the job's sequence numbers in line
+                        job.addStep(new DummyStep());
+                        return true;
+                    }
+
+                    // It's there but UCB got it wrong.  Get rid of it
+                    // so load doesn't leave two of them.
+                    LOG.warn("Step {} was imported onto job {} but " +
+                             "doesn't match what we sent; making it " +
+                             "the usual way", name, job.getName()
+                    );
+
+                    try {
+                        new UcbClient(url).sendJsonDelete(url,
+                                                    made.getString("id")
+                        );
+                    } catch(Exception e) {
+                        throw new MigrateException("Error while removing " +
+                                                   "imported step " + name,
+                                                   e
+                        );
+                    }
+
+                    return false;
+                }
+
+                LOG.warn("Step {} was imported but isn't on job {}; " +
+                         "making it the usual way", name, job.getName()
+                );
+                return false;
+            }
+
+            @Override
+            public void load(LoadState state) throws MigrateException
+            {
+                try {
+                    // Not job.createStep: that saves the step without
+                    // its pre condition and the like, so it would have
+                    // to be updated again after.  One create does it.
+                    build().create();
+
+                    // Keep the job's sequence numbers in line
+                    job.addStep(new DummyStep());
+                } catch(MigrateException e) {
+                    throw e;
+                } catch(Exception e) {
+                    // Cause UCB!
+                    throw new MigrateException("Error while creating step " +
+                                               name, e
+                    );
+                }
+            }
+
+            @Override
+            public void plan(LoadPlan plan)
+            {
+                plan.create("step", name, 1);
+            }
+
+            /*
+             * The step as load creates it, which is also what imported
+             * checks against.
+             */
+            private RESTStep build() throws Exception
+            {
+                RESTStep ucbStep = new RESTStep(stepType, name,
+                                                description, job,
+                                                index, null, false,
+                                                false, false, null
+                );
+
+                common.applyTo(ucbStep);
+                ucbStep.setActive(true);
+                ucbStep.setWorkDirOffset(
+                    stepProps.containsKey("workDirOffset") ?
+                            stepProps.get("workDirOffset") : ""
+                );
+
+                for(Map.Entry<String, String> p : stepProps.entrySet()) {
+                    ucbStep.setProperty(p.getKey(), p.getValue());
+                }
+
+                return ucbStep;
+            }
+        });
+    }
+
     /**
      * Copy over step precondition script.  This used to be a way bigger
      * mess but I moved it to its own class.
@@ -198,27 +405,6 @@ public abstract class UcbStep extends AbstractStep
         return String.valueOf(ucbScript.getId());
     }
 
-    /**
-     * It's really hard to not put bad things about the untested mess
-     * that is the UCB client in comments.  So I'll try not to.
-     *
-     * This is another hack to get around a UCB bug.  in this case, the
-     * fact that steps don't store preconditions :P
-     *
-     * @param Step      A UCB step object
-     */
-    protected void ucbUpdate(Step ucbStep)
-              throws MigrateException
-    {
-        try {
-            RESTStep updater = new RESTStep(ucbStep);
-            updater.update();
-        } catch(Exception e) {
-            throw new MigrateException("Error while updating UCB step", e);
-        }
-    }
-
-
     /**
      * This is a "manual override" that allows us to post to UCB's saveStep
      * form processor instead of using the REST API.
@@ -245,22 +431,106 @@ public abstract class UcbStep extends AbstractStep
                                   UcbContext context)
               throws MigrateException
     {
-        try {
-            // Try to push it
-            UcbClient client = new UcbClient(
-                "/tasks/admin/library/jobconfig/LibraryJobConfigTasks/saveStep"
-            );
+        final Job job = context.getUcbJob();
+        final HashMap<String, String> post = new HashMap<>(newStep);
+
+        context.defer(new LoadOp() {
+            @Override
+            public void load(LoadState state) throws MigrateException
+            {
+                try {
+                    // Try to push it
+                    UcbClient client = new UcbClient(
+                        "/tasks/admin/library/jobconfig/LibraryJobConfigTasks/saveStep"
+                    );
+
+                    client.sendRawPost(post);
+
+                    // Add a dummy step.  This is so that the sequence
+                    // counter continues to work.
+                    job.addStep(new DummyStep());
+                } catch(MigrateException e) {
+                    throw e;
+                } catch(Exception e) {
+                    // Rewrap
+                    throw new MigrateException(
+                        "Error while transfering to UCB.", e
+                    );
+                }
+            }
+
+            @Override
+            public void plan(LoadPlan plan)
+            {
+                // The dummy step never goes to UCB
+                plan.create("step", post.get("name"), 1);
+            }
+        });
+    }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * The common bits of a step, pulled out of AHP by captureCommonBits.
+     */
+    protected static class CommonBits
+    {
+        private final boolean                   ignoreFailures;
+        private final StepPreConditionScript    preCondition;
+        private final boolean                   runInPreflight;
+        private final boolean                   runInPreflightOnly;
+        private final long                      timeout;
+
+        protected CommonBits(boolean ignoreFailures,
+                             StepPreConditionScript preCondition,
+                             boolean runInPreflight,
+                             boolean runInPreflightOnly, long timeout)
+        {
+            this.ignoreFailures = ignoreFailures;
+            this.preCondition = preCondition;
+            this.runInPreflight = runInPreflight;
+            this.runInPreflightOnly = runInPreflightOnly;
+            this.timeout = timeout;
+        }
 
-            client.sendRawPost(newStep);
+        /**
+         * Copy onto a UCB step.
+         *
+         * @param ucbStep       UCB Step
+         * @throws MigrateException on any failure
+         */
+        public void applyTo(Step ucbStep) throws MigrateException
+        {
+            try {
+                ucbStep.setIgnoreFailures(ignoreFailures);
+                ucbStep.setPreConditionScript(preCondition);
+                ucbStep.setRunInPreflight(runInPreflight);
+                ucbStep.setRunInPreflightOnly(runInPreflightOnly);
+                ucbStep.setTimeout(timeout);
+            } catch(Exception e) {
+                // Cause UCB!
+                throw new MigrateException(
+                    "Error while copying common step items", e
+                );
+            }
+        }
 
-            // Add a dummy step.  This is so that the sequence counter
-            // continues to work.
-            context.getUcbJob().addStep(new DummyStep());
-        } catch(MigrateException e) {
-            throw e;
-        } catch(Exception e) {
-            // Rewrap
-            throw new MigrateException("Error while transfering to UCB.", e);
+        /**
+         * Copy onto a step in an import document.
+         *
+         * @param step          The step's entry
+         */
+        public void addTo(UcbImport.Entry step)
+        {
+            step.attribute("ignoreFailures", ignoreFailures)
+                .attribute("preConditionScript",
+                           (preCondition == null) ?
+                                null : preCondition.getId())
+                .attribute("runInPreflight", runInPreflight)
+                .attribute("runInPreflightOnly", runInPreflightOnly)
+                .attribute("timeout", timeout);
         }
     }
 }
@@ -16,22 +16,29 @@ package net.epicforce.migrate.ahp.toucb.context;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import net.epicforce.migrate.ahp.context.AbstractContext;
 import net.epicforce.migrate.ahp.context.JobLayout;
 import net.epicforce.migrate.ahp.exception.MigrateException;
 import net.epicforce.migrate.ahp.migrate.AbstractWorkflow;
+import net.epicforce.migrate.ahp.toucb.MigrationJournal;
 import net.epicforce.migrate.ahp.toucb.notification.NotFoundException;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadOp;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadState;
 import net.epicforce.migrate.ahp.toucb.notification.Scheme;
 import net.epicforce.migrate.ahp.toucb.script.PreCondScript;
 import net.epicforce.migrate.ahp.toucb.script.WorkDirScript;
 import net.epicforce.migrate.ahp.toucb.source.AbstractSourceConfig;
 import net.epicforce.migrate.ahp.toucb.source.SourceFactory;
+import net.epicforce.migrate.ahp.toucb.ucb.CidSession;
+import net.epicforce.migrate.ahp.toucb.ucb.RetryPolicy;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbAsyncClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
 import net.epicforce.migrate.ahp.toucb.ucb.Urls;
 
@@ -73,6 +80,7 @@ import com.urbancode.ubuild.client.property.template.PropertyInterfaceTypeEnum;
 import com.urbancode.ubuild.client.property.template.PropertyTemplate;
 import com.urbancode.ubuild.client.rest.security.RESTTeamParser;
 import com.urbancode.ubuild.client.rest.workflow.RESTWorkflow;
+import com.urbancode.ubuild.client.security.TeamResourceMapping;
 import com.urbancode.ubuild.client.script.precondition.job.JobPreConditionScript;
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScript;
 import com.urbancode.ubuild.client.template.ProcessTemplate;
@@ -108,22 +116,76 @@ public class UcbWorkflow extends AbstractWorkflow
      ****************************************************************/
 
     /*
-     * Keep a running list of known artifact set names.
-     * If this list is empty, it will be initialized by
-     * pulling from UCB.  This is also used as a mutex
-     * for a synchronized block to make sure we don't
-     * get redundant / accidental artifact adds.
+     * Known artifact set names.  UCB's are loaded the first time
+     * through, and we add ours as we make them.  It's a set really,
+     * so each name just maps to itself.
      */
-    private static Set<String>  knownArtifactSets = new HashSet<String>();
+    private static final UcbCatalog<String, String> knownArtifactSets =
+        UcbCatalog.persistent("artifactSets",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    final Map<String, String> ret = new HashMap<>();
+
+                    new UcbClient(Urls.ARTIFACTSET).visitAll(
+                        new UcbClient.JsonVisitor() {
+                            @Override
+                            public boolean visit(JSONObject a)
+                                   throws JSONException
+                            {
+                                // AM-10: Take into account active/inactive?
+                                ret.put(a.getString("name"),
+                                        a.getString("name"));
+                                return true;
+                            }
+                        }
+                    );
+
+                    return ret;
+                }
+            },
+            new UcbCatalog.Counter() {
+                @Override
+                public int count() throws Exception
+                {
+                    return new UcbClient(Urls.ARTIFACTSET).countAll();
+                }
+            }
+    );
 
     /*
      * Keep track of the statuses that we know about.
      *
-     * This is used as a mutex so its only loaded once.  We need the
-     * ID's so we will map UCB status names to string representations
-     * of the ID (they are really Long's)
+     * We need the ID's so we will map UCB status names to string
+     * representations of the ID (they are really Long's).  Loading
+     * this also brings over any AHP statuses UCB doesn't have (see
+     * loadStatuses), so that only happens once and nobody gets a
+     * status ID until it's done.  If it starts from the catalog
+     * snapshot, that happens the first time a status isn't found.
      */
-    private static Map<String, String> knownStatusMap = new HashMap<>();
+    private static final UcbCatalog<String, String> knownStatusMap =
+        UcbCatalog.persistent("statuses",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    try {
+                        return loadStatuses();
+                    } catch(PersistenceException e) {
+                        throw new MigrateException("Could not communicate " +
+                                                   "with AHP", e);
+                    }
+                }
+            },
+            new UcbCatalog.Counter() {
+                @Override
+                public int count() throws Exception
+                {
+                    return new UcbClient(Urls.STATUS).countAll();
+                }
+            }
+    );
 
     /*
      * What's our workflow name?  We'll compute this once and keep
@@ -134,8 +196,8 @@ public class UcbWorkflow extends AbstractWorkflow
     /*
      * Map of AHP Job Config ID's to UCB Job objects.
      */
-    private static ConcurrentHashMap<Long, Job> knownJobs =
-                                            new ConcurrentHashMap<Long, Job>();
+    private static final UcbCatalog<Long, Job> knownJobs =
+                                    new UcbCatalog<Long, Job>("jobs", null);
 
     /*
      * Load this once and use it everywhere
@@ -147,17 +209,6 @@ public class UcbWorkflow extends AbstractWorkflow
      * CLASS PROPERTIES
      ****************************************************************/
 
-    /*
-     * Keep track of jobs that have iterations
-     */
-    private List<WorkflowDefinitionJobConfig> hasIteration = new ArrayList<>();
-
-    /*
-     * We will need our process template to build the project.  It is
-     * set by migrateWorkflow and used by migrateProject.
-     */
-    private ProcessTemplate processTemplate = null;
-
     /*
      * We will need our source config for creating a project.  It is
      * set by postRun and consumed by migrateProject.
@@ -178,22 +229,21 @@ public class UcbWorkflow extends AbstractWorkflow
      *         event that we don't have this status loaded.  That's probably
      *         programmer error.
      *
-     * Note: This is read across multiple threads, however it should be
-     *       safe because the loading of this data is in a sync block
-     *       and all threads should be stopped by that sync block.  This
-     *       data should therefore be loaded and ready by the time it
-     *       gets read.
+     * Note: This is read across multiple threads.  The catalog loads
+     *       once, and anyone asking waits until it has.
      */
     public static String getStatusId(String status) throws MigrateException
     {
-        if(!knownStatusMap.containsKey(status.toLowerCase())) {
+        String ret = knownStatusMap.lookup(status.toLowerCase());
+
+        if(ret == null) {
             throw new MigrateException(
                 "Could not locate status " + status + " in known status map."
                 + "  This is probably a programming error."
             );
         }
 
-        return knownStatusMap.get(status);
+        return ret;
     }
 
     /*****************************************************************
@@ -218,47 +268,59 @@ public class UcbWorkflow extends AbstractWorkflow
                        String.valueOf(context.getWorkflow().getId())
                        + ")";
 
-        // Does it already exist?
-        try {
-            if(Factories.getProcessTemplateFactory()
-                        .getTemplateByName(workflowName) != null) {
-                throw new MigrateException(
-                    "Process Template with name " + workflowName +
-                    " already exists!"
-                );
+        context.setWorkflowName(workflowName);
+
+        // If a previous run died part way through this workflow, clear
+        // out what it left so we can start it fresh.
+        MigrationJournal journal = context.getJournal();
+
+        if(journal != null) {
+            journal.discardWorkflowOrphans(context.getWorkflow().getId());
+        }
+
+        // Does it already exist?  This is read-only, so it can be
+        // retried if UCB hiccups.
+        Object existing = RetryPolicy.getDefault().callIdempotent(
+            "Process template lookup for " + workflowName,
+            new Callable<Object>() {
+                @Override
+                public Object call() throws Exception
+                {
+                    return Factories.getProcessTemplateFactory()
+                                    .getTemplateByName(workflowName);
+                }
             }
-        } catch(MigrateException e) {
-            throw e;
-        } catch(Exception e) {
-            // Cause UCB throws Exception
-            throw new MigrateException("Communication falure with UCB", e);
+        );
+
+        if(existing != null) {
+            throw new MigrateException(
+                "Process Template with name " + workflowName +
+                " already exists!"
+            );
         }
 
-        // Start building it.
-        try {
-            // Grab our workflow's build profile.  Repo's and
-            // artifacts come from there, and we need to configure
-            // those first.
-            BuildProfile bp = context.getWorkflow().getBuildProfile();
-
-            /*
-             * The following things are system global and need to
-             * be configured first.  We'll check to be sure they
-             * don't already exist to avoid making duplicates.
-             *
-             * * Artifact Set
-             * * Statuses
-             */
+        // Start building it.  Grab our workflow's build profile.
+        // Repo's and artifacts come from there, and we need to
+        // configure those first.
+        BuildProfile bp = context.getWorkflow().getBuildProfile();
 
-            // ARTIFACT SETS
-            migrateArtifactSets(bp);
+        /*
+         * The following things are system global and need to
+         * be configured first.  We'll check to be sure they
+         * don't already exist to avoid making duplicates.
+         *
+         * * Artifact Set
+         * * Statuses
+         */
 
-            // STATUSES
-            migrateStatuses();
-        } catch(JSONException e) {
-            throw new MigrateException("Failed to process JSON", e);
-        } catch(PersistenceException e) {
-            throw new MigrateException("Could not communicate with AHP", e);
+        // ARTIFACT SETS
+        migrateArtifactSets(bp);
+
+        // STATUSES
+        migrateStatuses();
+
+        if(journal != null) {
+            journal.workflowPreRun(context.getWorkflow().getId());
         }
     }
 
@@ -270,6 +332,7 @@ public class UcbWorkflow extends AbstractWorkflow
            throws MigrateException
     {
         preRun((UcbContext)context);
+        ((UcbContext)context).reportProgress();
     }
 
     /**
@@ -277,135 +340,156 @@ public class UcbWorkflow extends AbstractWorkflow
      * growing out of control.
      *
      * @param bp            Build Profile
-     * @throws  MigrateException or JSONException
+     * @throws  MigrateException on any failure
      */
     private void migrateArtifactSets(BuildProfile bp)
-            throws MigrateException, JSONException
+            throws MigrateException
     {
         ArtifactDeliverPatterns[] artPat = bp.getArtifactConfigArray();
 
-        UcbClient artClient = new UcbClient(Urls.ARTIFACTSET);
-
-        // This is a critical section -- because each workflow thread
-        // may try to import the same artifact sets otherwise.
-        synchronized(knownArtifactSets) {
-
-            // Load artifacts if we don't have them
-            if(knownArtifactSets.size() == 0) {
-                for(JSONObject a : artClient.getAll()) {
-                    // AM-10: Take into account active/inactive?
-                    knownArtifactSets.add(a.getString("name"));
-                }
-            }
-
-            for(ArtifactDeliverPatterns ap : artPat) {
-                ArtifactSet as = ap.getArtifactSet();
+        final UcbClient artClient = new UcbClient(Urls.ARTIFACTSET);
+
+        for(ArtifactDeliverPatterns ap : artPat) {
+            final ArtifactSet as = ap.getArtifactSet();
+
+            // See if its already in UCB, add it if not.  Each workflow
+            // thread may try to import the same artifact sets, so the
+            // catalog makes sure only one of them does.
+            knownArtifactSets.get(as.getName(),
+                new UcbCatalog.Creator<String, String>() {
+                    @Override
+                    public String create(String name) throws Exception
+                    {
+                        JSONObject a = new JSONObject();
+                        a.put("name", name);
+
+                        if(as.getDescription() == null) {
+                            a.put("description", "");
+                        } else {
+                            a.put("description", as.getDescription());
+                        }
 
-                // See if its already in UCB.
-                if(!knownArtifactSets.contains(as.getName())) {
-                    // Add it
-                    JSONObject a = new JSONObject();
-                    a.put("name", as.getName());
+                        a.put("active", true);
+                        a.put("inactive", false);
 
-                    if(as.getDescription() == null) {
-                        a.put("description", "");
-                    } else {
-                        a.put("description", as.getDescription());
+                        // send it
+                        artClient.sendPostReturnObject(a.toString());
+                        return name;
                     }
-
-                    a.put("active", true);
-                    a.put("inactive", false);
-
-                    // send it
-                    artClient.sendPostReturnObject(a.toString());
-
-                    // Add it as known
-                    knownArtifactSets.add(as.getName());
                 }
-            }
+            );
         }
     }
 
     /**
      * Method to load status information, again to keep preRun from
-     * getting huge.
+     * getting huge.  The work is done once, by loadStatuses, the
+     * first time anyone needs the status catalog.
+     *
+     * @throws MigrateException on any failure
+     */
+    private void migrateStatuses() throws MigrateException
+    {
+        knownStatusMap.load();
+    }
+
+    /**
+     * Pull UCB's statuses, and push over any AHP ones it doesn't
+     * have.  Loader for the status catalog; it runs on whichever
+     * workflow thread gets there first, under that thread's AHP
+     * session.
      *
      * NOTE: UCB Statuses are CASE INSENSITIVE!  We will therefore
      * store and check all status name keys after running them
      * through tolowerCase.
      *
-     * @throws MigrateException or JSONException
+     * @return map of lower cased status name to ID
+     * @throws MigrateException, JSONException, PersistenceException
      */
-    private void migrateStatuses()
+    private static Map<String, String> loadStatuses()
             throws MigrateException, JSONException, PersistenceException
     {
-        synchronized(knownStatusMap) {
-            // Nothing to do if its already initialized.
-            // This is global so we only need to do this once.
-            if(knownStatusMap.size() > 0) {
-                return;
-            }
+        final Map<String, String> ret = new HashMap<>();
 
-            // Otherwise, let's fetch the UCB things and merge in the
-            // statuses we don't have.
-            UcbClient artClient = new UcbClient(Urls.STATUS);
+        // Fetch the UCB things and merge in the statuses we don't
+        // have.
+        UcbClient artClient = new UcbClient(Urls.STATUS);
 
-            for(JSONObject status : artClient.getAll()) {
+        artClient.visitAll(new UcbClient.JsonVisitor() {
+            @Override
+            public boolean visit(JSONObject status) throws JSONException
+            {
                 // AM-11: Take into account isDeleted ?
-                knownStatusMap.put(status.getString("name").toLowerCase(),
-                                   String.valueOf(status.getLong("id"))
+                ret.put(status.getString("name").toLowerCase(),
+                        String.valueOf(status.getLong("id"))
                 );
+                return true;
             }
+        });
 
-            /* Iterate over known statuses
-             * AM-12: UCB ties cleanup to status, where AHP ties
-             * cleanup to Life cycle model.
-             *
-             * The problem here is collisions; AHP may have many
-             * statuses of the same name in different life cycles with
-             * different cleanup parameters, whereas UCB congeals it
-             * all into one.
-             *
-             * I am not sure what the preferred way of migrating this
-             * would be, so I'm ignoring that aspect for now.
-             */
-            for(Status status : StatusFactory.getInstance().restoreAll()) {
-                if(!knownStatusMap.containsKey(status.getName()
-                                                     .toLowerCase())) {
-                    // Add it
-                    JSONObject a = new JSONObject();
-                    a.put("name", status.getName());
-
-                    if(status.getDescription() == null) {
-                        a.put("description", "");
-                    } else {
-                        a.put("description", status.getDescription());
-                    }
-
-                    if(status.getColor() == null) {
-                        a.put("color", "");
-                    } else {
-                        a.put("color", status.getColor());
-                    }
+        /* Iterate over known statuses
+         * AM-12: UCB ties cleanup to status, where AHP ties
+         * cleanup to Life cycle model.
+         *
+         * The problem here is collisions; AHP may have many
+         * statuses of the same name in different life cycles with
+         * different cleanup parameters, whereas UCB congeals it
+         * all into one.
+         *
+         * I am not sure what the preferred way of migrating this
+         * would be, so I'm ignoring that aspect for now.
+         *
+         * Each missing status is a new object of its own, so they're
+         * all sent at once rather than a round trip apiece.
+         */
+        UcbAsyncClient newClient = new UcbAsyncClient(Urls.STATUS);
+        List<String> newNames = new ArrayList<>();
+        List<Future<JSONObject>> newStatuses = new ArrayList<>();
+
+        for(Status status : StatusFactory.getInstance().restoreAll()) {
+            if(!ret.containsKey(status.getName().toLowerCase()) &&
+               !newNames.contains(status.getName().toLowerCase())) {
+                // Add it
+                JSONObject a = new JSONObject();
+                a.put("name", status.getName());
+
+                if(status.getDescription() == null) {
+                    a.put("description", "");
+                } else {
+                    a.put("description", status.getDescription());
+                }
 
-                    // AHP has a noition of "is archived?" "is failure?"
-                    // "Is success?" and "is locked?" that UCB does not
-                    // seem to have.
+                if(status.getColor() == null) {
+                    a.put("color", "");
+                } else {
+                    a.put("color", status.getColor());
+                }
 
-                    // UCB has an "isDeleted" which AHP doesn't seem
-                    // to have.
-                    a.put("isDeleted", false);
+                // AHP has a noition of "is archived?" "is failure?"
+                // "Is success?" and "is locked?" that UCB does not
+                // seem to have.
 
-                    // ship it
-                    JSONObject r = artClient.sendPostReturnObject(a.toString());
+                // UCB has an "isDeleted" which AHP doesn't seem
+                // to have.
+                a.put("isDeleted", false);
 
-                    // Process out the ID.
-                    knownStatusMap.put(status.getName().toLowerCase(),
-                                       String.valueOf(r.getLong("id"))
-                    );
-                }
+                // ship it
+                newNames.add(status.getName().toLowerCase());
+                newStatuses.add(newClient.sendPostReturnObject(a.toString()));
             }
         }
+
+        // Wait for all of them, then process out the ID's.
+        UcbAsyncClient.awaitAll(newStatuses);
+
+        for(int i = 0; i < newNames.size(); i++) {
+            ret.put(newNames.get(i),
+                    String.valueOf(UcbAsyncClient.await(newStatuses.get(i))
+                                                 .getLong("id"))
+            );
+        }
+
+        return ret;
     }
 
     /**
@@ -424,12 +508,18 @@ public class UcbWorkflow extends AbstractWorkflow
          * First, we have to create our process.
          * Then we need a project template.
          * And finally, we make the project itself.
+         *
+         * We're still extracting at this point, so the process and
+         * project are only worked out from AHP here.  They're queued
+         * up behind the job steps for the load stage to make.
          */
         try {
-            // This creates a process template
+            // This works out a process template
             migrateWorkflow(context);
 
-            // Now, make source template
+            // Now, make source template.  These are shared between
+            // workflows and looked up by name, so they are made right
+            // away rather than queued.
             ucbSourceConfig = SourceFactory.loadSourceConfig(
                                         context.getWorkflow()
                                                .getBuildProfile()
@@ -438,7 +528,7 @@ public class UcbWorkflow extends AbstractWorkflow
 
             ucbSourceConfig.run(context);
 
-            // And now, create a project template and project.
+            // And now, work out a project template and project.
             migrateProject(context);
         } catch(JSONException e) {
             throw new MigrateException("Got JSON processing error", e);
@@ -446,7 +536,8 @@ public class UcbWorkflow extends AbstractWorkflow
     }
 
     /**
-     * Create a project template, and then the project itself.
+     * Work out a project template, and then the project itself, and
+     * queue them up for the load stage.
      *
      * This should be the last thing we have to do.
      *
@@ -455,86 +546,46 @@ public class UcbWorkflow extends AbstractWorkflow
      */
     protected void migrateProject(UcbContext context) throws MigrateException
     {
-        // Create our project template if needed
         try {
-            Template projectTemplate;
-            String templateName = context.getWorkflow().getProject().getName()
-                                  + " Template (" +
-                                  context.getWorkflow().getProject().getId()
-                                  + ")";
-
-            projectTemplate = Factories.getTemplateFactory()
-                                       .getTemplateByName(templateName);
-            String templateId;
-
-            if(projectTemplate != null) {
-                templateId = projectTemplate.getId();
-            } else {
-                // We need to make the template.
-                // Let's create it, and then push modifications via
-                // the web form for stuff that it doesn't support.
-                // (looks like it may only be 'timeout' that isn't
-                // supported)
-
-                projectTemplate =
-                    Factories.getTemplateFactory()
-                             .createTemplate(
-                                templateName,
-                                context.getWorkflow().getProject()
-                                       .getDescription(),
-                                new DefaultPreProcessConfig(),
-                                context.teamMappings
+            ProjectOp op = new ProjectOp();
+
+            op.workflowId = context.getWorkflow().getId();
+            op.projectId = context.getWorkflow().getProject().getId();
+            op.templateName = context.getWorkflow().getProject().getName()
+                              + " Template (" + op.projectId + ")";
+            op.projectName = context.getWorkflow().getProject().getName()
+                             + " (" + op.projectId + ")";
+            op.description = context.getWorkflow().getProject()
+                                    .getDescription();
+            op.teams = context.teamMappings;
+
+            /* PROPERTY HANDLING
+             *
+             * So AHP has properties per environment, but only
+             * one environment is coupled to the originating workflow.
+             *
+             * We'll migrate properties affixed to the originating
+             * workflow, and the "all" group as well.
+             *
+             * These are only used if the project template doesn't
+             * exist yet, but we won't know that until the load stage.
+             */
+            for(ProjectProperty pp : context.getWorkflow()
+                                            .getProject()
+                                            .getPropertyList()) {
+                op.properties.add(new PropertySpec(pp.getName(),
+                                                   pp.getDescription(),
+                                                   pp.getValue(),
+                                                   pp.isSecure())
                 );
-                templateId = projectTemplate.getId();
-
-                /* PROPERTY HANDLING
-                 *
-                 * So AHP has properties per environment, but only
-                 * one environment is coupled to the originating workflow.
-                 *
-                 * We'll migrate properties affixed to the originating
-                 * workflow, and the "all" group as well.
-                 */
-
-                for(ProjectProperty pp : context.getWorkflow()
-                                                .getProject()
-                                                .getPropertyList()) {
-                    PropertyTemplate newProp;
-
-                    if(pp.isSecure()) {
-                        newProp = projectTemplate.createProperty(
-                                        pp.getName(),
-                                        PropertyInterfaceTypeEnum.TEXT_SECURE
-                        );
-                    } else {
-                        newProp = projectTemplate.createProperty(
-                                        pp.getName(),
-                                        PropertyInterfaceTypeEnum.TEXT
-                        );
-                    }
-
-                    // Default to empty string
-                    if(pp.getDescription() != null) {
-                        newProp.setDescription(pp.getDescription());
-                    }
-
-                    // Add property value
-                    newProp.setValue(pp.getValue(), pp.isSecure());
-                }
+            }
 
-                // And now build environment properties
-                ServerGroup[] sg = context.getWorkflow().getServerGroupArray();
+            // And now environment properties
+            ServerGroup[] sg = context.getWorkflow().getServerGroupArray();
 
-                // This shouldn't be possible.
-                if(sg.length != 1) {
-                    throw new MigrateException(
-                        "Workflow should have exactly one server group " +
-                        "(which is to say environment), for some reason it " +
-                        "does not."
-                    );
-                }
+            op.serverGroups = sg.length;
 
-                // Grab our properties and go
+            if(sg.length == 1) {
                 for(ProjectEnvironmentProperty pep :
                                 context.getWorkflow()
                                        .getProject()
@@ -542,216 +593,29 @@ public class UcbWorkflow extends AbstractWorkflow
                     // and these are just slightly different.
                     // AHP has so many different properties objects cause
                     // reasons.
-                    PropertyTemplate newProp;
-
-                    if(pep.isSecure()) {
-                        newProp = projectTemplate.createProperty(
-                                        pep.getName(),
-                                        PropertyInterfaceTypeEnum.TEXT_SECURE
-                        );
-                    } else {
-                        newProp = projectTemplate.createProperty(
-                                        pep.getName(),
-                                        PropertyInterfaceTypeEnum.TEXT
-                        );
-                    }
-
-                    // Default to empty string
-                    if(pep.getDescription() != null) {
-                        newProp.setDescription(pep.getDescription());
-                    }
-
-                    // Add property value
-                    newProp.setValue(pep.getValue(), pep.isSecure());
-                }
-
-                // Save it
-                projectTemplate.update();
-
-                // We only need to configure Build Pre-Processing if
-                // our Quiet Period type is QuietPeriodConfigChangeLog
-                // That's the only type UCB supports.
-                QuietPeriodConfig qpc = context.getWorkflow()
-                                               .getProject()
-                                               .getQuietPeriodConfig();
-
-                // Set the rest only if its a QuietPeriodConfigChangeLog
-                if(qpc instanceof QuietPeriodConfigChangeLog) {
-                    QuietPeriodConfigChangeLog qpccl =
-                        (QuietPeriodConfigChangeLog)qpc;
-                    // Set up our UCB client
-                    // AM-9 : put this URL someplace more sensible?
-                    UcbClient client = new UcbClient(
-                        "/tasks/admin/project/template/ProjectTemplateTasks/saveBuildPreProcess"
-                    );
-
-                    // Create our value list.  we can have duplicate
-                    // values so we can't use a simple map here.
-                    List<NameValuePair> vals = new ArrayList<>(10);
-
-                    vals.add(new BasicNameValuePair("projectTemplateId",
-                                                    templateId
-                            )
-                    );
-                    vals.add(new BasicNameValuePair("Save", "Save"));
-
-                    // AHP and UCB have very incompatible means of handling
-                    // agent selection.  we'll hardcode this to all agents
-                    // for now.
-                    // AM-13: Is there a better way?  Should probably at
-                    // least not assume pool_1 -- I think there's another
-                    // place I hardcode this, so centralize it.
-                    vals.add(new BasicNameValuePair("agentPoolId", "pool_1"));
-                    vals.add(new BasicNameValuePair("agentPoolTypeRadio",
-                                                    "agentPool")
-                    );
-
-                    // Put labels
-                    for(String label : qpccl.getLabelValues()) {
-                        vals.add(new BasicNameValuePair("labelValue", label));
-                    }
-
-                    // AHP stores these as milliseconds, and only has
-                    // quiet period and not merge period.  Thus, we
-                    // will assume the same value for both.
-                    long ms = context.getWorkflow()
-                                     .getProject()
-                                     .getQuietPeriod();
-
-                    if(ms < 1000) {
-                        ms = 0;
-                    } else {
-                        ms = ms / 1000;
-                    }
-
-                    vals.add(new BasicNameValuePair("mergePeriodDuration",
-                                                    String.valueOf(ms))
-                    );
-                    vals.add(new BasicNameValuePair("quietPeriodDuration",
-                                                    String.valueOf(ms))
-                    );
-                    vals.add(new BasicNameValuePair("shouldCleanup",
-                                 String.valueOf(qpccl.getShouldCleanup()))
-                    );
-
-                    // Stamp values
-                    for(String stamp : qpccl.getStampValues()) {
-                        vals.add(new BasicNameValuePair("stampValue", stamp));
-                    }
-
-                    StepPreConditionScript ppc = null;
-
-                    if(qpccl.getPreConditionScript() != null) {
-                        ppc = PreCondScript.getStepPreconditionScript(
-                                      qpccl.getPreConditionScript()
-                       );
-                    }
-
-                    // Handle precond
-                    if(ppc != null) {
-                        vals.add(
-                            new BasicNameValuePair(
-                                "stepPreConditionScriptId", ppc.getId()
-                            )
-                        );
-                    } else {
-                        vals.add(
-                            new BasicNameValuePair(
-                                "stepPreConditionScriptId", ""
-                            )
-                        );
-                    }
-
-                    // set timeout
-                    vals.add(
-                        new BasicNameValuePair(
-                            "timeoutDuration",
-                            String.valueOf(qpccl.getTimeout())
-                        )
+                    op.properties.add(new PropertySpec(pep.getName(),
+                                                       pep.getDescription(),
+                                                       pep.getValue(),
+                                                       pep.isSecure())
                     );
-
-                    HashMap<String, String> props = new HashMap<>(1);
-                    props.put("projectTemplateId", templateId);
-
-                    synchronized(UcbClient.cidLock) {
-                        // Get CID.  AM-9: centarlize this URL?
-                        String cid = client.getCIDFromGet(
-                            "/tasks/admin/project/template/ProjectTemplateTasks/viewBuildPreProcess",
-                            props
-                        );
-
-                        // Add CID
-                        vals.add(new BasicNameValuePair("cid", cid));
-
-                        // Push it -- 302 is okay in this case
-                        try {
-                            client.sendRawPost(vals);
-                        } catch(MigrateException e) {
-                            if(!e.getMessage().endsWith("302")) {
-                                throw e;
-                            }
-                        }
-                    }
                 }
-
-                // Otherwise, we've done as much as we can here.
-                // Re-load our template.
-                projectTemplate = Factories.getTemplateFactory()
-                                           .getTemplateByName(templateName);
             }
 
-            // Create our project
-            ProjectBuilder projBuild = new ProjectBuilder();
-            projBuild.name(context.getWorkflow().getProject().getName()
-                           + " (" + context.getWorkflow().getProject().getId()
-                           + ")"
-            );
-            projBuild.templateId(templateId);
-
-            if(context.getWorkflow().getProject().getDescription() != null) {
-                projBuild.description(context.getWorkflow()
-                                             .getProject()
-                                             .getDescription()
+            // We only need to configure Build Pre-Processing if
+            // our Quiet Period type is QuietPeriodConfigChangeLog
+            // That's the only type UCB supports.
+            QuietPeriodConfig qpc = context.getWorkflow()
+                                           .getProject()
+                                           .getQuietPeriodConfig();
+
+            // Set the rest only if its a QuietPeriodConfigChangeLog
+            if(qpc instanceof QuietPeriodConfigChangeLog) {
+                op.preProcess = extractPreProcess(context,
+                                                  (QuietPeriodConfigChangeLog)qpc
                 );
             }
 
-            // Create a project
-            Project proj = Factories.getProjectFactory()
-                                    .createProject(projBuild,
-                                                   context.teamMappings
-            );
-
-            // We need a map of templated properties.  Unfortunately,
-            // UCB doesn't seem to pick up default values by.. well,
-            // default.
-            HashMap<String, String> defaults = new HashMap<>(
-                                        processTemplate.getProperties().size()
-            );
-
-            for(PropertyTemplate pt : processTemplate.getProperties()) {
-                defaults.put(pt.getName(), pt.getValue().getValue());
-            }
-
-            // Link the process
-            ProcessBuilder procBuilder = new ProcessBuilder();
-            procBuilder.name(processTemplate.getName())
-                       .active(true)
-                       .templateId(processTemplate.getId())
-                       .projectId(proj.getId())
-                       .type(ProcessType.BUILD)
-                       .templatedProperties(defaults);
-
-            if(processTemplate.getDescription() != null) {
-                procBuilder.description(processTemplate.getDescription());
-            }
-
-            // Create it
-            Process process = Factories.getProcessFactory()
-                                       .createProcess(procBuilder,
-                                                      context.teamMappings
-            );
-
-            // Transfer Triggers
+            // Triggers
             for(Trigger t : context.getWorkflow().getTriggerArray()) {
                 // Only migrate active
                 if(!t.isEnabled()) {
@@ -775,120 +639,19 @@ public class UcbWorkflow extends AbstractWorkflow
                 }
 
                 // Otherwise, migrate.
-                HashMap<String, String> triggerParams = new HashMap<>(1);
-                HashMap<String, String> triggerProps = new HashMap<>(11);
-                triggerParams.put("workflowId", process.getId());
-
-                synchronized(UcbClient.cidLock) {
-                    // Get CID.  AM-9: centralize this URL?
-                    UcbClient tClient = new UcbClient(
-                        "/tasks/admin/project/workflow/WorkflowTasks/viewTriggerTypes"
-                    );
-
-                    // Get CID.  AM-9: centralize this URL?
-                    String cid = tClient.getCIDFromGet(
-                        "/tasks/admin/project/workflow/WorkflowTasks/viewTriggerTypes",
-                        triggerParams
-                    );
-
-                    // Add common params
-                    triggerProps.put("cid", cid);
-                    triggerProps.put("workflowId", process.getId());
-                    triggerProps.put("Select", "Select");
-
-                    // Start the trigger process.
-                    if(t instanceof ScheduledTrigger) {
-                        triggerProps.put(
-                            "triggerType",
-                            "com.urbancode.ubuild.domain.trigger.scheduled.ScheduledTrigger"
-                        );
-                    } else if(t instanceof RepositoryRequestTrigger) {
-                        triggerProps.put(
-                            "triggerType",
-                            "com.urbancode.ubuild.domain.trigger.remoterequest.repository.RepositoryRequestTrigger"
-                        );
-                    } else { // error
-                        throw new MigrateException(
-                            "Unknown/unsupported trigger type: "
-                            + t.getClass().getName()
-                            + " (this shouldn't happen)"
-                        );
-                    }
-
-                    // Submit it - AM-9 centralize URL
-                    tClient.setUrl(
-                        "/tasks/admin/project/workflow/WorkflowTasks/newTrigger"
-                    );
-
-                    tClient.sendRawPost(triggerProps);
-
-                    // Verify the results?  Dunno if I care,
-                    // I would think UCB would return an error code if
-                    // there was a problem which would be an exception.
-
-                    // Clean out what we don't need
-                    triggerProps.remove("triggerType");
-                    triggerProps.remove("Select");
-
-                    // Add common bits
-                    triggerProps.put("saveTrigger", "save");
-                    triggerProps.put("enabled", "true");
-                    triggerProps.put("name", t.getName());
-                    triggerProps.put("priority",
-                                     String.valueOf(t.getPriority().getId())
-                    );
-
-                    // If it's a trigger type, push a warning.
-                    // If it's a schedule type, set the schedule.
-                    if(t instanceof ScheduledTrigger) {
-                        ScheduledTrigger st = (ScheduledTrigger)t;
-
-                        // Luckily the ID's happen to line up.
-                        triggerProps.put("scheduleId",
-                            String.valueOf(st.getSchedule().getId())
-                        );
-                    } else { // we eliminated others above.
-                        LOG.warn(
-                        "Migrating a Repository Request trigger.  Note that " +
-                        "you will need to correct the trigger URL.  This is " +
-                        "a manual process; you can get the trigger URL from " +
-                        "UCB.  Contact Epic Force for further assistance if " +
-                        "you are unsure of how to do this."
-                        );
-                    }
-
-                    // Any properties we need to push?
-                    for(String propName : t.getPropertyNames()) {
-                        triggerProps.put(
-                            "property:" + propName,
-                            t.getProperty(propName)
-                        );
-                    }
-
-                    // And then push 'em
-                    tClient.setUrl(
-                        "/tasks/admin/project/workflow/WorkflowTasks/saveTrigger"
-                    );
-
-                    try { // This will send a 302 if it succeeds.
-                        tClient.sendRawPost(triggerProps);
-                    } catch(MigrateException e) {
-                        if(!e.getMessage().endsWith("302")) {
-                            throw e;
-                        }
-                    }
-                }
+                op.triggers.add(extractTrigger(t));
             }
 
-            // Push Notification Scheme, Skip-PreProcess, and Priority
-            // via edit screen.
-            String nsId = "";
+            // Notification Scheme, Skip-PreProcess, and Priority go in
+            // via the edit screen.
+            op.notificationSchemeId = "";
 
             // Get Notification String ID if we need it
             if(context.getWorkflow().getNotificationScheme() != null) {
                 try {
-                    nsId = Scheme.get(context.getWorkflow()
-                                                    .getNotificationScheme()
+                    op.notificationSchemeId = Scheme.get(
+                                    context.getWorkflow()
+                                           .getNotificationScheme()
                     );
                 } catch(NotFoundException e) {
                     LOG.warn(
@@ -898,137 +661,243 @@ public class UcbWorkflow extends AbstractWorkflow
                 }
             }
 
-            // Get a CID
-            UcbClient nsClient = new UcbClient(
-                "/tasks/admin/project/workflow/WorkflowTasks/saveWorkflow"
-            );
-
-            HashMap<String, String> sendProps = new HashMap<>(7+defaults.size());
-
-            sendProps.put("workflowId", process.getId());
-
-            // CID probably isn't necessary, I could probably
-            // push the workflowID instead.  That works on a lot of
-            // these forms -- if this is problematic, try it out.
-            String nsCID = nsClient.getCIDFromGet(
-                "/tasks/admin/project/workflow/WorkflowTasks/editWorkflow",
-                sendProps
-            );
-
-            // Push stuff
-            sendProps.clear();
-            sendProps.put("cid", nsCID);
-
-            if(process.getDescription() != null) {
-                sendProps.put("description", process.getDescription());
-            } else {
-                sendProps.put("description", "");
-            }
-    
-            sendProps.put("name", process.getName());
-            sendProps.put("notificationSchemeId", nsId);
-            sendProps.put("saveWorkflow", "Save");
-            sendProps.put("skipQuietPeriod", String.valueOf(
-                                                context.getWorkflow()
-                                                       .isSkippingQuietPeriod()
-                )
+            op.skipQuietPeriod = String.valueOf(
+                                    context.getWorkflow()
+                                           .isSkippingQuietPeriod()
             );
 
             if(context.getWorkflow().getWorkflowPriorityScript() != null) {
-                sendProps.put("priority", String.valueOf(
-                                            context.getWorkflow()
-                                                   .getWorkflowPriorityScript()
-                                                   .getId()
-                    )
+                op.priority = String.valueOf(context.getWorkflow()
+                                                    .getWorkflowPriorityScript()
+                                                    .getId()
                 );
             } else {
-                sendProps.put("priority", "-2");
-            }
-
-            // Add defaults
-            for(Map.Entry<String, String> def : defaults.entrySet()) {
-                sendProps.put("property:" + def.getKey(), def.getValue());
-                sendProps.put("default:property:" + def.getKey(), def.getValue());
+                op.priority = "-2";
             }
 
-            // Push it
-            nsClient.sendRawPost(sendProps);
-
-            // Attach source configs and repo's
-            for(AbstractSourceConfig.TemplateRepoPair trp :
-                                    ucbSourceConfig.getRepoTemplatePairs()) {
-                SourceConfigBuilder sb = new SourceConfigBuilder();
-                sb.name(trp.getTemplate().getName())
-                  .templateId(trp.getTemplate().getId())
-                  .projectId(proj.getId())
-                  .processId(process.getId())
-                  .repository(trp.getRepository().getName());
-
-                // Try to create it.
-                Factories.getSourceConfigFactory()
-                         .createSourceConfig(sb);
-            }
+            // Source configs and repo's to attach
+            op.sources = new ArrayList<>(
+                                    ucbSourceConfig.getRepoTemplatePairs()
+            );
 
-            // Theoretically, we're done!  Holy crap!
+            context.defer(op);
         } catch(MigrateException e) {
             throw e;
-        } catch(Exception e) { // UCB
-            throw new MigrateException("Exception from UCB", e);
+        } catch(Exception e) { // AHP or UCB
+            throw new MigrateException("Exception while migrating project", e);
         }
     }
 
     /**
-     * Create a process template and associated things.  This is basically
-     * the construction of the workflow.
+     * Pull the build pre-processing form values out of a quiet period
+     * config.  The project template ID and CID go in at load time.
      *
-     * @param context       The context of the migration.
-     * @throws MigrateException on any failure, or JSONException if we
-     *         get jibberish from UCB.
+     * @param context       Migration context
+     * @param qpccl         The quiet period config
+     * @return form values
+     * @throws Exception from AHP or UCB (precondition lookup)
      */
-    private void migrateWorkflow(UcbContext context)
-            throws MigrateException, JSONException
+    private List<NameValuePair> extractPreProcess(UcbContext context,
+                                                  QuietPeriodConfigChangeLog qpccl)
+            throws Exception
     {
-        // UCB's client has very poor support for process template properties
-        // and no support for artifacts.  Therefore, we have to build
-        // this object by hand.
-        JSONObject pt = new JSONObject();
+        // Create our value list.  we can have duplicate
+        // values so we can't use a simple map here.
+        List<NameValuePair> vals = new ArrayList<>(10);
+
+        vals.add(new BasicNameValuePair("Save", "Save"));
+
+        // AHP and UCB have very incompatible means of handling
+        // agent selection.  we'll hardcode this to all agents
+        // for now.
+        // AM-13: Is there a better way?  Should probably at
+        // least not assume pool_1 -- I think there's another
+        // place I hardcode this, so centralize it.
+        vals.add(new BasicNameValuePair("agentPoolId", "pool_1"));
+        vals.add(new BasicNameValuePair("agentPoolTypeRadio",
+                                        "agentPool")
+        );
 
-        pt.put("name", workflowName);
+        // Put labels
+        for(String label : qpccl.getLabelValues()) {
+            vals.add(new BasicNameValuePair("labelValue", label));
+        }
 
-        if(context.getWorkflow().getDescription() == null) {
-            pt.put("description", "");
+        // AHP stores these as milliseconds, and only has
+        // quiet period and not merge period.  Thus, we
+        // will assume the same value for both.
+        long ms = context.getWorkflow()
+                         .getProject()
+                         .getQuietPeriod();
+
+        if(ms < 1000) {
+            ms = 0;
         } else {
-            pt.put("description", context.getWorkflow().getDescription());
+            ms = ms / 1000;
         }
 
-        // type is Build or Secondary.  We're just working with Build for now.
-        pt.put("type", "Build");
-
-        // We're always active
-        pt.put("active", true);
+        vals.add(new BasicNameValuePair("mergePeriodDuration",
+                                        String.valueOf(ms))
+        );
+        vals.add(new BasicNameValuePair("quietPeriodDuration",
+                                        String.valueOf(ms))
+        );
+        vals.add(new BasicNameValuePair("shouldCleanup",
+                     String.valueOf(qpccl.getShouldCleanup()))
+        );
 
-        // Put the teams in
-        RESTTeamParser teamParse = new RESTTeamParser();
-        pt.put("teams", teamParse.teamsToJSON(context.teamMappings));
+        // Stamp values
+        for(String stamp : qpccl.getStampValues()) {
+            vals.add(new BasicNameValuePair("stampValue", stamp));
+        }
 
-        // Migrate properties
-        JSONArray propArray = new JSONArray();
+        StepPreConditionScript ppc = null;
 
-        for(WorkflowProperty wp : context.getWorkflow().getPropertyArray()) {
-            /* AM-15: support job execution properties?  I've never seen
-             * this being used and the REST interface doesn't support it.
-             * I can support it, but it requires a considerable bit more
-             * work.
-             */
-            if(wp.isJobExecutionValue()) {
-                throw new MigrateException(
-                    "Workflow property uses job execution values, which is " +
-                    "not presently supported by the migration tool.  The " +
-                    "property in question is: " + wp.getName()
-                );
-            }
+        if(qpccl.getPreConditionScript() != null) {
+            ppc = PreCondScript.getStepPreconditionScript(
+                          qpccl.getPreConditionScript()
+           );
+        }
 
-            // UCB doesn't support this
+        // Handle precond
+        if(ppc != null) {
+            vals.add(
+                new BasicNameValuePair(
+                    "stepPreConditionScriptId", ppc.getId()
+                )
+            );
+        } else {
+            vals.add(
+                new BasicNameValuePair(
+                    "stepPreConditionScriptId", ""
+                )
+            );
+        }
+
+        // set timeout
+        vals.add(
+            new BasicNameValuePair(
+                "timeoutDuration",
+                String.valueOf(qpccl.getTimeout())
+            )
+        );
+
+        return vals;
+    }
+
+    /**
+     * Pull a trigger's settings out of AHP.
+     *
+     * @param t             An enabled, non-event trigger
+     * @return the trigger, ready to go in at load time
+     * @throws MigrateException on a trigger type we don't know
+     */
+    private TriggerSpec extractTrigger(Trigger t) throws MigrateException
+    {
+        TriggerSpec ret;
+
+        if(t instanceof ScheduledTrigger) {
+            ret = new TriggerSpec(
+                "com.urbancode.ubuild.domain.trigger.scheduled.ScheduledTrigger"
+            );
+        } else if(t instanceof RepositoryRequestTrigger) {
+            ret = new TriggerSpec(
+                "com.urbancode.ubuild.domain.trigger.remoterequest.repository.RepositoryRequestTrigger"
+            );
+        } else { // error
+            throw new MigrateException(
+                "Unknown/unsupported trigger type: "
+                + t.getClass().getName()
+                + " (this shouldn't happen)"
+            );
+        }
+
+        // Add common bits
+        ret.props.put("saveTrigger", "save");
+        ret.props.put("enabled", "true");
+        ret.props.put("name", t.getName());
+        ret.props.put("priority", String.valueOf(t.getPriority().getId()));
+
+        // If it's a trigger type, push a warning.
+        // If it's a schedule type, set the schedule.
+        if(t instanceof ScheduledTrigger) {
+            ScheduledTrigger st = (ScheduledTrigger)t;
+
+            // Luckily the ID's happen to line up.
+            ret.props.put("scheduleId",
+                String.valueOf(st.getSchedule().getId())
+            );
+        } else { // we eliminated others above.
+            LOG.warn(
+            "Migrating a Repository Request trigger.  Note that " +
+            "you will need to correct the trigger URL.  This is " +
+            "a manual process; you can get the trigger URL from " +
+            "UCB.  Contact Epic Force for further assistance if " +
+            "you are unsure of how to do this."
+            );
+        }
+
+        // Any properties we need to push?
+        for(String propName : t.getPropertyNames()) {
+            ret.props.put("property:" + propName, t.getProperty(propName));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Work out a process template and associated things, and queue it
+     * up for the load stage.  This is basically the construction of
+     * the workflow.
+     *
+     * @param context       The context of the migration.
+     * @throws MigrateException on any failure, or JSONException if we
+     *         get jibberish from UCB.
+     */
+    private void migrateWorkflow(UcbContext context)
+            throws MigrateException, JSONException
+    {
+        // UCB's client has very poor support for process template properties
+        // and no support for artifacts.  Therefore, we have to build
+        // this object by hand.
+        JSONObject pt = new JSONObject();
+
+        pt.put("name", workflowName);
+
+        if(context.getWorkflow().getDescription() == null) {
+            pt.put("description", "");
+        } else {
+            pt.put("description", context.getWorkflow().getDescription());
+        }
+
+        // type is Build or Secondary.  We're just working with Build for now.
+        pt.put("type", "Build");
+
+        // We're always active
+        pt.put("active", true);
+
+        // Put the teams in
+        RESTTeamParser teamParse = new RESTTeamParser();
+        pt.put("teams", teamParse.teamsToJSON(context.teamMappings));
+
+        // Migrate properties
+        JSONArray propArray = new JSONArray();
+
+        for(WorkflowProperty wp : context.getWorkflow().getPropertyArray()) {
+            /* AM-15: support job execution properties?  I've never seen
+             * this being used and the REST interface doesn't support it.
+             * I can support it, but it requires a considerable bit more
+             * work.
+             */
+            if(wp.isJobExecutionValue()) {
+                throw new MigrateException(
+                    "Workflow property uses job execution values, which is " +
+                    "not presently supported by the migration tool.  The " +
+                    "property in question is: " + wp.getName()
+                );
+            }
+
+            // UCB doesn't support this
             if((wp.getInputProperties() != null) &&
                (wp.getInputProperties().size() > 0)) {
                 throw new MigrateException(
@@ -1160,15 +1029,6 @@ public class UcbWorkflow extends AbstractWorkflow
         // Add it!
         pt.put("artifact-set-configuration", artifactSets);
 
-        // Push this stuff to UCB
-        UcbClient client = new UcbClient(Urls.TEMPLATE_PROCESS);
-
-        // we need the return value
-        JSONObject newPt = client.sendPostReturnObject(pt.toString());
-
-        // We should have an ID
-        Long ptId = newPt.getLong("id");
-
         /* We need to migrate the resource locks, if applicable.
          * AM-17: Lockaable resources are relatively easy to move (though
          * unsupported by UCB client).  Should I merge them by name and
@@ -1185,205 +1045,85 @@ public class UcbWorkflow extends AbstractWorkflow
             );
         }
 
+        ProcessTemplateOp op = new ProcessTemplateOp(
+                                        context.getWorkflow().getId(),
+                                        pt.toString()
+        );
+
         /* And lastly, the job workflow definition.
          * The UCB client falls somewhat short, as it can handle
          * most aspects of the job workflow steps but it cannot
          * handle iterations.
          *
-         * So, we will do one pass where we will more or less
-         * directly migrate the WorkflowDefinitionJobConfig
+         * So, the load stage will do one pass where it more or less
+         * directly migrates the WorkflowDefinitionJobConfig
          * objects and then a second pass to add in iteration
          * info.
          */
 
-        try {
-            processTemplate = Factories.getProcessTemplateFactory()
-                                       .getTemplateById(String.valueOf(ptId));
-        } catch(Exception e) {
-            throw new MigrateException("Cannot communicate with UCB.", e);
-        }
-
-        RESTWorkflow ucbWf = (RESTWorkflow)processTemplate.getWorkflow();
-
         // Extract the table graph, if we have it.
-        if(context.getWorkflow().getWorkflowDefinition() == null) {
-            return;
-        }
-
-        TableDisplayableGraph<WorkflowDefinitionJobConfig> g =
-                                context.getWorkflow()
-                                       .getWorkflowDefinition()
-                                       .getWorkflowJobConfigGraph();
-
-        // We can straight port our vertex list and our arc list
-        // into UCB.  Map AHP ID's to UCB objects so that we
-        // can make our arcs.
-        HashMap<Long, WorkflowNode> vMap = new HashMap<>(g.getVertexCount());
-
-        for(Vertex<WorkflowDefinitionJobConfig> v : g.getVertexArray()) {
-            WorkflowNode newNode = createWorkflowNode(ucbWf, v.getData());
-            vMap.put(v.getData().getId(), newNode);
-        }
+        if(context.getWorkflow().getWorkflowDefinition() != null) {
+            TableDisplayableGraph<WorkflowDefinitionJobConfig> g =
+                                    context.getWorkflow()
+                                           .getWorkflowDefinition()
+                                           .getWorkflowJobConfigGraph();
+
+            // We can straight port our vertex list and our arc list
+            // into UCB.  Map AHP ID's to node positions so that we
+            // can make our arcs.
+            HashMap<Long, Integer> vMap = new HashMap<>(g.getVertexCount());
+
+            op.nodes = new ArrayList<>(g.getVertexCount());
+
+            for(Vertex<WorkflowDefinitionJobConfig> v : g.getVertexArray()) {
+                vMap.put(v.getData().getId(), op.nodes.size());
+                op.nodes.add(extractWorkflowNode(v.getData()));
+            }
 
-        // Create arcs
-        for(com.urbancode.commons.graph.Graph.Arc<WorkflowDefinitionJobConfig>
-            arc : g.getArcSet()) {
-            ucbWf.getGraph().addArc(
+            // Arcs
+            for(com.urbancode.commons.graph.Graph.Arc<WorkflowDefinitionJobConfig>
+                arc : g.getArcSet()) {
+                op.arcs.add(new int[] {
                     vMap.get(arc.getFrom().getData().getId()),
                     vMap.get(arc.getTo().getData().getId())
-            );
-        }
-
-        // Save it
-        try {
-            ucbWf.update();
-        } catch(Exception e) {
-            throw new MigrateException("Cannot communicate with UCB.", e);
-        }
-
-        // Reload our workflow.
-        try {
-            processTemplate = Factories.getProcessTemplateFactory()
-                                       .getTemplateById(String.valueOf(ptId));
-        } catch(Exception e) {
-            throw new MigrateException("Cannot communicate with UCB.", e);
-        }
-
-        /*
-         * Logic ... Okay, so this is obnoxious.  When I create a graph
-         * in the Workflow, I can't set iterations.
-         *
-         * The vertixes should (theoretically) be in sync, so if we
-         * iterate over them both we should figure out who has
-         * iterations.
-         *
-         * AM-18: Fix this.  Isn't working how I expect it to, something
-         * is screwing up the order.  I wish UCB's client would just
-         * take iterations :P
-         *
-         * FIGURED IT OUT : I think our hasIteration list should match
-         * the graph map that comes back from UCB
-         *
-         * NOPE, DIDN'T FIGURE IT OUT : It looks like UCB is scrambling
-         * ID's around ... this may not be possible without a lot of
-         * additional haggling. :/  I may be migrating the graph over
-         * wrong and its hard to tell with my test cases since I'm
-         * using a copy / paste of the same job.
-         *
-         * The UCB client throws an exception trying to load an
-         * existing graph, so we've got to do this manually.
-         */
-        UcbClient graphClient = new UcbClient(
-            Urls.TEMPLATE_PROCESS_WORKFLOW_GRAPH
-                .replace("{}", String.valueOf(ptId))
-        );
-
-        // Grab our graph
-        JSONObject graph = graphClient.sendGetReturnObject(null);
-        JSONArray nodes = graph.getJSONArray("nodes");
-
-        // Make a sorted list of ID's
-        ArrayList<Long> nodeIds = new ArrayList<>(nodes.length());
-
-        for(int i = 0; i < nodes.length(); i++) {
-            nodeIds.add(nodes.getJSONObject(i).getLong("id"));
-        }
-
-        // sort it
-        Collections.sort(nodeIds);
-
-        // AM-9: Make this more dynamic
-        UcbClient itClient = new UcbClient(
-            "/tasks/admin/library/workflow/WorkflowDefinitionTasks/saveJobIterationPlan"
-        );
-
-        // Now set up iterations
-        for(int i = 0; i < hasIteration.size(); i++) {
-            if(hasIteration.get(i) == null) {
-                // skip
-                continue;
-            }
-
-            // Get our iteration
-            JobIterationPlan plan = hasIteration.get(i).getJobIterationPlan();
-
-            // Set up iteration.
-            Map<String, String> it = new HashMap(9);
-
-            it.put("iterationType", "Fixed");
-            it.put("isParallel", String.valueOf(plan.isParallelIteration()));
-            it.put("iterateJob", "Set Iteration");
-            it.put("iterations", plan.getIterations());
-
-            if(plan.isParallelIteration()) {
-                it.put("maxParallelJobs",
-                       String.valueOf(plan.getMaxParallelJobs()));
-            } else {
-                it.put("maxParallelJobs", "");
+                });
             }
-
-            it.put("propertyName", "");
-            it.put("requireAllAgents", "false");
-            it.put("runningOnUniqueAgents",
-                   String.valueOf(plan.isRunningOnUniqueAgents()));
-            it.put("selectedWorkflowDefinitionJobConfigId",
-                   String.valueOf(nodeIds.get(i))
-            );
-            it.put("workflowTemplateId", String.valueOf(ptId));
-
-            itClient.sendRawPost(it);
         }
+
+        context.defer(op);
     }
 
     /**
-     * Create a WorkflowNode from a WorkflowDefinitionJobConfiguration
+     * Work out a WorkflowNode from a WorkflowDefinitionJobConfiguration
      * object, which is the AHP equivalent.  This has the 'side effect'
-     * of creating any necessary sub-objects along the way.
+     * of creating any necessary sub-objects along the way (scripts and
+     * such); the node itself is made by the load stage.
      *
-     * @param ucbWf     The UCB Client workflow object
      * @param wdjc      The workflowDefinitionJobConfig from AHP
-     * @returns a WorkflowNode object ready for use.
+     * @returns a NodeSpec ready for the load stage.
      * @throws Migrate exception on any error.
      */
-    private WorkflowNode createWorkflowNode(RESTWorkflow ucbWf,
-                                            WorkflowDefinitionJobConfig wdjc)
+    private NodeSpec extractWorkflowNode(WorkflowDefinitionJobConfig wdjc)
             throws MigrateException
     {
         // So we need a job, agent config, Agent lock duration,
         // work dir config, and job precondition script.
         // We also need to flag iterations.
         try {
-            // JOB
-            Job job;
-
-            if(knownJobs.containsKey(wdjc.getJobConfig().getId())) {
-                job = knownJobs.get(wdjc.getJobConfig().getId());
-            } else {
-                String jobName = wdjc.getJobConfig().getName() + " (" +
-                                 String.valueOf(wdjc.getJobConfig().getId()) +
-                                 ")";
-
-                job = Factories.getJobFactory().getJobByName(jobName);
+            // JOB -- it's looked up at load time, by name
+            NodeSpec node = new NodeSpec();
 
-                // This is a paddlin' -- shouldn't happen
-                if(job == null) {
-                    throw new MigrateException(
-                        "The impossible has occured and job " + jobName +
-                        "is null.  Maybe it got deleted during the migration?"
-                    );
-                }
-
-                knownJobs.putIfAbsent(wdjc.getJobConfig().getId(), job);
-            }
+            node.jobConfigId = wdjc.getJobConfig().getId();
+            node.jobName = wdjc.getJobConfig().getName() + " (" +
+                           String.valueOf(wdjc.getJobConfig().getId()) +
+                           ")";
 
             // AGENT CONFIG
-            AgentConfig agentConfig;
-
             if(wdjc.isAgentless()) {
-                agentConfig = new NoAgentAgentConfig();
+                node.agentConfig = new NoAgentAgentConfig();
             } else if(wdjc.isJobUsingParentAgent()) {
                 // we can support this
-                agentConfig = new UseParentAgentConfig();
+                node.agentConfig = new UseParentAgentConfig();
             } else {
                 synchronized(agentMutex) {
                     if(allAgentsPool == null) {
@@ -1408,28 +1148,24 @@ public class UcbWorkflow extends AbstractWorkflow
                          "used -- we can honor those."
                 );
 
-                agentConfig = new AgentPoolAgentConfig(allAgentsPool);
+                node.agentConfig = new AgentPoolAgentConfig(allAgentsPool);
             }
 
             // AGENT LOCK DURACTION
-            AgentLockDuration duration;
-
             if(wdjc.isJobLockForWorkflow()) {
-                duration = AgentLockDuration.WORKFLOW;
+                node.duration = AgentLockDuration.WORKFLOW;
             } else {
-                duration = AgentLockDuration.JOB;
+                node.duration = AgentLockDuration.JOB;
             }
 
             // WORKING DIRECTORY
-            WorkDirConfig workDir;
-
             if(wdjc.isJobUsingParentWorkDir()) {
-                workDir = new UseParentWorkDirConfig();
+                node.workDir = new UseParentWorkDirConfig();
             } else if(wdjc.isJobUsingSourceWorkDirScript()) {
-                workDir = new SourceConfigWorkDirConfig();
+                node.workDir = new SourceConfigWorkDirConfig();
             } else {
                 // Try to match work dir scripts by name.
-                workDir = new WorkDirScriptWorkDirConfig(
+                node.workDir = new WorkDirScriptWorkDirConfig(
                                     WorkDirScript.get(
                                         wdjc.getJobWorkDirScript()
                                     )
@@ -1437,22 +1173,36 @@ public class UcbWorkflow extends AbstractWorkflow
             }
 
             // PRECOND SCRIPT
-            JobPreConditionScript jobScript =
-                PreCondScript.getJobPreconditionScript(
-                    wdjc.getJobPreConditionScript()
+            node.jobScript = PreCondScript.getJobPreconditionScript(
+                                wdjc.getJobPreConditionScript()
             );
 
-            // Make the node
-            WorkflowNode node = ucbWf.createWorkflowNode(
-                                            job, agentConfig, duration,
-                                            workDir, jobScript
-            );
+            // Is it going to need iteration?  The node and template
+            // ID's go in at load time.
+            JobIterationPlan plan = wdjc.getJobIterationPlan();
 
-            // Is it going to need iteration?
-            if(wdjc.getJobIterationPlan() != null) {
-                hasIteration.add(wdjc);
-            } else {
-                hasIteration.add(null);
+            if(plan != null) {
+                HashMap<String, String> it = new HashMap<>(9);
+
+                it.put("iterationType", "Fixed");
+                it.put("isParallel",
+                       String.valueOf(plan.isParallelIteration()));
+                it.put("iterateJob", "Set Iteration");
+                it.put("iterations", plan.getIterations());
+
+                if(plan.isParallelIteration()) {
+                    it.put("maxParallelJobs",
+                           String.valueOf(plan.getMaxParallelJobs()));
+                } else {
+                    it.put("maxParallelJobs", "");
+                }
+
+                it.put("propertyName", "");
+                it.put("requireAllAgents", "false");
+                it.put("runningOnUniqueAgents",
+                       String.valueOf(plan.isRunningOnUniqueAgents()));
+
+                node.iteration = it;
             }
 
             return node;
@@ -1472,4 +1222,718 @@ public class UcbWorkflow extends AbstractWorkflow
     {
         postRun((UcbContext)context);
     }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * A project or environment property for the project template.
+     */
+    private static class PropertySpec
+    {
+        private final String    name;
+        private final String    description;
+        private final String    value;
+        private final boolean   secure;
+
+        private PropertySpec(String name, String description, String value,
+                             boolean secure)
+        {
+            this.name = name;
+            this.description = description;
+            this.value = value;
+            this.secure = secure;
+        }
+    }
+
+    /**
+     * A trigger for the process.
+     */
+    private static class TriggerSpec
+    {
+        private final String                    type;
+        private final HashMap<String, String>   props = new HashMap<>(11);
+
+        private TriggerSpec(String type)
+        {
+            this.type = type;
+        }
+
+        /**
+         * Make the trigger in UCB.
+         *
+         * @param processId     UCB process ID
+         * @throws MigrateException on any failure
+         */
+        private void create(String processId) throws MigrateException
+        {
+            HashMap<String, String> triggerParams = new HashMap<>(1);
+            HashMap<String, String> triggerProps =
+                                        new HashMap<>(props.size() + 3);
+
+            triggerParams.put("workflowId", processId);
+
+            // One trigger conversation per process at a time
+            try(CidSession session = CidSession.open("process:" +
+                                                     processId)) {
+                // Get CID.  AM-9: centralize this URL?
+                UcbClient tClient = new UcbClient(
+                    "/tasks/admin/project/workflow/WorkflowTasks/viewTriggerTypes"
+                );
+
+                // Get CID.  AM-9: centralize this URL?
+                String cid = session.fetch(tClient,
+                    "/tasks/admin/project/workflow/WorkflowTasks/viewTriggerTypes",
+                    triggerParams
+                );
+
+                // Add common params
+                triggerProps.put("cid", cid);
+                triggerProps.put("workflowId", processId);
+                triggerProps.put("Select", "Select");
+
+                // Start the trigger process.
+                triggerProps.put("triggerType", type);
+
+                // Submit it - AM-9 centralize URL
+                tClient.setUrl(
+                    "/tasks/admin/project/workflow/WorkflowTasks/newTrigger"
+                );
+
+                tClient.sendRawPost(triggerProps);
+
+                // Verify the results?  Dunno if I care,
+                // I would think UCB would return an error code if
+                // there was a problem which would be an exception.
+
+                // Clean out what we don't need
+                triggerProps.remove("triggerType");
+                triggerProps.remove("Select");
+
+                // Add what we pulled out of AHP
+                triggerProps.putAll(props);
+
+                // And then push 'em
+                tClient.setUrl(
+                    "/tasks/admin/project/workflow/WorkflowTasks/saveTrigger"
+                );
+
+                try { // This will send a 302 if it succeeds.
+                    tClient.sendRawPost(triggerProps);
+                } catch(MigrateException e) {
+                    if(!e.getMessage().endsWith("302")) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A node of the workflow graph.  Everything but the job is
+     * resolved during extraction.
+     */
+    private static class NodeSpec
+    {
+        private Long                    jobConfigId;
+        private String                  jobName;
+        private AgentConfig             agentConfig;
+        private AgentLockDuration       duration;
+        private WorkDirConfig           workDir;
+        private JobPreConditionScript   jobScript;
+
+        /*
+         * Iteration form values, or null if it doesn't iterate
+         */
+        private HashMap<String, String> iteration = null;
+
+        /**
+         * Make the node on a UCB workflow.
+         *
+         * @param ucbWf         The UCB Client workflow object
+         * @return the new node
+         * @throws Exception on any failure (UCB)
+         */
+        private WorkflowNode create(RESTWorkflow ucbWf) throws Exception
+        {
+            // Not really made, just looked up, but only once per job.
+            Job job = knownJobs.get(jobConfigId,
+                new UcbCatalog.Creator<Long, Job>() {
+                    @Override
+                    public Job create(Long id) throws Exception
+                    {
+                        Job ret = Factories.getJobFactory()
+                                           .getJobByName(jobName);
+
+                        // This is a paddlin' -- shouldn't happen
+                        if(ret == null) {
+                            throw new MigrateException(
+                                "The impossible has occured and job " +
+                                jobName + "is null.  Maybe it got deleted " +
+                                "during the migration?"
+                            );
+                        }
+
+                        return ret;
+                    }
+                }
+            );
+
+            return ucbWf.createWorkflowNode(job, agentConfig, duration,
+                                            workDir, jobScript
+            );
+        }
+    }
+
+    /**
+     * Makes the process template, its workflow graph, and iterations.
+     * Leaves the template in the LoadState for ProjectOp.
+     */
+    private static class ProcessTemplateOp implements LoadOp
+    {
+        private final Long          workflowId;
+        private final String        json;
+
+        /*
+         * Graph, or null nodes if the workflow has no definition
+         */
+        private List<NodeSpec>      nodes = null;
+        private final List<int[]>   arcs = new ArrayList<>();
+
+        private ProcessTemplateOp(Long workflowId, String json)
+        {
+            this.workflowId = workflowId;
+            this.json = json;
+        }
+
+        /**
+         * (@inheritdoc)
+         */
+        @Override
+        public void load(LoadState state) throws MigrateException
+        {
+            try {
+                // Push this stuff to UCB
+                UcbClient client = new UcbClient(Urls.TEMPLATE_PROCESS);
+
+                // we need the return value
+                JSONObject newPt = client.sendPostReturnObject(json);
+
+                // We should have an ID
+                Long ptId = newPt.getLong("id");
+
+                if(state.getJournal() != null) {
+                    state.getJournal().templateCreated(workflowId,
+                                                       String.valueOf(ptId)
+                    );
+                }
+
+                state.setProcessTemplate(loadTemplate(ptId));
+
+                if(nodes == null) {
+                    return;
+                }
+
+                RESTWorkflow ucbWf =
+                        (RESTWorkflow)state.getProcessTemplate().getWorkflow();
+                List<WorkflowNode> made = new ArrayList<>(nodes.size());
+
+                for(NodeSpec node : nodes) {
+                    made.add(node.create(ucbWf));
+                }
+
+                // Create arcs
+                for(int[] arc : arcs) {
+                    ucbWf.getGraph().addArc(made.get(arc[0]),
+                                            made.get(arc[1])
+                    );
+                }
+
+                // Save it
+                ucbWf.update();
+
+                // Reload our workflow.
+                state.setProcessTemplate(loadTemplate(ptId));
+
+                migrateIterations(ptId);
+            } catch(MigrateException e) {
+                throw e;
+            } catch(Exception e) {
+                throw new MigrateException("Cannot communicate with UCB.", e);
+            }
+        }
+
+        /**
+         * (@inheritdoc)
+         */
+        @Override
+        public void plan(LoadPlan plan) throws MigrateException
+        {
+            String name;
+
+            try {
+                name = new JSONObject(json).optString("name");
+            } catch(JSONException e) {
+                throw new MigrateException("Got JSON processing error", e);
+            }
+
+            plan.create("process template", name, 1);
+            plan.read(1);                   // loadTemplate
+
+            if(nodes == null) {
+                return;
+            }
+
+            // Jobs we haven't seen yet get looked up by name
+            for(NodeSpec node : nodes) {
+                if(!knownJobs.contains(node.jobConfigId)) {
+                    plan.read(1);
+                }
+            }
+
+            // Nodes and arcs go up with the workflow in one update
+            plan.update("workflow", name + " (" + nodes.size() +
+                                    " jobs, " + arcs.size() + " arcs)", 1
+            );
+            plan.read(2);                   // loadTemplate, graph
+
+            for(NodeSpec node : nodes) {
+                if(node.iteration != null) {
+                    plan.create("iteration plan", node.jobName, 1);
+                }
+            }
+        }
+
+        private ProcessTemplate loadTemplate(Long ptId) throws Exception
+        {
+            return Factories.getProcessTemplateFactory()
+                            .getTemplateById(String.valueOf(ptId));
+        }
+
+        /*
+         * Logic ... Okay, so this is obnoxious.  When I create a graph
+         * in the Workflow, I can't set iterations.
+         *
+         * The vertixes should (theoretically) be in sync, so if we
+         * iterate over them both we should figure out who has
+         * iterations.
+         *
+         * AM-18: Fix this.  Isn't working how I expect it to, something
+         * is screwing up the order.  I wish UCB's client would just
+         * take iterations :P
+         *
+         * FIGURED IT OUT : I think our node list should match
+         * the graph map that comes back from UCB
+         *
+         * NOPE, DIDN'T FIGURE IT OUT : It looks like UCB is scrambling
+         * ID's around ... this may not be possible without a lot of
+         * additional haggling. :/  I may be migrating the graph over
+         * wrong and its hard to tell with my test cases since I'm
+         * using a copy / paste of the same job.
+         *
+         * The UCB client throws an exception trying to load an
+         * existing graph, so we've got to do this manually.
+         */
+        private void migrateIterations(Long ptId)
+                throws MigrateException, JSONException
+        {
+            UcbClient graphClient = new UcbClient(
+                Urls.TEMPLATE_PROCESS_WORKFLOW_GRAPH
+                    .replace("{}", String.valueOf(ptId))
+            );
+
+            // Grab our graph
+            JSONObject graph = graphClient.sendGetReturnObject(null);
+            JSONArray graphNodes = graph.getJSONArray("nodes");
+
+            // Make a sorted list of ID's
+            ArrayList<Long> nodeIds = new ArrayList<>(graphNodes.length());
+
+            for(int i = 0; i < graphNodes.length(); i++) {
+                nodeIds.add(graphNodes.getJSONObject(i).getLong("id"));
+            }
+
+            // sort it
+            Collections.sort(nodeIds);
+
+            // AM-9: Make this more dynamic
+            UcbClient itClient = new UcbClient(
+                "/tasks/admin/library/workflow/WorkflowDefinitionTasks/saveJobIterationPlan"
+            );
+
+            // One at a time, not UcbAsyncClient like the statuses:
+            // these are saves to the same workflow definition, they
+            // aren't retried, and nothing says UCB copes with them
+            // landing at once.
+
+            // Now set up iterations
+            for(int i = 0; i < nodes.size(); i++) {
+                if(nodes.get(i).iteration == null) {
+                    // skip
+                    continue;
+                }
+
+                Map<String, String> it =
+                                new HashMap<>(nodes.get(i).iteration);
+
+                it.put("selectedWorkflowDefinitionJobConfigId",
+                       String.valueOf(nodeIds.get(i))
+                );
+                it.put("workflowTemplateId", String.valueOf(ptId));
+
+                itClient.sendRawPost(it);
+            }
+        }
+    }
+
+    /**
+     * Makes the project template (if the project doesn't have one
+     * yet), the project, its process, triggers, and source configs.
+     * Needs ProcessTemplateOp to have run first.
+     */
+    private static class ProjectOp implements LoadOp
+    {
+        private Long                        workflowId;
+        private Long                        projectId;
+        private String                      templateName;
+        private String                      projectName;
+        private String                      description;
+        private List<TeamResourceMapping>   teams;
+
+        private final List<PropertySpec>    properties = new ArrayList<>();
+        private int                         serverGroups;
+
+        /*
+         * Build pre-process form values, or null if we don't set it
+         */
+        private List<NameValuePair>         preProcess = null;
+
+        private final List<TriggerSpec>     triggers = new ArrayList<>();
+
+        private String                      notificationSchemeId;
+        private String                      skipQuietPeriod;
+        private String                      priority;
+
+        private List<AbstractSourceConfig.TemplateRepoPair> sources;
+
+        /**
+         * (@inheritdoc)
+         */
+        @Override
+        public void load(LoadState state) throws MigrateException
+        {
+            ProcessTemplate processTemplate = state.getProcessTemplate();
+            MigrationJournal journal = state.getJournal();
+
+            // Create our project template if needed
+            try {
+                // A template a previous run didn't finish is no good to us
+                if(journal != null) {
+                    journal.discardProjectTemplateOrphan(projectId);
+                }
+
+                Template projectTemplate = Factories.getTemplateFactory()
+                                              .getTemplateByName(templateName);
+                String templateId;
+
+                if(projectTemplate != null) {
+                    templateId = projectTemplate.getId();
+                } else {
+                    templateId = createTemplate(journal);
+                }
+
+                // Create our project
+                ProjectBuilder projBuild = new ProjectBuilder();
+                projBuild.name(projectName);
+                projBuild.templateId(templateId);
+
+                if(description != null) {
+                    projBuild.description(description);
+                }
+
+                // Create a project
+                Project proj = Factories.getProjectFactory()
+                                        .createProject(projBuild, teams);
+
+                if(journal != null) {
+                    journal.projectCreated(workflowId,
+                                           String.valueOf(proj.getId())
+                    );
+                }
+
+                // We need a map of templated properties.  Unfortunately,
+                // UCB doesn't seem to pick up default values by.. well,
+                // default.
+                HashMap<String, String> defaults = new HashMap<>(
+                                        processTemplate.getProperties().size()
+                );
+
+                for(PropertyTemplate pt : processTemplate.getProperties()) {
+                    defaults.put(pt.getName(), pt.getValue().getValue());
+                }
+
+                // Link the process
+                ProcessBuilder procBuilder = new ProcessBuilder();
+                procBuilder.name(processTemplate.getName())
+                           .active(true)
+                           .templateId(processTemplate.getId())
+                           .projectId(proj.getId())
+                           .type(ProcessType.BUILD)
+                           .templatedProperties(defaults);
+
+                if(processTemplate.getDescription() != null) {
+                    procBuilder.description(processTemplate.getDescription());
+                }
+
+                // Create it
+                Process process = Factories.getProcessFactory()
+                                           .createProcess(procBuilder, teams);
+
+                // Transfer Triggers
+                for(TriggerSpec t : triggers) {
+                    t.create(process.getId());
+                }
+
+                // Push Notification Scheme, Skip-PreProcess, and Priority
+                // via edit screen.
+                saveWorkflow(process, defaults);
+
+                // Attach source configs and repo's
+                for(AbstractSourceConfig.TemplateRepoPair trp : sources) {
+                    SourceConfigBuilder sb = new SourceConfigBuilder();
+                    sb.name(trp.getTemplate().getName())
+                      .templateId(trp.getTemplate().getId())
+                      .projectId(proj.getId())
+                      .processId(process.getId())
+                      .repository(trp.getRepository().getName());
+
+                    // Try to create it.
+                    Factories.getSourceConfigFactory()
+                             .createSourceConfig(sb);
+                }
+
+                // Theoretically, we're done!  Holy crap!
+            } catch(MigrateException e) {
+                throw e;
+            } catch(Exception e) { // UCB
+                throw new MigrateException("Exception from UCB", e);
+            }
+        }
+
+        /**
+         * (@inheritdoc)
+         *
+         * Whether the project template needs making is looked up now,
+         * so two workflows of one project will both plan to make it.
+         */
+        @Override
+        public void plan(LoadPlan plan) throws MigrateException
+        {
+            Template existing;
+
+            try {
+                existing = Factories.getTemplateFactory()
+                                    .getTemplateByName(templateName);
+            } catch(Exception e) { // UCB
+                throw new MigrateException("Exception from UCB", e);
+            }
+
+            plan.read(1);
+
+            if(existing == null) {
+                plan.create("project template", templateName, 1);
+
+                for(PropertySpec ps : properties) {
+                    plan.create("template property", ps.name, 1);
+                }
+
+                plan.update("project template", templateName, 1);
+
+                if(preProcess != null) {
+                    // CID, then the form
+                    plan.update("build pre-process", templateName, 2);
+                }
+            }
+
+            plan.create("project", projectName, 1);
+            plan.create("process", null, 1);
+
+            for(TriggerSpec t : triggers) {
+                // CID, new trigger form, save trigger form
+                plan.create("trigger", t.type, 3);
+            }
+
+            // saveWorkflow: CID, then the form
+            plan.update("process", null, 2);
+
+            for(AbstractSourceConfig.TemplateRepoPair trp : sources) {
+                plan.create("source config", trp.getTemplate().getName(), 1);
+            }
+        }
+
+        /*
+         * Make the project template.  Let's create it, and then push
+         * modifications via the web form for stuff that it doesn't
+         * support.  (looks like it may only be 'timeout' that isn't
+         * supported)
+         */
+        private String createTemplate(MigrationJournal journal)
+                throws Exception
+        {
+            // This shouldn't be possible.
+            if(serverGroups != 1) {
+                throw new MigrateException(
+                    "Workflow should have exactly one server group " +
+                    "(which is to say environment), for some reason it " +
+                    "does not."
+                );
+            }
+
+            Template projectTemplate =
+                Factories.getTemplateFactory()
+                         .createTemplate(templateName, description,
+                                         new DefaultPreProcessConfig(),
+                                         teams
+            );
+            String templateId = projectTemplate.getId();
+
+            if(journal != null) {
+                journal.projectTemplateCreated(projectId, templateId);
+            }
+
+            for(PropertySpec ps : properties) {
+                PropertyTemplate newProp;
+
+                if(ps.secure) {
+                    newProp = projectTemplate.createProperty(
+                                    ps.name,
+                                    PropertyInterfaceTypeEnum.TEXT_SECURE
+                    );
+                } else {
+                    newProp = projectTemplate.createProperty(
+                                    ps.name,
+                                    PropertyInterfaceTypeEnum.TEXT
+                    );
+                }
+
+                // Default to empty string
+                if(ps.description != null) {
+                    newProp.setDescription(ps.description);
+                }
+
+                // Add property value
+                newProp.setValue(ps.value, ps.secure);
+            }
+
+            // Save it
+            projectTemplate.update();
+
+            if(preProcess != null) {
+                // Set up our UCB client
+                // AM-9 : put this URL someplace more sensible?
+                UcbClient client = new UcbClient(
+                    "/tasks/admin/project/template/ProjectTemplateTasks/saveBuildPreProcess"
+                );
+
+                List<NameValuePair> vals =
+                                new ArrayList<>(preProcess.size() + 2);
+
+                vals.add(new BasicNameValuePair("projectTemplateId",
+                                                templateId
+                        )
+                );
+                vals.addAll(preProcess);
+
+                HashMap<String, String> props = new HashMap<>(1);
+                props.put("projectTemplateId", templateId);
+
+                try(CidSession session = CidSession.open(
+                                            "projectTemplate:" + templateId)) {
+                    // Get CID.  AM-9: centarlize this URL?
+                    String cid = session.fetch(client,
+                        "/tasks/admin/project/template/ProjectTemplateTasks/viewBuildPreProcess",
+                        props
+                    );
+
+                    // Add CID
+                    vals.add(new BasicNameValuePair("cid", cid));
+
+                    // Push it -- 302 is okay in this case
+                    try {
+                        client.sendRawPost(vals);
+                    } catch(MigrateException e) {
+                        if(!e.getMessage().endsWith("302")) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+
+            // Otherwise, we've done as much as we can here.
+            if(journal != null) {
+                journal.projectTemplateDone(projectId, templateId);
+            }
+
+            return templateId;
+        }
+
+        /*
+         * Push Notification Scheme, Skip-PreProcess, and Priority
+         * via the process's edit screen.
+         */
+        private void saveWorkflow(Process process,
+                                  Map<String, String> defaults)
+                throws Exception
+        {
+            // Get a CID
+            UcbClient nsClient = new UcbClient(
+                "/tasks/admin/project/workflow/WorkflowTasks/saveWorkflow"
+            );
+
+            HashMap<String, String> sendProps =
+                                    new HashMap<>(7 + defaults.size());
+
+            sendProps.put("workflowId", process.getId());
+
+            // Same process as the triggers, so not while they're going
+            try(CidSession session = CidSession.open("process:" +
+                                                     process.getId())) {
+                // CID probably isn't necessary, I could probably
+                // push the workflowID instead.  That works on a lot of
+                // these forms -- if this is problematic, try it out.
+                String nsCID = session.fetch(nsClient,
+                    "/tasks/admin/project/workflow/WorkflowTasks/editWorkflow",
+                    sendProps
+                );
+
+                // Push stuff
+                sendProps.clear();
+                sendProps.put("cid", nsCID);
+
+                if(process.getDescription() != null) {
+                    sendProps.put("description", process.getDescription());
+                } else {
+                    sendProps.put("description", "");
+                }
+
+                sendProps.put("name", process.getName());
+                sendProps.put("notificationSchemeId", notificationSchemeId);
+                sendProps.put("saveWorkflow", "Save");
+                sendProps.put("skipQuietPeriod", skipQuietPeriod);
+                sendProps.put("priority", priority);
+
+                // Add defaults
+                for(Map.Entry<String, String> def : defaults.entrySet()) {
+                    sendProps.put("property:" + def.getKey(), def.getValue());
+                    sendProps.put("default:property:" + def.getKey(),
+                                  def.getValue()
+                    );
+                }
+
+                // Push it
+                nsClient.sendRawPost(sendProps);
+            }
+        }
+    }
 }
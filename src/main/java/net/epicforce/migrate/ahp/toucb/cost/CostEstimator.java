@@ -0,0 +1,173 @@
+package net.epicforce.migrate.ahp.toucb.cost;
+
+/*
+ * CostEstimator.java
+ *
+ * Works out a WorkflowCost for an AHP workflow, so the MigrateEngine
+ * can start the big ones first.  One huge workflow picked up last
+ * can keep a whole run going long after everything else is done.
+ *
+ * AHP workflows can only be looked at from inside Migration.run, so
+ * we borrow the AHP library's machinery: a loader whose workflow hook
+ * counts things up in preRun and then stops the Migration before it
+ * walks any jobs.  Nothing is sent to UCB.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import net.epicforce.migrate.ahp.Migration;
+import net.epicforce.migrate.ahp.context.AbstractContext;
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.loader.DefaultLoader;
+import net.epicforce.migrate.ahp.migrate.AbstractWorkflow;
+
+import com.urbancode.anthill3.domain.step.StepConfig;
+import com.urbancode.anthill3.domain.trigger.Trigger;
+import com.urbancode.anthill3.domain.workflow.Workflow;
+import com.urbancode.anthill3.domain.workflow.WorkflowDefinitionJobConfig;
+import com.urbancode.commons.graph.TableDisplayableGraph;
+import com.urbancode.commons.graph.Vertex;
+
+public class CostEstimator
+{
+    /*
+     * What the survey hook throws to stop the Migration once it has
+     * what it needs.
+     */
+    private static final String SURVEY_DONE = "Cost survey complete";
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Count up a workflow.  Only reads AHP.
+     *
+     * @param workflow      The AHP workflow
+     * @return its cost
+     */
+    public static WorkflowCost estimate(final Workflow workflow)
+    {
+        int jobs = 0;
+        int steps = 0;
+        int iterations = 0;
+        int triggers = 0;
+        int properties = 0;
+
+        if(workflow.getWorkflowDefinition() != null) {
+            TableDisplayableGraph<WorkflowDefinitionJobConfig> g =
+                                    workflow.getWorkflowDefinition()
+                                            .getWorkflowJobConfigGraph();
+
+            for(Vertex<WorkflowDefinitionJobConfig> v : g.getVertexArray()) {
+                WorkflowDefinitionJobConfig wdjc = v.getData();
+                StepConfig[] jobSteps = wdjc.getJobConfig()
+                                            .getStepConfigArray();
+
+                jobs++;
+
+                if(jobSteps != null) {
+                    steps += jobSteps.length;
+                }
+
+                if(wdjc.getJobIterationPlan() != null) {
+                    iterations++;
+                }
+            }
+        }
+
+        // Only enabled ones get migrated
+        for(Trigger t : workflow.getTriggerArray()) {
+            if(t.isEnabled()) {
+                triggers++;
+            }
+        }
+
+        properties += workflow.getPropertyArray().length;
+        properties += workflow.getProject().getPropertyList().size();
+
+        return new WorkflowCost(workflow.getId(), jobs, steps, iterations,
+                                triggers, properties
+        );
+    }
+
+    /**
+     * Estimate a workflow by ID, using a logged in AHP session.
+     *
+     * @param migrate       AHP session; its workflow, context and
+     *                      loader are replaced.
+     * @param workflowId    AHP workflow ID
+     * @return its cost
+     * @throws MigrateException if AHP wouldn't give us the workflow
+     */
+    public static WorkflowCost survey(final Migration migrate,
+                                      final Long workflowId)
+           throws MigrateException
+    {
+        SurveyContext context = new SurveyContext();
+
+        migrate.setError(null);
+        migrate.setWorkflowId(workflowId);
+        migrate.setContext(context);
+        migrate.setLoader(new SurveyLoader());
+        migrate.run();
+
+        if(context.cost != null) {
+            return context.cost;
+        }
+
+        if(migrate.getError() != null) {
+            throw migrate.getError();
+        }
+
+        throw new MigrateException("Could not survey workflow " +
+                                   workflowId
+        );
+    }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * Somewhere for the hook to leave the answer.
+     */
+    private static class SurveyContext extends AbstractContext
+    {
+        private WorkflowCost    cost = null;
+    }
+
+    /*
+     * Hands the Migration our hook instead of the real ones.
+     */
+    private static class SurveyLoader extends DefaultLoader
+    {
+        @Override
+        public AbstractWorkflow loadWorkflowClass()
+        {
+            return new SurveyWorkflow();
+        }
+    }
+
+    private static class SurveyWorkflow extends AbstractWorkflow
+    {
+        /**
+         * Count things up and stop; we don't want the jobs walked.
+         */
+        @Override
+        public void preRun(AbstractContext context)
+               throws MigrateException
+        {
+            SurveyContext sc = (SurveyContext)context;
+
+            sc.cost = estimate((Workflow)sc.getWorkflow());
+
+            throw new MigrateException(SURVEY_DONE);
+        }
+
+        @Override
+        public void postRun(AbstractContext context)
+        {
+        }
+    }
+}
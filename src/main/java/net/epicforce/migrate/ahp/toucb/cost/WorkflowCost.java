@@ -0,0 +1,121 @@
+package net.epicforce.migrate.ahp.toucb.cost;
+
+/*
+ * WorkflowCost.java
+ *
+ * How big a workflow is, in terms of what it'll take to migrate.  The
+ * score is a rough count of the UCB calls the migration will make;
+ * it isn't meant to be exact, just good enough to put the big ones
+ * first and guess at how long a run will take.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+public class WorkflowCost
+{
+    /*****************************************************************
+     * CONSTANTS
+     ****************************************************************/
+
+    /*
+     * Roughly how many UCB calls each thing costs.  The base covers
+     * the process template, project template, project, process and
+     * workflow settings every workflow gets.
+     */
+    public static final long BASE_CALLS = 15;
+    public static final long JOB_CALLS = 3;
+    public static final long STEP_CALLS = 2;
+    public static final long ITERATION_CALLS = 1;
+    public static final long TRIGGER_CALLS = 3;
+    public static final long PROPERTY_CALLS = 1;
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final Long  workflowId;
+    private final int   jobs;
+    private final int   steps;
+    private final int   iterations;
+    private final int   triggers;
+    private final int   properties;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param workflowId        AHP workflow ID
+     * @param jobs              Vertices in the job graph
+     * @param steps             Steps, across all jobs
+     * @param iterations        Jobs with an iteration plan
+     * @param triggers          Enabled triggers
+     * @param properties        Workflow and project properties
+     */
+    public WorkflowCost(final Long workflowId, int jobs, int steps,
+                        int iterations, int triggers, int properties)
+    {
+        this.workflowId = workflowId;
+        this.jobs = jobs;
+        this.steps = steps;
+        this.iterations = iterations;
+        this.triggers = triggers;
+        this.properties = properties;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public Long getWorkflowId()
+    {
+        return workflowId;
+    }
+
+    public int getJobs()
+    {
+        return jobs;
+    }
+
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    public int getTriggers()
+    {
+        return triggers;
+    }
+
+    public int getProperties()
+    {
+        return properties;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * @return estimated UCB calls to migrate this workflow
+     */
+    public long getScore()
+    {
+        return BASE_CALLS + (jobs * JOB_CALLS) + (steps * STEP_CALLS) +
+               (iterations * ITERATION_CALLS) + (triggers * TRIGGER_CALLS) +
+               (properties * PROPERTY_CALLS);
+    }
+
+    public String toString()
+    {
+        return "WorkflowCost: WorkflowId(" + workflowId + ") jobs(" + jobs +
+               ") steps(" + steps + ") iterations(" + iterations +
+               ") triggers(" + triggers + ") properties(" + properties +
+               ") score(" + getScore() + ")";
+    }
+}
@@ -0,0 +1,180 @@
+package net.epicforce.migrate.ahp.toucb.loader;
+
+/*
+ * MigratorRegistry.java
+ *
+ * Which of our classes migrates which AHP thing.  Migrators are found
+ * by name (AntBuildStepConfig -> AntBuildStepConfigMigrate and so on),
+ * which is a string mangle and a reflective class load.  That's fine
+ * once, but it was being done for every step of every job, and every
+ * AHP type we don't handle logged an error each time it came up.
+ *
+ * So each AHP type is worked out the first time it's seen, and the
+ * answer -- the migrator's constructor, or why there isn't one -- is
+ * kept.  After that a lookup is one hash probe.  Nothing is worked out
+ * up front because there's no list of AHP types to work from; there
+ * are only ever a few dozen, so the first sight of each is all the
+ * reflection a migration does.
+ *
+ * Safe to use from many threads.  Two threads seeing a new type at
+ * once may both work it out; they'll come to the same answer.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.epicforce.migrate.ahp.exception.UnsupportedClassException;
+
+public class MigratorRegistry<K, T>
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final Class<T>                      type;
+    private final Naming<K>                     naming;
+    private final ConcurrentHashMap<K, Entry>   entries =
+                                            new ConcurrentHashMap<>();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * How to get from an AHP type to the class name of its migrator.
+     */
+    public static interface Naming<K>
+    {
+        /**
+         * @param key       The AHP type
+         * @return the class name its migrator would have
+         */
+        public String classFor(K key);
+    }
+
+    /*
+     * What we found for one key: a constructor, or why not.
+     */
+    private class Entry
+    {
+        private final Constructor<? extends T>  ctor;
+        private final Exception                 missing;
+
+        private Entry(final Constructor<? extends T> ctor,
+                      final Exception missing)
+        {
+            this.ctor = ctor;
+            this.missing = missing;
+        }
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param type          What migrators must be
+     * @param naming        Where to find them
+     */
+    public MigratorRegistry(final Class<T> type, final Naming<K> naming)
+    {
+        this.type = type;
+        this.naming = naming;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * @param key           The AHP type
+     * @return true if we have a migrator for it
+     */
+    public boolean has(final K key)
+    {
+        return entry(key).ctor != null;
+    }
+
+    /**
+     * @param key           The AHP type
+     * @return why there's no migrator for it, or null if there is
+     */
+    public Exception whyMissing(final K key)
+    {
+        return entry(key).missing;
+    }
+
+    /**
+     * Make a new migrator.
+     *
+     * @param key           The AHP type
+     * @return a new instance of its migrator
+     * @throws UnsupportedClassException if there isn't one, or it
+     *         won't construct.
+     */
+    public T create(final K key) throws UnsupportedClassException
+    {
+        Entry e = entry(key);
+
+        if(e.ctor == null) {
+            throw new UnsupportedClassException("No migrator for " + key,
+                                                e.missing);
+        }
+
+        try {
+            return e.ctor.newInstance();
+        } catch(InstantiationException | IllegalAccessException |
+                InvocationTargetException ex) {
+            throw new UnsupportedClassException("Could not make migrator " +
+                                                "for " + key, ex);
+        }
+    }
+
+    /**
+     * @return how many AHP types we've worked out so far
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /*
+     * Look it up, or work it out the first time.
+     */
+    private Entry entry(final K key)
+    {
+        Entry ret = entries.get(key);
+
+        if(ret != null) {
+            return ret;
+        }
+
+        String className = naming.classFor(key);
+
+        try {
+            Class<?> c = Class.forName(className, true,
+                                       MigratorRegistry.class.getClassLoader());
+
+            if(!type.isAssignableFrom(c)) {
+                throw new ClassCastException(className + " is not a " +
+                                             type.getName());
+            }
+
+            ret = new Entry(c.asSubclass(type).getDeclaredConstructor(),
+                            null);
+        } catch(ClassNotFoundException | NoSuchMethodException |
+                ClassCastException e) {
+            ret = new Entry(null, e);
+        } catch(LinkageError e) {
+            // It's there, but broken; no better than not there.
+            ret = new Entry(null, new Exception(e));
+        }
+
+        Entry was = entries.putIfAbsent(key, ret);
+
+        return (was != null) ? was : ret;
+    }
+}
@@ -5,9 +5,17 @@ package net.epicforce.migrate.ahp.toucb.loader;
  *
  * Class loader for UCB processing steps.  As required by the AHP library.
  *
+ * Step migrators are found through a MigratorRegistry, shared by all
+ * loaders, so the reflection is done once per AHP step type rather
+ * than once per step.
+ *
  * @author sconley (sconley@epicforce.net)
  */
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import net.epicforce.migrate.ahp.exception.UnsupportedClassException;
 import net.epicforce.migrate.ahp.loader.DefaultLoader;
 import net.epicforce.migrate.ahp.migrate.AbstractJob;
@@ -24,6 +32,31 @@ public class UcbLoader extends DefaultLoader
     private final static Logger LOG = 
                                 LoggerFactory.getLogger(UcbLoader.class);
 
+    /*
+     * AHP step class name -> our migrator for it
+     */
+    private static final MigratorRegistry<String, AbstractStep> steps =
+        new MigratorRegistry<>(AbstractStep.class,
+            new MigratorRegistry.Naming<String>() {
+                @Override
+                public String classFor(String stepName)
+                {
+                    return stepName.replace(
+                        "com.urbancode.anthill3.",
+                        "net.epicforce.migrate.ahp.toucb.ahp."
+                    ) + "Migrate";
+                }
+            }
+    );
+
+    /*
+     * Step types we've already said we have no migrator for, so we
+     * only say it once.
+     */
+    private static final Set<String> reported = Collections.newSetFromMap(
+                                    new ConcurrentHashMap<String, Boolean>()
+    );
+
     /**
      * Overide default workflow loader step, to provide
      * an actual workflow.
@@ -59,16 +92,18 @@ public class UcbLoader extends DefaultLoader
     public AbstractStep loadStepClass(final String stepName)
            throws UnsupportedClassException
     {
-        try {
-            return (AbstractStep)loadClass(
-                stepName.replace(
-                    "com.urbancode.anthill3.",
-                    "net.epicforce.migrate.ahp.toucb.ahp."
-                ) + "Migrate"
+        if(steps.has(stepName)) {
+            try {
+                return steps.create(stepName);
+            } catch(UnsupportedClassException e) {
+                LOG.error("Deferring to default due to error", e);
+            }
+        } else if(reported.add(stepName)) {
+            LOG.warn("No migrator for {} ({}); deferring to default",
+                     stepName, steps.whyMissing(stepName).toString()
             );
-        } catch(UnsupportedClassException e) {
-            LOG.error("Deferring to default due to error", e);
-            return super.loadStepClass(stepName);
         }
+
+        return super.loadStepClass(stepName);
     }
 }
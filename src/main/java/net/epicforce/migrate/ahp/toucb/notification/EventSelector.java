@@ -12,20 +12,61 @@ package net.epicforce.migrate.ahp.toucb.notification;
  * @author sconley (sconley@epicforce.net)
  */
 
-import java.util.HashMap;
+import java.util.Map;
 
 import com.urbancode.anthill3.domain.notification.ScriptedWorkflowCaseSelector;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.HtmlHarvester;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
 
 
 class EventSelector
 {
     /*
-     * Keep track of our loaded event selectors.  Maps name to ID
+     * The list of them, and how to pick each one's ID and name out of
+     * it.
      */
-    private static HashMap<String, String> knownEvents = new HashMap<>();
+    // AM-9: Centralize these URLs
+    private static final String LIST_URL =
+        "/tasks/admin/notification/caseselector/WorkflowCaseSelectorTasks/viewList";
+    private static final String LIST_PATTERN =
+        "viewWorkflowCaseSelector\\?workflowCaseSelectorId=(-?\\d+)\">([^<]+)</a>";
+
+    /*
+     * Keep track of our loaded event selectors.  Maps name to ID.
+     * We never make these, so it's just what UCB had.
+     */
+    private static final UcbCatalog<String, String> knownEvents =
+        UcbCatalog.persistent("eventSelectors",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    // Load 'em
+                    return new UcbClient(LIST_URL).harvestPattern(
+                        LIST_PATTERN, null
+                    );
+                }
+            },
+            new UcbCatalog.Counter() {
+                @Override
+                public int count() throws Exception
+                {
+                    // Same page, but nothing kept
+                    return new UcbClient(LIST_URL).harvestPattern(
+                        LIST_PATTERN, null, new HtmlHarvester.Sink() {
+                            @Override
+                            public boolean found(String id, String name)
+                            {
+                                return true;
+                            }
+                        }
+                    );
+                }
+            }
+    );
 
     /**
      * Load an EventSelector ID string for a given 
@@ -51,24 +92,10 @@ class EventSelector
             return String.valueOf(event.getId());
         }
 
-        synchronized(knownEvents) {
-            if(knownEvents.size() == 0) {
-                // Load 'em - AM-9: Centralized theser URLs
-                UcbClient fetcher = new UcbClient(
-                    "/tasks/admin/notification/caseselector/WorkflowCaseSelectorTasks/viewList"
-                );
+        String ret = knownEvents.lookup(event.getName());
 
-                knownEvents.putAll(
-                    fetcher.harvestPattern(
-                        "viewWorkflowCaseSelector\\?workflowCaseSelectorId=(-?\\d+)\">([^<]+)</a>",
-                        null
-                    )
-                );
-            }
-
-            if(knownEvents.containsKey(event.getName())) {
-                return knownEvents.get(event.getName());
-            }
+        if(ret != null) {
+            return ret;
         }
 
         // We can't migrate these
@@ -15,6 +15,8 @@ package net.epicforce.migrate.ahp.toucb.notification;
  */
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import com.urbancode.anthill3.domain.notification.FixedNotificationRecipient;
 import com.urbancode.anthill3.domain.notification.FixedNotificationRecipientGenerator;
@@ -23,7 +25,10 @@ import com.urbancode.anthill3.domain.notification.RoleBasedNotificationRecipient
 import com.urbancode.anthill3.domain.notification.ScriptedNotificationRecipientGenerator;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.CidSession;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbRecorder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,10 +38,38 @@ class Generator
 {
     private final static Logger LOG = LoggerFactory.getLogger(Generator.class);
 
+    /*
+     * Where the new generator's ID is, in the redirect we get after
+     * making one.
+     */
+    private static final Pattern GENERATOR_ID =
+            Pattern.compile("notificationRecipientGeneratorId=(-?\\d+)");
+
+    /*
+     * The list of them, and how to pick each one's ID and name out of
+     * it.
+     */
+    // AM-9: Centralize these URLs
+    private static final String LIST_URL =
+        "/tasks/admin/notification/recipientgenerator/NotificationRecipientGeneratorTasks/viewList";
+    private static final String LIST_PATTERN =
+        "viewNotificationRecipientGenerator\\?notificationRecipientGeneratorId=(-?\\d+)\">([^<]+)</a>";
+
     /*
      * Keep track of our loaded generators.  Maps name to ID.
      */
-    private static HashMap<String, String> knownGenerators = new HashMap<>();
+    private static final UcbCatalog<String, String> knownGenerators =
+        UcbCatalog.persistent("recipientGenerators",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    return new UcbClient(LIST_URL).harvestPattern(
+                        LIST_PATTERN, null
+                    );
+                }
+            }
+    );
 
     /**
      * This fetches a recipient generator ID from UCB, either loading
@@ -51,7 +84,7 @@ class Generator
      * @throws MigrateException on error, NotFoundException for reasons
      *         described above.
      */
-    public static String get(NotificationRecipientGenerator generator)
+    public static String get(final NotificationRecipientGenerator generator)
            throws MigrateException, NotFoundException
     {
         // Some generators map directly to UCB.  These are defaults.
@@ -63,46 +96,71 @@ class Generator
         }
 
         // Otherwise, check if it exists; create it if it doesn't.
-        synchronized(knownGenerators) {
-            if(knownGenerators.size() == 0) {
-                refreshGenerators();
-            }
+        String ret = knownGenerators.lookup(generator.getName());
 
-            if(knownGenerators.containsKey(generator.getName())) {
-                return knownGenerators.get(generator.getName());
-            }
+        if(ret != null) {
+            return ret;
+        }
 
-            // try to create it -- this will require cid and multistep.
-            // We will short circuit here if it's a scripted, becase
-            // we can't migrate those.
+        // try to create it -- this will require cid and multistep.
+        // We will short circuit here if it's a scripted, becase
+        // we can't migrate those.
 
-            if(generator instanceof ScriptedNotificationRecipientGenerator) {
-                throw new NotFoundException(
-                    "We are unable to import AHP Scripted Recipient " +
-                    "Generators into UCB because AHP uses Beanshell " +
-                    "and UCB uses Javascript.  You must manually import " +
-                    "this generator: " + generator.getName()
-                );
-            }
+        if(generator instanceof ScriptedNotificationRecipientGenerator) {
+            throw new NotFoundException(
+                "We are unable to import AHP Scripted Recipient " +
+                "Generators into UCB because AHP uses Beanshell " +
+                "and UCB uses Javascript.  You must manually import " +
+                "this generator: " + generator.getName()
+            );
+        }
 
-            // Groups don't really translate well.  We could add
-            // support later if there's a demand.
-            if(generator instanceof RoleBasedNotificationRecipientGenerator) {
-                throw new NotFoundException(
-                    "We are unable to import AHP Role Based Recipient " +
-                    "Generators because UCB uses a different construct " +
-                    "(groups) instead.  You must manually import this " +
-                    "generator: " + generator.getName()
-                );
+        // Groups don't really translate well.  We could add
+        // support later if there's a demand.
+        if(generator instanceof RoleBasedNotificationRecipientGenerator) {
+            throw new NotFoundException(
+                "We are unable to import AHP Role Based Recipient " +
+                "Generators because UCB uses a different construct " +
+                "(groups) instead.  You must manually import this " +
+                "generator: " + generator.getName()
+            );
+        }
+
+        return knownGenerators.get(generator.getName(),
+            new UcbCatalog.Creator<String, String>() {
+                @Override
+                public String create(String name) throws Exception
+                {
+                    return createGenerator(generator);
+                }
             }
+        );
+    }
 
+    /**
+     * Make a generator in UCB.  Only called by the catalog, which
+     * makes sure only one thread makes a given generator.
+     *
+     * @param generator         The generator to make
+     * @return its new ID
+     * @throws MigrateException on failure, NotFoundException if it's a
+     *         kind we can't make.
+     */
+    private static String createGenerator(
+                                    NotificationRecipientGenerator generator)
+            throws MigrateException, NotFoundException
+    {
+        // The whole conversation, through adding recipients, is
+        // one CID session.
+        try(CidSession session = CidSession.open(
+                                "generator:" + generator.getName())) {
             // Create our client - AM-9 fix this
             UcbClient client = new UcbClient(
                 "/tasks/admin/notification/recipientgenerator/NotificationRecipientGeneratorTasks/newNotificationRecipientGenerator"
             );
 
             // Get our CID - AM-9 fix this
-            String cid = client.getCIDFromGet(
+            String cid = session.fetch(client,
                 "/tasks/admin/notification/recipientgenerator/NotificationRecipientGeneratorTasks/newNotificationRecipientGenerator",
                 null
             );
@@ -116,7 +174,9 @@ class Generator
             if(generator instanceof FixedNotificationRecipientGenerator) {
                 props.put("notificationRecipientGeneratorType", "Fixed");
             } else {
-                props.put("notificationRecipientGeneratorType", "Group-Based");
+                props.put("notificationRecipientGeneratorType",
+                          "Group-Based"
+                );
             }
 
             // Post it, and continue.
@@ -170,24 +230,21 @@ class Generator
             props.put("description", generator.getDescription());
         }
 
-        // Post it -- this returns 302
-        try {
-            // fit AM-9
-            client.setUrl(
-                "/tasks/admin/notification/recipientgenerator/FixedNotificationRecipientGeneratorTasks/saveGenerator"
-            );
-
-            client.sendRawPost(props);
-        } catch(MigrateException e) {
-            if(!e.getMessage().endsWith("302")) {
-                throw e;
-            }
-        }
+        // Post it -- this returns 302, to the new generator
+        // fit AM-9
+        client.setUrl(
+            "/tasks/admin/notification/recipientgenerator/FixedNotificationRecipientGeneratorTasks/saveGenerator"
+        );
 
-        // We should have an ID now.
-        refreshGenerators();
+        String newId = client.sendRawPostForId(props, GENERATOR_ID,
+                                               LIST_URL, LIST_PATTERN,
+                                               generator.getName()
+        );
 
-        String newId = knownGenerators.get(generator.getName());
+        // Unless we're only planning, and nothing was really made.
+        if((newId == null) && UcbRecorder.isRecording()) {
+            newId = String.valueOf(UcbRecorder.fakeId());
+        }
 
         // If we don't have it, big problem
         if(newId == null) {
@@ -268,24 +325,4 @@ class Generator
             "generator: " + generator.getName()
         );
     }
-
-    /**
-     * This is a method that reloads the knownGenerators list.
-     *
-     * @throws MigrateException on any failure
-     */
-    private static void refreshGenerators() throws MigrateException
-    {
-        // AM-9: Centralize these URLs
-        UcbClient fetcher = new UcbClient(
-            "/tasks/admin/notification/recipientgenerator/NotificationRecipientGeneratorTasks/viewList"
-        );
-
-        knownGenerators.putAll(
-            fetcher.harvestPattern(
-                "viewNotificationRecipientGenerator\\?notificationRecipientGeneratorId=(-?\\d+)\">([^<]+)</a>",
-                null
-            )
-        );
-    }
 }
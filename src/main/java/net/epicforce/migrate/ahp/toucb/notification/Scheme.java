@@ -11,7 +11,11 @@ package net.epicforce.migrate.ahp.toucb.notification;
  * @author sconley (sconley@epicforce.net)
  */
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import com.urbancode.anthill3.domain.notification.NotificationScheme;
 import com.urbancode.anthill3.domain.notification.NotificationSchemeWhoWhen;
@@ -19,7 +23,10 @@ import com.urbancode.anthill3.domain.notification.NotificationSchemeWhoWhenMediu
 import com.urbancode.anthill3.domain.notification.ScriptedWorkflowCaseSelector;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.CidSession;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbRecorder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,10 +36,38 @@ public class Scheme
 {
     private final static Logger LOG = LoggerFactory.getLogger(Scheme.class);
 
+    /*
+     * Where the new scheme's ID is, in the redirect we get after
+     * making one.
+     */
+    private static final Pattern SCHEME_ID =
+                    Pattern.compile("notificationSchemeId=(-?\\d+)");
+
+    /*
+     * The list of them, and how to pick each one's ID and name out of
+     * it.
+     */
+    // AM-9: Centralize these URLs
+    private static final String LIST_URL =
+        "/tasks/admin/notification/scheme/NotificationSchemeTasks/viewList";
+    private static final String LIST_PATTERN =
+        "viewNotificationScheme\\?notificationSchemeId=(-?\\d+)\">([^<]+)</a>";
+
     /*
      * Keep track of our loaded schemes.  Map name to an ID string.
      */
-    private static HashMap<String, String> knownSchemes = new HashMap<>();
+    private static final UcbCatalog<String, String> knownSchemes =
+        UcbCatalog.persistent("notificationSchemes",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    return new UcbClient(LIST_URL).harvestPattern(
+                        LIST_PATTERN, null
+                    );
+                }
+            }
+    );
 
     /**
      * Get a notification scheme ID string from a given NotificationScheme
@@ -44,7 +79,7 @@ public class Scheme
      * @throws MigrateException on error, NotFoundException if we are not
      *         able to create the scheme for some reason.
      */
-    public static String get(NotificationScheme scheme)
+    public static String get(final NotificationScheme scheme)
            throws MigrateException, NotFoundException
     {
         // If the scheme is -1 or 0, just use it.
@@ -54,149 +89,170 @@ public class Scheme
             return String.valueOf(scheme.getId());
         }
 
-        synchronized(knownSchemes) {
-            if(knownSchemes.size() == 0) { // Load 'em
-                refreshSchemes();
+        return knownSchemes.get(scheme.getName(),
+            new UcbCatalog.Creator<String, String>() {
+                @Override
+                public String create(String name) throws Exception
+                {
+                    return createScheme(scheme);
+                }
             }
+        );
+    }
 
-            // Return it if we've got it
-            if(knownSchemes.containsKey(scheme.getName())) {
-                return knownSchemes.get(scheme.getName());
-            }
+    /**
+     * Make a notification scheme in UCB, who/when's and all.  Only
+     * called by the catalog, which makes sure only one thread makes a
+     * given scheme.
+     *
+     * @param scheme        The notification scheme to make
+     * @return its new ID
+     * @throws MigrateException on any failure.
+     */
+    private static String createScheme(NotificationScheme scheme)
+            throws MigrateException
+    {
+        /*
+         * Try to make it if we don't.
+         *
+         * We need to build our notification scheme
+         *
+         * Then add who-when's.  For each who-when:
+         * * We need a recipient generator,
+         * * We need an event selector
+         * * And we need a notification template.
+         *
+         * This is, unfortunately, done with a very complex
+         * CID-based process.
+         */
+        HashMap<String, String> props = new HashMap<>(6);
+
+        props.put("Save", "Save");
+
+        if(scheme.getDescription() != null) {
+            props.put("description", scheme.getDescription());
+        } else {
+            props.put("description", "");
+        }
 
-            /*
-             * Try to make it if we don't.
-             *
-             * We need to build our notification scheme
-             *
-             * Then add who-when's.  For each who-when:
-             * * We need a recipient generator,
-             * * We need an event selector
-             * * And we need a notification template.
-             *
-             * This is, unfortunately, done with a very complex
-             * CID-based process.
-             */
-            HashMap<String, String> props = new HashMap<>(6);
-
-            props.put("Save", "Save");
-
-            if(scheme.getDescription() != null) {
-                props.put("description", scheme.getDescription());
-            } else {
-                props.put("description", "");
-            }
+        props.put("name", scheme.getName());
+        props.put("notificationSchemeId", "");
 
-            props.put("name", scheme.getName());
-            props.put("notificationSchemeId", "");
+        String nsId;
 
-            // try to post it.  This will return a 302 on success.
-            try {
-                // AM-9 : centralize
-                UcbClient client = new UcbClient(
-                    "/tasks/admin/notification/scheme/NotificationSchemeTasks/saveNotificationScheme"
-                );
+        // try to post it.  This will return a 302 on success, to the
+        // new scheme.
+        try(CidSession session = CidSession.open(
+                            "notificationScheme:" + scheme.getName())) {
+            // AM-9 : centralize
+            UcbClient client = new UcbClient(
+                "/tasks/admin/notification/scheme/NotificationSchemeTasks/saveNotificationScheme"
+            );
 
-                String cid = client.getCIDFromGet(
-                    "/tasks/admin/notification/scheme/NotificationSchemeTasks/newNotificationScheme",
-                    null
-                );
+            String cid = session.fetch(client,
+                "/tasks/admin/notification/scheme/NotificationSchemeTasks/newNotificationScheme",
+                null
+            );
 
-                props.put("cid", cid);
-                client.sendRawPost(props);
-            } catch(MigrateException e) {
-                if(!e.getMessage().endsWith("302")) {
-                    throw e; // 302 isn't an error
-                }
-            }
+            props.put("cid", cid);
+            nsId = client.sendRawPostForId(props, SCHEME_ID,
+                                           LIST_URL, LIST_PATTERN,
+                                           scheme.getName()
+            );
+        }
+
+        // Unless we're only planning, and nothing was really made.
+        if((nsId == null) && UcbRecorder.isRecording()) {
+            nsId = String.valueOf(UcbRecorder.fakeId());
+        }
 
-            // Refresh
-            refreshSchemes();
+        if(nsId == null) {
+            throw new MigrateException(
+                "Was unable to create notification scheme: " +
+                scheme.getName()
+            );
+        }
 
-            // We should now have a Notification Scheme ID
-            String nsId = knownSchemes.get(scheme.getName());
+        // Loop over who/when's and migrate as needed.
+        for(NotificationSchemeWhoWhen ww : scheme.getWhoWhenArray()) {
+            // Event selector
+            String workflowCaseId;
 
-            if(nsId == null) {
-                throw new MigrateException(
-                    "Was unable to create notification scheme: " +
-                    scheme.getName()
+            try {
+                workflowCaseId =
+                    EventSelector.get(
+                        (ScriptedWorkflowCaseSelector)ww.getWhenSelector()
+                    );
+            } catch(NotFoundException e) {
+                LOG.warn(
+                    "We could not migrate a Who/When for Notification " +
+                    "Scheme {} - this is because it requires the " +
+                    "creation of an Event Selector script that does not " +
+                    "exist in UCB.  We cannot migrate AHP Event " +
+                    "Selector scripts because the languages are " +
+                    "incompatible.  You will have to manually correct " +
+                    "this.  The problem event selector script is {}.",
+                    scheme.getName(), ww.getWhenSelector().getName()
                 );
+                continue; // skip this iteration.
             }
 
-            // Loop over who/when's and migrate as needed.
-            for(NotificationSchemeWhoWhen ww : scheme.getWhoWhenArray()) {
-                // Event selector
-                String workflowCaseId;
+            // Recipient Generators
+            String whoGenerator = null;
+            String bccGenerator = null;
+            String ccGenerator = null;
 
+            if(ww.getWhoGenerator() != null) {
                 try {
-                    workflowCaseId =
-                        EventSelector.get(
-                            (ScriptedWorkflowCaseSelector)ww.getWhenSelector()
-                        );
+                    whoGenerator = Generator.get(ww.getWhoGenerator());
                 } catch(NotFoundException e) {
                     LOG.warn(
-                        "We could not migrate a Who/When for Notification " +
-                        "Scheme {} - this is because it requires the " +
-                        "creation of an Event Selector script that does not " +
-                        "exist in UCB.  We cannot migrate AHP Event " +
-                        "Selector scripts because the languages are " +
-                        "incompatible.  You will have to manually correct " +
-                        "this.  The problem event selector script is {}.",
-                        scheme.getName(), ww.getWhenSelector().getName()
+                        "For Notification Scheme " + scheme.getName() +
+                        ": " + e.getMessage()
                     );
-                    continue; // skip this iteration.
-                }
-
-                // Recipient Generators
-                String whoGenerator = null;
-                String bccGenerator = null;
-                String ccGenerator = null;
 
-                if(ww.getWhoGenerator() != null) {
-                    try {
-                        whoGenerator = Generator.get(ww.getWhoGenerator());
-                    } catch(NotFoundException e) {
-                        LOG.warn(
-                            "For Notification Scheme " + scheme.getName() +
-                            ": " + e.getMessage()
-                        );
-
-                        // This one is fatal, we have to skip if we
-                        // can't migrate the 'who'.  The other two
-                        // are optional.
-                        continue;
-                    }
+                    // This one is fatal, we have to skip if we
+                    // can't migrate the 'who'.  The other two
+                    // are optional.
+                    continue;
                 }
+            }
 
-                if(ww.getWhoBccGenerator() != null) {
-                    try {
-                        bccGenerator = Generator.get(ww.getWhoBccGenerator());
-                    } catch(NotFoundException e) {
-                        LOG.warn(
-                            "For Notification Scheme " + scheme.getName() +
-                            ": " + e.getMessage()
-                        );
-                    }
+            if(ww.getWhoBccGenerator() != null) {
+                try {
+                    bccGenerator = Generator.get(ww.getWhoBccGenerator());
+                } catch(NotFoundException e) {
+                    LOG.warn(
+                        "For Notification Scheme " + scheme.getName() +
+                        ": " + e.getMessage()
+                    );
                 }
+            }
 
-                if(ww.getWhoCcGenerator() != null) {
-                    try {
-                        ccGenerator = Generator.get(ww.getWhoCcGenerator());
-                    } catch(NotFoundException e) {
-                        LOG.warn(
-                            "For Notification Scheme " + scheme.getName() +
-                            ": " + e.getMessage()
-                        );
-                    }
+            if(ww.getWhoCcGenerator() != null) {
+                try {
+                    ccGenerator = Generator.get(ww.getWhoCcGenerator());
+                } catch(NotFoundException e) {
+                    LOG.warn(
+                        "For Notification Scheme " + scheme.getName() +
+                        ": " + e.getMessage()
+                    );
                 }
+            }
 
-                // And finally, the templates.  Let's create them
-                // if we need to.
-                for(NotificationSchemeWhoWhenMedium medium :
-                    ww.getMediumTemplateArray()) {
-                    Template.get(medium.getTemplate());
-                }
+            // And finally, the templates.  Let's create them
+            // if we need to.  This has to be done before the CID
+            // session below, since making one is a session of its
+            // own.
+            List<String> templateIds = new ArrayList<>();
+
+            for(NotificationSchemeWhoWhenMedium medium :
+                ww.getMediumTemplateArray()) {
+                templateIds.add(Template.get(medium.getTemplate()));
+            }
 
+            try(CidSession session = CidSession.open(
+                                "notificationScheme:" + nsId)) {
                 // Now put it all together.  Grab a CID and port it
                 // over
                 UcbClient client = new UcbClient(
@@ -206,14 +262,14 @@ public class Scheme
                 props.clear();
                 props.put("notificationSchemeId", nsId);
 
-                String cid = client.getCIDFromGet(
+                String cid = session.fetch(client,
                     "/tasks/admin/notification/scheme/NotificationSchemeTasks/viewNotificationScheme",
                     props
                 );
 
                 // Poke new Who When
                 props.put("cid", cid);
-                cid = client.getCIDFromGet(
+                cid = session.fetch(client,
                     "/tasks/admin/notification/scheme/NotificationSchemeTasks/newWhoWhen",
                     props
                 );
@@ -224,7 +280,9 @@ public class Scheme
                 props.put("notificationSchemeId", nsId);
                 props.put("Save", "Save");
                 props.put("workflowCaseSelectorId", workflowCaseId);
-                props.put("notificationRecipientGeneratorId", whoGenerator);
+                props.put("notificationRecipientGeneratorId",
+                          whoGenerator
+                );
 
                 // Set these if they're available
                 if(bccGenerator != null) {
@@ -255,7 +313,7 @@ public class Scheme
                 // Load the next screen
                 props.clear();
                 props.put("cid", cid);
-                cid = client.getCIDFromGet(
+                cid = session.fetch(client,
                     "/tasks/admin/notification/scheme/NotificationSchemeTasks/viewWhoWhen",
                     props
                 );
@@ -275,15 +333,17 @@ public class Scheme
                 pokeProps.put("cid", cid);
                 pokeProps.put("notificationSchemeId", nsId);
 
+                int mediumIndex = 0;
+
                 for(NotificationSchemeWhoWhenMedium medium :
                     ww.getMediumTemplateArray()) {
                     // Poke this
-                    cid = client.getCIDFromGet(
+                    cid = session.fetch(client,
                         "/tasks/admin/notification/scheme/NotificationSchemeTasks/newMediumTemplate",
                         pokeProps
                     );
 
-                    String templateId = Template.get(medium.getTemplate());
+                    String templateId = templateIds.get(mediumIndex++);
 
                     // set us up the bomb
                     props.put("template_id", templateId);
@@ -308,29 +368,8 @@ public class Scheme
                     }
                 }
             }
-
-            return nsId;
         }
-    }
 
-    /**
-     * This refreshes the 'knownSchemes' map.  This is called a couple
-     * different places, so we need to have it isolated.
-     *
-     * @throws MigrateException on the unlikely event of failure.
-     */
-    private static void refreshSchemes() throws MigrateException
-    {
-        // AM-9: Centralize these URLs
-        UcbClient fetcher = new UcbClient(
-            "/tasks/admin/notification/scheme/NotificationSchemeTasks/viewList"
-        );
-
-        knownSchemes.putAll(
-            fetcher.harvestPattern(
-                "viewNotificationScheme\\?notificationSchemeId=(-?\\d+)\">([^<]+)</a>",
-                null
-            )
-        );
+        return nsId;
     }
 }
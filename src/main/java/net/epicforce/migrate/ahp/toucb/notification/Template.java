@@ -11,9 +11,14 @@ package net.epicforce.migrate.ahp.toucb.notification;
  */
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.CidSession;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbRecorder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,11 +28,39 @@ class Template
 {
     private final static Logger LOG = LoggerFactory.getLogger(Template.class);
 
+    /*
+     * Where the new template's ID is, in the redirect we get after
+     * making one.
+     */
+    private static final Pattern TEMPLATE_ID =
+                                Pattern.compile("template_id=(-?\\d+)");
+
+    /*
+     * The list of them, and how to pick each one's ID and name out of
+     * it.
+     */
+    // AM-9: Centralize these URLs
+    private static final String LIST_URL =
+        "/tasks/admin/templates/TemplateTasks/viewList";
+    private static final String LIST_PATTERN =
+        "viewTemplate\\?template_id=(-?\\d+)\"\\s*>([^<]+)</a>";
+
     /*
      * Keep track of templates we've already loaded; map template name
      * to template ID.
      */
-    private static HashMap<String, String> knownTemplates = new HashMap<>();
+    private static final UcbCatalog<String, String> knownTemplates =
+        UcbCatalog.persistent("notificationTemplates",
+            new UcbCatalog.Loader<String, String>() {
+                @Override
+                public Map<String, String> load() throws Exception
+                {
+                    return new UcbClient(LIST_URL).harvestPattern(
+                        LIST_PATTERN, null
+                    );
+                }
+            }
+    );
 
     /**
      * Method to get a template based on the provided (unfortunately
@@ -43,7 +76,7 @@ class Template
      * @throws MigrateException on any failure.
      */
     public static String get(
-                    com.urbancode.anthill3.domain.template.Template template)
+              final com.urbancode.anthill3.domain.template.Template template)
            throws MigrateException
     {
         // We have to do a static mapping of these, because the ID's
@@ -60,102 +93,98 @@ class Template
                 return "-1";
         }
 
-        synchronized(knownTemplates) {
-            if(knownTemplates.size() == 0) {
-                refreshTemplates();
-            }
-
-            if(knownTemplates.containsKey(template.getName())) {
-                return knownTemplates.get(template.getName());
+        return knownTemplates.get(template.getName(),
+            new UcbCatalog.Creator<String, String>() {
+                @Override
+                public String create(String name) throws Exception
+                {
+                    return createTemplate(template);
+                }
             }
+        );
+    }
 
-            // Otherwise, we must create it.
-            if((template.getContextScript() != null) &&
-               (template.getContextScript().length() > 0)) {
-                LOG.warn(
-                    "UCB does not support Context Scripts as part of " +
-                    "Notification Templates.  Therefore, the migrated " +
-                    "notification template might not work out of the box.  " +
-                    "Please double-check it!  The template in question is: " +
-                    template.getName()
-                );
-            }
+    /**
+     * Make a template in UCB.  Only called by the catalog, which
+     * makes sure only one thread makes a given template.
+     *
+     * @param template          The template to make
+     * @return its new ID
+     * @throws MigrateException on any failure.
+     */
+    private static String createTemplate(
+                    com.urbancode.anthill3.domain.template.Template template)
+            throws MigrateException
+    {
+        if((template.getContextScript() != null) &&
+           (template.getContextScript().length() > 0)) {
+            LOG.warn(
+                "UCB does not support Context Scripts as part of " +
+                "Notification Templates.  Therefore, the migrated " +
+                "notification template might not work out of the box.  " +
+                "Please double-check it!  The template in question is: " +
+                template.getName()
+            );
+        }
 
-            // Create our map
-            HashMap<String, String> props = new HashMap<>(5);
+        // Create our map
+        HashMap<String, String> props = new HashMap<>(5);
 
-            props.put("saveTemplate", "Set");
-            props.put("name", template.getName());
+        props.put("saveTemplate", "Set");
+        props.put("name", template.getName());
 
-            if(template.getDescription() != null) {
-                props.put("description", template.getDescription());
-            } else {
-                props.put("description", "");
-            }
+        if(template.getDescription() != null) {
+            props.put("description", template.getDescription());
+        } else {
+            props.put("description", "");
+        }
 
-            props.put("templateText", template.getTemplateText());
+        props.put("templateText", template.getTemplateText());
 
-            // Push it -- this will return 302
-            try {
-                UcbClient client = new UcbClient(
-                    "/tasks/admin/templates/TemplateTasks/saveTemplate"
-                );
+        String newId;
 
-                String cid = client.getCIDFromGet(
-                    "/tasks/admin/templates/TemplateTasks/newTemplate",
-                    null
-                );
+        // Push it -- this will return 302, to the new template
+        try(CidSession session = CidSession.open(
+                                    "template:" + template.getName())) {
+            UcbClient client = new UcbClient(
+                "/tasks/admin/templates/TemplateTasks/saveTemplate"
+            );
 
-                props.put("cid", cid);
+            String cid = session.fetch(client,
+                "/tasks/admin/templates/TemplateTasks/newTemplate",
+                null
+            );
 
-                // Send a post
-                client.sendRawPost(props);
-            } catch(MigrateException e) {
-                if(!e.getMessage().endsWith("302")) {
-                    throw e;
-                }
-            }
+            props.put("cid", cid);
 
-            refreshTemplates();
+            // Send a post
+            newId = client.sendRawPostForId(props, TEMPLATE_ID,
+                                            LIST_URL, LIST_PATTERN,
+                                            template.getName()
+            );
+        }
 
-            if(!knownTemplates.containsKey(template.getName())) {
-                throw new MigrateException(
-                    "Could not migrate Notification template with name: "
-                    + template.getName()
-                );
-            }
+        // Unless we're only planning, and nothing was really made.
+        if((newId == null) && UcbRecorder.isRecording()) {
+            newId = String.valueOf(UcbRecorder.fakeId());
+        }
 
-            // Make a note.
-            LOG.warn(
-                "We have migrated a Notification Template named: " +
-                template.getName() +
-                "  UCB templates are slightly different from AHP templates." +
-                "  It is possible you will need to tweak this template for" +
-                " it to work."
+        if(newId == null) {
+            throw new MigrateException(
+                "Could not migrate Notification template with name: "
+                + template.getName()
             );
-
-            return knownTemplates.get(template.getName());
         }
-    }
 
-    /**
-     * This is a method that reloads the knownTemplates list.
-     *
-     * @throws MigrateException on any failure
-     */
-    private static void refreshTemplates() throws MigrateException
-    {
-        // AM-9: Centralize these URLs
-        UcbClient fetcher = new UcbClient(
-            "/tasks/admin/templates/TemplateTasks/viewList"
+        // Make a note.
+        LOG.warn(
+            "We have migrated a Notification Template named: " +
+            template.getName() +
+            "  UCB templates are slightly different from AHP templates." +
+            "  It is possible you will need to tweak this template for" +
+            " it to work."
         );
 
-        knownTemplates.putAll(
-            fetcher.harvestPattern(
-                "viewTemplate\\?template_id=(-?\\d+)\"\\s*>([^<]+)</a>",
-                null
-            )
-        );
+        return newId;
     }
-
 }
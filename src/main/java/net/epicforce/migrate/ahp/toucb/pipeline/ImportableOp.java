@@ -0,0 +1,46 @@
+package net.epicforce.migrate.ahp.toucb.pipeline;
+
+/*
+ * ImportableOp.java
+ *
+ * A LoadOp that can also be done through UCB's importer, as part of
+ * one document with its neighbours, instead of its own calls.  See
+ * UcbImport.
+ *
+ * load still has to work: it's what runs when importing is off, when
+ * UCB turns the document down, or when UCB takes it but this op's
+ * part didn't get made.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbImport;
+
+public interface ImportableOp extends LoadOp
+{
+    /**
+     * Add whatever this op makes to an import document.
+     *
+     * @param doc           The document
+     * @return true if it was added, false if this op can't be
+     *         imported after all (and added nothing).
+     * @throws MigrateException on any failure
+     */
+    public boolean addTo(UcbImport doc) throws MigrateException;
+
+    /**
+     * Called once the document with this op in it has been taken by
+     * UCB.  Check that what this op makes is really there (UCB will
+     * take a document it only half understands; see UcbImport.lookup)
+     * and do any bookkeeping load would have done.
+     *
+     * @param state         UCB side state for the workflow being loaded
+     * @param doc           The document, as sent
+     * @return true if it was made, false if it wasn't and load should
+     *         be run instead.
+     * @throws MigrateException on any failure
+     */
+    public boolean imported(LoadState state, UcbImport doc)
+           throws MigrateException;
+}
@@ -0,0 +1,39 @@
+package net.epicforce.migrate.ahp.toucb.pipeline;
+
+/*
+ * LoadOp.java
+ *
+ * One piece of UCB work, worked out ahead of time by the extraction
+ * stage and carried out later by the load stage.
+ *
+ * Implementations must only hold plain values (strings, maps, UCB
+ * client objects) pulled out of AHP when the op was made -- NEVER an
+ * AHP domain object.  AHP objects belong to the AHP session that
+ * loaded them, which has moved on to another workflow by the time the
+ * op runs.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+public interface LoadOp
+{
+    /**
+     * Do the UCB work.
+     *
+     * @param state         UCB side state for the workflow being loaded
+     * @throws MigrateException on any failure
+     */
+    public void load(LoadState state) throws MigrateException;
+
+    /**
+     * Write down what load would do to UCB, without doing it.  Used
+     * by planning mode; see LoadPlan.  Lookups are allowed, writes
+     * are not.
+     *
+     * @param plan          Where to write it down
+     * @throws MigrateException on any failure
+     */
+    public void plan(LoadPlan plan) throws MigrateException;
+}
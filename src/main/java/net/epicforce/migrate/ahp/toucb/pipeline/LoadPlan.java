@@ -0,0 +1,232 @@
+package net.epicforce.migrate.ahp.toucb.pipeline;
+
+/*
+ * LoadPlan.java
+ *
+ * What migrating a workflow would do to UCB, worked out without doing
+ * it.  In planning mode (see MigrateEngine.setPlanning), extraction
+ * runs against a UcbRecorder, which writes down the UCB writes it
+ * would have made here, and then each LoadOp describes itself here
+ * instead of loading.
+ *
+ * Calls are REST round trips, reads included, since that's what the
+ * time goes on.  Not thread safe; each workflow has its own, and it
+ * is only handed on once it is finished.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LoadPlan
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final Long          workflowId;
+    private final List<Entry>   entries = new ArrayList<Entry>();
+
+    /*
+     * Calls that don't change anything: lookups, CID fetches, reloads.
+     */
+    private int                 reads = 0;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    public static enum Action
+    {
+        CREATE, UPDATE, DELETE
+    }
+
+    /**
+     * One thing UCB would have had done to it.
+     */
+    public static class Entry
+    {
+        private final Action    action;
+        private final String    what;
+        private final String    name;
+        private final int       calls;
+
+        private Entry(final Action action, final String what,
+                      final String name, int calls)
+        {
+            this.action = action;
+            this.what = what;
+            this.name = (name == null) ? "" : name;
+            this.calls = calls;
+        }
+
+        public Action getAction()
+        {
+            return action;
+        }
+
+        /**
+         * @return kind of thing, like "step" or a REST path
+         */
+        public String getWhat()
+        {
+            return what;
+        }
+
+        /**
+         * @return its name, or empty string if we don't know it
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return REST calls it takes, reads included
+         */
+        public int getCalls()
+        {
+            return calls;
+        }
+
+        public String toString()
+        {
+            return action.name().toLowerCase() + " " + what +
+                   (name.length() > 0 ? " '" + name + "'" : "") +
+                   " (" + calls + " calls)";
+        }
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param workflowId        AHP workflow ID being planned
+     */
+    public LoadPlan(final Long workflowId)
+    {
+        this.workflowId = workflowId;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public Long getWorkflowId()
+    {
+        return workflowId;
+    }
+
+    /**
+     * @return everything that would be made or changed, in order.
+     */
+    public List<Entry> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return calls that don't change anything
+     */
+    public int getReads()
+    {
+        return reads;
+    }
+
+    /**
+     * @return every REST call, reads included
+     */
+    public int getCalls()
+    {
+        int ret = reads;
+
+        for(Entry e : entries) {
+            ret += e.calls;
+        }
+
+        return ret;
+    }
+
+    /**
+     * @param action        Which kind to count
+     * @return how many entries there are of that kind
+     */
+    public int count(final Action action)
+    {
+        int ret = 0;
+
+        for(Entry e : entries) {
+            if(e.action == action) {
+                ret++;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Rough time to carry this out on one thread.
+     *
+     * @param callMillis        ms per REST call
+     * @return estimated ms
+     */
+    public long getEstimatedMillis(long callMillis)
+    {
+        return getCalls() * callMillis;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * @param what          Kind of thing
+     * @param name          Its name, may be null
+     * @param calls         REST calls it takes, reads included
+     */
+    public void create(final String what, final String name, int calls)
+    {
+        entries.add(new Entry(Action.CREATE, what, name, calls));
+    }
+
+    /**
+     * @param what          Kind of thing
+     * @param name          Its name, may be null
+     * @param calls         REST calls it takes, reads included
+     */
+    public void update(final String what, final String name, int calls)
+    {
+        entries.add(new Entry(Action.UPDATE, what, name, calls));
+    }
+
+    /**
+     * @param what          Kind of thing
+     * @param name          Its name, may be null
+     * @param calls         REST calls it takes, reads included
+     */
+    public void delete(final String what, final String name, int calls)
+    {
+        entries.add(new Entry(Action.DELETE, what, name, calls));
+    }
+
+    /**
+     * Count calls that don't change anything.
+     *
+     * @param calls         How many
+     */
+    public void read(int calls)
+    {
+        reads += calls;
+    }
+
+    public String toString()
+    {
+        return "LoadPlan: workflowId(" + workflowId + ") creates(" +
+               count(Action.CREATE) + ") updates(" + count(Action.UPDATE) +
+               ") deletes(" + count(Action.DELETE) + ") calls(" +
+               getCalls() + ")";
+    }
+}
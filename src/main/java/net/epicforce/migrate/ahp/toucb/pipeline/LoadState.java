@@ -0,0 +1,72 @@
+package net.epicforce.migrate.ahp.toucb.pipeline;
+
+/*
+ * LoadState.java
+ *
+ * The UCB side of a workflow while it is being loaded.  LoadOps run
+ * in order on one thread and pass things along to later ops through
+ * here (the process template built from the workflow is needed to
+ * make the project, for instance).
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import net.epicforce.migrate.ahp.toucb.MigrationJournal;
+
+import com.urbancode.ubuild.client.template.ProcessTemplate;
+
+public class LoadState
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final Long              workflowId;
+    private final MigrationJournal  journal;
+
+    /*
+     * Set by the process template op, used by the project op.
+     */
+    private ProcessTemplate         processTemplate = null;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param workflowId        AHP workflow ID being loaded
+     * @param journal           Checkpoint journal, may be null
+     */
+    public LoadState(final Long workflowId, final MigrationJournal journal)
+    {
+        this.workflowId = workflowId;
+        this.journal = journal;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public Long getWorkflowId()
+    {
+        return workflowId;
+    }
+
+    /**
+     * @return the journal, or null if we aren't keeping one.
+     */
+    public MigrationJournal getJournal()
+    {
+        return journal;
+    }
+
+    public ProcessTemplate getProcessTemplate()
+    {
+        return processTemplate;
+    }
+
+    public void setProcessTemplate(ProcessTemplate processTemplate)
+    {
+        this.processTemplate = processTemplate;
+    }
+}
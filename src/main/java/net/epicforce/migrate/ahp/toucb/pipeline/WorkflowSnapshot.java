@@ -0,0 +1,204 @@
+package net.epicforce.migrate.ahp.toucb.pipeline;
+
+/*
+ * WorkflowSnapshot.java
+ *
+ * Everything the load stage needs to build one workflow in UCB,
+ * pulled out of AHP by the extraction stage: an ordered list of
+ * LoadOps, each holding its own plain values.  Once built it never
+ * changes and never goes back to AHP, so it can be handed to another
+ * thread without the AHP session that made it.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbImport;
+
+public final class WorkflowSnapshot
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final Long          workflowId;
+    private final String        workflowName;
+    private final List<LoadOp>  ops;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * Collects ops during extraction.  Not thread safe; each workflow
+     * has its own.
+     */
+    public static class Builder
+    {
+        private final List<LoadOp>  ops = new ArrayList<LoadOp>();
+        private String              workflowName = null;
+
+        /**
+         * @param workflowName      AHP workflow name, for messages
+         */
+        public void setWorkflowName(final String workflowName)
+        {
+            this.workflowName = workflowName;
+        }
+
+        /**
+         * Add an op to the end.
+         *
+         * @param op        What to do
+         */
+        public void add(final LoadOp op)
+        {
+            ops.add(op);
+        }
+
+        /**
+         * @param workflowId        AHP workflow ID
+         * @return the finished snapshot
+         */
+        public WorkflowSnapshot build(final Long workflowId)
+        {
+            return new WorkflowSnapshot(workflowId, workflowName, ops);
+        }
+    }
+
+    /**
+     * Told after each op so progress can be reported.
+     */
+    public static interface Progress
+    {
+        public void loaded(int done, int total);
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    private WorkflowSnapshot(final Long workflowId, final String workflowName,
+                             final List<LoadOp> ops)
+    {
+        this.workflowId = workflowId;
+        this.workflowName = workflowName;
+        this.ops = Collections.unmodifiableList(new ArrayList<LoadOp>(ops));
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public Long getWorkflowId()
+    {
+        return workflowId;
+    }
+
+    public String getWorkflowName()
+    {
+        return workflowName;
+    }
+
+    public List<LoadOp> getOps()
+    {
+        return ops;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Run every op, in order, stopping at the first failure.
+     *
+     * If importing is on (see UcbImport), runs of ImportableOps are
+     * sent as one import document each.  A run ends at the first op
+     * that can't be imported, since it may need what the run makes.
+     *
+     * @param state         UCB side state for this workflow
+     * @param progress      Told after each op, may be null
+     * @throws MigrateException from whichever op failed
+     */
+    public void load(final LoadState state, final Progress progress)
+           throws MigrateException
+    {
+        UcbImport doc = new UcbImport();
+        List<ImportableOp> batch = new ArrayList<ImportableOp>();
+        int done = 0;
+
+        for(LoadOp op : ops) {
+            if(UcbImport.isEnabled() && (op instanceof ImportableOp) &&
+               ((ImportableOp)op).addTo(doc)) {
+                batch.add((ImportableOp)op);
+                continue;
+            }
+
+            done = flush(state, doc, batch, done, progress);
+
+            op.load(state);
+            done++;
+
+            if(progress != null) {
+                progress.loaded(done, ops.size());
+            }
+        }
+
+        flush(state, doc, batch, done, progress);
+    }
+
+    /*
+     * Send a run of ImportableOps, or load them one by one if UCB
+     * won't take them.  Any UCB took but didn't make are loaded one
+     * by one too.
+     *
+     * @return ops done after this
+     */
+    private int flush(final LoadState state, final UcbImport doc,
+                      final List<ImportableOp> batch, int done,
+                      final Progress progress)
+            throws MigrateException
+    {
+        if(batch.isEmpty()) {
+            return done;
+        }
+
+        boolean taken = doc.send();
+
+        for(ImportableOp op : batch) {
+            if(!taken) {
+                op.load(state);
+            } else if(!op.imported(state, doc)) {
+                // UCB took it, but didn't make this part
+                doc.missing();
+                op.load(state);
+            }
+
+            done++;
+
+            if(progress != null) {
+                progress.loaded(done, ops.size());
+            }
+        }
+
+        batch.clear();
+        return done;
+    }
+
+    /**
+     * Have every op describe itself instead of running.
+     *
+     * @param plan          Where they write it down
+     * @throws MigrateException from whichever op failed
+     */
+    public void plan(final LoadPlan plan) throws MigrateException
+    {
+        for(LoadOp op : ops) {
+            op.plan(plan);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.urbancode.ubuild.client.script.precondition.job.JobPreConditionScript
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScript;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 import net.epicforce.migrate.ahp.toucb.ucb.UcbFactory;
 
 import org.slf4j.Logger;
@@ -49,17 +50,67 @@ public class PreCondScript
 
     /*
      * These are known precondition scripts.  Maps names to
-     * UCB Client Pre Condition objects.
+     * UCB Client Pre Condition objects.  The built in ones are also
+     * kept by ID, filled in when the catalogs load.
      */
-    private static Map<String, StepPreConditionScript> knownStepScripts =
-                                                                new HashMap<>();
-    private static StepPreConditionScript[] firstSixSteps =
+    private static final StepPreConditionScript[] firstSixSteps =
                                             new StepPreConditionScript[6];
-    private static Map<String, JobPreConditionScript> knownJobScripts =
-                                                                new HashMap<>();
-    private static JobPreConditionScript[] firstTenSteps =
+    private static final JobPreConditionScript[] firstTenSteps =
                                             new JobPreConditionScript[10];
 
+    private static final UcbCatalog<String, StepPreConditionScript>
+        knownStepScripts = new UcbCatalog<>("stepPreConditionScripts",
+            new UcbCatalog.Loader<String, StepPreConditionScript>() {
+                @Override
+                public Map<String, StepPreConditionScript> load()
+                       throws Exception
+                {
+                    Map<String, StepPreConditionScript> ret =
+                                                            new HashMap<>();
+
+                    for(StepPreConditionScript script :
+                            UcbFactory.getStepPreConditionScriptFactory()
+                                      .getAllPreConditionScripts()) {
+                        ret.put(script.getName(), script);
+
+                        // insert first six
+                        int scriptId = Integer.parseInt(script.getId());
+                        if((scriptId >= 0) && (scriptId < 6)) {
+                            firstSixSteps[scriptId] = script;
+                        }
+                    }
+
+                    return ret;
+                }
+            }
+    );
+
+    private static final UcbCatalog<String, JobPreConditionScript>
+        knownJobScripts = new UcbCatalog<>("jobPreConditionScripts",
+            new UcbCatalog.Loader<String, JobPreConditionScript>() {
+                @Override
+                public Map<String, JobPreConditionScript> load()
+                       throws Exception
+                {
+                    Map<String, JobPreConditionScript> ret = new HashMap<>();
+
+                    for(JobPreConditionScript script :
+                            UcbFactory.getJobPreConditionScriptFactory()
+                                      .getAllPreConditionScripts()) {
+                        ret.put(script.getName(), script);
+
+                        // insert negative numbers
+                        int scriptId = Integer.parseInt(script.getId());
+                        if((scriptId < 0) && (scriptId > -10)) {
+                            firstTenSteps[scriptId*-1] = script;
+                        }
+                    }
+
+                    return ret;
+                }
+            }
+    );
+
 
     /*****************************************************************
      * STATIC METHODS
@@ -79,85 +130,71 @@ public class PreCondScript
      * @throws MigrateException if not possible
      */
     public static StepPreConditionScript getStepPreconditionScript(
-      com.urbancode.anthill3.domain.script.step.StepPreConditionScript preCond
+      final com.urbancode.anthill3.domain.script.step.StepPreConditionScript preCond
     )
            throws MigrateException
     {
-        try {
-            // Load once
-            synchronized(knownStepScripts) {
-                // This will only be 0 if we never loaded it
-                if(knownStepScripts.size() == 0) {
-                    knownStepScripts = new HashMap<String,
-                                                   StepPreConditionScript>();
+        // Load once
+        knownStepScripts.load();
 
-                    for(StepPreConditionScript script :
-                            UcbFactory.getStepPreConditionScriptFactory()
-                                      .getAllPreConditionScripts()) {
-                        knownStepScripts.put(script.getName(), script);
+        if(preCond.getId() < 6) {
+            // These we can pass straight through
+            return firstSixSteps[preCond.getId().intValue()];
+        }
 
-                        // insert first six
-                        int scriptId = Integer.parseInt(script.getId());
-                        if(scriptId < 6) {
-                            firstSixSteps[scriptId] =
-                                script;
-                        }
-                    }
-                }
-            }
+        // Otherwise, let's check name and make it if we have to
+        StepPreConditionScript ret = knownStepScripts.lookup(
+                                                        preCond.getName());
 
-            if(preCond.getId() < 6) {
-                // These we can pass straight through
-                return firstSixSteps[preCond.getId().intValue()];
-            }
+        if(ret != null) {
+            LOG.warn("Blindly used PreCondition script with name {}." +
+                     "  This means there was a script in UCB with " +
+                     "the same name, and we're assuming they work " +
+                     "the same.",
+                     preCond.getName()
+            );
 
-            // Otherwise, let's check name and make it if we have to
-            synchronized(knownStepScripts) {
-                if(knownStepScripts.containsKey(preCond.getName())) {
-                    LOG.warn("Blindly used PreCondition script with name {}." +
-                             "  This means there was a script in UCB with " +
-                             "the same name, and we're assuming they work " +
-                             "the same.",
-                             preCond.getName()
-                    );
+            return ret;
+        }
 
-                    return knownStepScripts.get(preCond.getName());
-                }
+        // If it's Javascript, we can try to move it.
+        if(!preCond.getLanguage().equals("javascript")) {
+            throw new MigrateException(
+                "This workflow uses a precondition step named" +
+                preCond.getName() +
+                " which uses an unsupported language.  " +
+                "To fix this, create a precondition script " +
+                "with the same exact name in UCB and try " +
+                "again."
+            );
+        }
 
-                // If it's Javascript, we can try to move it.
-                if(!preCond.getLanguage().equals("javascript")) {
-                    throw new MigrateException(
-                        "This workflow uses a precondition step named" +
-                        preCond.getName() +
-                        " which uses an unsupported language.  " +
-                        "To fix this, create a precondition script " +
-                        "with the same exact name in UCB and try " +
-                        "again."
+        return knownStepScripts.get(preCond.getName(),
+            new UcbCatalog.Creator<String, StepPreConditionScript>() {
+                @Override
+                public StepPreConditionScript create(String name)
+                       throws Exception
+                {
+                    LOG.warn("Migrated PreCondition script with name {}." +
+                             "  This probably won't work out of the box.",
+                             name
                     );
-                }
 
-                LOG.warn("Migrated PreCondition script with name {}." +
-                         "  This probably won't work out of the box.",
-                         preCond.getName()
-                );
-
-                StepPreConditionScript newScript =
-                    UcbFactory.getStepPreConditionScriptFactory()
-                              .createPreConditionScript(
-                                preCond.getName(),
-                                preCond.getDescription() == null ?
-                                    "" : preCond.getDescription(),
-                                preCond.getBody()
-                );
-
-                knownStepScripts.put(newScript.getName(), newScript);
-                return newScript;
+                    try {
+                        return UcbFactory.getStepPreConditionScriptFactory()
+                                         .createPreConditionScript(
+                                            name,
+                                            preCond.getDescription() == null ?
+                                                "" : preCond.getDescription(),
+                                            preCond.getBody()
+                        );
+                    } catch(Exception e) {
+                        throw new MigrateException("Error communicating " +
+                                                   "with UCB", e);
+                    }
+                }
             }
-        } catch(MigrateException e) {
-            throw e;
-        } catch(Exception e) {
-            throw new MigrateException("Error communicating with UCB", e);
-        }
+        );
     }
 
     /**
@@ -171,83 +208,69 @@ public class PreCondScript
      * @throws MigrateException if not possible
      */
     public static JobPreConditionScript getJobPreconditionScript(
-      com.urbancode.anthill3.domain.script.job.JobPreConditionScript preCond
+      final com.urbancode.anthill3.domain.script.job.JobPreConditionScript preCond
     )
            throws MigrateException
     {
-        try {
-            // Load once
-            synchronized(knownJobScripts) {
-                if(knownJobScripts.size() == 0) {
-                    knownJobScripts = new HashMap<String,
-                                                   JobPreConditionScript>();
+        // Load once
+        knownJobScripts.load();
 
-                    for(JobPreConditionScript script :
-                            UcbFactory.getJobPreConditionScriptFactory()
-                                      .getAllPreConditionScripts()) {
-                        knownJobScripts.put(script.getName(), script);
+        if(preCond.getId() < 0) {
+            // These we can pass straight through
+            return firstTenSteps[preCond.getId().intValue()*-1];
+        }
 
-                        // insert negative numbers
-                        int scriptId = Integer.parseInt(script.getId());
-                        if(scriptId < 0) {
-                            firstTenSteps[scriptId*-1] =
-                                script;
-                        }
-                    }
-                }
-            }
+        // Otherwise, let's check name and make it if we have to
+        JobPreConditionScript ret = knownJobScripts.lookup(preCond.getName());
 
-            if(preCond.getId() < 0) {
-                // These we can pass straight through
-                return firstTenSteps[preCond.getId().intValue()*-1];
-            }
+        if(ret != null) {
+            LOG.warn("Blindly used PreCondition script with name {}." +
+                     "  This means there was a script in UCB with " +
+                     "the same name, and we're assuming they work " +
+                     "the same.",
+                     preCond.getName()
+            );
 
-            // Otherwise, let's check name and make it if we have to
-            synchronized(knownJobScripts) {
-                if(knownJobScripts.containsKey(preCond.getName())) {
-                    LOG.warn("Blindly used PreCondition script with name {}." +
-                             "  This means there was a script in UCB with " +
-                             "the same name, and we're assuming they work " +
-                             "the same.",
-                             preCond.getName()
-                    );
+            return ret;
+        }
 
-                    return knownJobScripts.get(preCond.getName());
-                }
+        // If it's Javascript, we can try to move it.
+        if(!preCond.getLanguage().equals("javascript")) {
+            throw new MigrateException(
+                "This workflow uses a job precondition step named" +
+                preCond.getName() +
+                " which uses an unsupported language.  " +
+                "To fix this, create a precondition script " +
+                "with the same exact name in UCB and try " +
+                "again."
+            );
+        }
 
-                // If it's Javascript, we can try to move it.
-                if(!preCond.getLanguage().equals("javascript")) {
-                    throw new MigrateException(
-                        "This workflow uses a job precondition step named" +
-                        preCond.getName() +
-                        " which uses an unsupported language.  " +
-                        "To fix this, create a precondition script " +
-                        "with the same exact name in UCB and try " +
-                        "again."
+        return knownJobScripts.get(preCond.getName(),
+            new UcbCatalog.Creator<String, JobPreConditionScript>() {
+                @Override
+                public JobPreConditionScript create(String name)
+                       throws Exception
+                {
+                    LOG.warn("Migrated Job PreCondition script with name " +
+                             "{}.  This probably won't work out of the box.",
+                             name
                     );
-                }
 
-                LOG.warn("Migrated Job PreCondition script with name {}." +
-                         "  This probably won't work out of the box.",
-                         preCond.getName()
-                );
-
-                JobPreConditionScript newScript =
-                    UcbFactory.getJobPreConditionScriptFactory()
-                              .createPreConditionScript(
-                                preCond.getName(),
-                                preCond.getDescription() == null ?
-                                    "" : preCond.getDescription(),
-                                preCond.getBody()
-                );
-
-                knownJobScripts.put(newScript.getName(), newScript);
-                return newScript;
+                    try {
+                        return UcbFactory.getJobPreConditionScriptFactory()
+                                         .createPreConditionScript(
+                                            name,
+                                            preCond.getDescription() == null ?
+                                                "" : preCond.getDescription(),
+                                            preCond.getBody()
+                        );
+                    } catch(Exception e) {
+                        throw new MigrateException("Error communicating " +
+                                                   "with UCB", e);
+                    }
+                }
             }
-        } catch(MigrateException e) {
-            throw e;
-        } catch(Exception e) {
-            throw new MigrateException("Error communicating with UCB", e);
-        }
+        );
     }
 }
@@ -21,6 +21,7 @@ import com.urbancode.ubuild.client.Factories;
 import com.urbancode.ubuild.client.script.workdir.WorkingDirectoryScript;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbCatalog;
 
 
 public class WorkDirScript
@@ -29,10 +30,28 @@ public class WorkDirScript
      * STATIC PROPERTIES
      ****************************************************************/
 
-    // Keep a list of known work dir scripts.  Update as necessary,
-    // but only load once.  Map script name to UCB client object.
-    private static Map<String, WorkingDirectoryScript> knownScripts =
-                                                                new HashMap<>();
+    // Known work dir scripts, by name.  Loaded once, added to as
+    // we make them.
+    private static final UcbCatalog<String, WorkingDirectoryScript>
+        knownScripts = new UcbCatalog<>("workDirScripts",
+            new UcbCatalog.Loader<String, WorkingDirectoryScript>() {
+                @Override
+                public Map<String, WorkingDirectoryScript> load()
+                       throws Exception
+                {
+                    Map<String, WorkingDirectoryScript> ret =
+                                                            new HashMap<>();
+
+                    for(WorkingDirectoryScript wds :
+                            Factories.getWorkDirScriptFactory()
+                                     .getAllWorkingDirectoryScripts()) {
+                        ret.put(wds.getName(), wds);
+                    }
+
+                    return ret;
+                }
+            }
+    );
 
     /*
      * Method that does all the 'leg work' as it were.  Given an AHP
@@ -43,50 +62,39 @@ public class WorkDirScript
      * @throws MigrateException on any failure.
      */
     public static WorkingDirectoryScript get(
-                  com.urbancode.anthill3.domain.workdir.WorkDirScript script)
+            final com.urbancode.anthill3.domain.workdir.WorkDirScript script)
            throws MigrateException
     {
-        try {
-            // Only load once
-            synchronized(knownScripts) {
-                if(knownScripts.size() == 0) {
-                    for(WorkingDirectoryScript wds :
-                            Factories.getWorkDirScriptFactory()
-                                     .getAllWorkingDirectoryScripts()) {
-                        knownScripts.put(wds.getName(), wds);
-                    }
-                }
-
-                // Look it up if we have it.
-                if(knownScripts.containsKey(script.getName())) {
-                    return knownScripts.get(script.getName());
-                }
-
-                // Transform script then save it.
-                // AM-20: make this code nicer / more dynamic
-                String newScript =
+        return knownScripts.get(script.getName(),
+            new UcbCatalog.Creator<String, WorkingDirectoryScript>() {
+                @Override
+                public WorkingDirectoryScript create(String name)
+                       throws Exception
+                {
+                    // Transform script then save it.
+                    // AM-20: make this code nicer / more dynamic
+                    String newScript =
                         script.getPathScript()
                               .replace("WorkflowLookup.getRequested()",
                                        "WorkflowLookup.getCurrent()")
                               .replace("${anthill3/work.dir}",
                                        "${env/AGENT_HOME}");
 
-                // Make it
-                WorkingDirectoryScript newUcdScript =
-                    Factories.getWorkDirScriptFactory()
-                             .createWorkingDirectoryScript(
-                                script.getName(),
-                                script.getDescription() == null ?
-                                    "" : script.getDescription(),
-                                newScript
-                );
-
-                knownScripts.put(newUcdScript.getName(), newUcdScript);
-                return newUcdScript;
+                    // Make it
+                    try {
+                        return Factories.getWorkDirScriptFactory()
+                                        .createWorkingDirectoryScript(
+                                            name,
+                                            script.getDescription() == null ?
+                                                "" : script.getDescription(),
+                                            newScript
+                        );
+                    } catch(Exception e) { // Cause UCB
+                        throw new MigrateException("Error sending Work Dir " +
+                                                   "script to UCB", e);
+                    }
+                }
             }
-        } catch(Exception e) { // Cause UCB
-            throw new MigrateException("Error sending Work Dir script to " +
-                                       "UCB", e);
-        }
+        );
     }
 }
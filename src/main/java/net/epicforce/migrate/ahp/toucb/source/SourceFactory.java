@@ -6,22 +6,36 @@ package net.epicforce.migrate.ahp.toucb.source;
  * This loads the appropriate AbstractSourceConfig decendant based
  * on a passed AHP Source Config object.
  *
+ * The lookup is done once per AHP source config type; see
+ * MigratorRegistry.
+ *
  * @author sconley (sconley@epicforce.net)
  */
 
-import java.lang.ClassNotFoundException;
-import java.lang.IllegalAccessException;
-import java.lang.InstantiationException;
-import java.lang.NoSuchMethodException;
-import java.lang.reflect.InvocationTargetException;
-
 import net.epicforce.migrate.ahp.exception.UnsupportedClassException;
+import net.epicforce.migrate.ahp.toucb.loader.MigratorRegistry;
 
 import com.urbancode.anthill3.domain.source.SourceConfig;
 
 
 public class SourceFactory
 {
+    /*
+     * AHP source config class -> our migrator for it
+     */
+    private static final MigratorRegistry<Class<?>, AbstractSourceConfig>
+        configs = new MigratorRegistry<>(AbstractSourceConfig.class,
+            new MigratorRegistry.Naming<Class<?>>() {
+                @Override
+                public String classFor(Class<?> sc)
+                {
+                    return "net.epicforce.migrate.ahp.toucb.source.config."
+                           + sc.getSimpleName()
+                           + "Migrate";
+                }
+            }
+    );
+
     /**
      * Class loader, returns an AbstractSourceConfig decendant.
      *
@@ -34,18 +48,6 @@ public class SourceFactory
     public static AbstractSourceConfig loadSourceConfig(SourceConfig sc)
            throws UnsupportedClassException
     {
-        String className = "net.epicforce.migrate.ahp.toucb.source.config."
-                           + sc.getClass().getSimpleName()
-                           + "Migrate";
-
-        try {
-            return (AbstractSourceConfig)Class.forName(className)
-                                              .getDeclaredConstructor()
-                                              .newInstance();
-        } catch(NoSuchMethodException | InstantiationException |
-                IllegalAccessException | InvocationTargetException |
-                ClassNotFoundException e) {
-            throw new UnsupportedClassException("Unsupported source config", e);
-        }
+        return configs.create(sc.getClass());
     }
 }
@@ -0,0 +1,350 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * CatalogSnapshot.java
+ *
+ * Saves the UcbCatalogs between runs, so a new JVM doesn't have to
+ * pull every artifact set, status, plugin, notification scheme and so
+ * on from UCB again -- some of those are scraped off HTML pages, and
+ * we run batches many times a day.
+ *
+ * There's one file per UCB, in a directory of your choosing, named
+ * after a hash of the UCB URL; the URL is in the file too, and is
+ * checked.  It's gzipped tab separated text:
+ *
+ *     ahp2ucb-catalog  1  <ucb url>
+ *     C  <catalog name>  <verified at, ms>
+ *     E  <key>  <value>
+ *     ...
+ *
+ * Checking it is cheap: same URL, same format, and each catalog is
+ * only used if it was last checked against UCB less than
+ * ucb.catalog.maxAge seconds ago (system property, default 12 hours).
+ *
+ * A catalog that started from the snapshot refreshes itself from UCB
+ * the first time something isn't in it, since that's when being
+ * stale would hurt -- we'd go and make something that's already
+ * there.  Otherwise it's trusted, and its verified time is carried
+ * forward as is, so it still ages out.
+ *
+ * Something deleted from UCB since the last check is the one thing
+ * that can get wrong.  Catalogs that can count what UCB has for less
+ * than a load (artifact sets, statuses, event selectors; see
+ * UcbCatalog.Counter) do that first, and skip their section if the
+ * count is different.  For the rest, lower the max age if that
+ * happens to you.
+ *
+ * Only UcbCatalog.persistent catalogs (String to String) are saved.
+ * The script catalogs hold UCB client objects we can't rebuild, so
+ * they load fresh every run.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CatalogSnapshot
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(CatalogSnapshot.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final String     MAGIC = "ahp2ucb-catalog";
+    private static final String     VERSION = "1";
+    private static final Charset    UTF8 = Charset.forName("UTF-8");
+
+    private static final long       maxAgeMillis =
+                    Long.getLong("ucb.catalog.maxAge", 12 * 3600L) * 1000L;
+
+    /*
+     * Where we save, and for which UCB.  Null until open.
+     */
+    private static File             file = null;
+    private static String           ucbUrl = null;
+
+    /*
+     * What we read, by catalog name.  Catalogs take theirs out when
+     * they load; whatever is left over is saved back as is.
+     */
+    private static final Map<String, Section>   sections = new HashMap<>();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * One catalog's worth.
+     */
+    static class Section
+    {
+        final long                  verifiedAt;
+        final Map<String, String>   entries;
+
+        Section(long verifiedAt, final Map<String, String> entries)
+        {
+            this.verifiedAt = verifiedAt;
+            this.entries = entries;
+        }
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Read the snapshot for a UCB, if there is a good one.  Call this
+     * before anything uses the catalogs; ones that have already
+     * loaded won't look.
+     *
+     * A missing, broken or out of date file isn't an error, we just
+     * start cold.
+     *
+     * @param dir           Directory snapshots live in; made if needed
+     * @param url           UCB URL the snapshot is for
+     */
+    public static synchronized void open(final File dir, final String url)
+    {
+        file = new File(dir, "catalog-" + hash(url) + ".gz");
+        ucbUrl = url;
+        sections.clear();
+
+        if(!file.isFile()) {
+            LOG.info("No UCB catalog snapshot at {}, starting cold", file);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(new FileInputStream(file)),
+                        UTF8))) {
+            String[] header = split(in.readLine());
+
+            if((header.length != 3) || !MAGIC.equals(header[0]) ||
+               !VERSION.equals(header[1]) || !url.equals(header[2])) {
+                LOG.info("UCB catalog snapshot {} is not for {}, ignoring",
+                         file, url
+                );
+                return;
+            }
+
+            Map<String, String> entries = null;
+            String line;
+
+            while((line = in.readLine()) != null) {
+                String[] f = split(line);
+
+                if("C".equals(f[0]) && (f.length == 3)) {
+                    long verifiedAt = Long.parseLong(f[2]);
+
+                    if(now - verifiedAt < maxAgeMillis) {
+                        entries = new HashMap<>();
+                        sections.put(f[1],
+                                     new Section(verifiedAt, entries)
+                        );
+                    } else {
+                        LOG.debug("UCB catalog {} in snapshot is too old",
+                                  f[1]
+                        );
+                        entries = null;
+                    }
+                } else if("E".equals(f[0]) && (f.length == 3)) {
+                    if(entries != null) {
+                        entries.put(f[1], f[2]);
+                    }
+                } else {
+                    throw new IOException("Bad line: " + line);
+                }
+            }
+
+            LOG.info("Read UCB catalog snapshot {}: {} catalogs usable",
+                     file, sections.size()
+            );
+        } catch(IOException | RuntimeException e) {
+            LOG.warn("Could not read UCB catalog snapshot " + file +
+                     ", starting cold", e);
+            sections.clear();
+        }
+    }
+
+    /**
+     * @return true if open has been called.
+     */
+    public static synchronized boolean isOpen()
+    {
+        return file != null;
+    }
+
+    /**
+     * Hand a catalog its saved entries.  Each section is only handed
+     * out once.
+     *
+     * @param name          Catalog name
+     * @return the section, or null if there isn't a usable one
+     */
+    static synchronized Section take(final String name)
+    {
+        return sections.remove(name);
+    }
+
+    /**
+     * Write the persistent catalogs out.  Catalogs that never loaded
+     * this run keep what we read for them.  Failing to save is only
+     * a warning; the next run will just start cold.
+     */
+    public static synchronized void save()
+    {
+        if(file == null) {
+            return;
+        }
+
+        Map<String, Section> out = new LinkedHashMap<>(sections);
+
+        for(UcbCatalog<?, ?> c : UcbCatalog.getAll()) {
+            Section s = c.toSection();
+
+            if(s != null) {
+                out.put(c.getName(), s);
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try {
+            if(file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+
+            try(Writer w = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new FileOutputStream(tmp)),
+                        UTF8))) {
+                line(w, MAGIC, VERSION, ucbUrl);
+
+                for(Map.Entry<String, Section> s : out.entrySet()) {
+                    line(w, "C", s.getKey(),
+                         String.valueOf(s.getValue().verifiedAt));
+
+                    for(Map.Entry<String, String> e :
+                                        s.getValue().entries.entrySet()) {
+                        line(w, "E", e.getKey(), e.getValue());
+                    }
+                }
+            }
+
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE
+            );
+
+            LOG.debug("Saved UCB catalog snapshot {}", file);
+        } catch(IOException e) {
+            LOG.warn("Could not save UCB catalog snapshot " + file, e);
+            tmp.delete();
+        }
+    }
+
+    /*
+     * Write one tab separated line, escaping tabs, newlines and
+     * backslashes in the fields.  UcbTrace writes its files this way
+     * too.
+     */
+    static void line(final Writer w, final String... fields)
+            throws IOException
+    {
+        for(int i = 0; i < fields.length; i++) {
+            if(i > 0) {
+                w.write('\t');
+            }
+
+            w.write(fields[i].replace("\\", "\\\\")
+                             .replace("\t", "\\t")
+                             .replace("\n", "\\n")
+                             .replace("\r", "\\r"));
+        }
+
+        w.write('\n');
+    }
+
+    /*
+     * Undo line.
+     */
+    static String[] split(final String line) throws IOException
+    {
+        if(line == null) {
+            throw new IOException("Unexpected end of file");
+        }
+
+        String[] ret = line.split("\t", -1);
+
+        for(int i = 0; i < ret.length; i++) {
+            StringBuilder sb = new StringBuilder(ret[i].length());
+
+            for(int j = 0; j < ret[i].length(); j++) {
+                char c = ret[i].charAt(j);
+
+                if((c == '\\') && (j + 1 < ret[i].length())) {
+                    c = ret[i].charAt(++j);
+
+                    if(c == 't') {
+                        c = '\t';
+                    } else if(c == 'n') {
+                        c = '\n';
+                    } else if(c == 'r') {
+                        c = '\r';
+                    }
+                }
+
+                sb.append(c);
+            }
+
+            ret[i] = sb.toString();
+        }
+
+        return ret;
+    }
+
+    /*
+     * Short, file name safe hash of the UCB URL.
+     */
+    private static String hash(final String url)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                                         .digest(url.getBytes(UTF8));
+            StringBuilder sb = new StringBuilder();
+
+            for(int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i] & 0xff));
+            }
+
+            return sb.toString();
+        } catch(NoSuchAlgorithmException e) {
+            // Every JVM has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * CidSession.java
+ *
+ * UCB's old "Web 1.0" forms want a CID, which we scrape off a GET
+ * (see UcbClient.getCIDFromGet) and post back with the form.  I'm
+ * still not sure what UCB does if two conversations about the same
+ * thing are going at once, so we don't let them.  But there's no
+ * reason two workflows editing two different processes should wait on
+ * each other, which is what the old single global lock made them do.
+ *
+ * So a CID conversation is done in a session on the thing it's about:
+ *
+ *     try(CidSession session = CidSession.open("process:" + id)) {
+ *         String cid = session.fetch(client, url, params);
+ *         ... post the form(s) ...
+ *     }
+ *
+ * Sessions on the same resource run one at a time; sessions on
+ * different resources run in parallel.  Resources are hashed onto a
+ * fixed set of lock stripes (ucb.cid.stripes system property, default
+ * 64), so once in a while two unrelated ones share a stripe and one
+ * waits; that's all that happens.
+ *
+ * Because of the striping, a thread can't open a session on one
+ * resource while it has one open on another -- two threads doing that
+ * in opposite order could deadlock.  Opening the same resource again
+ * is fine.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+public class CidSession implements AutoCloseable
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final ReentrantLock[]    stripes;
+
+    static {
+        stripes = new ReentrantLock[Math.max(1,
+                                Integer.getInteger("ucb.cid.stripes", 64))];
+
+        for(int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /*
+     * Innermost session this thread has open.
+     */
+    private static final ThreadLocal<CidSession>    current =
+                                            new ThreadLocal<CidSession>();
+
+    /*
+     * Metrics: sessions opened, and how many had to wait.
+     */
+    private static final AtomicLong     opened = new AtomicLong();
+    private static final AtomicLong     contended = new AtomicLong();
+
+    private final String        resource;
+    private final ReentrantLock lock;
+    private final CidSession    outer;
+    private String              cid = null;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    private CidSession(final String resource, final ReentrantLock lock,
+                       final CidSession outer)
+    {
+        this.resource = resource;
+        this.lock = lock;
+        this.outer = outer;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public String getResource()
+    {
+        return resource;
+    }
+
+    /**
+     * @return the last CID fetched in this session, or null
+     */
+    public String getCid()
+    {
+        return cid;
+    }
+
+    /**
+     * @return sessions opened so far, run wide
+     */
+    public static long getOpened()
+    {
+        return opened.get();
+    }
+
+    /**
+     * @return sessions that had to wait for another on the same
+     *         stripe.  If this is a big fraction of getOpened, raise
+     *         ucb.cid.stripes.
+     */
+    public static long getContended()
+    {
+        return contended.get();
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Start a CID conversation about a resource, waiting for any other
+     * one about it to finish.  Close it when done (try-with-resources).
+     *
+     * @param resource      What it's about, like "process:1234".  Use
+     *                      something that names the one UCB object the
+     *                      forms change.
+     * @return the open session
+     * @throws IllegalStateException if this thread has a session on a
+     *         different resource open.
+     */
+    public static CidSession open(final String resource)
+    {
+        CidSession outer = current.get();
+
+        if((outer != null) && !outer.resource.equals(resource)) {
+            throw new IllegalStateException(
+                "Can't open a CID session on " + resource + " inside one " +
+                "on " + outer.resource
+            );
+        }
+
+        ReentrantLock lock = stripes[(resource.hashCode() & 0x7fffffff) %
+                                     stripes.length];
+
+        if(!lock.tryLock()) {
+            contended.incrementAndGet();
+            lock.lock();
+        }
+
+        opened.incrementAndGet();
+
+        CidSession ret = new CidSession(resource, lock, outer);
+        current.set(ret);
+        return ret;
+    }
+
+    /**
+     * Scrape a CID off a page, for the next form post.
+     *
+     * @param client        Client to GET with
+     * @param url           URL fragment to grab
+     * @param params        GET parameters, may be null
+     * @return the CID
+     * @throws MigrateException on any failure, including no CID found.
+     */
+    public String fetch(final UcbClient client, final String url,
+                        Map<String, String> params)
+           throws MigrateException
+    {
+        cid = client.getCIDFromGet(url, params);
+        return cid;
+    }
+
+    /**
+     * End the conversation and let the next one about this resource
+     * go.
+     */
+    @Override
+    public void close()
+    {
+        if(outer == null) {
+            current.remove();
+        } else {
+            current.set(outer);
+        }
+
+        lock.unlock();
+    }
+}
@@ -0,0 +1,200 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * CircuitBreaker.java
+ *
+ * When UCB goes down (or falls over under load), every migration
+ * thread would otherwise burn through its retries, fail its workflow,
+ * and move on to the next one to do the same thing.  That leaves us
+ * with a queue full of failed workflows that have to be re-run by hand.
+ *
+ * This breaker is shared by every UCB call.  After enough consecutive
+ * failures it opens, and while it is open callers *wait* rather than
+ * fail -- the whole engine pauses.  After a cool down, one caller is
+ * let through as a probe; if it works the breaker closes and everyone
+ * carries on, if it doesn't we go back to waiting.
+ *
+ * Tunables (system properties):
+ *
+ * ucb.breaker.threshold    - consecutive failures to open (default 5)
+ * ucb.breaker.cooldown     - ms to wait before probing (default 30000)
+ * ucb.breaker.maxWait      - ms a caller will wait on an open breaker
+ *                            before giving up (default 600000).  This
+ *                            is so a UCB that never comes back doesn't
+ *                            hang us forever.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CircuitBreaker
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /*
+     * The one everyone shares.
+     */
+    private static final CircuitBreaker shared = new CircuitBreaker(
+                            Integer.getInteger("ucb.breaker.threshold", 5),
+                            Long.getLong("ucb.breaker.cooldown", 30000L),
+                            Long.getLong("ucb.breaker.maxWait", 600000L)
+    );
+
+    private final int   threshold;
+    private final long  cooldown;
+    private final long  maxWait;
+
+    /*
+     * All guarded by 'this'
+     */
+    private State   state = State.CLOSED;
+    private int     failures = 0;
+    private long    openedAt = 0;
+    private long    timesOpened = 0;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param threshold     Consecutive failures before we open
+     * @param cooldown      How long to stay open before probing (ms)
+     * @param maxWait       How long a caller waits on us before failing
+     */
+    public CircuitBreaker(int threshold, long cooldown, long maxWait)
+    {
+        this.threshold = threshold;
+        this.cooldown = cooldown;
+        this.maxWait = maxWait;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public static CircuitBreaker getShared()
+    {
+        return shared;
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    public synchronized long getTimesOpened()
+    {
+        return timesOpened;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Call before talking to UCB.  Returns right away if the breaker
+     * is closed; otherwise blocks until the breaker closes or we are
+     * chosen to be the probe.
+     *
+     * @throws UcbException if we waited maxWait and UCB is still out.
+     */
+    public synchronized void acquire()
+           throws UcbException
+    {
+        long giveUp = System.currentTimeMillis() + maxWait;
+
+        while(state != State.CLOSED) {
+            long now = System.currentTimeMillis();
+
+            if((state == State.OPEN) && (now >= openedAt + cooldown)) {
+                // We get to go see if it's back.
+                LOG.info("UCB circuit half-open, sending a probe request");
+                state = State.HALF_OPEN;
+                return;
+            }
+
+            if(now >= giveUp) {
+                throw new UcbException(
+                    "UCB has been unavailable for " + (maxWait / 1000) +
+                    " seconds, giving up"
+                );
+            }
+
+            // Wake up for the end of cooldown or a state change,
+            // whichever comes first.
+            long waitFor = giveUp - now;
+
+            if(state == State.OPEN) {
+                waitFor = Math.min(waitFor, openedAt + cooldown - now);
+            }
+
+            try {
+                wait(Math.max(waitFor, 1));
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UcbException("Interrupted waiting for UCB");
+            }
+        }
+    }
+
+    /**
+     * Record a call that reached UCB and got a sane answer.
+     */
+    public synchronized void recordSuccess()
+    {
+        failures = 0;
+
+        if(state != State.CLOSED) {
+            LOG.info("UCB is responding again, resuming");
+            state = State.CLOSED;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Record a call that failed for reasons that say nothing about
+     * UCB's health.  Normally that means doing nothing, but if this
+     * call was the half-open probe, someone else has to get a go or
+     * everyone waits out maxWait.  The cooldown is already up, so the
+     * next acquire becomes the probe.
+     */
+    public synchronized void releaseProbe()
+    {
+        if(state == State.HALF_OPEN) {
+            state = State.OPEN;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Record a call that failed because of UCB (5xx, connection
+     * reset, etc.)
+     */
+    public synchronized void recordFailure()
+    {
+        failures++;
+
+        if((state == State.HALF_OPEN) ||
+           ((state == State.CLOSED) && (failures >= threshold))) {
+            if(state == State.CLOSED) {
+                LOG.warn("{} consecutive UCB failures, pausing UCB calls " +
+                         "for {} ms", failures, cooldown
+                );
+                timesOpened++;
+            }
+
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+}
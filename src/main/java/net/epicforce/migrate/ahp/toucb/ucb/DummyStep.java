@@ -13,6 +13,8 @@ package net.epicforce.migrate.ahp.toucb.ucb;
  * but we don't want to try to save that step to AHP because it will
  * override the functional step we've created.
  *
+ * Steps made with RESTStep.create are padded out the same way.
+ *
  * @author sconley (sconley@epicforce.net)
  */
 
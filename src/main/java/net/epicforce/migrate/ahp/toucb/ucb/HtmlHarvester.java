@@ -0,0 +1,153 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * HtmlHarvester.java
+ *
+ * Pulls name / ID pairs out of UCB's old "Web 1.0" list pages as they
+ * stream in, instead of reading the whole page into a String first.
+ * Some of those pages (notification schemes, templates...) run to
+ * thousands of entries, and we scrape them every time a catalog loads.
+ *
+ * The page is read a chunk at a time into a sliding buffer, and each
+ * complete match is handed to a Sink as soon as it's found.  The
+ * buffer never holds more than a chunk plus the longest match we
+ * allow for, so memory stays flat no matter how long the list gets.
+ *
+ * The catch is that a match can't be longer than ucb.harvest.maxMatch
+ * characters (system property, default 4096); anything longer may be
+ * missed.  Our patterns match one link, so that's plenty.
+ *
+ * A Sink can also stop the harvest once it has what it wants, which
+ * is how a single entry gets looked up without going through the rest
+ * of the list.
+ *
+ * Compiled patterns are cached, since the same handful get used over
+ * and over.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class HtmlHarvester
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final int    CHUNK = 16384;
+
+    private static final int    maxMatch = Math.max(256,
+                                Integer.getInteger("ucb.harvest.maxMatch",
+                                                   4096));
+
+    private static final ConcurrentHashMap<String, Pattern>  patterns =
+                                    new ConcurrentHashMap<String, Pattern>();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * Told about each match, as it's found.
+     */
+    public static interface Sink
+    {
+        /**
+         * @param id        Group 1 of the match
+         * @param name      Group 2 of the match
+         * @return true to keep going, false to stop here
+         */
+        public boolean found(String id, String name);
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * @param pattern       Regular expression
+     * @return it, compiled, from the cache if we've seen it before.
+     */
+    public static Pattern compile(final String pattern)
+    {
+        Pattern ret = patterns.get(pattern);
+
+        if(ret == null) {
+            ret = Pattern.compile(pattern);
+
+            Pattern was = patterns.putIfAbsent(pattern, ret);
+
+            if(was != null) {
+                ret = was;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Read a page to the end, handing every match to the sink, or
+     * until the sink says to stop.  Group 1 is taken to be the ID and
+     * group 2 the name.
+     *
+     * @param in            The page.  Not closed.
+     * @param pattern       What to look for; see compile
+     * @param sink          Where matches go
+     * @return how many matches there were
+     * @throws IOException if the page can't be read
+     */
+    public static int harvest(final Reader in, final Pattern pattern,
+                              final Sink sink)
+           throws IOException
+    {
+        char[] chunk = new char[CHUNK];
+        StringBuilder buf = new StringBuilder(CHUNK + maxMatch);
+        int found = 0;
+        boolean eof = false;
+
+        while(!eof) {
+            int n = in.read(chunk);
+
+            if(n < 0) {
+                eof = true;
+            } else {
+                buf.append(chunk, 0, n);
+
+                // Fill up before bothering to look.
+                if(buf.length() < CHUNK + maxMatch) {
+                    continue;
+                }
+            }
+
+            // Anything that ends past here might keep going in the
+            // next chunk, so it waits until we have that.
+            int safe = eof ? buf.length() : buf.length() - maxMatch;
+            int keep = safe;
+            Matcher m = pattern.matcher(buf);
+
+            while(m.find()) {
+                if(m.end() > safe) {
+                    // Keep it for next time, unless it's already too
+                    // long to be one of ours.
+                    keep = Math.max(m.start(), safe - maxMatch);
+                    break;
+                }
+
+                found++;
+
+                if(!sink.found(m.group(1), m.group(2))) {
+                    return found;
+                }
+            }
+
+            buf.delete(0, keep);
+        }
+
+        return found;
+    }
+}
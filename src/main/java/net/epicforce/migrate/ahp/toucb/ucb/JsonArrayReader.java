@@ -0,0 +1,195 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * JsonArrayReader.java
+ *
+ * Reads a JSON array of objects off a stream one object at a time.
+ *
+ * Jettison only parses whole Strings, so getting a list out of UCB
+ * used to mean the body as a String, then as a JSONArray, then as a
+ * JSONObject[] -- three copies of what, for agents or users, can be a
+ * lot.  This just finds where each top level object starts and ends
+ * and hands that bit to Jettison, so only one object is ever held at
+ * a time and the caller can stop whenever it likes.
+ *
+ * It's not a JSON validator.  It knows about strings and escapes so
+ * braces in names don't fool it, and anything it doesn't like becomes
+ * a UcbException, but otherwise it trusts Jettison to complain about
+ * what's inside each object.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+public class JsonArrayReader
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private final Reader        in;
+    private final char[]        buf = new char[8192];
+    private int                 pos = 0;
+    private int                 len = 0;
+
+    /*
+     * Where we are: not started, in the array, or past its end.
+     */
+    private boolean             started = false;
+    private boolean             done = false;
+
+    /*
+     * The object being read.  Re-used so a long list doesn't make a
+     * new one for each.
+     */
+    private final StringBuilder obj = new StringBuilder(1024);
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param in            Stream positioned before the array.  Not
+     *                      closed by us.
+     */
+    public JsonArrayReader(final Reader in)
+    {
+        this.in = in;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * @return the next object in the array, or null at the end of it.
+     * @throws IOException if the stream can't be read
+     * @throws UcbException if it isn't an array of objects
+     */
+    public JSONObject next() throws IOException, UcbException
+    {
+        if(done) {
+            return null;
+        }
+
+        int c = skipSpace();
+
+        if(!started) {
+            if(c != '[') {
+                throw new UcbException("Expected a JSON array from UCB");
+            }
+
+            started = true;
+            c = skipSpace();
+
+            if(c == ']') {
+                done = true;
+                return null;
+            }
+        } else if(c == ']') {
+            done = true;
+            return null;
+        } else if(c == ',') {
+            c = skipSpace();
+        } else {
+            throw new UcbException("Bad JSON array from UCB near '" +
+                                   describe(c) + "'");
+        }
+
+        if(c != '{') {
+            throw new UcbException("Expected a JSON object in array from " +
+                                   "UCB, got '" + describe(c) + "'");
+        }
+
+        readObject();
+
+        try {
+            return new JSONObject(obj.toString());
+        } catch(JSONException e) {
+            throw new UcbException("Bad JSON object from UCB", e);
+        }
+    }
+
+    /*
+     * Copy an object, whose '{' has just been read, into obj.
+     */
+    private void readObject() throws IOException, UcbException
+    {
+        obj.setLength(0);
+        obj.append('{');
+
+        int depth = 1;
+        boolean inString = false;
+
+        while(depth > 0) {
+            int c = read();
+
+            if(c < 0) {
+                throw new UcbException("JSON from UCB ended mid object");
+            }
+
+            obj.append((char)c);
+
+            if(inString) {
+                if(c == '\\') {
+                    c = read();
+
+                    if(c < 0) {
+                        throw new UcbException(
+                            "JSON from UCB ended mid string"
+                        );
+                    }
+
+                    obj.append((char)c);
+                } else if(c == '"') {
+                    inString = false;
+                }
+            } else if(c == '"') {
+                inString = true;
+            } else if((c == '{') || (c == '[')) {
+                depth++;
+            } else if((c == '}') || (c == ']')) {
+                depth--;
+            }
+        }
+    }
+
+    /*
+     * Next character that isn't white space, -1 at the end.
+     */
+    private int skipSpace() throws IOException
+    {
+        int c;
+
+        do {
+            c = read();
+        } while((c >= 0) && Character.isWhitespace(c));
+
+        return c;
+    }
+
+    private int read() throws IOException
+    {
+        if(pos >= len) {
+            len = in.read(buf, 0, buf.length);
+            pos = 0;
+
+            if(len <= 0) {
+                len = 0;
+                return -1;
+            }
+        }
+
+        return buf[pos++];
+    }
+
+    private static String describe(int c)
+    {
+        return (c < 0) ? "end of input" : String.valueOf((char)c);
+    }
+}
@@ -0,0 +1,282 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * RetryPolicy.java
+ *
+ * UCB under load likes to hand out the odd 500 or reset a socket.
+ * Failing an entire workflow over one of those is a waste, so UCB calls
+ * are retried with jittered exponential backoff.
+ *
+ * What gets retried depends on whether the call is safe to repeat:
+ *
+ * - Idempotent calls (GET, PUT, DELETE) are retried on any transport
+ *   error, 5xx or 429.
+ *
+ * - Non-idempotent calls (POST) are only retried when we know UCB
+ *   never processed them: we couldn't connect, or UCB said 503/429.
+ *   Anything else might have created something already, and doing
+ *   it twice is worse than failing.
+ *
+ * Tunables (system properties):
+ *
+ * ucb.retry.maxAttempts    - total tries, including the first (default 4)
+ * ucb.retry.baseDelay      - first backoff in ms (default 500)
+ * ucb.retry.maxDelay       - backoff cap in ms (default 15000)
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RetryPolicy
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(RetryPolicy.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final RetryPolicy defaultPolicy = new RetryPolicy(
+                            Integer.getInteger("ucb.retry.maxAttempts", 4),
+                            Long.getLong("ucb.retry.baseDelay", 500L),
+                            Long.getLong("ucb.retry.maxDelay", 15000L)
+    );
+
+    private final int   maxAttempts;
+    private final long  baseDelay;
+    private final long  maxDelay;
+
+    // Random is thread safe, if a little contended; that's fine here.
+    private final Random random = new Random();
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param maxAttempts   Total number of tries, at least 1
+     * @param baseDelay     Backoff before the first retry, ms
+     * @param maxDelay      Backoff cap, ms
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+    {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public static RetryPolicy getDefault()
+    {
+        return defaultPolicy;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Should we try again?
+     *
+     * @param e             What went wrong
+     * @param idempotent    Is the call safe to repeat?
+     * @param attempt       Which try just failed (1 based)
+     * @return true to retry
+     */
+    public boolean shouldRetry(final Exception e, boolean idempotent,
+                               int attempt)
+    {
+        if(attempt >= maxAttempts) {
+            return false;
+        }
+
+        if(e instanceof UcbHttpException) {
+            int code = ((UcbHttpException)e).getStatusCode();
+
+            if((code == 503) || (code == 429)) {
+                return true;
+            }
+
+            return idempotent && ((UcbHttpException)e).isServerError();
+        }
+
+        if(e instanceof IOException) {
+            return idempotent || neverSent((IOException)e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Does this failure mean UCB itself is in trouble?  Used to feed
+     * the circuit breaker -- a 404 or a 302 means UCB is fine, it just
+     * didn't like us.
+     *
+     * @param e         What went wrong
+     * @return true if UCB looks unhealthy
+     */
+    public static boolean isUcbFailure(final Exception e)
+    {
+        if(e instanceof UcbHttpException) {
+            int code = ((UcbHttpException)e).getStatusCode();
+            return ((UcbHttpException)e).isServerError() || (code == 429);
+        }
+
+        return e instanceof IOException;
+    }
+
+    /**
+     * How long to wait before the given retry.  "Full jitter" --
+     * a random time between 0 and the exponential delay -- so a pile
+     * of threads that failed together don't all come back together.
+     *
+     * @param attempt       The try that just failed (1 based)
+     * @return milliseconds to sleep
+     */
+    public long backoff(int attempt)
+    {
+        long delay = baseDelay << Math.min(attempt - 1, 20);
+
+        if((delay > maxDelay) || (delay <= 0)) {
+            delay = maxDelay;
+        }
+
+        return (long)(random.nextDouble() * delay);
+    }
+
+    /**
+     * Sleep for the backoff period.
+     *
+     * @param attempt       The try that just failed (1 based)
+     * @throws UcbException if interrupted
+     */
+    public void pause(int attempt)
+           throws UcbException
+    {
+        try {
+            Thread.sleep(backoff(attempt));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UcbException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Run some arbitrary UCB work (usually a UCB client Factories
+     * call, which we don't get to see the guts of) under the retry
+     * policy and the shared circuit breaker.
+     *
+     * Factories calls just throw Exception, so what went wrong is dug
+     * out of the cause chain (see classify).  Transport errors, 5xx and
+     * 429 are retried and count against the breaker, the same as our
+     * own calls.  Anything else -- a 404, a parse error, a bug -- is
+     * thrown right away and the breaker is left alone.  Only use this
+     * for read-only lookups, where trying again can't hurt.
+     *
+     * @param what          Description for the logs
+     * @param work          The call to make
+     * @return whatever work returns
+     * @throws MigrateException when we run out of tries
+     */
+    public <T> T callIdempotent(final String what, final Callable<T> work)
+           throws MigrateException
+    {
+        CircuitBreaker breaker = CircuitBreaker.getShared();
+
+        for(int attempt = 1; ; attempt++) {
+            breaker.acquire();
+
+            try {
+                T ret = work.call();
+                breaker.recordSuccess();
+                return ret;
+            } catch(Exception e) {
+                Exception cause = classify(e);
+
+                if(!isUcbFailure(cause)) {
+                    // Not UCB's health; don't strand the breaker if
+                    // we happened to be its probe, though.
+                    breaker.releaseProbe();
+
+                    if(e instanceof MigrateException) {
+                        throw (MigrateException)e;
+                    }
+
+                    throw new UcbException(what + " failed", e);
+                }
+
+                breaker.recordFailure();
+
+                if(!shouldRetry(cause, true, attempt)) {
+                    if(e instanceof MigrateException) {
+                        throw (MigrateException)e;
+                    }
+
+                    throw new UcbException(what + " failed", e);
+                }
+
+                LOG.warn("{} failed (attempt {} of {}), retrying: {}",
+                         what, attempt, maxAttempts, e.toString()
+                );
+            }
+
+            pause(attempt);
+        }
+    }
+
+    /*
+     * The UCB client wraps whatever went wrong in a plain Exception, or
+     * not, as the mood takes it.  Find the UcbHttpException or
+     * IOException underneath, if there is one; otherwise e itself,
+     * which neither shouldRetry nor isUcbFailure will like.
+     */
+    private static Exception classify(final Exception e)
+    {
+        for(Throwable t = e; t != null; t = t.getCause()) {
+            if((t instanceof UcbHttpException) || (t instanceof IOException)) {
+                return (Exception)t;
+            }
+
+            if(t.getCause() == t) {
+                break;
+            }
+        }
+
+        return e;
+    }
+
+    /*
+     * True if the failure happened before the request went out, so
+     * even a non-idempotent call is safe to repeat.
+     */
+    private static boolean neverSent(final IOException e)
+    {
+        return (e instanceof ConnectException) ||
+               (e instanceof HttpHostConnectException) ||
+               (e instanceof ConnectTimeoutException) ||
+               (e instanceof NoRouteToHostException) ||
+               (e instanceof UnknownHostException);
+    }
+}
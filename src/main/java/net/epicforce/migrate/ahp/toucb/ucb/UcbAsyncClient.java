@@ -0,0 +1,263 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbAsyncClient.java
+ *
+ * Futures flavoured UcbClient, so one workflow thread can have a few
+ * independent UCB calls out at once instead of waiting out each round
+ * trip in turn.
+ *
+ *     UcbAsyncClient client = new UcbAsyncClient(url);
+ *     List<Future<String>> calls = new ArrayList<>();
+ *
+ *     for(...) {
+ *         calls.add(client.sendRawPost(form));
+ *     }
+ *
+ *     UcbAsyncClient.awaitAll(calls);
+ *
+ * We're on Java 7 and the UCB client brings its own blocking
+ * HttpClient, so there's no CompletableFuture and no non-blocking
+ * client to build on.  Instead the calls run on a small shared pool
+ * of threads (ucb.async.threads system property, default 8) through
+ * the same UcbClient code as always -- same connection pool, retries
+ * and circuit breaker.  These threads hold nothing but a connection
+ * while they wait, unlike a workflow thread with its AHP session and
+ * context, so they're cheap to have a few of.
+ *
+ * UcbWorkflow's status loader uses it to create the AHP statuses UCB
+ * is missing all at once: each is a new object, made with a plain
+ * REST post, so they don't step on each other.
+ *
+ * Things to know:
+ *
+ * - Calls may finish in any order.  Only send things together that
+ *   don't depend on each other.
+ * - Don't send writes to the same UCB object together unless you
+ *   know UCB copes.  Form saves (iteration plans, for one) rewrite
+ *   the whole object and aren't retried, so two at once may lose
+ *   one; those stay one at a time.
+ * - Wait for your calls before closing a CidSession they need; the
+ *   session belongs to your thread, not the pool's.
+ * - While a thread is planning (UcbRecorder), its calls are run right
+ *   away on that thread, so they're recorded in its plan.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jettison.json.JSONObject;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+public class UcbAsyncClient
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final ExecutorService    pool =
+            Executors.newFixedThreadPool(
+                Math.max(1, Integer.getInteger("ucb.async.threads", 8)),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "ucb-async-" +
+                                                 count.incrementAndGet());
+
+                        // Don't hold the JVM open for idle threads
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }
+            );
+
+    /*
+     * Only ever used with its own URL; nobody calls setUrl on it.
+     */
+    private final UcbClient     client;
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param url           URL fragment (path portion), use Urls constants
+     */
+    public UcbAsyncClient(final String url)
+    {
+        client = new UcbClient(url);
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /*
+     * The UcbClient methods we mirror, each as a future.  They throw
+     * what their UcbClient counterparts throw, from Future.get.
+     */
+    public Future<JSONObject> sendPostReturnObject(final String postString)
+    {
+        return submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception
+            {
+                return client.sendPostReturnObject(postString);
+            }
+        });
+    }
+
+    public Future<JSONObject> sendPutReturnObject(final String id,
+                                                  final String postString)
+    {
+        return submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception
+            {
+                return client.sendPutReturnObject(id, postString);
+            }
+        });
+    }
+
+    public Future<JSONObject> sendGetReturnObject(final String id)
+    {
+        return submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception
+            {
+                return client.sendGetReturnObject(id);
+            }
+        });
+    }
+
+    public Future<Void> delete(final String id)
+    {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception
+            {
+                client.delete(id);
+                return null;
+            }
+        });
+    }
+
+    public Future<String> sendRawPost(final Map<String, String> posts)
+    {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception
+            {
+                return client.sendRawPost(posts);
+            }
+        });
+    }
+
+    public Future<String> sendRawGet(final String url,
+                                     final Map<String, String> params)
+    {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception
+            {
+                return client.sendRawGet(url, params);
+            }
+        });
+    }
+
+    /**
+     * Wait for every call to finish, then throw the first failure if
+     * any failed.  All of them are waited for either way, so nothing
+     * is still running against UCB when this returns.
+     *
+     * @param calls         Futures from this class
+     * @throws MigrateException the first failure, as is if it was a
+     *         MigrateException, otherwise wrapped.
+     */
+    public static void awaitAll(final Collection<? extends Future<?>> calls)
+           throws MigrateException
+    {
+        MigrateException first = null;
+
+        for(Future<?> call : calls) {
+            try {
+                await(call);
+            } catch(MigrateException e) {
+                if(first == null) {
+                    first = e;
+                }
+            }
+        }
+
+        if(first != null) {
+            throw first;
+        }
+    }
+
+    /**
+     * Wait for one call.
+     *
+     * @param call          Future from this class
+     * @return its result
+     * @throws MigrateException if it failed, as is if it was a
+     *         MigrateException, otherwise wrapped.
+     */
+    public static <T> T await(final Future<T> call) throws MigrateException
+    {
+        boolean interrupted = false;
+
+        try {
+            while(true) {
+                try {
+                    return call.get();
+                } catch(InterruptedException e) {
+                    // The call is out already; see it through.
+                    interrupted = true;
+                }
+            }
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof MigrateException) {
+                throw (MigrateException)e.getCause();
+            }
+
+            if(e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+
+            throw new MigrateException("Error while communicating with UCB",
+                                       (Exception)e.getCause());
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Run it on the pool, or right here if we're planning.
+     */
+    private static <T> Future<T> submit(final Callable<T> call)
+    {
+        if(UcbRecorder.isRecording()) {
+            FutureTask<T> ret = new FutureTask<>(call);
+            ret.run();
+            return ret;
+        }
+
+        return pool.submit(call);
+    }
+}
@@ -0,0 +1,534 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbCatalog.java
+ *
+ * Run wide cache of things we've found or made in UCB -- artifact
+ * sets, statuses, scripts, notification schemes and so on -- so each
+ * is looked up once and made at most once, no matter how many
+ * workflow threads want it.
+ *
+ * These used to be plain HashMaps, each locked as a whole while we
+ * talked to UCB, so a thread making one artifact set held up every
+ * other thread that wanted any artifact set.  Now each catalog is a
+ * ConcurrentHashMap, and making something only locks its own key:
+ *
+ *     String id = schemes.get(name, new UcbCatalog.Creator<...>() {
+ *         public String create(String key) throws Exception
+ *         {
+ *             ... make it in UCB, return its ID ...
+ *         }
+ *     });
+ *
+ * Two threads wanting the same missing key get one create between
+ * them; two threads wanting different keys don't wait on each other.
+ * That's computeIfAbsent, done by hand with a lock object per key
+ * since we're on Java 7.
+ *
+ * What's already in UCB is pulled in by the catalog's Loader the
+ * first time it's used.  That one does block everybody, but only
+ * once, and everybody needs it anyway.
+ *
+ * Every catalog registers itself so getStats can report hits, misses
+ * and creates for all of them in one place.
+ *
+ * Catalogs made with persistent() are also saved between runs by
+ * CatalogSnapshot.  One of those that starts from the snapshot
+ * instead of UCB re-runs its Loader the first time a lookup misses,
+ * in case UCB got the thing since we last looked.  Ones with a
+ * Counter also ask UCB how many there are before trusting the
+ * snapshot at all, and go to UCB instead if the number is different,
+ * so something deleted from UCB doesn't live on in the snapshot.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbCatalog<K, V>
+{
+    private final static Logger LOG = LoggerFactory.getLogger(UcbCatalog.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Every catalog made, for getStats.
+     */
+    private static final List<UcbCatalog<?, ?>>    catalogs =
+                                new CopyOnWriteArrayList<UcbCatalog<?, ?>>();
+
+    private final String                name;
+    private final Loader<K, V>          loader;
+    private Counter                     counter = null;
+    private boolean                     persistent = false;
+    private final ConcurrentHashMap<K, V>       entries =
+                                            new ConcurrentHashMap<K, V>();
+
+    /*
+     * One lock object per key that has ever been created, so creates
+     * of the same key line up and creates of different keys don't.
+     */
+    private final ConcurrentHashMap<K, Object>  keyLocks =
+                                            new ConcurrentHashMap<K, Object>();
+
+    private final Object                loadLock = new Object();
+    private volatile boolean            loaded = false;
+
+    /*
+     * Warm means we loaded from the snapshot and haven't checked
+     * with UCB since.  verifiedAt is when we last did.
+     */
+    private volatile boolean            warm = false;
+    private volatile long               verifiedAt = 0;
+
+    private final AtomicLong            hits = new AtomicLong();
+    private final AtomicLong            misses = new AtomicLong();
+    private final AtomicLong            creates = new AtomicLong();
+    private final AtomicLong            refreshes = new AtomicLong();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * Pulls what's already in UCB.
+     */
+    public static interface Loader<K, V>
+    {
+        /**
+         * @return everything UCB already has, never null
+         * @throws Exception on any failure; it's wrapped for you.
+         */
+        public Map<K, V> load() throws Exception;
+    }
+
+    /**
+     * Counts what UCB has, more cheaply than loading it.  Used to
+     * check a snapshot before trusting it.
+     */
+    public static interface Counter
+    {
+        /**
+         * @return how many entries a load would find
+         * @throws Exception on any failure; it's wrapped for you.
+         */
+        public int count() throws Exception;
+    }
+
+    /**
+     * Makes one missing thing in UCB.
+     */
+    public static interface Creator<K, V>
+    {
+        /**
+         * @param key       What to make
+         * @return the value to keep for it, never null
+         * @throws Exception on any failure; MigrateExceptions go
+         *         through as is, anything else is wrapped.
+         */
+        public V create(K key) throws Exception;
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    /**
+     * @param name          For messages and stats, like "artifactSets"
+     * @param loader        Pulls what UCB already has.  May be null if
+     *                      the catalog starts out empty.
+     */
+    public UcbCatalog(final String name, final Loader<K, V> loader)
+    {
+        this.name = name;
+        this.loader = loader;
+        catalogs.add(this);
+    }
+
+    /**
+     * Make a catalog that is saved between runs; see CatalogSnapshot.
+     *
+     * @param name          For messages, stats and the snapshot.  Must
+     *                      be unique.
+     * @param loader        Pulls what UCB already has
+     * @return the new catalog
+     */
+    public static UcbCatalog<String, String> persistent(final String name,
+                                    final Loader<String, String> loader)
+    {
+        UcbCatalog<String, String> ret = new UcbCatalog<>(name, loader);
+        ret.persistent = true;
+        return ret;
+    }
+
+    /**
+     * Same as above, but the snapshot is only used if UCB has as many
+     * entries as it does.
+     *
+     * @param name          For messages, stats and the snapshot.  Must
+     *                      be unique.
+     * @param loader        Pulls what UCB already has
+     * @param counter       Counts what UCB already has
+     * @return the new catalog
+     */
+    public static UcbCatalog<String, String> persistent(final String name,
+                                    final Loader<String, String> loader,
+                                    final Counter counter)
+    {
+        UcbCatalog<String, String> ret = persistent(name, loader);
+        ret.counter = counter;
+        return ret;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getCreates()
+    {
+        return creates.get();
+    }
+
+    /**
+     * @return times we went back to UCB after starting from the
+     *         snapshot
+     */
+    public long getRefreshes()
+    {
+        return refreshes.get();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return every catalog made so far
+     */
+    public static List<UcbCatalog<?, ?>> getAll()
+    {
+        return Collections.unmodifiableList(
+                                    new ArrayList<UcbCatalog<?, ?>>(catalogs));
+    }
+
+    /**
+     * @return one line of hit / miss / create counts per catalog.
+     */
+    public static String getStats()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for(UcbCatalog<?, ?> c : catalogs) {
+            if(sb.length() > 0) {
+                sb.append("; ");
+            }
+
+            sb.append(c.toString());
+        }
+
+        return sb.toString();
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Make sure what's in UCB has been pulled in.  Only the first
+     * call does anything; the rest return once it's done.
+     *
+     * @throws MigrateException if the loader fails.  The next call
+     *         will try again.
+     */
+    public void load() throws MigrateException
+    {
+        if(loaded) {
+            return;
+        }
+
+        synchronized(loadLock) {
+            if(loaded) {
+                return;
+            }
+
+            CatalogSnapshot.Section saved = persistent ?
+                                    CatalogSnapshot.take(name) : null;
+
+            if((saved != null) && (counter != null)) {
+                int count = count();
+
+                if(count != saved.entries.size()) {
+                    LOG.info("UCB has {} {}, the snapshot has {}; " +
+                             "loading from UCB", count, name,
+                             saved.entries.size()
+                    );
+                    saved = null;
+                }
+            }
+
+            if(saved != null) {
+                for(Map.Entry<String, String> e : saved.entries.entrySet()) {
+                    put(key(e.getKey()), value(e.getValue()));
+                }
+
+                verifiedAt = saved.verifiedAt;
+                warm = true;
+            } else if(loader != null) {
+                long now = System.currentTimeMillis();
+
+                entries.putAll(fetchAll());
+                verifiedAt = now;
+            }
+
+            loaded = true;
+        }
+    }
+
+    /**
+     * If we started from the snapshot, go to UCB for what's changed
+     * since.  Only the first call does anything.
+     *
+     * @throws MigrateException if the loader fails
+     */
+    public void refresh() throws MigrateException
+    {
+        if(!warm) {
+            return;
+        }
+
+        synchronized(loadLock) {
+            if(!warm) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+
+            entries.putAll(fetchAll());
+            verifiedAt = now;
+            warm = false;
+            refreshes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Run the loader again and hand back what it found, without
+     * touching the catalog.  Creators shouldn't use this to find what
+     * they just made -- it's the whole list every time; look for the
+     * one thing instead (see UcbClient.harvestId).
+     *
+     * @return what UCB has now
+     * @throws MigrateException on any failure
+     */
+    public Map<K, V> fetchAll() throws MigrateException
+    {
+        if(loader == null) {
+            return Collections.emptyMap();
+        }
+
+        try {
+            return loader.load();
+        } catch(MigrateException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new MigrateException("Could not load the " + name +
+                                       " catalog from UCB", e);
+        }
+    }
+
+    /*
+     * Run the counter, wrapped like fetchAll.
+     */
+    private int count() throws MigrateException
+    {
+        try {
+            return counter.count();
+        } catch(MigrateException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new MigrateException("Could not count the " + name +
+                                       " catalog in UCB", e);
+        }
+    }
+
+    /**
+     * Look something up without making it.
+     *
+     * @param key       What to look for
+     * @return its value, or null if UCB doesn't have it (yet)
+     * @throws MigrateException if the first load fails
+     */
+    public V lookup(final K key) throws MigrateException
+    {
+        load();
+
+        V ret = entries.get(key);
+
+        // Maybe the snapshot is just behind.
+        if((ret == null) && warm) {
+            refresh();
+            ret = entries.get(key);
+        }
+
+        if(ret == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Like lookup, but doesn't load or count.  For planning, where
+     * we only want to know if a call would be made.
+     *
+     * @param key       What to look for
+     * @return true if we have it
+     */
+    public boolean contains(final K key)
+    {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Look something up, making it if UCB doesn't have it.
+     *
+     * @param key       What to look for
+     * @param creator   How to make it
+     * @return its value
+     * @throws MigrateException if the load or the creator fails, or
+     *         the creator returns null.
+     */
+    public V get(final K key, final Creator<K, V> creator)
+           throws MigrateException
+    {
+        V ret = lookup(key);
+
+        if(ret != null) {
+            return ret;
+        }
+
+        Object keyLock = new Object();
+        Object was = keyLocks.putIfAbsent(key, keyLock);
+
+        if(was != null) {
+            keyLock = was;
+        }
+
+        synchronized(keyLock) {
+            // Somebody else may have made it while we waited.
+            ret = entries.get(key);
+
+            if(ret != null) {
+                return ret;
+            }
+
+            try {
+                ret = creator.create(key);
+            } catch(MigrateException e) {
+                throw e;
+            } catch(Exception e) {
+                throw new MigrateException("Could not create " + key +
+                                           " in the " + name + " catalog",
+                                           e);
+            }
+
+            if(ret == null) {
+                throw new MigrateException("Creating " + key + " in the " +
+                                           name + " catalog came back empty");
+            }
+
+            entries.put(key, ret);
+            creates.incrementAndGet();
+            return ret;
+        }
+    }
+
+    /**
+     * Note something we found out about some other way.
+     *
+     * @param key       What it is
+     * @param value     Its value
+     */
+    public void put(final K key, final V value)
+    {
+        entries.put(key, value);
+    }
+
+    /**
+     * What CatalogSnapshot saves for us.
+     *
+     * @return our entries as strings, or null if we aren't persistent
+     *         or haven't loaded.
+     */
+    CatalogSnapshot.Section toSection()
+    {
+        if(!persistent || !loaded) {
+            return null;
+        }
+
+        Map<String, String> ret = new HashMap<>();
+
+        for(Map.Entry<K, V> e : entries.entrySet()) {
+            ret.put(String.valueOf(e.getKey()),
+                    String.valueOf(e.getValue())
+            );
+        }
+
+        return new CatalogSnapshot.Section(verifiedAt, ret);
+    }
+
+    /*
+     * Only persistent catalogs, which are String to String, read the
+     * snapshot; these just keep the compiler happy about it.
+     */
+    @SuppressWarnings("unchecked")
+    private K key(final String s)
+    {
+        return (K)s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(final String s)
+    {
+        return (V)s;
+    }
+
+    public String toString()
+    {
+        return name + ": size(" + entries.size() + ") hits(" + hits.get() +
+               ") misses(" + misses.get() + ") creates(" + creates.get() +
+               ") refreshes(" + refreshes.get() + ")" +
+               (warm ? " warm" : "");
+    }
+}
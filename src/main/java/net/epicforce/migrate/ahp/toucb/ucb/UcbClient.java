@@ -24,17 +24,21 @@ package net.epicforce.migrate.ahp.toucb.ucb;
  * @author sconley (sconley@epicforce.net)
  */
 
-import java.io.InputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
-import com.urbancode.commons.util.IO;
 import com.urbancode.ubuild.client.rest.HttpHelper;
 import com.urbancode.ubuild.client.rest.Login;
 
@@ -44,20 +48,35 @@ import org.codehaus.jettison.json.JSONObject;
 
 import javax.ws.rs.core.UriBuilder;
 
-import org.apache.http.HttpException;
-import org.apache.http.HttpResponse;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.EntityBuilder;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 
 import net.epicforce.migrate.ahp.exception.MigrateException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 
 public class UcbClient extends HttpHelper
 {
+    private final static Logger LOG = LoggerFactory.getLogger(UcbClient.class);
+
     /*
      * This URL should probably come from the Urls class, though it
      * doesn't have to be.  The UCB server will be automatically
@@ -65,6 +84,14 @@ public class UcbClient extends HttpHelper
      */
     protected String url;
 
+    /*
+     * How sendRawPostForId found out what it made: from UCB's answer,
+     * or by looking it up in the list after.  If the second one isn't
+     * next to nothing, the ID patterns need a look.
+     */
+    private static final AtomicLong idsAnswered = new AtomicLong();
+    private static final AtomicLong idsLookedUp = new AtomicLong();
+
     /**
      * Initialize a UcbClient for a certain URL.
      *
@@ -85,6 +112,15 @@ public class UcbClient extends HttpHelper
         this.url = url;
     }
 
+    /**
+     * @return one line of sendRawPostForId counts, for the logs.
+     */
+    public static String getStats()
+    {
+        return "form post IDs answered(" + idsAnswered.get() +
+               ") looked up(" + idsLookedUp.get() + ")";
+    }
+
     /**
      * Get artifact set by ID
      *
@@ -106,6 +142,36 @@ public class UcbClient extends HttpHelper
         return sendGetReturnArray(null);
     }
 
+    /**
+     * Go through all of them without holding the whole list.  See
+     * sendGetVisitArray.
+     *
+     * @param visitor       Gets each one
+     * @return how many were visited
+     */
+    public int visitAll(final JsonVisitor visitor)
+           throws UcbException
+    {
+        return sendGetVisitArray(null, visitor);
+    }
+
+    /**
+     * Count them, without keeping any.
+     *
+     * @return how many there are
+     */
+    public int countAll()
+           throws UcbException
+    {
+        return visitAll(new JsonVisitor() {
+            @Override
+            public boolean visit(JSONObject obj)
+            {
+                return true;
+            }
+        });
+    }
+
     /**
      * Run an update
      */
@@ -113,7 +179,7 @@ public class UcbClient extends HttpHelper
            throws UcbException
     {
         try {
-            sendPut(url, obj.getString("id"), obj.toString());
+            sendJsonPut(url, obj.getString("id"), obj.toString());
         } catch(Exception e) {
             try {
                 throw new UcbException("Failed to send put " + obj.toString() +
@@ -135,7 +201,7 @@ public class UcbClient extends HttpHelper
            throws UcbException
     {
         try {
-            sendDelete(url, id);
+            sendJsonDelete(url, id);
         } catch(Exception e) {
             throw new UcbException("Failed to send delete " + id +
                                    "to UCB url " + url, e
@@ -162,53 +228,12 @@ public class UcbClient extends HttpHelper
     public String sendRawPost(List<NameValuePair> nvpList)
            throws MigrateException
     {
-        try {
-            // Taken from the UCB HttpHelper
-            Login login = Login.getCurrentLogin();
-            String postUrl = UriBuilder.fromPath(login.getBaseUrl())
-                                       .path(url)
-                                       .build(new Object[0])
-                                       .toString();
-
-            HttpPost postMethod = new HttpPost(postUrl);
-
-            try {
-                postMethod.setHeader("Content-Type",
-                                     "application/x-www-form-urlencoded"
-                );
-
-                // UCB has just enough CSRF protection to be annoying,
-                // not enough to really be any use.
-                postMethod.setHeader("Referer", postUrl);
+        HttpPost postMethod = formPost(nvpList);
 
-                // Set them
-                postMethod.setEntity(EntityBuilder.create()
-                                                  .setParameters(nvpList)
-                                                  .build()
-                );
-
-                // Use the client to ship it
-                CloseableHttpClient client = getDefaultHttpClient();
-                HttpResponse response = client.execute(postMethod);
-
-                // There is an inexplicably private 'isGoodResponseCode'
-                // method.  Fortunately, its easy to replicate
-                int responseCode = response.getStatusLine().getStatusCode();;
-
-                if((responseCode < 200) || (responseCode >= 300)) {
-                    // Failed
-                    throw new MigrateException(
-                        "POST to " + postUrl + " failed with response: " +
-                        responseCode
-                    );
-                }
-
-                // Get the Content
-                InputStream content = response.getEntity().getContent();
-                return IO.readText(content, "UTF-8");
-            } finally {
-                postMethod.releaseConnection();
-            }
+        try {
+            return execute(postMethod, "POST to " + postMethod.getURI() +
+                                       " failed with response: ", false
+            );
         } catch(MigrateException e) {
             throw e;
         } catch(IOException e) {
@@ -216,6 +241,29 @@ public class UcbClient extends HttpHelper
         }
     }
 
+    /*
+     * A form POST to our URL, ready to send.  Taken from the UCB
+     * HttpHelper.
+     */
+    private HttpPost formPost(final List<NameValuePair> nvpList)
+    {
+        String postUrl = buildUri(url).build(new Object[0]).toString();
+
+        HttpPost postMethod = new HttpPost(postUrl);
+
+        postMethod.setHeader("Content-Type",
+                             "application/x-www-form-urlencoded"
+        );
+
+        // Set them
+        postMethod.setEntity(EntityBuilder.create()
+                                          .setParameters(nvpList)
+                                          .build()
+        );
+
+        return postMethod;
+    }
+
     /**
      * This method posts a Map of key-values into a standard,
      * run-of-the-mill post.  Not posting JSON, just posting form
@@ -240,6 +288,116 @@ public class UcbClient extends HttpHelper
         return sendRawPost(nvpList);
     }
 
+    /**
+     * Post an old style "Web 1.0" form that makes something, and find
+     * out the new thing's ID without scraping the whole list page for
+     * it.
+     *
+     * These forms answer with a redirect to the new thing's page, so
+     * the ID is usually right there in the Location header.  Redirects
+     * aren't followed for this one POST, whichever client is in use,
+     * so the redirect is what we see and not the page it points at.
+     * If we get a page back instead, we'll take the ID from that, but
+     * only if there's exactly one in it -- a list page would have lots.
+     *
+     * If neither says, the new thing is looked for by name in the list
+     * page, stopping as soon as it turns up.  That's counted (see
+     * getStats) and logged, since it means an ID pattern is wrong.
+     *
+     * @param posts         Post map
+     * @param idPattern     Finds the ID, as group 1, in a URL or page.
+     *                      Like "template_id=(-?\\d+)"
+     * @param listUrl       The list page to look in if that fails
+     * @param listPattern   Pattern for the list page; see harvestPattern
+     * @param name          What was made, as the list page names it
+     * @return the new ID, or null if it couldn't be found at all.
+     * @throws MigrateException on any failure; a redirect isn't one.
+     */
+    public String sendRawPostForId(Map<String, String> posts,
+                                   final Pattern idPattern,
+                                   final String listUrl,
+                                   final String listPattern,
+                                   final String name)
+           throws MigrateException
+    {
+        String ret = postForId(posts, idPattern);
+
+        if(ret != null) {
+            idsAnswered.incrementAndGet();
+            return ret;
+        }
+
+        idsLookedUp.incrementAndGet();
+        LOG.info("POST to {} didn't say what it made; looking for {} in {}",
+                 url, name, listUrl
+        );
+
+        return new UcbClient(listUrl).harvestId(listPattern, name);
+    }
+
+    /*
+     * The POST half of sendRawPostForId: the ID from the answer, or
+     * null if it didn't say.
+     */
+    private String postForId(final Map<String, String> posts,
+                             final Pattern idPattern)
+            throws MigrateException
+    {
+        List<NameValuePair> nvpList = new ArrayList<>(posts.size());
+
+        for(Map.Entry<String, String> ent : posts.entrySet()) {
+            nvpList.add(
+                new BasicNameValuePair(ent.getKey(), ent.getValue())
+            );
+        }
+
+        HttpPost postMethod = formPost(nvpList);
+        RequestConfig base = UcbConnectionPool.getRequestConfig();
+
+        postMethod.setConfig(
+            RequestConfig.copy((base == null) ? RequestConfig.DEFAULT : base)
+                         .setRedirectsEnabled(false)
+                         .build()
+        );
+
+        String body;
+
+        try {
+            body = execute(postMethod, "POST to " + postMethod.getURI() +
+                                       " failed with response: ", false
+            );
+        } catch(UcbHttpException e) {
+            if(!e.isRedirect()) {
+                throw e;
+            }
+
+            if(e.getLocation() == null) {
+                return null;
+            }
+
+            Matcher m = idPattern.matcher(e.getLocation());
+            return m.find() ? m.group(1) : null;
+        } catch(MigrateException e) {
+            throw e;
+        } catch(IOException e) {
+            throw new MigrateException("General error reaching UCB", e);
+        }
+
+        // Only believe the page if it's about one thing.
+        Matcher m = idPattern.matcher(body);
+        String ret = null;
+
+        while(m.find()) {
+            if((ret != null) && !ret.equals(m.group(1))) {
+                return null;
+            }
+
+            ret = m.group(1);
+        }
+
+        return ret;
+    }
+
     /*
      * The following are wrappers over HttpHelper's various methods
      * in order to make them return common JSON objects.  They all use
@@ -250,7 +408,7 @@ public class UcbClient extends HttpHelper
            throws UcbException
     {
         try {
-            return new JSONObject(sendPost(url, postString));
+            return new JSONObject(sendJsonPost(url, postString));
         } catch(Exception e) {
             throw new UcbException("Failed to send post " + postString +
                                    "to UCB url " + url, e
@@ -263,7 +421,7 @@ public class UcbClient extends HttpHelper
     {
         try {
             return jsonArrayConvert(
-                        new JSONArray(sendPost(url, postString))
+                        new JSONArray(sendJsonPost(url, postString))
             );
         } catch(Exception e) {
             throw new UcbException("Failed to send post " + postString +
@@ -276,7 +434,7 @@ public class UcbClient extends HttpHelper
            throws UcbException
     {
         try {
-            return new JSONObject(sendPut(url, id, postString));
+            return new JSONObject(sendJsonPut(url, id, postString));
         } catch(Exception e) {
             throw new UcbException("Failed to send put " + postString +
                                    " (id:" + id + ") " +
@@ -290,7 +448,7 @@ public class UcbClient extends HttpHelper
     {
         try {
             return jsonArrayConvert(
-                        new JSONArray(sendPut(url, id, postString))
+                        new JSONArray(sendJsonPut(url, id, postString))
             );
         } catch(Exception e) {
             throw new UcbException("Failed to send put " + postString +
@@ -304,7 +462,7 @@ public class UcbClient extends HttpHelper
            throws UcbException
     {
         try {
-            return new JSONObject(sendGet(url, id));
+            return new JSONObject(sendJsonGet(url, id));
         } catch(Exception e) {
             throw new UcbException("Failed to send get " + id +
                                    "to UCB url " + url, e
@@ -314,11 +472,65 @@ public class UcbClient extends HttpHelper
 
     public JSONObject[] sendGetReturnArray(String id)
            throws UcbException
+    {
+        final List<JSONObject> ret = new ArrayList<>();
+
+        sendGetVisitArray(id, new JsonVisitor() {
+            public boolean visit(JSONObject obj)
+            {
+                ret.add(obj);
+                return true;
+            }
+        });
+
+        return ret.toArray(new JSONObject[ret.size()]);
+    }
+
+    /**
+     * GET an array and hand each object in it to a visitor as it comes
+     * off the wire, instead of reading the body, then parsing it, then
+     * copying it.  The visitor can stop early by returning false; the
+     * rest of the body is skipped without being parsed.
+     *
+     * If the GET has to be retried, the visitor will see the list
+     * again from the start.
+     *
+     * @param id            ID to tack onto the URL, or null
+     * @param visitor       Gets each object
+     * @return how many objects were visited
+     * @throws UcbException on any failure, including the visitor's
+     */
+    public int sendGetVisitArray(String id, final JsonVisitor visitor)
+           throws UcbException
     {
         try {
-            return jsonArrayConvert(
-                        new JSONArray(sendGet(url, id))
-            );
+            return sendJsonGet(url, id, new BodyReader<Integer>() {
+                public Integer read(HttpEntity entity)
+                       throws IOException, MigrateException
+                {
+                    if(entity == null) {
+                        throw new UcbException("Empty response from UCB");
+                    }
+
+                    try(Reader in = new InputStreamReader(
+                                                    entity.getContent(),
+                                                    charsetOf(entity))) {
+                        JsonArrayReader arr = new JsonArrayReader(in);
+                        int count = 0;
+                        JSONObject obj;
+
+                        while((obj = arr.next()) != null) {
+                            count++;
+
+                            if(!visit(visitor, obj)) {
+                                break;
+                            }
+                        }
+
+                        return count;
+                    }
+                }
+            });
         } catch(Exception e) {
             throw new UcbException("Failed to send get " + id +
                                    "to UCB url " + url, e
@@ -326,6 +538,434 @@ public class UcbClient extends HttpHelper
         }
     }
 
+    /*
+     * Run a visitor, wrapping what it throws.
+     */
+    private static boolean visit(final JsonVisitor visitor,
+                                 final JSONObject obj)
+            throws MigrateException
+    {
+        try {
+            return visitor.visit(obj);
+        } catch(MigrateException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new UcbException("Failed to process " + obj, e);
+        }
+    }
+
+
+    /*
+     * JSON verbs, equivalent to HttpHelper's sendPost/sendPut/sendGet/
+     * sendDelete but run through the shared connection pool.  If the
+     * pool hasn't been configured they just defer to HttpHelper.
+     *
+     * These take the URL as a parameter (rather than using 'url') so
+     * they can stand in for HttpHelper in the "fixed" classes.
+     */
+    public String sendJsonPost(final String url, final String body)
+           throws Exception
+    {
+        // HttpHelper's would go around the recorder
+        if(!UcbConnectionPool.isConfigured() &&
+           !UcbRecorder.isRecording()) {
+            try(UcbThrottle.Permit permit = UcbThrottle.acquire()) {
+                return sendPost(url, body);
+            }
+        }
+
+        String postUrl = buildUri(url).build(new Object[0]).toString();
+        HttpPost postMethod = new HttpPost(postUrl);
+
+        postMethod.setEntity(new StringEntity(body,
+                                              ContentType.APPLICATION_JSON)
+        );
+
+        return execute(postMethod,
+                       "POST to " + postUrl + " failed with response: ",
+                       false
+        );
+    }
+
+    public String sendJsonPut(final String url, final String id,
+                              final String body)
+           throws Exception
+    {
+        // HttpHelper's would go around the recorder
+        if(!UcbConnectionPool.isConfigured() &&
+           !UcbRecorder.isRecording()) {
+            try(UcbThrottle.Permit permit = UcbThrottle.acquire()) {
+                return sendPut(url, id, body);
+            }
+        }
+
+        String putUrl = buildUri(url, id).build(new Object[0]).toString();
+        HttpPut putMethod = new HttpPut(putUrl);
+
+        putMethod.setEntity(new StringEntity(body,
+                                             ContentType.APPLICATION_JSON)
+        );
+
+        return execute(putMethod,
+                       "PUT to " + putUrl + " failed with response: ",
+                       true
+        );
+    }
+
+    public String sendJsonGet(final String url, final String id)
+           throws Exception
+    {
+        if(!UcbConnectionPool.isConfigured()) {
+            try(UcbThrottle.Permit permit = UcbThrottle.acquire()) {
+                return sendGet(url, id);
+            }
+        }
+
+        String getUrl = buildUri(url, id).build(new Object[0]).toString();
+
+        return execute(new HttpGet(getUrl),
+                       "GET to " + getUrl + " failed with response ",
+                       true
+        );
+    }
+
+    /*
+     * Same as sendJsonGet, but the body goes to a BodyReader.  Without
+     * the pool, HttpHelper still reads it into a String first.
+     */
+    protected <T> T sendJsonGet(final String url, final String id,
+                                final BodyReader<T> reader)
+              throws Exception
+    {
+        if(!UcbConnectionPool.isConfigured()) {
+            String body;
+
+            try(UcbThrottle.Permit permit = UcbThrottle.acquire()) {
+                body = sendGet(url, id);
+            }
+
+            return reader.read(new StringEntity(body,
+                                                ContentType.APPLICATION_JSON));
+        }
+
+        String getUrl = buildUri(url, id).build(new Object[0]).toString();
+
+        return execute(new HttpGet(getUrl),
+                       "GET to " + getUrl + " failed with response ",
+                       true,
+                       reader
+        );
+    }
+
+    /*
+     * PUT an XML document to 'url'; for the importer, see UcbImport.
+     * Not retried, since it makes things.
+     */
+    public String sendXmlPut(final String body)
+           throws MigrateException, IOException
+    {
+        String putUrl = buildUri(url).build(new Object[0]).toString();
+        HttpPut putMethod = new HttpPut(putUrl);
+
+        putMethod.setEntity(new StringEntity(body,
+                                             ContentType.APPLICATION_XML)
+        );
+
+        return execute(putMethod,
+                       "PUT to " + putUrl + " failed with response: ",
+                       false
+        );
+    }
+
+    public void sendJsonDelete(final String url, final String id)
+           throws Exception
+    {
+        // HttpHelper's would go around the recorder
+        if(!UcbConnectionPool.isConfigured() &&
+           !UcbRecorder.isRecording()) {
+            try(UcbThrottle.Permit permit = UcbThrottle.acquire()) {
+                sendDelete(url, id);
+            }
+
+            return;
+        }
+
+        String deleteUrl = buildUri(url, id).build(new Object[0]).toString();
+
+        execute(new HttpDelete(deleteUrl),
+                "DELETE to " + deleteUrl + " failed with response: ",
+                true
+        );
+    }
+
+    /**
+     * Build a URI for a path fragment off the UCB base URL.
+     *
+     * @param path          URL fragment
+     * @return a UriBuilder to add query params to, if needed.
+     */
+    protected UriBuilder buildUri(final String path)
+    {
+        return UriBuilder.fromPath(Login.getCurrentLogin().getBaseUrl())
+                         .path(path);
+    }
+
+    /**
+     * Same as buildUri, but with an ID tacked on the end (REST style).
+     *
+     * @param path          URL fragment
+     * @param id            ID to append, may be null
+     * @return a UriBuilder
+     */
+    protected UriBuilder buildUri(final String path, final String id)
+    {
+        UriBuilder builder = buildUri(path);
+
+        if(id != null) {
+            builder.path(id);
+        }
+
+        return builder;
+    }
+
+    /**
+     * Run a request and return the response body, retrying according
+     * to the RetryPolicy and going through the shared CircuitBreaker
+     * and UcbThrottle.
+     * If UCB is down, this will block until it comes back (or the
+     * breaker gives up on it).
+     *
+     * @param request       The request to run
+     * @param failMessage   Message prefix on a non-2xx response; the
+     *                      response code will be appended to it.
+     * @param idempotent    Is it safe to send this twice?
+     * @return the response body, empty string if there isn't one
+     * @throws MigrateException on a non-2xx response
+     * @throws IOException on transport errors
+     */
+    protected String execute(final HttpRequestBase request,
+                             final String failMessage,
+                             final boolean idempotent)
+              throws MigrateException, IOException
+    {
+        return execute(request, failMessage, idempotent, TO_STRING);
+    }
+
+    /**
+     * Like execute above, but the body is handed to a BodyReader while
+     * the response is still open, instead of being read into a String
+     * first.  For big pages we only want bits of.
+     *
+     * If the request is retried, the reader will see the body again
+     * from the start, so it must be OK with that.
+     *
+     * @param request       The request to run
+     * @param failMessage   Message prefix on a non-2xx response
+     * @param idempotent    Is it safe to send this twice?
+     * @param reader        What to do with the body
+     * @return whatever the reader returns
+     * @throws MigrateException on a non-2xx response
+     * @throws IOException on transport errors
+     */
+    protected <T> T execute(final HttpRequestBase request,
+                            final String failMessage,
+                            final boolean idempotent,
+                            final BodyReader<T> reader)
+              throws MigrateException, IOException
+    {
+        // Planning?  Then writes only get written down.
+        String recorded = UcbRecorder.intercept(request);
+
+        if(recorded != null) {
+            return reader.read(new StringEntity(recorded,
+                                                ContentType.TEXT_PLAIN));
+        }
+
+        RetryPolicy policy = RetryPolicy.getDefault();
+        CircuitBreaker breaker = CircuitBreaker.getShared();
+
+        for(int attempt = 1; ; attempt++) {
+            breaker.acquire();
+
+            // Per try, so a request waiting to retry doesn't hold a
+            // slot.
+            UcbThrottle.Permit permit = UcbThrottle.acquire();
+            long start = System.currentTimeMillis();
+
+            try {
+                T ret = executeOnce(request, failMessage, reader);
+                UcbLoadMonitor.record(System.currentTimeMillis() - start,
+                                      false
+                );
+                breaker.recordSuccess();
+                return ret;
+            } catch(UcbHttpException | IOException e) {
+                boolean ucbFailure = RetryPolicy.isUcbFailure(e);
+
+                UcbLoadMonitor.record(System.currentTimeMillis() - start,
+                                      ucbFailure
+                );
+
+                if(ucbFailure) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess(); // it answered, at least
+                }
+
+                if(!policy.shouldRetry(e, idempotent, attempt)) {
+                    throw e;
+                }
+
+                LOG.warn("{} {} failed (attempt {} of {}), retrying: {}",
+                         request.getMethod(), request.getURI(), attempt,
+                         policy.getMaxAttempts(), e.getMessage()
+                );
+            } catch(MigrateException e) {
+                // UCB answered fine; it's the BodyReader that failed.
+                UcbLoadMonitor.record(System.currentTimeMillis() - start,
+                                      false
+                );
+                breaker.recordSuccess();
+                throw e;
+            } catch(RuntimeException e) {
+                // Don't leave the breaker hanging if we were the probe
+                breaker.recordFailure();
+                throw e;
+            } finally {
+                permit.close();
+            }
+
+            request.reset();
+            policy.pause(attempt);
+        }
+    }
+
+    /*
+     * One try at a request.  The response is always fully consumed and
+     * closed, which is what returns the connection to the pool.
+     *
+     * Uses the shared connection pool if it is configured, otherwise
+     * HttpHelper's client like we always used to.
+     */
+    private <T> T executeOnce(final HttpRequestBase request,
+                              final String failMessage,
+                              final BodyReader<T> reader)
+            throws MigrateException, IOException
+    {
+        CloseableHttpClient client = UcbConnectionPool.getClient();
+
+        if(client == null) {
+            client = getDefaultHttpClient();
+        } else {
+            request.setHeader("Authorization",
+                              UcbConnectionPool.getAuthHeader()
+            );
+        }
+
+        // UCB has just enough CSRF protection to be annoying,
+        // not enough to really be any use.
+        request.setHeader("Referer", request.getURI().toString());
+
+        long start = System.currentTimeMillis();
+        long out = -1;
+        CountingEntity entity = null;
+        int responseCode = 0;
+        boolean ok = false;
+
+        if((request instanceof HttpEntityEnclosingRequest) &&
+           (((HttpEntityEnclosingRequest)request).getEntity() != null)) {
+            out = ((HttpEntityEnclosingRequest)request).getEntity()
+                                                       .getContentLength();
+        }
+
+        try(CloseableHttpResponse response = client.execute(request)) {
+            if(response.getEntity() != null) {
+                entity = new CountingEntity(response.getEntity());
+            }
+
+            // There is an inexplicably private 'isGoodResponseCode'
+            // method.  Fortunately, its easy to replicate
+            responseCode = response.getStatusLine().getStatusCode();
+
+            if((responseCode < 200) || (responseCode >= 300)) {
+                EntityUtils.consume(entity);
+
+                Header location = response.getFirstHeader("Location");
+
+                throw new UcbHttpException(failMessage + responseCode,
+                                           responseCode,
+                                           (location == null) ?
+                                                null : location.getValue()
+                );
+            }
+
+            try {
+                T ret = reader.read(entity);
+                ok = true;
+                return ret;
+            } finally {
+                // Whatever the reader left, so the connection can be
+                // re-used.
+                EntityUtils.consume(entity);
+            }
+        } finally {
+            // execute throws on a 3xx like anything else, but
+            // sendRawPostForId reads it as the answer, so it isn't
+            // counted as an error here.
+            boolean error = !ok && ((responseCode < 300) ||
+                                    (responseCode >= 400));
+
+            UcbMetrics.record(request.getMethod(), request.getURI().getPath(),
+                              System.currentTimeMillis() - start, out,
+                              (entity == null) ? -1 : entity.count, error
+            );
+        }
+    }
+
+    /*
+     * Counts the bytes of a response as they're read, for UcbMetrics.
+     * Content-Length isn't always there.
+     */
+    private static class CountingEntity extends HttpEntityWrapper
+    {
+        private long    count = 0;
+
+        private CountingEntity(final HttpEntity entity)
+        {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException
+                {
+                    int ret = super.read();
+
+                    if(ret >= 0) {
+                        count++;
+                    }
+
+                    return ret;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len)
+                       throws IOException
+                {
+                    int ret = super.read(b, off, len);
+
+                    if(ret > 0) {
+                        count += ret;
+                    }
+
+                    return ret;
+                }
+            };
+        }
+    }
 
     /**
      * Convert a JSONArray to an array of JSONObject
@@ -362,9 +1002,7 @@ public class UcbClient extends HttpHelper
     {
         try {
             // Re-used logic from sendRawPost, but tweaked for GET structure
-            Login login = Login.getCurrentLogin();
-            UriBuilder builder =  UriBuilder.fromPath(login.getBaseUrl())
-                                            .path(url);
+            UriBuilder builder = buildUri(url);
 
             if(params != null) {
                 for(Map.Entry<String, String> ent : params.entrySet()) {
@@ -374,29 +1012,10 @@ public class UcbClient extends HttpHelper
 
             String getUrl = builder.build(new Object[0]).toString();
 
-            HttpGet getMethod = new HttpGet(getUrl);
-
-            try {
-                getMethod.setHeader("Referer", getUrl); // CSRF
-                CloseableHttpClient client = getDefaultHttpClient();
-                HttpResponse response = client.execute(getMethod);
-
-                int responseCode = response.getStatusLine().getStatusCode();
-
-                if((responseCode < 200) || (responseCode >= 300)) {
-                    // failed
-                    throw new MigrateException(
-                        "GET to " + getUrl + " failed with response " +
-                        responseCode
-                    );
-                }
-
-                // Get the Content
-                InputStream content = response.getEntity().getContent();
-                return IO.readText(content, "UTF-8");
-            } finally {
-                getMethod.releaseConnection();
-            }
+            return execute(new HttpGet(getUrl),
+                           "GET to " + getUrl + " failed with response ",
+                           true
+            );
         } catch(IOException e) {
             throw new MigrateException("Error while communicating with UCB", e);
         }
@@ -418,14 +1037,20 @@ public class UcbClient extends HttpHelper
      * @return a CID string
      * @throws MigrateException on any failure, including cannot find CID.
      *
-     * NOTE: I'm not sure if CIDs can be use multi-threaded.  So, the
-     *       cidLock object is public for synch purposes.
+     * NOTE: I'm not sure if CIDs can be use multi-threaded.  So, fetch
+     *       them through a CidSession, which keeps conversations about
+     *       the same thing from overlapping.
      */
     private static final Pattern cidPattern = Pattern.compile("cid=(\\d+)");
-    public static final Object cidLock = new Object();
     public String getCIDFromGet(final String url, Map<String, String> params)
            throws MigrateException
     {
+        String recorded = UcbRecorder.interceptCid();
+
+        if(recorded != null) {
+            return recorded;
+        }
+
         // Find the CID
         Matcher cidMatch = cidPattern.matcher(sendRawGet(url, params));
 
@@ -462,15 +1087,161 @@ public class UcbClient extends HttpHelper
                                               Map<String, String> params)
            throws MigrateException
     {
-        Pattern toHarvest = Pattern.compile(pattern);
-        Map<String, String> ret = new HashMap<>();
+        final Map<String, String> ret = new HashMap<>();
+
+        harvestPattern(pattern, params, new HtmlHarvester.Sink() {
+            public boolean found(String id, String name)
+            {
+                ret.put(name, id);
+                return true;
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * Find one thing's ID on a list page by name, reading no further
+     * than it.  For when we need one ID and don't want the whole map.
+     *
+     * @param pattern       Our pattern, as for harvestPattern
+     * @param name          The name to look for
+     * @return its ID, or null if it isn't there.
+     * @throws MigrateException on any failure.
+     */
+    public String harvestId(final String pattern, final String name)
+           throws MigrateException
+    {
+        final String[] ret = new String[1];
+
+        harvestPattern(pattern, null, new HtmlHarvester.Sink() {
+            public boolean found(String id, String found)
+            {
+                if(name.equals(found)) {
+                    ret[0] = id;
+                    return false;
+                }
+
+                return true;
+            }
+        });
+
+        return ret[0];
+    }
+
+    /**
+     * Same as above, but each match goes to a sink as soon as it comes
+     * in over the wire, and the page is never held in memory whole.
+     * See HtmlHarvester.
+     *
+     * If the GET has to be retried, the sink will see the page again
+     * from the start, so it may be told about the same entry twice.
+     * Putting things in a map, that doesn't matter.
+     *
+     * @param pattern       Our pattern, should have 2 groups in it
+     * @param params        Parameters to pass to the GET, may be null.
+     * @param sink          Told about each match
+     * @return how many matches there were
+     * @throws MigrateException on any failure.
+     */
+    public int harvestPattern(final String pattern,
+                              Map<String, String> params,
+                              final HtmlHarvester.Sink sink)
+           throws MigrateException
+    {
+        final Pattern toHarvest = HtmlHarvester.compile(pattern);
+
+        try {
+            UriBuilder builder = buildUri(this.url);
+
+            if(params != null) {
+                for(Map.Entry<String, String> ent : params.entrySet()) {
+                    builder.queryParam(ent.getKey(), ent.getValue());
+                }
+            }
 
-        Matcher matches = toHarvest.matcher(sendRawGet(this.url, params));
+            String getUrl = builder.build(new Object[0]).toString();
 
-        while(matches.find()) {
-            ret.put(matches.group(2), matches.group(1));
+            return execute(new HttpGet(getUrl),
+                           "GET to " + getUrl + " failed with response ",
+                           true,
+                           new BodyReader<Integer>() {
+                               public Integer read(HttpEntity entity)
+                                      throws IOException
+                               {
+                                   if(entity == null) {
+                                       return 0;
+                                   }
+
+                                   try(Reader in = new InputStreamReader(
+                                                    entity.getContent(),
+                                                    charsetOf(entity))) {
+                                       return HtmlHarvester.harvest(in,
+                                                                    toHarvest,
+                                                                    sink);
+                                   }
+                               }
+                           }
+            );
+        } catch(IOException e) {
+            throw new MigrateException("Error while communicating with UCB", e);
         }
+    }
 
-        return ret;
+    /*
+     * The response's charset, or UTF-8 if it doesn't say, which is
+     * what we always assumed before.
+     */
+    private static Charset charsetOf(final HttpEntity entity)
+    {
+        Charset ret = ContentType.getOrDefault(entity).getCharset();
+
+        return (ret == null) ? Charset.forName("UTF-8") : ret;
     }
+
+    /**
+     * Does something with a response body while the response is still
+     * open.  See execute.
+     */
+    protected static interface BodyReader<T>
+    {
+        /**
+         * @param entity        The body, may be null if there isn't one
+         * @return whatever you like
+         * @throws IOException if reading it fails
+         * @throws MigrateException if what was read is no good.  This
+         *         is not retried.
+         */
+        public T read(HttpEntity entity)
+               throws IOException, MigrateException;
+    }
+
+    /**
+     * Gets each object of an array; see sendGetVisitArray.
+     */
+    public static interface JsonVisitor
+    {
+        /**
+         * @param obj           The next object
+         * @return true to keep going, false to stop here
+         * @throws Exception on any failure; MigrateExceptions go
+         *         through as is, anything else is wrapped.
+         */
+        public boolean visit(JSONObject obj) throws Exception;
+    }
+
+    /*
+     * The old behaviour: the whole body as a String.
+     */
+    private static final BodyReader<String> TO_STRING =
+                                            new BodyReader<String>() {
+        public String read(HttpEntity entity) throws IOException
+        {
+            if(entity == null) {
+                return "";
+            }
+
+            return EntityUtils.toString(entity, "UTF-8");
+        }
+    };
 }
@@ -0,0 +1,337 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbConnectionPool.java
+ *
+ * HttpHelper's getDefaultHttpClient hands out a fresh client every
+ * time, which means a new connection (and, for https, a new TLS
+ * handshake) for every single call we make.  With 20+ migration
+ * threads hammering UCB that adds up to a lot of wall clock.
+ *
+ * This is a process-wide pool of keep-alive connections that UcbClient
+ * runs its requests through instead.  It has to be configured with
+ * the UCB credentials (MigrateEngine does that right after login)
+ * because we no longer get to borrow HttpHelper's client; until then
+ * UcbClient just falls back to the old HttpHelper behavior.
+ *
+ * Limits can be set from system properties or changed at runtime:
+ *
+ * ucb.pool.maxTotal        - max connections overall (default 50)
+ * ucb.pool.maxPerRoute     - max connections to UCB (default 20)
+ * ucb.pool.keepAlive       - seconds to keep an idle connection when
+ *                            the server doesn't say (default 30)
+ * ucb.pool.idleTimeout     - seconds before idle connections are
+ *                            evicted (default 60)
+ * ucb.pool.connectTimeout  - connect timeout in ms (default 30000)
+ * ucb.pool.socketTimeout   - read timeout in ms (default 300000); a
+ *                            hung read is a failure we can retry, a
+ *                            hung thread is not.
+ *
+ * Pretty much everything goes to one route (the UCB server) so
+ * maxPerRoute is the number that matters.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbConnectionPool
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(UcbConnectionPool.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Defaults, overridable by system property.
+     */
+    public static final int DEFAULT_MAX_TOTAL = 50;
+    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+    public static final int DEFAULT_KEEP_ALIVE = 30;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60;
+
+    /*
+     * How often the evictor wakes up, in milliseconds.
+     */
+    private static final long EVICT_INTERVAL = 5000;
+
+    /*
+     * The pool and the client that sits on top of it.  Both are
+     * created lazily by configure and are shared by all threads.
+     */
+    private static PoolingHttpClientConnectionManager  manager = null;
+    private static CloseableHttpClient                 client = null;
+    private static Thread                              evictor = null;
+
+    /*
+     * What the client uses by default, so a request that needs one
+     * thing different can start from it.
+     */
+    private static RequestConfig                       requestConfig = null;
+
+    /*
+     * Preemptive basic auth header; we send it with every request
+     * so we don't pay for a 401 round trip each time.
+     */
+    private static String   authHeader = null;
+
+    private static int      keepAlive =
+                            Integer.getInteger("ucb.pool.keepAlive",
+                                               DEFAULT_KEEP_ALIVE);
+    private static int      idleTimeout =
+                            Integer.getInteger("ucb.pool.idleTimeout",
+                                               DEFAULT_IDLE_TIMEOUT);
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Set up the pool with UCB credentials.  Safe to call more than
+     * once; the pool itself is only built the first time, later calls
+     * just swap the credentials.
+     *
+     * @param user          UCB user name
+     * @param password      UCB password
+     */
+    public static synchronized void configure(final String user,
+                                              final String password)
+    {
+        String creds = user + ":" + password;
+
+        authHeader = "Basic " + Base64.encodeBase64String(
+                                    creds.getBytes(Charset.forName("UTF-8"))
+        );
+
+        if(manager != null) {
+            return;
+        }
+
+        manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(Integer.getInteger("ucb.pool.maxTotal",
+                                               DEFAULT_MAX_TOTAL)
+        );
+        manager.setDefaultMaxPerRoute(
+            Integer.getInteger("ucb.pool.maxPerRoute",
+                               DEFAULT_MAX_PER_ROUTE)
+        );
+
+        // Honor the server's Keep-Alive header if it sends one,
+        // otherwise use our own default rather than "forever".
+        ConnectionKeepAliveStrategy keepAliveStrategy =
+            new DefaultConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(HttpResponse response,
+                                                 HttpContext context)
+                {
+                    long duration = super.getKeepAliveDuration(response,
+                                                               context);
+
+                    if(duration < 0) {
+                        return keepAlive * 1000L;
+                    }
+
+                    return duration;
+                }
+        };
+
+        requestConfig = RequestConfig.custom()
+            .setConnectTimeout(Integer.getInteger("ucb.pool.connectTimeout",
+                                                  30000))
+            .setSocketTimeout(Integer.getInteger("ucb.pool.socketTimeout",
+                                                 300000))
+            .build();
+
+        // Cookies are disabled to match what HttpHelper gave us -- a
+        // fresh client per call never carried session state, and I
+        // don't want threads sharing one by accident.
+        client = HttpClients.custom()
+                            .setConnectionManager(manager)
+                            .setDefaultRequestConfig(requestConfig)
+                            .setKeepAliveStrategy(keepAliveStrategy)
+                            .disableCookieManagement()
+                            .build();
+
+        evictor = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                evictLoop();
+            }
+        }, "ucb-pool-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+
+        LOG.debug("Created UCB connection pool: {}", getStats());
+    }
+
+    /**
+     * @return true if configure has been called.
+     */
+    public static synchronized boolean isConfigured()
+    {
+        return client != null;
+    }
+
+    /**
+     * @return the shared client, or null if not configured.
+     */
+    public static synchronized CloseableHttpClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * @return the client's default request settings (timeouts), or
+     *         null if not configured.
+     */
+    public static synchronized RequestConfig getRequestConfig()
+    {
+        return requestConfig;
+    }
+
+    /**
+     * @return the Authorization header value, or null if not configured.
+     */
+    public static synchronized String getAuthHeader()
+    {
+        return authHeader;
+    }
+
+    /**
+     * Change the overall connection limit.
+     *
+     * @param max           New limit, must be > 0
+     */
+    public static synchronized void setMaxTotal(int max)
+    {
+        if(max <= 0) {
+            throw new IllegalArgumentException("maxTotal must be > 0");
+        }
+
+        if(manager != null) {
+            manager.setMaxTotal(max);
+        }
+    }
+
+    /**
+     * Change the per-route connection limit.
+     *
+     * @param max           New limit, must be > 0
+     */
+    public static synchronized void setMaxPerRoute(int max)
+    {
+        if(max <= 0) {
+            throw new IllegalArgumentException("maxPerRoute must be > 0");
+        }
+
+        if(manager != null) {
+            manager.setDefaultMaxPerRoute(max);
+
+            // no point having a route limit above the total
+            if(manager.getMaxTotal() < max) {
+                manager.setMaxTotal(max);
+            }
+        }
+    }
+
+    /**
+     * Make sure there's at least one connection per worker thread
+     * available, so threads aren't waiting on each other for a socket.
+     * This only ever grows the pool.
+     *
+     * @param threads       Number of threads that will be using UCB
+     */
+    public static synchronized void ensureCapacity(int threads)
+    {
+        if((manager != null) &&
+           (manager.getDefaultMaxPerRoute() < threads)) {
+            LOG.info("Growing UCB connection pool to {} per route", threads);
+            setMaxPerRoute(threads);
+        }
+    }
+
+    /**
+     * Get pool statistics -- leased, available, pending and max.
+     * Pending > 0 means threads are waiting on a connection and
+     * the pool is too small for the thread count.
+     *
+     * @return PoolStats or null if not configured.
+     */
+    public static synchronized PoolStats getStats()
+    {
+        if(manager == null) {
+            return null;
+        }
+
+        return manager.getTotalStats();
+    }
+
+    /**
+     * Shut the pool down.  A later configure will build a new one.
+     */
+    public static synchronized void shutdown()
+    {
+        if(manager == null) {
+            return;
+        }
+
+        LOG.debug("Shutting down UCB connection pool: {}", getStats());
+
+        evictor.interrupt();
+
+        try {
+            client.close();
+        } catch(Exception e) {
+            LOG.warn("Error closing UCB client", e);
+        }
+
+        manager.shutdown();
+
+        evictor = null;
+        client = null;
+        manager = null;
+    }
+
+    /*
+     * Periodically throw away expired and idle connections so we
+     * don't try to reuse something the server (or a firewall) has
+     * already dropped.
+     */
+    private static void evictLoop()
+    {
+        while(!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(EVICT_INTERVAL);
+            } catch(InterruptedException e) {
+                return;
+            }
+
+            synchronized(UcbConnectionPool.class) {
+                if(manager == null) {
+                    return;
+                }
+
+                manager.closeExpiredConnections();
+                manager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
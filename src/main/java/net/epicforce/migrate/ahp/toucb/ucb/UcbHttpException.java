@@ -0,0 +1,65 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/**
+ * UcbHttpException
+ *
+ * UCB answered, but not with a 2xx.  Carries the response code so
+ * the retry logic (and anyone else who cares) doesn't have to pick
+ * it out of the message.
+ *
+ * The message still ends with the response code, because there's
+ * code out there doing e.getMessage().endsWith("302").
+ *
+ * For redirects, the Location header comes along too, since that's
+ * where the old style forms tell us what they just made.
+ *
+ * @author sconley
+ */
+
+public class UcbHttpException extends UcbException
+{
+    private final int statusCode;
+    private final String location;
+
+    public UcbHttpException(final String msg, final int statusCode)
+    {
+        this(msg, statusCode, null);
+    }
+
+    public UcbHttpException(final String msg, final int statusCode,
+                            final String location)
+    {
+        super(msg);
+        this.statusCode = statusCode;
+        this.location = location;
+    }
+
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * @return the Location header, or null if there wasn't one.
+     */
+    public String getLocation()
+    {
+        return location;
+    }
+
+    /**
+     * @return true if this is a redirect (3xx).
+     */
+    public boolean isRedirect()
+    {
+        return (statusCode >= 300) && (statusCode < 400);
+    }
+
+    /**
+     * @return true if this is the server's fault (5xx) rather than ours.
+     */
+    public boolean isServerError()
+    {
+        return (statusCode >= 500) && (statusCode < 600);
+    }
+}
@@ -0,0 +1,438 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbImport.java
+ *
+ * One document for UCB's XML importer (Urls.UTIL_IMPORT), built up a
+ * piece at a time and PUT in one go.
+ *
+ * A workflow can mean dozens of steps, each its own create call.
+ * With ucb.import=true (system property, default false) the
+ * load stage collects the ones that can be imported into one of these
+ * and sends them as a single request instead.  See ImportableOp and
+ * WorkflowSnapshot.load.
+ *
+ * The importer is undocumented, so this is off by default and fails
+ * safe: if UCB turns the document down with a 4xx, nothing was made,
+ * the same things are made the old way one call at a time, and
+ * importing is switched off for the rest of the run so we don't keep
+ * asking.  Any other failure is a failure like any other call.
+ *
+ * UCB taking a document doesn't mean it understood all of it, since
+ * the layout below is our best guess.  So once a document is taken,
+ * each op checks that what it asked for is really there (see lookup,
+ * which fetches each list once per document), field by field against
+ * what the one-call-at-a-time create would have sent (see matches).
+ * Anything that isn't, or that came out different, is made the old
+ * way, and importing is switched off the same as if the document had
+ * been turned down.
+ *
+ * The document is a flat list of objects, in the order they were
+ * added, since later ones can refer to earlier ones:
+ *
+ *     <import>
+ *       <step job="123" name="Build" type="Build/Build Tools/Ant/Ant"
+ *             index="2" ...>
+ *         <description>...</description>
+ *         <property name="...">...</property>
+ *       </step>
+ *     </import>
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbImport
+{
+    private final static Logger LOG = LoggerFactory.getLogger(UcbImport.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final boolean        wanted = Boolean.parseBoolean(
+                                    System.getProperty("ucb.import", "false")
+    );
+
+    /*
+     * Set the first time UCB turns a document down.
+     */
+    private static final AtomicBoolean  rejected = new AtomicBoolean(false);
+
+    /*
+     * Metrics: documents sent, objects in them, and objects that had
+     * to go the old way after all.
+     */
+    private static final AtomicLong     sent = new AtomicLong();
+    private static final AtomicLong     imported = new AtomicLong();
+    private static final AtomicLong     fellBack = new AtomicLong();
+
+    private final List<Entry>           objects = new ArrayList<>();
+
+    /*
+     * Lists fetched to check the last document sent, by URL.
+     */
+    private final Map<String, JSONObject[]>     checked = new HashMap<>();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * One object in the document.  Fill it in with the chained
+     * methods.
+     */
+    public static class Entry
+    {
+        private final String                    type;
+        private final Map<String, String>       attributes =
+                                                new LinkedHashMap<>();
+        private final Map<String, String>       elements =
+                                                new LinkedHashMap<>();
+        private final Map<String, String>       properties =
+                                                new LinkedHashMap<>();
+
+        private Entry(final String type)
+        {
+            this.type = type;
+        }
+
+        /**
+         * Set an attribute; nulls are left out.
+         */
+        public Entry attribute(final String name, final Object value)
+        {
+            if(value != null) {
+                attributes.put(name, String.valueOf(value));
+            }
+
+            return this;
+        }
+
+        /**
+         * Add a child element with text in it; nulls are left out.
+         */
+        public Entry element(final String name, final String value)
+        {
+            if(value != null) {
+                elements.put(name, value);
+            }
+
+            return this;
+        }
+
+        /**
+         * Add a property (name / value child element).
+         */
+        public Entry property(final String name, final String value)
+        {
+            properties.put(name, (value == null) ? "" : value);
+            return this;
+        }
+
+        private void write(final StringBuilder sb)
+        {
+            sb.append("  <").append(type);
+
+            for(Map.Entry<String, String> a : attributes.entrySet()) {
+                sb.append(' ').append(a.getKey()).append("=\"");
+                escape(sb, a.getValue());
+                sb.append('"');
+            }
+
+            sb.append(">\n");
+
+            for(Map.Entry<String, String> e : elements.entrySet()) {
+                sb.append("    <").append(e.getKey()).append('>');
+                escape(sb, e.getValue());
+                sb.append("</").append(e.getKey()).append(">\n");
+            }
+
+            for(Map.Entry<String, String> p : properties.entrySet()) {
+                sb.append("    <property name=\"");
+                escape(sb, p.getKey());
+                sb.append("\">");
+                escape(sb, p.getValue());
+                sb.append("</property>\n");
+            }
+
+            sb.append("  </").append(type).append(">\n");
+        }
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    /**
+     * @return true if we should be importing: it was asked for, and
+     *         UCB hasn't turned us down yet.
+     */
+    public static boolean isEnabled()
+    {
+        return wanted && !rejected.get();
+    }
+
+    /**
+     * @return objects added so far
+     */
+    public int size()
+    {
+        return objects.size();
+    }
+
+    /**
+     * @return one line of import counts, for the logs.
+     */
+    public static String getStats()
+    {
+        return "documents(" + sent.get() + ") imported(" + imported.get() +
+               ") fell back(" + fellBack.get() + ")" +
+               (rejected.get() ? " rejected" : "");
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Add an object to the end of the document.
+     *
+     * @param type          Element name, like "step"
+     * @return the new object, to fill in
+     */
+    public Entry add(final String type)
+    {
+        Entry ret = new Entry(type);
+        objects.add(ret);
+        return ret;
+    }
+
+    /**
+     * @return the document as XML
+     */
+    public String toXml()
+    {
+        StringBuilder sb = new StringBuilder(256 * (objects.size() + 1));
+
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<import>\n");
+
+        for(Entry e : objects) {
+            e.write(sb);
+        }
+
+        sb.append("</import>\n");
+        return sb.toString();
+    }
+
+    /**
+     * PUT the document to UCB and empty it.  Not retried, since a
+     * document that got through once would make everything twice.
+     *
+     * @return true if UCB took it.  False if UCB turned it down,
+     *         in which case nothing was made and the caller should
+     *         make the same things the old way.
+     * @throws MigrateException on any other failure
+     */
+    public boolean send() throws MigrateException
+    {
+        if(objects.isEmpty()) {
+            return true;
+        }
+
+        int count = objects.size();
+        String xml = toXml();
+
+        objects.clear();
+        checked.clear();
+
+        try {
+            new UcbClient(Urls.UTIL_IMPORT).sendXmlPut(xml);
+        } catch(UcbHttpException e) {
+            if((e.getStatusCode() < 400) || (e.getStatusCode() >= 500)) {
+                throw e;
+            }
+
+            if(rejected.compareAndSet(false, true)) {
+                LOG.warn("UCB would not take an import ({}), making " +
+                         "things one call at a time from now on",
+                         e.getMessage()
+                );
+            }
+
+            fellBack.addAndGet(count);
+            return false;
+        } catch(IOException e) {
+            throw new MigrateException("Error while communicating with UCB", e);
+        }
+
+        sent.incrementAndGet();
+        imported.addAndGet(count);
+        return true;
+    }
+
+    /**
+     * GET a list from UCB, once per document sent, so ops can check
+     * what they asked for was made.
+     *
+     * @param url           List URL, like /rest2/jobs/123/steps
+     * @return what's there now
+     * @throws MigrateException on any failure
+     */
+    public JSONObject[] lookup(final String url) throws MigrateException
+    {
+        JSONObject[] ret = checked.get(url);
+
+        if(ret == null) {
+            ret = new UcbClient(url).getAll();
+            checked.put(url, ret);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Check something read back from UCB has everything in what we'd
+     * have sent to create it.  Extra fields in what's there are fine
+     * (UCB adds its own); missing or different ones aren't.  The id
+     * is never compared, since we don't know it until it's made.
+     *
+     * Values are compared as strings, since UCB hands back "true" and
+     * 5 for things we sent as true and "5" and the other way around.
+     * Arrays are compared without regard to order, since properties
+     * go out in whatever order a HashMap likes.
+     *
+     * @param want          What the create call would send
+     * @param made          What UCB has
+     * @return true if made has everything in want
+     */
+    public static boolean matches(final JSONObject want,
+                                  final JSONObject made)
+    {
+        Iterator<?> keys = want.keys();
+
+        while(keys.hasNext()) {
+            String key = String.valueOf(keys.next());
+
+            if("id".equals(key)) {
+                continue;
+            }
+
+            if(!made.has(key) ||
+               !matches(want.opt(key), made.opt(key))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * matches, for any one value.
+     */
+    private static boolean matches(final Object want, final Object made)
+    {
+        if(want instanceof JSONObject) {
+            return (made instanceof JSONObject) &&
+                   matches((JSONObject)want, (JSONObject)made);
+        }
+
+        if(want instanceof JSONArray) {
+            if(!(made instanceof JSONArray)) {
+                return false;
+            }
+
+            JSONArray w = (JSONArray)want;
+            JSONArray m = (JSONArray)made;
+
+            if(w.length() != m.length()) {
+                return false;
+            }
+
+            for(int i = 0; i < w.length(); i++) {
+                boolean found = false;
+
+                for(int j = 0; (j < m.length()) && !found; j++) {
+                    found = matches(w.opt(i), m.opt(j));
+                }
+
+                if(!found) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        return String.valueOf(want).equals(String.valueOf(made));
+    }
+
+    /**
+     * Something in the last document sent wasn't made after all, and
+     * is being made the old way.  Importing is switched off from here
+     * on, since UCB evidently doesn't understand what we send it.
+     */
+    public void missing()
+    {
+        imported.decrementAndGet();
+        fellBack.incrementAndGet();
+
+        if(rejected.compareAndSet(false, true)) {
+            LOG.warn("UCB took an import but didn't make everything in " +
+                     "it, making things one call at a time from now on"
+            );
+        }
+    }
+
+    /*
+     * Escape for XML text and attributes.  Control characters XML
+     * can't carry at all are dropped.
+     */
+    private static void escape(final StringBuilder sb, final String s)
+    {
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            switch(c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\n':
+                case '\r':
+                case '\t':
+                    sb.append("&#").append((int)c).append(';');
+                    break;
+                default:
+                    if(c >= 0x20) {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbLoadMonitor.java
+ *
+ * Keeps running totals of how UCB is treating us -- how many calls,
+ * how long they took, how many failed.  UcbClient feeds every request
+ * into this, and whoever is interested (the adaptive concurrency
+ * controller, mostly) drains a window of it now and then.
+ *
+ * Counters are plain atomics so recording is cheap; a window is
+ * whatever piled up since the last drain.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UcbLoadMonitor
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final AtomicLong calls = new AtomicLong();
+    private static final AtomicLong errors = new AtomicLong();
+    private static final AtomicLong totalMillis = new AtomicLong();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * What happened in one window.
+     */
+    public static class Window
+    {
+        public final long   calls;
+        public final long   errors;
+        public final long   totalMillis;
+
+        public Window(long calls, long errors, long totalMillis)
+        {
+            this.calls = calls;
+            this.errors = errors;
+            this.totalMillis = totalMillis;
+        }
+
+        /**
+         * @return average latency in ms, or 0 if no calls
+         */
+        public double getMeanLatency()
+        {
+            if(calls == 0) {
+                return 0;
+            }
+
+            return (double)totalMillis / calls;
+        }
+
+        /**
+         * @return fraction of calls that failed, 0 to 1
+         */
+        public double getErrorRate()
+        {
+            if(calls == 0) {
+                return 0;
+            }
+
+            return (double)errors / calls;
+        }
+
+        public String toString()
+        {
+            return "calls(" + calls + ") errors(" + errors + ") " +
+                   "meanLatency(" + Math.round(getMeanLatency()) + "ms)";
+        }
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Record one call to UCB.
+     *
+     * @param millis        How long it took
+     * @param failed        Was it a UCB-side failure (5xx, transport)?
+     */
+    public static void record(long millis, boolean failed)
+    {
+        calls.incrementAndGet();
+        totalMillis.addAndGet(millis);
+
+        if(failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Take everything recorded since the last drain and reset.
+     *
+     * The three counters aren't reset atomically together, so a call
+     * recorded during a drain may land partly in each window.  For
+     * the averages we're after, that doesn't matter.
+     *
+     * @return the window
+     */
+    public static Window drain()
+    {
+        return new Window(calls.getAndSet(0), errors.getAndSet(0),
+                          totalMillis.getAndSet(0)
+        );
+    }
+}
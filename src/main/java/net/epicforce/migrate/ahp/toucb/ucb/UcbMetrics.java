@@ -0,0 +1,475 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbMetrics.java
+ *
+ * Per endpoint numbers for UCB traffic, so we can see which calls
+ * are the slow ones: count, errors, bytes each way, and a latency
+ * histogram good for p50 / p95 / p99.
+ *
+ * UcbClient records every try of every request here, which covers
+ * the "fixed" UCB client classes too since they go through it.
+ * Calls through the UCB client's Factories are recorded by the
+ * wrapper UcbThrottle puts on them, by factory and method name.
+ *
+ * Endpoints are keyed by method and URL path with the IDs taken out,
+ * so every step PUT lands in one place:
+ *
+ *     PUT /rest2/jobs/{id}/steps/{id}
+ *     factory TemplateFactory.getTemplateByName
+ *
+ * The histogram has fixed buckets, roughly 1-2-3-5-7 per power of
+ * ten from 1ms to a minute, so percentiles are the top of the bucket
+ * they fall in.  That's coarse, but recording is just a couple of
+ * atomic increments.
+ *
+ * The numbers are on JMX (see UcbMetricsMBean) and, while a migration
+ * is running, logged every ucb.metrics.logInterval seconds (system
+ * property, default 300; 0 to turn it off).
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbMetrics
+{
+    private final static Logger LOG = LoggerFactory.getLogger(UcbMetrics.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    /*
+     * Top of each histogram bucket, in ms.  Anything slower goes in
+     * one last bucket.
+     */
+    private static final long[]     BOUNDS = { 1, 2, 3, 5, 7, 10, 20, 30,
+                                               50, 70, 100, 200, 300, 500,
+                                               700, 1000, 2000, 3000, 5000,
+                                               7000, 10000, 20000, 30000,
+                                               60000 };
+
+    /*
+     * Path segments that are IDs: numbers (including UCB's negative
+     * built-in ones) and UUIDs.
+     */
+    private static final Pattern    ID_SEGMENT = Pattern.compile(
+                        "/(-?\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F-]{27})(?=/|$)");
+
+    private static final String     JMX_NAME =
+                            "net.epicforce.migrate.ahp.toucb:type=UcbMetrics";
+
+    private static final long       logInterval =
+                                Long.getLong("ucb.metrics.logInterval", 300L);
+
+    private static final ConcurrentHashMap<String, Endpoint>  endpoints =
+                                    new ConcurrentHashMap<String, Endpoint>();
+
+    private static ScheduledExecutorService     ticker = null;
+    private static boolean                      registered = false;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * Numbers for one endpoint.
+     */
+    public static class Endpoint
+    {
+        private final String            name;
+        private final AtomicLongArray   buckets =
+                                    new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong        calls = new AtomicLong();
+        private final AtomicLong        errors = new AtomicLong();
+        private final AtomicLong        totalMillis = new AtomicLong();
+        private final AtomicLong        maxMillis = new AtomicLong();
+        private final AtomicLong        bytesOut = new AtomicLong();
+        private final AtomicLong        bytesIn = new AtomicLong();
+
+        private Endpoint(final String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCalls()
+        {
+            return calls.get();
+        }
+
+        public long getErrors()
+        {
+            return errors.get();
+        }
+
+        public long getTotalMillis()
+        {
+            return totalMillis.get();
+        }
+
+        public long getBytesOut()
+        {
+            return bytesOut.get();
+        }
+
+        public long getBytesIn()
+        {
+            return bytesIn.get();
+        }
+
+        /**
+         * @param p         Percentile, like 0.95
+         * @return the top of the bucket it falls in, in ms
+         */
+        public long getPercentile(double p)
+        {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+
+            for(int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+
+            if(total == 0) {
+                return 0;
+            }
+
+            long want = (long)Math.ceil(total * p);
+            long seen = 0;
+
+            for(int i = 0; i < BOUNDS.length; i++) {
+                seen += counts[i];
+
+                if(seen >= want) {
+                    return BOUNDS[i];
+                }
+            }
+
+            // Off the top; the max is as good as we can do.
+            return maxMillis.get();
+        }
+
+        private void record(long millis, long out, long in, boolean error)
+        {
+            int i = 0;
+
+            while((i < BOUNDS.length) && (millis > BOUNDS[i])) {
+                i++;
+            }
+
+            buckets.incrementAndGet(i);
+            calls.incrementAndGet();
+            totalMillis.addAndGet(millis);
+
+            if(error) {
+                errors.incrementAndGet();
+            }
+
+            if(out > 0) {
+                bytesOut.addAndGet(out);
+            }
+
+            if(in > 0) {
+                bytesIn.addAndGet(in);
+            }
+
+            long max;
+
+            while(millis > (max = maxMillis.get())) {
+                if(maxMillis.compareAndSet(max, millis)) {
+                    break;
+                }
+            }
+        }
+
+        public String toString()
+        {
+            return name + ": calls(" + calls.get() + ") errors(" +
+                   errors.get() + ") p50(" + getPercentile(0.50) +
+                   "ms) p95(" + getPercentile(0.95) + "ms) p99(" +
+                   getPercentile(0.99) + "ms) max(" + maxMillis.get() +
+                   "ms) total(" + totalMillis.get() + "ms) out(" +
+                   bytesOut.get() + "B) in(" + bytesIn.get() + "B)";
+        }
+    }
+
+    /*
+     * What JMX sees.
+     */
+    private static class Jmx implements UcbMetricsMBean
+    {
+        @Override
+        public String[] getEndpoints()
+        {
+            List<Endpoint> all = getAll();
+            String[] ret = new String[all.size()];
+
+            for(int i = 0; i < ret.length; i++) {
+                ret[i] = all.get(i).toString();
+            }
+
+            return ret;
+        }
+
+        @Override
+        public long getCalls()
+        {
+            long ret = 0;
+
+            for(Endpoint e : endpoints.values()) {
+                ret += e.getCalls();
+            }
+
+            return ret;
+        }
+
+        @Override
+        public long getErrors()
+        {
+            long ret = 0;
+
+            for(Endpoint e : endpoints.values()) {
+                ret += e.getErrors();
+            }
+
+            return ret;
+        }
+
+        @Override
+        public void reset()
+        {
+            UcbMetrics.reset();
+        }
+
+        @Override
+        public double getThrottleRate()
+        {
+            return UcbThrottle.getRate();
+        }
+
+        @Override
+        public void setThrottleRate(double requestsPerSecond)
+        {
+            // Keep whatever burst we were started with
+            UcbThrottle.setRate(requestsPerSecond, UcbThrottle.getBurst());
+        }
+
+        @Override
+        public double getThrottleBurst()
+        {
+            return UcbThrottle.getBurst();
+        }
+
+        @Override
+        public void setThrottleBurst(double burst)
+        {
+            UcbThrottle.setRate(UcbThrottle.getRate(), burst);
+        }
+
+        @Override
+        public int getThrottleConcurrent()
+        {
+            return UcbThrottle.getMaxConcurrent();
+        }
+
+        @Override
+        public void setThrottleConcurrent(int max)
+        {
+            UcbThrottle.setMaxConcurrent(max);
+        }
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    /**
+     * @return every endpoint seen so far, the most total time first
+     */
+    public static List<Endpoint> getAll()
+    {
+        List<Endpoint> ret = new ArrayList<Endpoint>(endpoints.values());
+
+        Collections.sort(ret, new Comparator<Endpoint>() {
+            @Override
+            public int compare(Endpoint a, Endpoint b)
+            {
+                return Long.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * @return one line per endpoint, for the logs.
+     */
+    public static String getReport()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for(Endpoint e : getAll()) {
+            sb.append("\n    ").append(e.toString());
+        }
+
+        return sb.toString();
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Record one HTTP request.
+     *
+     * @param method        GET, POST...
+     * @param path          URL path; IDs are taken out
+     * @param millis        How long it took
+     * @param out           Bytes sent, or less than 0 if unknown
+     * @param in            Bytes received, or less than 0 if unknown
+     * @param error         Did it fail?
+     */
+    public static void record(final String method, final String path,
+                              long millis, long out, long in,
+                              boolean error)
+    {
+        get(method + " " + template(path)).record(millis, out, in, error);
+    }
+
+    /**
+     * Record one call through a UCB client factory.
+     *
+     * @param name          Like "TemplateFactory.getTemplateByName"
+     * @param millis        How long it took
+     * @param error         Did it fail?
+     */
+    public static void recordFactory(final String name, long millis,
+                                     boolean error)
+    {
+        get("factory " + name).record(millis, -1, -1, error);
+    }
+
+    /**
+     * @param path          URL path
+     * @return it with IDs replaced by {id}
+     */
+    public static String template(final String path)
+    {
+        if(path == null) {
+            return "";
+        }
+
+        return ID_SEGMENT.matcher(path).replaceAll("/{id}");
+    }
+
+    /**
+     * Forget everything so far.
+     */
+    public static void reset()
+    {
+        endpoints.clear();
+    }
+
+    /**
+     * Put us on JMX, if we aren't already, and start the periodic log
+     * dump.  MigrateEngine calls this when a migration starts.
+     */
+    public static synchronized void start()
+    {
+        if(!registered) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+                server.registerMBean(new StandardMBean(new Jmx(),
+                                                       UcbMetricsMBean.class),
+                                     new ObjectName(JMX_NAME)
+                );
+                registered = true;
+            } catch(JMException e) {
+                LOG.warn("Could not register UCB metrics with JMX", e);
+            }
+        }
+
+        if((ticker != null) || (logInterval <= 0)) {
+            return;
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "ucb-metrics");
+                    t.setDaemon(true);
+                    return t;
+                }
+            }
+        );
+
+        ticker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run()
+            {
+                if(!endpoints.isEmpty()) {
+                    LOG.info("UCB endpoints:{}", getReport());
+                }
+            }
+        }, logInterval, logInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic log dump.  What's been recorded stays, and
+     * so does the JMX bean.
+     */
+    public static synchronized void stop()
+    {
+        if(ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    private static Endpoint get(final String name)
+    {
+        Endpoint ret = endpoints.get(name);
+
+        if(ret == null) {
+            ret = new Endpoint(name);
+
+            Endpoint was = endpoints.putIfAbsent(name, ret);
+
+            if(was != null) {
+                ret = was;
+            }
+        }
+
+        return ret;
+    }
+}
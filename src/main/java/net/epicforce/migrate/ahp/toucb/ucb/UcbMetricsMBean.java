@@ -0,0 +1,44 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbMetricsMBean.java
+ *
+ * What UcbMetrics shows over JMX, as
+ * net.epicforce.migrate.ahp.toucb:type=UcbMetrics.  The throttle
+ * limits are here too, since this is where you'd be looking when you
+ * want to change them.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+public interface UcbMetricsMBean
+{
+    /**
+     * @return one line per endpoint, slowest (by total time) first
+     */
+    public String[] getEndpoints();
+
+    public long getCalls();
+
+    public long getErrors();
+
+    /**
+     * Start counting from zero again.
+     */
+    public void reset();
+
+    /*
+     * See UcbThrottle.
+     */
+    public double getThrottleRate();
+
+    public void setThrottleRate(double requestsPerSecond);
+
+    public double getThrottleBurst();
+
+    public void setThrottleBurst(double burst);
+
+    public int getThrottleConcurrent();
+
+    public void setThrottleConcurrent(int max);
+}
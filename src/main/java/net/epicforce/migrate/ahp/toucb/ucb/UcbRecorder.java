@@ -0,0 +1,482 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbRecorder.java
+ *
+ * Recording stand-in for UCB, for planning mode.  While a thread is
+ * recording, anything it would write to UCB -- through UcbClient or
+ * through the UCB client's Factories -- is written down in that
+ * thread's LoadPlan and answered with made up IDs instead of being
+ * sent.  Reads still go to UCB, since what's already there decides
+ * what gets made; they're just counted.
+ *
+ * UcbClient checks in with us before every request.  The Factories
+ * are covered by wrapping each one in a java.lang.reflect.Proxy (see
+ * install), so we don't need to know the UCB client's factory
+ * interfaces, or keep up with them.  Method names are all we go by:
+ * get/find/is/has... are reads, anything else is a write.  What a
+ * faked write hands back is a stub Proxy whose getId is a made up ID
+ * and getName is whatever name it was made with; writes to a stub
+ * (update, createProperty...) are recorded too.
+ *
+ * Threads that aren't recording go straight through, so this is
+ * harmless once installed.  However, made up IDs end up in the global
+ * caches (known artifact sets, scripts, notification schemes...), so
+ * don't plan and migrate in the same JVM.
+ *
+ * Made up IDs count down from -1000000, well clear of UCB's negative
+ * built-in IDs.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.urbancode.ubuild.client.Factories;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.util.EntityUtils;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import net.epicforce.migrate.ahp.exception.MigrateException;
+import net.epicforce.migrate.ahp.toucb.pipeline.LoadPlan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbRecorder
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(UcbRecorder.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final ThreadLocal<LoadPlan>  current =
+                                            new ThreadLocal<LoadPlan>();
+
+    private static final AtomicLong     nextId = new AtomicLong(-1000000L);
+
+    /*
+     * Method name prefixes that don't change anything.
+     */
+    private static final String[]       READS = { "get", "find", "is",
+                                                  "has", "list", "lookup",
+                                                  "search", "count" };
+
+    private static boolean              installed = false;
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Start recording on this thread.
+     *
+     * @param plan          Where the writes go
+     */
+    public static void begin(final LoadPlan plan)
+    {
+        current.set(plan);
+    }
+
+    /**
+     * Stop recording on this thread.  Call it in a finally; pooled
+     * threads outlive the workflow.
+     */
+    public static void end()
+    {
+        current.remove();
+    }
+
+    /**
+     * @return true if this thread is recording rather than writing
+     */
+    public static boolean isRecording()
+    {
+        return current.get() != null;
+    }
+
+    /**
+     * @return a made up ID, never the same twice
+     */
+    public static long fakeId()
+    {
+        return nextId.getAndDecrement();
+    }
+
+    /**
+     * Wrap every factory the UCB client's Factories hands out, so
+     * writes made through them while recording are faked.  Call it
+     * after logging in to UCB, since that's what sets them up.  Calling
+     * it again is harmless.
+     *
+     * If a factory can't be wrapped, planning isn't safe -- writes
+     * through it would really happen -- so that's an error.
+     *
+     * @throws MigrateException if any factory can't be wrapped.
+     */
+    public static synchronized void install()
+           throws MigrateException
+    {
+        if(installed) {
+            return;
+        }
+
+        for(Method getter : Factories.class.getMethods()) {
+            String name = getter.getName();
+            Class<?> type = getter.getReturnType();
+
+            if(!Modifier.isStatic(getter.getModifiers()) ||
+               (getter.getParameterTypes().length != 0) ||
+               !name.startsWith("get") || !name.endsWith("Factory")) {
+                continue;
+            }
+
+            if(!type.isInterface()) {
+                throw new MigrateException("Can't record UCB " +
+                                           type.getSimpleName() +
+                                           ", planning isn't safe."
+                );
+            }
+
+            try {
+                Method setter = Factories.class.getMethod(
+                                            "set" + name.substring(3), type
+                );
+                Object real = getter.invoke(null);
+
+                if(real == null) {
+                    LOG.debug("{} isn't set up, nothing to wrap", name);
+                    continue;
+                }
+
+                setter.invoke(null, Proxy.newProxyInstance(
+                                        type.getClassLoader(),
+                                        new Class<?>[] { type },
+                                        new FactoryHandler(real)
+                ));
+            } catch(NoSuchMethodException | IllegalAccessException |
+                    InvocationTargetException e) {
+                throw new MigrateException("Can't record UCB " +
+                                           type.getSimpleName() +
+                                           ", planning isn't safe.", e
+                );
+            }
+        }
+
+        installed = true;
+    }
+
+    /*
+     * UcbClient is about to run this.  If we're recording, returns what
+     * to answer with instead, or null if it should really run.  GETs
+     * always run.
+     *
+     * The answer is {"id": <made up ID>}, which is all anyone looks at
+     * in a write's response.  A form POST is written down as a create
+     * even when it edits something; we can't tell from here.
+     */
+    static String intercept(final HttpRequestBase request)
+    {
+        LoadPlan plan = current.get();
+
+        if(plan == null) {
+            return null;
+        }
+
+        String method = request.getMethod();
+        String what = request.getURI().getPath();
+
+        if("GET".equals(method)) {
+            plan.read(1);
+            return null;
+        } else if("PUT".equals(method)) {
+            plan.update(what, nameOf(request), 1);
+        } else if("DELETE".equals(method)) {
+            plan.delete(what, nameOf(request), 1);
+        } else {
+            plan.create(what, nameOf(request), 1);
+        }
+
+        return "{\"id\":" + fakeId() + "}";
+    }
+
+    /*
+     * UcbClient wants a CID.  Those are only ever fetched to fill in a
+     * form for a write, and the page may well be about something we
+     * made up, so don't ask UCB.
+     */
+    static String interceptCid()
+    {
+        LoadPlan plan = current.get();
+
+        if(plan == null) {
+            return null;
+        }
+
+        plan.read(1);
+        return "0";
+    }
+
+    /*
+     * Dig a name out of a request body, JSON or form.  Null if there
+     * isn't one.
+     */
+    private static String nameOf(final HttpRequestBase request)
+    {
+        if(!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+
+        HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+
+        if(entity == null) {
+            return null;
+        }
+
+        try {
+            String body = EntityUtils.toString(entity, "UTF-8");
+
+            if(body.startsWith("{")) {
+                return new JSONObject(body).optString("name", null);
+            }
+
+            for(NameValuePair nvp :
+                    URLEncodedUtils.parse(body, Charset.forName("UTF-8"))) {
+                if("name".equals(nvp.getName())) {
+                    return nvp.getValue();
+                }
+            }
+        } catch(IOException | JSONException e) {
+            LOG.debug("Couldn't read request body", e);
+        }
+
+        return null;
+    }
+
+    private static boolean isRead(final String method)
+    {
+        for(String prefix : READS) {
+            if(method.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Write down a write made through a factory or stub, and make up
+     * what it would have returned.
+     *
+     * The verb (create, update, delete...) comes off the front of the
+     * method name, and what's left is what it works on; if nothing is
+     * left (update()), it's the type we were called on.  The name is
+     * the first String argument, if there is one.
+     */
+    private static Object record(final LoadPlan plan, final Method method,
+                                 final Object[] args, final String type)
+    {
+        String m = method.getName();
+        int split = 0;
+
+        while((split < m.length()) &&
+              Character.isLowerCase(m.charAt(split))) {
+            split++;
+        }
+
+        String verb = m.substring(0, split);
+        String what = (split < m.length()) ? m.substring(split) : type;
+        String name = null;
+
+        if(args != null) {
+            for(Object arg : args) {
+                if(arg instanceof String) {
+                    name = (String)arg;
+                    break;
+                }
+            }
+        }
+
+        if("delete".equals(verb) || "remove".equals(verb)) {
+            plan.delete(what, name, 1);
+        } else if("create".equals(verb) || "add".equals(verb)) {
+            plan.create(what, name, 1);
+        } else {
+            plan.update(what, name, 1);
+        }
+
+        return stub(method.getReturnType(), name);
+    }
+
+    /*
+     * Made up return value for a faked write.
+     */
+    private static Object stub(final Class<?> type, final String name)
+    {
+        if(type == String.class) {
+            return String.valueOf(fakeId());
+        } else if((type == Long.class) || (type == long.class)) {
+            return fakeId();
+        } else if(type.isInterface() && (empty(type) == null)) {
+            return Proxy.newProxyInstance(type.getClassLoader(),
+                                          new Class<?>[] { type },
+                                          new StubHandler(type, fakeId(),
+                                                          name)
+            );
+        }
+
+        return empty(type);
+    }
+
+    /*
+     * Default value for a type: zero, false, empty collection or null.
+     */
+    private static Object empty(final Class<?> type)
+    {
+        if(type == boolean.class) {
+            return Boolean.FALSE;
+        } else if(type == int.class) {
+            return 0;
+        } else if(type == long.class) {
+            return 0L;
+        } else if(type == double.class) {
+            return 0.0d;
+        } else if(type == float.class) {
+            return 0.0f;
+        } else if(type == short.class) {
+            return (short)0;
+        } else if(type == byte.class) {
+            return (byte)0;
+        } else if(type == char.class) {
+            return (char)0;
+        } else if(type.isArray()) {
+            return Array.newInstance(type.getComponentType(), 0);
+        } else if(type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<Object>();
+        } else if(type.isAssignableFrom(HashSet.class)) {
+            return new HashSet<Object>();
+        } else if(type.isAssignableFrom(HashMap.class)) {
+            return new HashMap<Object, Object>();
+        }
+
+        return null;
+    }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * Stands in for a UCB client factory.  Reads, and anything at all
+     * from a thread that isn't recording, go to the real one.
+     */
+    private static class FactoryHandler implements InvocationHandler
+    {
+        private final Object    real;
+
+        private FactoryHandler(final Object real)
+        {
+            this.real = real;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+               throws Throwable
+        {
+            LoadPlan plan = current.get();
+
+            if((plan == null) || isRead(method.getName()) ||
+               (method.getDeclaringClass() == Object.class)) {
+                if((plan != null) && isRead(method.getName())) {
+                    plan.read(1);
+                }
+
+                try {
+                    return method.invoke(real, args);
+                } catch(InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            return record(plan, method, args, null);
+        }
+    }
+
+    /*
+     * Stands in for something a faked write made.  Setters and getters
+     * are local (and getters give nothing much back), anything else is
+     * a write.
+     */
+    private static class StubHandler implements InvocationHandler
+    {
+        private final Class<?>  type;
+        private final long      id;
+        private final String    name;
+
+        private StubHandler(final Class<?> type, long id, final String name)
+        {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+               throws Throwable
+        {
+            String m = method.getName();
+            Class<?> ret = method.getReturnType();
+
+            if("equals".equals(m) && (args != null) && (args.length == 1)) {
+                return proxy == args[0];
+            } else if("hashCode".equals(m) && (args == null)) {
+                return System.identityHashCode(proxy);
+            } else if("toString".equals(m) && (args == null)) {
+                return type.getSimpleName() + "(" + id + ", " + name + ")";
+            } else if("getId".equals(m)) {
+                if(ret == String.class) {
+                    return String.valueOf(id);
+                } else if((ret == Long.class) || (ret == long.class)) {
+                    return id;
+                }
+
+                return empty(ret);
+            } else if("getName".equals(m) && (ret == String.class)) {
+                return name;
+            } else if(isRead(m) || m.startsWith("set")) {
+                return empty(ret);
+            }
+
+            LoadPlan plan = current.get();
+
+            if(plan == null) {
+                throw new IllegalStateException(
+                    "UCB " + type.getSimpleName() + " " + name + " was " +
+                    "made up for planning and doesn't really exist."
+                );
+            }
+
+            return record(plan, method, args, type.getSimpleName());
+        }
+    }
+}
@@ -0,0 +1,789 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbStandIn.java
+ *
+ * A little HTTP server that stands in for UCB, so a migration can be
+ * load tested without a UCB of its own -- ours is shared, and a load
+ * test is the last thing it needs.  It has two modes:
+ *
+ * record   Passes every request on to a real UCB, and writes each one
+ *          and its response to a UcbTrace.  Point a migration at the
+ *          stand-in instead of UCB and run it as usual.
+ *
+ * replay   Answers from a trace, with no UCB at all.  Point the same
+ *          migration at it, at whatever thread count you like.
+ *
+ * Since it sits in front of the UCB URL, it sees everything: our own
+ * UcbClient calls, HttpHelper's, and those the UCB client library
+ * makes through its Factories and the objects they hand back.
+ *
+ * On replay a request gets the response recorded for the same
+ * method, URL and body.  Failing that, one recorded for the same
+ * method and URL, and failing that, for the same method and URL with
+ * the IDs taken out (see UcbMetrics.template).  When several match
+ * they're handed out in turn.  Anything else gets a 404, and is
+ * counted as missed.  IDs come back as they were recorded, so replay
+ * the same workflows you recorded.
+ *
+ * Replay can also be made slower or flakier than the real thing:
+ * each response waits its recorded time times a scale, plus a fixed
+ * delay, and a share of requests can be failed outright (503 by
+ * default, which UcbClient retries).
+ *
+ * Requests are counted by method and URL template in both modes, so
+ * calls per workflow can be compared from run to run.
+ *
+ * Run it from the command line (see USAGE) or from code:
+ *
+ *     UcbStandIn ucb = UcbStandIn.replay(0, new File("run.trace"));
+ *     ... migrate against ucb.getUrl() ...
+ *     ucb.stop();
+ *
+ * Request headers aren't recorded, so the trace holds no passwords.
+ * Any user and password will do on replay.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbStandIn
+{
+    private final static Logger LOG = LoggerFactory.getLogger(UcbStandIn.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE =
+        "Usage: java -cp ahp2ucb.jar " + UcbStandIn.class.getName() +
+        " record UCB_URL TRACE [options]\n" +
+        "       java -cp ahp2ucb.jar " + UcbStandIn.class.getName() +
+        " replay TRACE [options]\n" +
+        "\n" +
+        "  -p, --port N           port to listen on (default: any free)\n" +
+        "\n" +
+        "Replay only:\n" +
+        "  -l, --latency SCALE    wait recorded time times SCALE (default 1)\n" +
+        "  -d, --delay MS         and this much more (default 0)\n" +
+        "  -e, --errors RATE      fail this share of requests, 0 to 1\n" +
+        "  -s, --status N         failing status (default 503)\n" +
+        "\n" +
+        "Prints the URL to point the migration at, then runs until\n" +
+        "killed, when it prints request counts.\n";
+
+    /*
+     * Headers that belong to one hop, and aren't passed on.
+     */
+    private static final Set<String>    HOP_HEADERS = new HashSet<>(
+            Arrays.asList("host", "connection", "keep-alive",
+                          "transfer-encoding", "content-length",
+                          "content-encoding", "accept-encoding", "te",
+                          "trailer", "upgrade", "proxy-authorization",
+                          "proxy-authenticate")
+    );
+
+    private final HttpServer        server;
+    private final ExecutorService   threads;
+
+    /*
+     * Real UCB's scheme, host and port, and the path UCB lives under.
+     */
+    private final String            origin;
+    private final String            contextPath;
+
+    /*
+     * Record mode: where requests go, and where they're written.
+     */
+    private final CloseableHttpClient   client;
+    private final UcbTrace              trace;
+
+    /*
+     * Replay mode: recorded responses, by method, URI and body hash;
+     * by method and URI; and by method and URL template.
+     */
+    private final Map<String, Replies>  byBody = new HashMap<>();
+    private final Map<String, Replies>  byUri = new HashMap<>();
+    private final Map<String, Replies>  byTemplate = new HashMap<>();
+
+    /*
+     * Replay knobs.
+     */
+    private volatile double         latencyScale = 1;
+    private volatile long           extraMillis = 0;
+    private volatile double         errorRate = 0;
+    private volatile int            errorStatus = 503;
+
+    /*
+     * What we've seen.
+     */
+    private final ConcurrentHashMap<String, AtomicLong>   counts =
+                                new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong        missed = new AtomicLong();
+    private final AtomicLong        injected = new AtomicLong();
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * Responses for one key, handed out in turn.
+     */
+    private static class Replies
+    {
+        private final List<UcbTrace.Exchange>   list = new ArrayList<>();
+        private final AtomicInteger             next = new AtomicInteger();
+
+        private UcbTrace.Exchange next()
+        {
+            return list.get((next.getAndIncrement() & Integer.MAX_VALUE) %
+                            list.size());
+        }
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    private UcbStandIn(int port, final String ucbUrl,
+                       final CloseableHttpClient client,
+                       final UcbTrace trace)
+            throws IOException
+    {
+        URI u;
+
+        try {
+            u = new URI(ucbUrl);
+        } catch(URISyntaxException e) {
+            throw new IOException("Bad UCB URL: " + ucbUrl, e);
+        }
+
+        if((u.getScheme() == null) || (u.getRawAuthority() == null)) {
+            throw new IOException("Bad UCB URL: " + ucbUrl);
+        }
+
+        this.origin = u.getScheme() + "://" + u.getRawAuthority();
+        this.contextPath = (u.getRawPath() == null) ? "" :
+                           u.getRawPath().replaceAll("/+$", "");
+        this.client = client;
+        this.trace = trace;
+
+        threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "ucb-standin-" +
+                                         count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(threads);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException
+            {
+                serve(ex);
+            }
+        });
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    /**
+     * @return the UCB URL to give the migration
+     */
+    public String getUrl()
+    {
+        return "http://localhost:" + server.getAddress().getPort() +
+               contextPath;
+    }
+
+    /**
+     * Slow down replay.  Each response waits its recorded time times
+     * scale, then extra.
+     *
+     * @param scale         0 for no recorded wait, 1 for as recorded
+     * @param extra         Added to every response, in ms
+     */
+    public void setLatency(double scale, long extra)
+    {
+        latencyScale = Math.max(0, scale);
+        extraMillis = Math.max(0, extra);
+    }
+
+    /**
+     * Fail a share of replayed requests, without using up a recorded
+     * response.
+     *
+     * @param rate          0 for none, 1 for all
+     * @param status        Status to fail with
+     */
+    public void setErrors(double rate, int status)
+    {
+        errorRate = Math.max(0, Math.min(1, rate));
+        errorStatus = status;
+    }
+
+    /**
+     * @return requests so far, by method and URL template
+     */
+    public Map<String, Long> getCounts()
+    {
+        Map<String, Long> ret = new TreeMap<>();
+
+        for(Map.Entry<String, AtomicLong> e : counts.entrySet()) {
+            ret.put(e.getKey(), e.getValue().get());
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return all requests so far
+     */
+    public long getRequests()
+    {
+        long ret = 0;
+
+        for(AtomicLong c : counts.values()) {
+            ret += c.get();
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return replayed requests that had no recorded response
+     */
+    public long getMissed()
+    {
+        return missed.get();
+    }
+
+    /**
+     * @return replayed requests failed on purpose
+     */
+    public long getInjected()
+    {
+        return injected.get();
+    }
+
+    /**
+     * @return tab separated lines of counts, like MigrateCli's
+     *         progress lines:
+     *
+     *         COUNT     <method and URL template>  <requests>
+     *         REQUESTS  <requests>  <missed>  <injected>
+     */
+    public String getReport()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for(Map.Entry<String, Long> e : getCounts().entrySet()) {
+            sb.append("COUNT\t").append(e.getKey()).append('\t')
+              .append(e.getValue()).append('\n');
+        }
+
+        sb.append("REQUESTS\t").append(getRequests()).append('\t')
+          .append(getMissed()).append('\t').append(getInjected())
+          .append('\n');
+
+        return sb.toString();
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Start recording: pass requests to a real UCB and write them to a
+     * trace.
+     *
+     * @param port          Port to listen on, 0 for any free one
+     * @param ucbUrl        The real UCB
+     * @param file          Trace to write; replaced if it's there
+     * @return the running stand-in
+     * @throws IOException if we can't listen or write the trace
+     */
+    public static UcbStandIn record(int port, final String ucbUrl,
+                                    final File file)
+           throws IOException
+    {
+        UcbTrace trace = UcbTrace.create(file, ucbUrl);
+
+        // Redirects go back to the migration as they are; it reads IDs
+        // out of them.
+        CloseableHttpClient client = HttpClients.custom()
+                                                .disableRedirectHandling()
+                                                .disableCookieManagement()
+                                                .build();
+
+        UcbStandIn ret = new UcbStandIn(port, ucbUrl, client, trace);
+
+        ret.server.start();
+        LOG.info("Recording {} to {} at {}", ucbUrl, file, ret.getUrl());
+
+        return ret;
+    }
+
+    /**
+     * Start replaying a trace.
+     *
+     * @param port          Port to listen on, 0 for any free one
+     * @param file          Trace to replay
+     * @return the running stand-in
+     * @throws IOException if we can't listen or read the trace
+     */
+    public static UcbStandIn replay(int port, final File file)
+           throws IOException
+    {
+        UcbTrace trace = UcbTrace.load(file);
+        UcbStandIn ret = new UcbStandIn(port, trace.getUcbUrl(), null, null);
+
+        for(UcbTrace.Exchange x : trace.getExchanges()) {
+            ret.index(ret.byBody, x.method + " " + x.uri + " " + x.bodyHash,
+                      x);
+            ret.index(ret.byUri, x.method + " " + x.uri, x);
+            ret.index(ret.byTemplate, templateKey(x.method, x.uri), x);
+        }
+
+        ret.server.start();
+        LOG.info("Replaying {} ({} exchanges) at {}", file,
+                 trace.getExchanges().size(), ret.getUrl());
+
+        return ret;
+    }
+
+    /**
+     * Stop listening, and finish the trace if we're recording.
+     * Requests in progress get a second to finish.
+     */
+    public void stop()
+    {
+        server.stop(1);
+        threads.shutdownNow();
+
+        try {
+            if(trace != null) {
+                trace.close();
+            }
+
+            if(client != null) {
+                client.close();
+            }
+        } catch(IOException e) {
+            LOG.warn("Error stopping the UCB stand-in", e);
+        }
+    }
+
+    /*****************************************************************
+     * MAIN
+     ****************************************************************/
+
+    public static void main(String[] args)
+    {
+        int code = run(args);
+
+        if(code != EXIT_OK) {
+            System.exit(code);
+        }
+
+        // Otherwise the server keeps us running until we're killed.
+    }
+
+    /**
+     * Does everything main does, except wait to be killed: the
+     * stand-in is left running, with a shutdown hook to stop it and
+     * print the report.
+     *
+     * @param args          Command line
+     * @return exit code
+     */
+    public static int run(String[] args)
+    {
+        List<String> positional = new ArrayList<>();
+        int port = 0;
+        double scale = 1;
+        long delay = 0;
+        double errors = 0;
+        int status = 503;
+
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if("-h".equals(arg) || "--help".equals(arg)) {
+                    System.out.print(USAGE);
+                    return EXIT_OK;
+                } else if("-p".equals(arg) || "--port".equals(arg)) {
+                    port = Integer.parseInt(args[++i]);
+                } else if("-l".equals(arg) || "--latency".equals(arg)) {
+                    scale = Double.parseDouble(args[++i]);
+                } else if("-d".equals(arg) || "--delay".equals(arg)) {
+                    delay = Long.parseLong(args[++i]);
+                } else if("-e".equals(arg) || "--errors".equals(arg)) {
+                    errors = Double.parseDouble(args[++i]);
+                } else if("-s".equals(arg) || "--status".equals(arg)) {
+                    status = Integer.parseInt(args[++i]);
+                } else if(arg.startsWith("-")) {
+                    System.err.println("Unknown option: " + arg);
+                    System.err.print(USAGE);
+                    return EXIT_USAGE;
+                } else {
+                    positional.add(arg);
+                }
+            }
+        } catch(ArrayIndexOutOfBoundsException e) {
+            System.err.println("Option is missing its value");
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        } catch(NumberFormatException e) {
+            System.err.println("Bad number: " + e.getMessage());
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        final UcbStandIn standIn;
+
+        try {
+            if((positional.size() == 3) &&
+               "record".equals(positional.get(0))) {
+                standIn = record(port, positional.get(1),
+                                 new File(positional.get(2)));
+            } else if((positional.size() == 2) &&
+                      "replay".equals(positional.get(0))) {
+                standIn = replay(port, new File(positional.get(1)));
+                standIn.setLatency(scale, delay);
+                standIn.setErrors(errors, status);
+            } else {
+                System.err.print(USAGE);
+                return EXIT_USAGE;
+            }
+        } catch(IOException e) {
+            LOG.error("UCB stand-in could not start", e);
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run()
+            {
+                standIn.stop();
+                System.out.print(standIn.getReport());
+                System.out.flush();
+            }
+        });
+
+        System.out.println("LISTENING\t" + standIn.getUrl());
+        return EXIT_OK;
+    }
+
+    /*
+     * One request, in whichever mode.
+     */
+    private void serve(final HttpExchange ex)
+    {
+        try {
+            String method = ex.getRequestMethod();
+            String uri = ex.getRequestURI().getRawPath();
+            byte[] body = readAll(ex.getRequestBody());
+
+            if(ex.getRequestURI().getRawQuery() != null) {
+                uri += "?" + ex.getRequestURI().getRawQuery();
+            }
+
+            count(templateKey(method, uri));
+
+            if(trace != null) {
+                forward(ex, method, uri, body);
+            } else {
+                reply(ex, method, uri, body);
+            }
+        } catch(IOException | RuntimeException e) {
+            LOG.warn("UCB stand-in failed on " + ex.getRequestURI(), e);
+
+            try {
+                respond(ex, 502, "", "", new byte[0]);
+            } catch(IOException | RuntimeException e2) {
+                // Headers were already sent; nothing more to do.
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    /*
+     * Record mode: pass it on, pass the answer back, write it down.
+     */
+    private void forward(final HttpExchange ex, final String method,
+                         final String uri, final byte[] body)
+            throws IOException
+    {
+        RequestBuilder request = RequestBuilder.create(method)
+                                               .setUri(origin + uri);
+
+        for(Map.Entry<String, List<String>> h :
+                                    ex.getRequestHeaders().entrySet()) {
+            if(HOP_HEADERS.contains(h.getKey().toLowerCase())) {
+                continue;
+            }
+
+            for(String value : h.getValue()) {
+                request.addHeader(h.getKey(), value);
+            }
+        }
+
+        if(body.length > 0) {
+            request.setEntity(new ByteArrayEntity(body));
+        }
+
+        long start = System.currentTimeMillis();
+
+        try(CloseableHttpResponse response = client.execute(request.build())) {
+            HttpEntity entity = response.getEntity();
+            byte[] content = (entity == null) ? new byte[0] :
+                             EntityUtils.toByteArray(entity);
+            long millis = System.currentTimeMillis() - start;
+            int status = response.getStatusLine().getStatusCode();
+            Header type = response.getFirstHeader("Content-Type");
+            Header location = response.getFirstHeader("Location");
+            String where = "";
+
+            if(location != null) {
+                where = location.getValue();
+
+                if(where.startsWith(origin)) {
+                    where = where.substring(origin.length());
+                }
+            }
+
+            trace.add(new UcbTrace.Exchange(method, uri,
+                                            UcbTrace.hash(body), status,
+                                            millis,
+                                            (type == null) ? "" :
+                                                type.getValue(),
+                                            where,
+                                            new String(content,
+                                                       UcbTrace.UTF8)));
+
+            // Cookies and the like go back too, but aren't recorded.
+            Headers out = ex.getResponseHeaders();
+
+            for(Header h : response.getAllHeaders()) {
+                String name = h.getName();
+
+                if(!HOP_HEADERS.contains(name.toLowerCase()) &&
+                   !"Location".equalsIgnoreCase(name) &&
+                   !"Content-Type".equalsIgnoreCase(name)) {
+                    out.add(name, h.getValue());
+                }
+            }
+
+            respond(ex, status, (type == null) ? "" : type.getValue(),
+                    where, content);
+        }
+    }
+
+    /*
+     * Replay mode: find a recorded answer and give it back.
+     */
+    private void reply(final HttpExchange ex, final String method,
+                       final String uri, final byte[] body)
+            throws IOException
+    {
+        if((errorRate > 0) &&
+           (ThreadLocalRandom.current().nextDouble() < errorRate)) {
+            injected.incrementAndGet();
+            respond(ex, errorStatus, "", "", new byte[0]);
+            return;
+        }
+
+        Replies replies = byBody.get(method + " " + uri + " " +
+                                     UcbTrace.hash(body));
+
+        if(replies == null) {
+            replies = byUri.get(method + " " + uri);
+        }
+
+        if(replies == null) {
+            replies = byTemplate.get(templateKey(method, uri));
+        }
+
+        if(replies == null) {
+            missed.incrementAndGet();
+            LOG.warn("Nothing recorded for {} {}", method, uri);
+            respond(ex, 404, "", "", new byte[0]);
+            return;
+        }
+
+        UcbTrace.Exchange x = replies.next();
+        long wait = (long)(x.millis * latencyScale) + extraMillis;
+
+        if(wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch(InterruptedException e) {
+                // We're being stopped
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        respond(ex, x.status, x.contentType, x.location,
+                x.body.getBytes(UcbTrace.UTF8));
+    }
+
+    /*
+     * Send a response; location is just the path, and is pointed back
+     * at us.
+     */
+    private void respond(final HttpExchange ex, int status,
+                         final String contentType, final String location,
+                         final byte[] body)
+            throws IOException
+    {
+        Headers out = ex.getResponseHeaders();
+
+        if(!contentType.isEmpty()) {
+            out.set("Content-Type", contentType);
+        }
+
+        if(!location.isEmpty()) {
+            String host = ex.getRequestHeaders().getFirst("Host");
+
+            if(location.startsWith("/")) {
+                out.set("Location", "http://" +
+                                    ((host == null) ?
+                                        "localhost:" +
+                                        server.getAddress().getPort() :
+                                        host) +
+                                    location);
+            } else {
+                out.set("Location", location);
+            }
+        }
+
+        // -1 is "no body"; HEAD and the statuses that can't have one
+        // must say so.
+        boolean empty = (body.length == 0) ||
+                        "HEAD".equals(ex.getRequestMethod()) ||
+                        (status == 204) || (status == 304);
+
+        ex.sendResponseHeaders(status, empty ? -1 : body.length);
+
+        if(!empty) {
+            try(OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    private void index(final Map<String, Replies> map, final String key,
+                       final UcbTrace.Exchange x)
+    {
+        Replies r = map.get(key);
+
+        if(r == null) {
+            r = new Replies();
+            map.put(key, r);
+        }
+
+        r.list.add(x);
+    }
+
+    private void count(final String key)
+    {
+        AtomicLong c = counts.get(key);
+
+        if(c == null) {
+            c = new AtomicLong();
+
+            AtomicLong was = counts.putIfAbsent(key, c);
+
+            if(was != null) {
+                c = was;
+            }
+        }
+
+        c.incrementAndGet();
+    }
+
+    /*
+     * Method and URL path with the IDs taken out; the query string
+     * is dropped.
+     */
+    private static String templateKey(final String method, final String uri)
+    {
+        int q = uri.indexOf('?');
+
+        return method + " " +
+               UcbMetrics.template((q < 0) ? uri : uri.substring(0, q));
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException
+    {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int got;
+
+        try {
+            while((got = in.read(buf)) > 0) {
+                ret.write(buf, 0, got);
+            }
+        } finally {
+            in.close();
+        }
+
+        return ret.toByteArray();
+    }
+}
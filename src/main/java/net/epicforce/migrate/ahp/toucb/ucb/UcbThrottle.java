@@ -0,0 +1,466 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbThrottle.java
+ *
+ * Keeps the migration's load on UCB inside an envelope, no matter how
+ * many threads we're running.  Our UCB is shared with live builds,
+ * and cutting the thread count to spare it also slows down reading
+ * AHP, which doesn't need sparing.
+ *
+ * Two limits, both off by default, set from system properties and
+ * changeable at runtime:
+ *
+ * ucb.throttle.rate        - requests a second, as a token bucket
+ *                            (0 = no limit)
+ * ucb.throttle.burst       - how many requests can go at once after a
+ *                            quiet spell (default: one second's worth)
+ * ucb.throttle.concurrent  - requests in flight at once (0 = no limit)
+ *
+ * Every request UcbClient makes, including the ones it hands off to
+ * HttpHelper, takes a permit first:
+ *
+ *     try(UcbThrottle.Permit permit = UcbThrottle.acquire()) {
+ *         ... one request ...
+ *     }
+ *
+ * Calls through the UCB client's Factories are covered by wrapping
+ * the factories, like UcbRecorder does; see install.  What can't be
+ * covered is calls made by the objects those factories hand back
+ * (job.createStep, template.update...) since those are classes we
+ * can't wrap.  They're one or two per thing made, so the limits still
+ * hold roughly.
+ *
+ * A retried request takes a new permit for each try, and gives up its
+ * concurrency slot while it waits to retry.
+ *
+ * Permits nest.  A factory call can end up making more calls of ours
+ * (or other factory calls) underneath, and if each of those wanted a
+ * slot of its own, a thread holding the last slot would wait on
+ * itself forever.  So a thread that already holds a slot doesn't take
+ * another; inner permits still count against the rate, though, since
+ * each is a real request.  A permit has to be closed by the thread
+ * that took it, which try-with-resources sees to.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.urbancode.ubuild.client.Factories;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class UcbThrottle
+{
+    private final static Logger LOG =
+                            LoggerFactory.getLogger(UcbThrottle.class);
+
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final ReentrantLock  lock = new ReentrantLock();
+    private static final Condition      changed = lock.newCondition();
+
+    /*
+     * Limits.  Guarded by lock.
+     */
+    private static double       rate = Double.parseDouble(
+                                System.getProperty("ucb.throttle.rate", "0"));
+    private static double       burst = Double.parseDouble(
+                                System.getProperty("ucb.throttle.burst",
+                                                   "0"));
+    private static int          maxConcurrent =
+                                Integer.getInteger("ucb.throttle.concurrent",
+                                                   0);
+
+    /*
+     * Bucket state.  Guarded by lock.
+     */
+    private static double       tokens = 0;
+    private static long         lastRefill = System.nanoTime();
+    private static int          inFlight = 0;
+
+    /*
+     * Metrics: permits handed out, how many had to wait, and how long
+     * they waited all told.
+     */
+    private static final AtomicLong     granted = new AtomicLong();
+    private static final AtomicLong     waited = new AtomicLong();
+    private static final AtomicLong     waitNanos = new AtomicLong();
+
+    private static boolean              installed = false;
+
+    /*
+     * How many permits this thread has open.  Only the outermost one
+     * holds a concurrency slot.
+     */
+    private static final ThreadLocal<int[]>     depth =
+        new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue()
+            {
+                return new int[1];
+            }
+        };
+
+    static {
+        tokens = bucketSize();
+    }
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * Leave to make one request; close it when the request is done.
+     */
+    public static class Permit implements AutoCloseable
+    {
+        private boolean         closed = false;
+        private final boolean   slot;
+
+        private Permit(boolean slot)
+        {
+            this.slot = slot;
+        }
+
+        @Override
+        public void close()
+        {
+            if(closed) {
+                return;
+            }
+
+            closed = true;
+            depth.get()[0]--;
+
+            if(!slot) {
+                return;
+            }
+
+            lock.lock();
+
+            try {
+                inFlight--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Takes a permit around every factory call, and times it for
+     * UcbMetrics while it's at it.
+     */
+    private static class FactoryHandler implements InvocationHandler
+    {
+        private final Object    real;
+        private final String    type;
+
+        private FactoryHandler(final Object real, final Class<?> type)
+        {
+            this.real = real;
+            this.type = type.getSimpleName();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+               throws Throwable
+        {
+            if(method.getDeclaringClass() == Object.class) {
+                return method.invoke(real, args);
+            }
+
+            try(Permit permit = acquire()) {
+                long start = System.currentTimeMillis();
+                boolean ok = false;
+
+                try {
+                    Object ret = method.invoke(real, args);
+                    ok = true;
+                    return ret;
+                } finally {
+                    UcbMetrics.recordFactory(type + "." + method.getName(),
+                                             System.currentTimeMillis() -
+                                                start, !ok
+                    );
+                }
+            } catch(InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    /**
+     * @return requests a second allowed, 0 if unlimited
+     */
+    public static double getRate()
+    {
+        lock.lock();
+
+        try {
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return requests allowed at once after a quiet spell, 0 if
+     *         that's one second's worth
+     */
+    public static double getBurst()
+    {
+        lock.lock();
+
+        try {
+            return burst;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Change the request rate.  Takes effect straight away, for
+     * threads already waiting too.
+     *
+     * @param requestsPerSecond     New rate; 0 or less for no limit
+     * @param burstSize             Requests allowed at once after a
+     *                              quiet spell; 0 or less for one
+     *                              second's worth
+     */
+    public static void setRate(double requestsPerSecond, double burstSize)
+    {
+        lock.lock();
+
+        try {
+            refill(System.nanoTime());
+            rate = Math.max(0, requestsPerSecond);
+            burst = Math.max(0, burstSize);
+            tokens = Math.min(tokens, bucketSize());
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        LOG.info("UCB throttle rate now {}/s", requestsPerSecond);
+    }
+
+    /**
+     * @return requests allowed in flight at once, 0 if unlimited
+     */
+    public static int getMaxConcurrent()
+    {
+        lock.lock();
+
+        try {
+            return maxConcurrent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Change how many requests can be in flight at once.  Lowering it
+     * doesn't cut anything off; new requests just wait until enough
+     * have finished.
+     *
+     * @param max           New limit; 0 or less for no limit
+     */
+    public static void setMaxConcurrent(int max)
+    {
+        lock.lock();
+
+        try {
+            maxConcurrent = Math.max(0, max);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        LOG.info("UCB throttle concurrency now {}", max);
+    }
+
+    /**
+     * @return one line of limits and wait counts, for the logs.
+     */
+    public static String getStats()
+    {
+        return "rate(" + getRate() + "/s) concurrent(" +
+               getMaxConcurrent() + ") granted(" + granted.get() +
+               ") waited(" + waited.get() + ", " +
+               TimeUnit.NANOSECONDS.toMillis(waitNanos.get()) + "ms)";
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Wait until both limits allow another request, and take a permit
+     * for it.  Returns straight away if there are no limits.
+     *
+     * Interrupts don't stop the wait (the caller has nothing useful to
+     * do instead) but are passed on.
+     *
+     * If this thread already has a permit open, this one doesn't need
+     * a concurrency slot, only the rate; see the top of the file.
+     *
+     * @return the permit; close it when the request is done.
+     */
+    public static Permit acquire()
+    {
+        int[] held = depth.get();
+        boolean nested = held[0] > 0;
+        boolean interrupted = false;
+        long start = 0;
+
+        lock.lock();
+
+        try {
+            while(true) {
+                long now = System.nanoTime();
+                long wait = 0;
+
+                refill(now);
+
+                if(!nested && (maxConcurrent > 0) &&
+                   (inFlight >= maxConcurrent)) {
+                    wait = -1;      // until one finishes
+                } else if((rate > 0) && (tokens < 1)) {
+                    wait = (long)((1 - tokens) * 1e9 / rate) + 1;
+                } else {
+                    break;
+                }
+
+                if(start == 0) {
+                    start = now;
+                    waited.incrementAndGet();
+                }
+
+                try {
+                    if(wait < 0) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(wait);
+                    }
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if(rate > 0) {
+                tokens -= 1;
+            }
+
+            if(!nested) {
+                inFlight++;
+            }
+
+            held[0]++;
+            granted.incrementAndGet();
+
+            if(start != 0) {
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+
+            return new Permit(!nested);
+        } finally {
+            lock.unlock();
+
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wrap every factory the UCB client's Factories hands out, so
+     * calls through them take permits too.  Call it after logging in
+     * to UCB, since that's what sets them up.  Calling it again is
+     * harmless.
+     *
+     * A factory that can't be wrapped is left alone, with a warning;
+     * its calls just aren't throttled.
+     */
+    public static synchronized void install()
+    {
+        if(installed) {
+            return;
+        }
+
+        for(Method getter : Factories.class.getMethods()) {
+            String name = getter.getName();
+            Class<?> type = getter.getReturnType();
+
+            if(!Modifier.isStatic(getter.getModifiers()) ||
+               (getter.getParameterTypes().length != 0) ||
+               !name.startsWith("get") || !name.endsWith("Factory")) {
+                continue;
+            }
+
+            try {
+                if(!type.isInterface()) {
+                    throw new NoSuchMethodException("not an interface");
+                }
+
+                Method setter = Factories.class.getMethod(
+                                            "set" + name.substring(3), type
+                );
+                Object real = getter.invoke(null);
+
+                if(real == null) {
+                    continue;
+                }
+
+                setter.invoke(null, Proxy.newProxyInstance(
+                                        type.getClassLoader(),
+                                        new Class<?>[] { type },
+                                        new FactoryHandler(real, type)
+                ));
+            } catch(NoSuchMethodException | IllegalAccessException |
+                    InvocationTargetException e) {
+                LOG.warn("Can't throttle UCB {}: {}", type.getSimpleName(),
+                         e.getMessage()
+                );
+            }
+        }
+
+        installed = true;
+    }
+
+    /*
+     * Top up the bucket for the time since we last did.  Caller holds
+     * the lock.
+     */
+    private static void refill(long now)
+    {
+        if(rate > 0) {
+            tokens = Math.min(bucketSize(),
+                              tokens + (now - lastRefill) * rate / 1e9);
+        }
+
+        lastRefill = now;
+    }
+
+    private static double bucketSize()
+    {
+        return Math.max(1, (burst > 0) ? burst : rate);
+    }
+}
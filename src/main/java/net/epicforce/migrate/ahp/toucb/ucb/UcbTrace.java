@@ -0,0 +1,285 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * UcbTrace.java
+ *
+ * A recording of UCB traffic: every request UcbStandIn passed on to a
+ * real UCB, and what came back.  UcbStandIn can then play it back to
+ * a migration without the real UCB.
+ *
+ * Same gzipped tab separated text as CatalogSnapshot:
+ *
+ *     ahp2ucb-trace  1  <ucb url>
+ *     X  <method>  <path and query>  <request body hash>  <status>
+ *        <ms>  <content type>  <location>  <response body>
+ *     ...
+ *
+ * (one X line per exchange, in the order they finished).  Locations
+ * are stored without the scheme, host and port, so they can be
+ * pointed at wherever the trace is played back.  Bodies are stored as
+ * UTF-8 text, which is all UCB's REST API and pages send; something
+ * binary would not survive.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class UcbTrace implements Closeable
+{
+    /*****************************************************************
+     * PROPERTIES
+     ****************************************************************/
+
+    private static final String     MAGIC = "ahp2ucb-trace";
+    private static final String     VERSION = "1";
+    static final Charset            UTF8 = Charset.forName("UTF-8");
+
+    private final String                ucbUrl;
+    private final List<Exchange>        exchanges;
+
+    /*
+     * Set if we're writing; null if we were read in.
+     */
+    private BufferedWriter              out = null;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /**
+     * One request and its response.
+     */
+    public static class Exchange
+    {
+        final String    method;
+        final String    uri;
+        final String    bodyHash;
+        final int       status;
+        final long      millis;
+        final String    contentType;
+        final String    location;
+        final String    body;
+
+        /**
+         * @param method        GET, POST...
+         * @param uri           Path and query string
+         * @param bodyHash      See hash
+         * @param status        HTTP status returned
+         * @param millis        How long UCB took
+         * @param contentType   Response content type, or ""
+         * @param location      Response Location, less the scheme, host
+         *                      and port, or ""
+         * @param body          Response body, or ""
+         */
+        public Exchange(final String method, final String uri,
+                        final String bodyHash, int status, long millis,
+                        final String contentType, final String location,
+                        final String body)
+        {
+            this.method = method;
+            this.uri = uri;
+            this.bodyHash = bodyHash;
+            this.status = status;
+            this.millis = millis;
+            this.contentType = contentType;
+            this.location = location;
+            this.body = body;
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public String getUri()
+        {
+            return uri;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public long getMillis()
+        {
+            return millis;
+        }
+    }
+
+    /*****************************************************************
+     * CONSTRUCTORS
+     ****************************************************************/
+
+    private UcbTrace(final String ucbUrl, final List<Exchange> exchanges)
+    {
+        this.ucbUrl = ucbUrl;
+        this.exchanges = exchanges;
+    }
+
+    /*****************************************************************
+     * ACCESSORS
+     ****************************************************************/
+
+    /**
+     * @return the UCB this was recorded against
+     */
+    public String getUcbUrl()
+    {
+        return ucbUrl;
+    }
+
+    /**
+     * @return what was read in, in order; empty while recording
+     */
+    public List<Exchange> getExchanges()
+    {
+        return Collections.unmodifiableList(exchanges);
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /**
+     * Start a new trace, replacing any file that's there.
+     *
+     * @param file          Where to write it
+     * @param ucbUrl        The UCB being recorded
+     * @return the trace, ready for add
+     * @throws IOException if it can't be written
+     */
+    public static UcbTrace create(final File file, final String ucbUrl)
+           throws IOException
+    {
+        UcbTrace ret = new UcbTrace(ucbUrl, new ArrayList<Exchange>());
+
+        ret.out = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new FileOutputStream(file)),
+                        UTF8));
+        CatalogSnapshot.line(ret.out, MAGIC, VERSION, ucbUrl);
+
+        return ret;
+    }
+
+    /**
+     * Read a trace in.
+     *
+     * @param file          Trace file
+     * @return the trace
+     * @throws IOException if it can't be read, or isn't a trace
+     */
+    public static UcbTrace load(final File file) throws IOException
+    {
+        try(BufferedReader r = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(new FileInputStream(file)),
+                        UTF8))) {
+            String[] header = CatalogSnapshot.split(r.readLine());
+
+            if((header.length != 3) || !MAGIC.equals(header[0]) ||
+               !VERSION.equals(header[1])) {
+                throw new IOException(file + " isn't a UCB trace");
+            }
+
+            List<Exchange> exchanges = new ArrayList<>();
+            String line;
+
+            while((line = r.readLine()) != null) {
+                String[] f = CatalogSnapshot.split(line);
+
+                if((f.length != 9) || !"X".equals(f[0])) {
+                    throw new IOException("Bad line in " + file + ": " +
+                                          line);
+                }
+
+                try {
+                    exchanges.add(new Exchange(f[1], f[2], f[3],
+                                               Integer.parseInt(f[4]),
+                                               Long.parseLong(f[5]),
+                                               f[6], f[7], f[8]));
+                } catch(NumberFormatException e) {
+                    throw new IOException("Bad line in " + file + ": " +
+                                          line, e);
+                }
+            }
+
+            return new UcbTrace(header[2], exchanges);
+        }
+    }
+
+    /**
+     * Write one exchange.  Safe to call from many threads.
+     *
+     * @param x             What happened
+     * @throws IOException if it can't be written
+     */
+    public synchronized void add(final Exchange x) throws IOException
+    {
+        if(out == null) {
+            throw new IOException("Trace is not open for writing");
+        }
+
+        CatalogSnapshot.line(out, "X", x.method, x.uri, x.bodyHash,
+                             String.valueOf(x.status),
+                             String.valueOf(x.millis),
+                             x.contentType, x.location, x.body);
+    }
+
+    /**
+     * Finish writing, if we were.  The file isn't readable until this
+     * is done.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Short hash of a request body, so requests to the same URL can be
+     * told apart on play back.
+     *
+     * @param body          Request body
+     * @return the hash, or "" for no body
+     */
+    public static String hash(final byte[] body)
+    {
+        if((body == null) || (body.length == 0)) {
+            return "";
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            StringBuilder sb = new StringBuilder();
+
+            for(int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i] & 0xff));
+            }
+
+            return sb.toString();
+        } catch(NoSuchAlgorithmException e) {
+            // Every JVM has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
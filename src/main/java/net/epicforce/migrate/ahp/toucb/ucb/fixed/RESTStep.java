@@ -8,10 +8,13 @@ package net.epicforce.migrate.ahp.toucb.ucb.fixed;
  * ..... But no means to save it :P  It just gets thrown out.
  * This class overrides 'update' so we can fix it.  Its kind
  * of hacky to avoid 'downclassing'.
+ *
+ * It can also create a step outright (see create), so a new step
+ * doesn't need job.createStep followed by an update to get its
+ * pre condition and friends saved.
  */
 
 import com.urbancode.ubuild.client.AbstractPersistent;
-import com.urbancode.ubuild.client.rest.HttpHelper;
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScript;
 import com.urbancode.ubuild.client.step.Step;
 import com.urbancode.ubuild.client.workflow.Job;
@@ -19,6 +22,7 @@ import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.jettison.json.JSONObject;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
 
 
 public class RESTStep
@@ -51,7 +55,27 @@ public class RESTStep
     {
         RESTStepParser parser = new RESTStepParser();
         JSONObject json = parser.toJSON(this);
-        new HttpHelper().sendPut("/rest2/jobs/" + getJob().getId() + "/steps",
-                                 getId(), json.toString());
+        String url = "/rest2/jobs/" + getJob().getId() + "/steps";
+        new UcbClient(url).sendJsonPut(url, getId(), json.toString());
+    }
+
+    /**
+     * POST this step to its job, everything set, in one request.
+     *
+     * The job's own list of steps is left alone; the caller has to
+     * keep its sequence numbers straight (see DummyStep).
+     *
+     * @return the new step's UCB ID
+     * @throws Exception on any failure
+     */
+    public String create()
+      throws Exception
+    {
+        RESTStepParser parser = new RESTStepParser();
+        JSONObject json = parser.toJSON(this);
+        String url = "/rest2/jobs/" + getJob().getId() + "/steps";
+
+        return new UcbClient(url).sendPostReturnObject(json.toString())
+                                 .getString("id");
     }
 }
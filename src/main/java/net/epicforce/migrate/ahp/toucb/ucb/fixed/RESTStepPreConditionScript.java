@@ -10,9 +10,9 @@ package net.epicforce.migrate.ahp.toucb.ucb.fixed;
  */
 
 import com.urbancode.ubuild.client.AbstractPersistent;
-import com.urbancode.ubuild.client.rest.HttpHelper;
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScript;
 import org.codehaus.jettison.json.JSONObject;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
 
 
 public class RESTStepPreConditionScript
@@ -30,8 +30,8 @@ public class RESTStepPreConditionScript
     {
         RESTStepPreConditionScriptParser parser = new RESTStepPreConditionScriptParser();
         JSONObject object = parser.toJSON(this);
-        HttpHelper helper = new HttpHelper();
-        helper.sendPut("/rest2/stepPreConditionScripts", getId(), object.toString());
+        UcbClient helper = new UcbClient(RESTStepPreConditionScriptFactory.URL);
+        helper.sendJsonPut(RESTStepPreConditionScriptFactory.URL, getId(), object.toString());
     }
 
     // RESTStepPReConditionScriptFactory needs this
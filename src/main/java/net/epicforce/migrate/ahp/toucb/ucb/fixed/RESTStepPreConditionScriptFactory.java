@@ -9,13 +9,13 @@ package net.epicforce.migrate.ahp.toucb.ucb.fixed;
  * @author IBM
  */
 
-import com.urbancode.ubuild.client.rest.HttpHelper;
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScript;
 import com.urbancode.ubuild.client.script.precondition.step.StepPreConditionScriptFactory;
 import java.util.ArrayList;
 import java.util.List;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONObject;
+import net.epicforce.migrate.ahp.toucb.ucb.UcbClient;
 
 public class RESTStepPreConditionScriptFactory
   implements StepPreConditionScriptFactory
@@ -26,8 +26,8 @@ public class RESTStepPreConditionScriptFactory
     public StepPreConditionScript getPreConditionScriptById(String id)
       throws Exception
     {
-        HttpHelper helper = new HttpHelper();
-        JSONObject object = new JSONObject(helper.sendGet(URL, id));
+        UcbClient helper = new UcbClient(URL);
+        JSONObject object = new JSONObject(helper.sendJsonGet(URL, id));
 
         RESTStepPreConditionScriptParser parser = new RESTStepPreConditionScriptParser();
         StepPreConditionScript result = parser.toObject(object);
@@ -46,8 +46,8 @@ public class RESTStepPreConditionScriptFactory
     {
         List<StepPreConditionScript> result = new ArrayList();
 
-        HttpHelper helper = new HttpHelper();
-        JSONArray array = new JSONArray(helper.sendGet(URL, null));
+        UcbClient helper = new UcbClient(URL);
+        JSONArray array = new JSONArray(helper.sendJsonGet(URL, null));
 
         RESTStepPreConditionScriptParser parser = new RESTStepPreConditionScriptParser();
         result = parser.parseList(array);
@@ -63,8 +63,8 @@ public class RESTStepPreConditionScriptFactory
         RESTStepPreConditionScriptParser parser = new RESTStepPreConditionScriptParser();
         JSONObject object = parser.toJSON(preConditionPreConditionScript);
 
-        HttpHelper helper = new HttpHelper();
-        JSONObject response = new JSONObject(helper.sendPost(URL, object.toString()));
+        UcbClient helper = new UcbClient(URL);
+        JSONObject response = new JSONObject(helper.sendJsonPost(URL, object.toString()));
     
         preConditionPreConditionScript.setId(response.getString("id"));
 
@@ -74,7 +74,7 @@ public class RESTStepPreConditionScriptFactory
     public void deletePreConditionScript(StepPreConditionScript script)
       throws Exception
     {
-        HttpHelper helper = new HttpHelper();
-        helper.sendDelete(URL, script.getId());
+        UcbClient helper = new UcbClient(URL);
+        helper.sendJsonDelete(URL, script.getId());
     }
 }
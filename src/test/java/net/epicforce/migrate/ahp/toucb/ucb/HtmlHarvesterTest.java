@@ -0,0 +1,283 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * HtmlHarvesterTest.java
+ *
+ * HtmlHarvester only ever looks at part of the page at a time, so the
+ * interesting cases are matches that start in one chunk and end in the
+ * next.  These build pages that cross several chunk edges and check
+ * that streaming finds what a plain Matcher over the whole page finds.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HtmlHarvesterTest
+{
+    /*
+     * Same shape as the notification list pages.
+     */
+    private static final String PATTERN =
+        "viewTemplate\\?template_id=(-?\\d+)\"\\s*>([^<]+)</a>";
+
+    /*
+     * HtmlHarvester's CHUNK.  The page is read this many characters
+     * at a time, so matches are placed around multiples of it.
+     */
+    private static final int CHUNK = 16384;
+
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * Remembers everything it's told, as "id=name", and stops after
+     * limit matches if there is one.
+     */
+    private static class ListSink implements HtmlHarvester.Sink
+    {
+        private final List<String>  found = new ArrayList<>();
+        private final int           limit;
+
+        private ListSink(int limit)
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean found(String id, String name)
+        {
+            found.add(id + "=" + name);
+            return (limit <= 0) || (found.size() < limit);
+        }
+    }
+
+    /*
+     * Hands out a few characters at a time, so the harvester's reads
+     * don't line up with anything.
+     */
+    private static class TrickleReader extends Reader
+    {
+        private final Reader    in;
+        private final int       most;
+
+        private TrickleReader(final String s, int most)
+        {
+            this.in = new StringReader(s);
+            this.most = most;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            return in.read(cbuf, off, Math.min(len, most));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    /*
+     * One entry of a list page.
+     */
+    private static String link(int id, final String name)
+    {
+        return "<tr><td><a href=\"/tasks/admin/templates/TemplateTasks/" +
+               "viewTemplate?template_id=" + id + "\" >" + name +
+               "</a></td></tr>\n";
+    }
+
+    /*
+     * n characters of page that match nothing.
+     */
+    private static String filler(int n)
+    {
+        StringBuilder sb = new StringBuilder(n);
+
+        while(sb.length() < n) {
+            sb.append("<td>&nbsp;</td>\n");
+        }
+
+        sb.setLength(n);
+        return sb.toString();
+    }
+
+    /*
+     * What a Matcher over the whole page finds.
+     */
+    private static List<String> expected(final String page)
+    {
+        List<String> ret = new ArrayList<>();
+        Matcher m = Pattern.compile(PATTERN).matcher(page);
+
+        while(m.find()) {
+            ret.add(m.group(1) + "=" + m.group(2));
+        }
+
+        return ret;
+    }
+
+    private static List<String> harvest(final Reader in) throws IOException
+    {
+        ListSink sink = new ListSink(0);
+
+        int count = HtmlHarvester.harvest(in, HtmlHarvester.compile(PATTERN),
+                                          sink
+        );
+
+        assertEquals(sink.found.size(), count);
+        return sink.found;
+    }
+
+    @Test
+    public void emptyPage() throws IOException
+    {
+        assertEquals(0, harvest(new StringReader("")).size());
+        assertEquals(0, harvest(new StringReader(filler(3 * CHUNK))).size());
+    }
+
+    @Test
+    public void shortPage() throws IOException
+    {
+        String page = "<table>" + link(1, "One") + link(-2, "Two") +
+                      "</table>";
+
+        assertEquals(expected(page), harvest(new StringReader(page)));
+        assertEquals(2, expected(page).size());
+    }
+
+    /*
+     * A link starting just before each place the page could be cut --
+     * the chunk edges, and a maxMatch (default 4096) short of them,
+     * which is as far as the harvester searches before reading more --
+     * and carrying on past it.
+     */
+    @Test
+    public void matchesAcrossChunks() throws IOException
+    {
+        int[] cuts = { CHUNK - 4096, CHUNK, 2 * CHUNK - 4096, 2 * CHUNK,
+                       3 * CHUNK - 4096, 3 * CHUNK };
+
+        for(int cut : cuts) {
+            for(int before = 0; before < 120; before += 3) {
+                String page = filler(cut - before) + link(1, "Straddles") +
+                              filler(CHUNK) + link(2, "After");
+                List<String> got = harvest(new StringReader(page));
+
+                assertEquals("cut " + cut + " before " + before,
+                             expected(page), got);
+                assertEquals(2, got.size());
+            }
+        }
+    }
+
+    /*
+     * Long page of links with no filler, read in odd sized pieces, so
+     * matches land on both sides of wherever the harvester decides is
+     * safe to search up to.
+     */
+    @Test
+    public void longPageOddReads() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for(int i = 0; sb.length() < 10 * CHUNK; i++) {
+            sb.append(link(i, "Template number " + i));
+        }
+
+        String page = sb.toString();
+        List<String> want = expected(page);
+
+        assertEquals(want, harvest(new StringReader(page)));
+        assertEquals(want, harvest(new TrickleReader(page, 1)));
+        assertEquals(want, harvest(new TrickleReader(page, 997)));
+        assertEquals(want, harvest(new TrickleReader(page, CHUNK - 1)));
+    }
+
+    /*
+     * A long name is still one match, as long as it's under
+     * ucb.harvest.maxMatch.
+     */
+    @Test
+    public void longNameAcrossChunks() throws IOException
+    {
+        StringBuilder name = new StringBuilder();
+
+        while(name.length() < 3000) {
+            name.append("Long name ");
+        }
+
+        String page = filler(CHUNK - 100) + link(7, name.toString()) +
+                      filler(CHUNK) + link(8, "Short");
+        List<String> got = harvest(new StringReader(page));
+
+        assertEquals(2, got.size());
+        assertEquals("7=" + name, got.get(0));
+        assertEquals("8=Short", got.get(1));
+    }
+
+    /*
+     * The sink can stop the harvest, and isn't told anything after.
+     */
+    @Test
+    public void stopEarly() throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for(int i = 0; sb.length() < 4 * CHUNK; i++) {
+            sb.append(link(i, "T" + i));
+        }
+
+        ListSink sink = new ListSink(3);
+        int count = HtmlHarvester.harvest(new StringReader(sb.toString()),
+                                          HtmlHarvester.compile(PATTERN),
+                                          sink
+        );
+
+        assertEquals(3, count);
+        assertEquals(3, sink.found.size());
+        assertEquals("2=T2", sink.found.get(2));
+    }
+
+    /*
+     * Stopping on the very first match of a later chunk.
+     */
+    @Test
+    public void stopEarlyAcrossChunks() throws IOException
+    {
+        String page = filler(2 * CHUNK - 10) + link(1, "First") +
+                      link(2, "Second");
+        ListSink sink = new ListSink(1);
+
+        assertEquals(1, HtmlHarvester.harvest(new StringReader(page),
+                                              HtmlHarvester.compile(PATTERN),
+                                              sink));
+        assertEquals("1=First", sink.found.get(0));
+    }
+
+    @Test
+    public void compileCaches()
+    {
+        assertSame(HtmlHarvester.compile(PATTERN),
+                   HtmlHarvester.compile(PATTERN));
+    }
+}
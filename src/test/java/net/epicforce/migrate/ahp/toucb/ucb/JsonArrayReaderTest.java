@@ -0,0 +1,199 @@
+package net.epicforce.migrate.ahp.toucb.ucb;
+
+/*
+ * JsonArrayReaderTest.java
+ *
+ * JsonArrayReader only finds where each object starts and ends; what's
+ * inside is Jettison's problem.  So these are about the edges: nesting,
+ * strings with braces and quotes in them, objects bigger than the read
+ * buffer, and stopping part way through.
+ *
+ * @author sconley (sconley@epicforce.net)
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.codehaus.jettison.json.JSONObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonArrayReaderTest
+{
+    /*****************************************************************
+     * INNER CLASSES
+     ****************************************************************/
+
+    /*
+     * Hands out one character at a time.
+     */
+    private static class TrickleReader extends Reader
+    {
+        private final Reader    in;
+
+        private TrickleReader(final String s)
+        {
+            this.in = new StringReader(s);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            return in.read(cbuf, off, Math.min(len, 1));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+    /*****************************************************************
+     * METHODS
+     ****************************************************************/
+
+    private static JsonArrayReader reader(final String json)
+    {
+        return new JsonArrayReader(new StringReader(json));
+    }
+
+    /*
+     * The next object's name.
+     */
+    private static String name(final JsonArrayReader in) throws Exception
+    {
+        JSONObject obj = in.next();
+
+        return (obj == null) ? null : obj.getString("name");
+    }
+
+    @Test
+    public void empty() throws Exception
+    {
+        assertNull(reader("[]").next());
+        assertNull(reader("  [ \n ]  ").next());
+    }
+
+    @Test
+    public void flat() throws Exception
+    {
+        JsonArrayReader in = reader("[{\"name\":\"a\"}, {\"name\":\"b\"}]");
+
+        assertEquals("a", name(in));
+        assertEquals("b", name(in));
+        assertNull(in.next());
+
+        // And stays at the end
+        assertNull(in.next());
+    }
+
+    @Test
+    public void nested() throws Exception
+    {
+        String json =
+            "[\n" +
+            "  {\"name\":\"a\", \"props\":[{\"key\":\"x\",\"value\":\"1\"}," +
+            "[1,[2,{}]]], \"job\":{\"inner\":{\"deep\":[]}}},\n" +
+            "  {\"name\":\"b\", \"empty\":{}, \"list\":[]}\n" +
+            "]";
+        JsonArrayReader in = reader(json);
+
+        assertEquals("a", name(in));
+        assertEquals("b", name(in));
+        assertNull(in.next());
+    }
+
+    /*
+     * Braces, brackets, commas and quotes inside strings don't count.
+     */
+    @Test
+    public void escapedQuotes() throws Exception
+    {
+        String json =
+            "[{\"name\":\"say \\\"}]\\\" twice\", \"x\":\"{[,\"}," +
+            "{\"name\":\"ends in a backslash \\\\\"}," +
+            "{\"name\":\"c\"}]";
+        JsonArrayReader in = reader(json);
+
+        assertEquals("say \"}]\" twice", name(in));
+        assertEquals("ends in a backslash \\", name(in));
+        assertEquals("c", name(in));
+        assertNull(in.next());
+    }
+
+    /*
+     * Objects bigger than the read buffer, and reads of one character,
+     * so nothing lines up with where the reader refills.
+     */
+    @Test
+    public void acrossBuffers() throws Exception
+    {
+        StringBuilder big = new StringBuilder();
+
+        while(big.length() < 20000) {
+            big.append("{}[]\\\" ");
+        }
+
+        String json = "[{\"name\":\"big\", \"v\":\"" + big + "\"}," +
+                      "{\"name\":\"after\"}]";
+
+        JsonArrayReader in = reader(json);
+
+        assertEquals("big", name(in));
+        assertEquals("after", name(in));
+        assertNull(in.next());
+
+        in = new JsonArrayReader(new TrickleReader(json));
+
+        assertEquals("big", name(in));
+        assertEquals("after", name(in));
+        assertNull(in.next());
+    }
+
+    /*
+     * Nothing past the object asked for is looked at, so a caller that
+     * stops early never trips over the rest.
+     */
+    @Test
+    public void stopEarly() throws Exception
+    {
+        JsonArrayReader in = reader("[{\"name\":\"a\"}, this is not JSON");
+
+        assertEquals("a", name(in));
+    }
+
+    @Test(expected = UcbException.class)
+    public void notAnArray() throws Exception
+    {
+        reader("{\"name\":\"a\"}").next();
+    }
+
+    @Test(expected = UcbException.class)
+    public void notObjects() throws Exception
+    {
+        reader("[1, 2]").next();
+    }
+
+    @Test(expected = UcbException.class)
+    public void truncated() throws Exception
+    {
+        JsonArrayReader in = reader("[{\"name\":\"a\"}, {\"name\":\"b");
+
+        assertEquals("a", name(in));
+        in.next();
+    }
+
+    @Test(expected = UcbException.class)
+    public void missingComma() throws Exception
+    {
+        JsonArrayReader in = reader("[{\"name\":\"a\"} {\"name\":\"b\"}]");
+
+        assertEquals("a", name(in));
+        in.next();
+    }
+}